@@ -30,6 +30,7 @@ import ee.ria.xroad.common.conf.globalconf.GlobalConf;
 import ee.ria.xroad.common.messagelog.MessageLogProperties;
 import ee.ria.xroad.common.signature.TimestampVerifier;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -41,7 +42,14 @@ import org.bouncycastle.tsp.TimeStampToken;
 
 import java.io.InputStream;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
 import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
@@ -53,6 +61,12 @@ import static ee.ria.xroad.proxy.messagelog.TimestamperUtil.getTimestampResponse
 @RequiredArgsConstructor
 abstract class AbstractTimestampRequest {
 
+    /** Threads sending the time-stamp requests, shared by all the time-stamp requests. */
+    private static final ExecutorService TSP_CLIENTS = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("timestamper-client-%d")
+            .setDaemon(true)
+            .build());
+
     protected final Long[] logRecords;
 
     abstract byte[] getRequestData() throws Exception;
@@ -65,6 +79,14 @@ abstract class AbstractTimestampRequest {
         return makeTsRequest(tsRequest, tspUrls);
     }
 
+    @Getter
+    @RequiredArgsConstructor
+    private static final class TsResponse {
+        private final String url;
+        private final TimeStampResponse response;
+        private final Exception error;
+    }
+
     @Getter
     public static class TsRequest {
         private final InputStream inputStream;
@@ -76,24 +98,60 @@ abstract class AbstractTimestampRequest {
         }
     }
 
+    /**
+     * Sends the time-stamp request to the time-stamping providers in the given order. The next provider is tried
+     * when the previous one fails or, if hedging is enabled, does not respond within the hedging delay. The first
+     * valid response is used; the requests still in progress are abandoned.
+     */
     protected Timestamper.TimestampResult makeTsRequest(TimeStampRequest tsRequest,
                                       List<String> tspUrls) throws Exception {
         log.debug("tspUrls: {}", tspUrls);
-        for (String url: tspUrls) {
-            try {
-                log.debug("Sending time-stamp request to {}", url);
 
-                TsRequest req = new TsRequest(TimestamperUtil.makeTsRequest(tsRequest, url), url);
+        CompletionService<TsResponse> responses = new ExecutorCompletionService<>(TSP_CLIENTS);
+        List<Future<TsResponse>> requests = new ArrayList<>();
+
+        try {
+            int running = 0;
+
+            while (running > 0 || requests.size() < tspUrls.size()) {
+                if (running == 0) {
+                    requests.add(submit(responses, tsRequest, tspUrls.get(requests.size())));
+                    running++;
+                }
 
-                TimeStampResponse tsResponse = getTimestampResponse(req.getInputStream());
-                log.info("tsresponse {}", tsResponse);
+                Future<TsResponse> completed = waitForResponse(responses, requests.size() < tspUrls.size()
+                        ? TspStatistics.getHedgingDelay(tspUrls.get(requests.size() - 1)) : -1);
 
-                verify(tsRequest, tsResponse);
+                if (completed == null) {
+                    String url = tspUrls.get(requests.size());
 
-                return result(tsResponse, url);
+                    log.info("No time-stamp response within hedging delay, sending the request also to {}", url);
+                    TspStatistics.hedged();
 
-            } catch (Exception ex) {
-                log.error("Failed to get time stamp from " + url, ex);
+                    requests.add(submit(responses, tsRequest, url));
+                    running++;
+
+                    continue;
+                }
+
+                running--;
+
+                TsResponse response = completed.get();
+                Exception error = response.getError();
+
+                if (error == null) {
+                    try {
+                        return result(response.getResponse(), response.getUrl());
+                    } catch (Exception ex) {
+                        error = ex;
+                    }
+                }
+
+                log.error("Failed to get time stamp from " + response.getUrl(), error);
+            }
+        } finally {
+            for (Future<TsResponse> request : requests) {
+                request.cancel(true);
             }
         }
 
@@ -102,6 +160,39 @@ abstract class AbstractTimestampRequest {
                 "Failed to get time stamp from any time-stamping providers");
     }
 
+    private Future<TsResponse> submit(CompletionService<TsResponse> responses, TimeStampRequest tsRequest,
+            String url) {
+        return responses.submit(() -> sendTsRequest(tsRequest, url));
+    }
+
+    private static Future<TsResponse> waitForResponse(CompletionService<TsResponse> responses, long hedgingDelay)
+            throws InterruptedException {
+        return hedgingDelay < 0 ? responses.take() : responses.poll(hedgingDelay, TimeUnit.MILLISECONDS);
+    }
+
+    private TsResponse sendTsRequest(TimeStampRequest tsRequest, String url) {
+        long start = System.currentTimeMillis();
+
+        try {
+            log.debug("Sending time-stamp request to {}", url);
+
+            TsRequest req = new TsRequest(TimestamperUtil.makeTsRequest(tsRequest, url), url);
+
+            TimeStampResponse tsResponse = getTimestampResponse(req.getInputStream());
+            log.info("tsresponse {}", tsResponse);
+
+            verify(tsRequest, tsResponse);
+
+            TspStatistics.success(url, System.currentTimeMillis() - start);
+
+            return new TsResponse(url, tsResponse, null);
+        } catch (Exception ex) {
+            TspStatistics.failure(url);
+
+            return new TsResponse(url, null, ex);
+        }
+    }
+
     private TimeStampRequest createTimestampRequest(byte[] data)
             throws Exception {
         TimeStampRequestGenerator reqgen = new TimeStampRequestGenerator();
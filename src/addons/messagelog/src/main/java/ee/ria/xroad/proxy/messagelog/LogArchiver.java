@@ -33,8 +33,10 @@ import ee.ria.xroad.common.messagelog.TimestampRecord;
 import ee.ria.xroad.common.messagelog.archive.DigestEntry;
 import ee.ria.xroad.common.messagelog.archive.LogArchiveBase;
 import ee.ria.xroad.common.messagelog.archive.LogArchiveWriter;
+import ee.ria.xroad.common.messagelog.archive.PreparedAsicContainer;
 
 import akka.actor.UntypedAbstractActor;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import lombok.RequiredArgsConstructor;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
@@ -51,11 +53,26 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
+import static ee.ria.xroad.common.messagelog.MessageLogProperties.getArchiveFetchSize;
 import static ee.ria.xroad.common.messagelog.MessageLogProperties.getArchiveTransactionBatchSize;
 import static ee.ria.xroad.common.messagelog.MessageLogProperties.getArchiveTransferCommand;
+import static ee.ria.xroad.common.messagelog.MessageLogProperties.getArchiveWorkers;
+import static ee.ria.xroad.common.messagelog.MessageLogProperties.isArchiveStreamingFetchEnabled;
 import static ee.ria.xroad.proxy.messagelog.MessageLogDatabaseCtx.doInTransaction;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
@@ -63,6 +80,15 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
 /**
  * Reads all non-archived time-stamped records from the database, writes them
  * to archive file and marks the records as archived.
+ *
+ * The ASiC containers of the message records are built and digested by a pool of
+ * worker threads, while the actor thread streams the records from the database and
+ * writes the prepared containers to the archive in the original order, so the archive
+ * contents and the linking info hash chain do not depend on the number of workers.
+ *
+ * With the streaming fetch enabled, the records are read through a forward-only JDBC cursor
+ * instead of Hibernate entities and the archived records are marked with set-based updates
+ * by record id, so the memory used does not depend on the number of records archived.
  */
 @Slf4j
 @RequiredArgsConstructor
@@ -70,7 +96,12 @@ public class LogArchiver extends UntypedAbstractActor {
 
     private static final int MAX_RECORDS_IN_ARCHIVE = 10;
     private static final int MAX_RECORDS_IN_BATCH = 360;
+    private static final int MAX_PENDING_PER_WORKER = 4;
     private static final String PROPERTY_NAME_ARCHIVED = "archived";
+    private static final String UPDATE_ARCHIVED_BY_ID = "UPDATE logrecord SET archived = true WHERE id = ANY(?)";
+    // HSQLDB (used in tests) does not support comparing with an array parameter using ANY
+    private static final String UPDATE_ARCHIVED_BY_ID_UNNEST =
+            "UPDATE logrecord SET archived = true WHERE id IN (UNNEST(?))";
 
     public static final String START_ARCHIVING = "doArchive";
 
@@ -82,21 +113,33 @@ public class LogArchiver extends UntypedAbstractActor {
         log.trace("onReceive({})", message);
 
         if (START_ARCHIVING.equals(message)) {
+            final int workerCount = getArchiveWorkers();
+            final ExecutorService workers = Executors.newFixedThreadPool(workerCount, new ThreadFactoryBuilder()
+                    .setNameFormat("log-archiver-worker-%d")
+                    .setDaemon(true)
+                    .build());
+            final int maxPending = workerCount * MAX_PENDING_PER_WORKER;
+            final boolean streaming = isArchiveStreamingFetchEnabled();
             try {
                 Long maxTimestampId = doInTransaction(session -> getMaxTimestampId(session));
                 if (maxTimestampId != null) {
-                    while (handleArchive(maxTimestampId)) {
+                    while (streaming
+                            ? handleStreamingArchive(maxTimestampId, workers, maxPending)
+                            : handleArchive(maxTimestampId, workers, maxPending)) {
                     }
                 }
             } catch (Exception ex) {
                 log.error("Failed to archive log records", ex);
+            } finally {
+                workers.shutdownNow();
             }
         } else {
             unhandled(message);
         }
     }
 
-    private boolean handleArchive(long maxTimestampId) throws Exception {
+    private boolean handleArchive(long maxTimestampId, ExecutorService workers, int maxPending)
+            throws Exception {
         return doInTransaction(session -> {
             final List<TimestampRecord> batch =
                     getNonArchivedTimestampRecords(session, MAX_RECORDS_IN_BATCH, maxTimestampId);
@@ -111,37 +154,41 @@ public class LogArchiver extends UntypedAbstractActor {
             final int limit = getArchiveTransactionBatchSize();
             log.info("Archiving log records...");
 
+            ArchivePipeline pipeline = null;
             try (LogArchiveWriter archiveWriter = createLogArchiveWriter(session)) {
+                pipeline = new ArchivePipeline(archiveWriter, workers, maxPending, record -> evict(session, record));
+
                 for (TimestampRecord ts : batch) {
 
                     try (Stream<MessageRecord> records = getNonArchivedMessageRecords(session, ts.getId())) {
+                        final ArchivePipeline messagePipeline = pipeline;
                         recordsArchived += records.peek(record -> {
                             try {
-                                if (archiveWriter.write(record)) {
-                                    runTransferCommand(getArchiveTransferCommand());
-                                }
-                                //evict record from persistence context to avoid running out of memory
-                                session.detach(record);
+                                messagePipeline.submit(record);
                             } catch (Exception e) {
                                 throw new CodedException(ErrorCodes.X_INTERNAL_ERROR, e);
                             }
                         }).count();
 
-                        archiveWriter.write(ts);
+                        pipeline.submit(ts);
                         recordsArchived++;
-                        session.flush();
-                        session.detach(ts);
                     }
 
                     if (recordsArchived >= limit) {
+                        pipeline.drain();
                         log.info("Archived {} log records in {} ms", recordsArchived,
                                 System.currentTimeMillis() - start);
                         return true;
                     }
                 }
+
+                pipeline.drain();
             } catch (Exception e) {
                 throw new CodedException(ErrorCodes.X_INTERNAL_ERROR, e);
             } finally {
+                if (pipeline != null) {
+                    pipeline.cancel();
+                }
                 runTransferCommand(getArchiveTransferCommand());
             }
 
@@ -152,6 +199,76 @@ public class LogArchiver extends UntypedAbstractActor {
         });
     }
 
+    private boolean handleStreamingArchive(long maxTimestampId, ExecutorService workers, int maxPending)
+            throws Exception {
+        return doInTransaction(session -> session.doReturningWork(connection -> {
+            long start = System.currentTimeMillis();
+            int recordsArchived = 0;
+            final int limit = getArchiveTransactionBatchSize();
+            final int fetchSize = getArchiveFetchSize();
+
+            ArchivePipeline pipeline = null;
+            final StreamingLogArchiveBase archiveBase = new StreamingLogArchiveBase(session, connection, fetchSize);
+            try (LogRecordCursor cursor = new LogRecordCursor(connection, maxTimestampId, MAX_RECORDS_IN_BATCH,
+                    fetchSize);
+                    LogArchiveWriter archiveWriter = new LogArchiveWriter(getArchivePath(), archiveBase)) {
+                // The records read through the cursor are not attached to the session
+                pipeline = new ArchivePipeline(archiveWriter, workers, maxPending, record -> { });
+
+                LogRecord record = cursor.next();
+                if (record == null) {
+                    log.info("No records to be archived at this time");
+                    return false;
+                }
+
+                log.info("Archiving log records...");
+
+                for (; record != null; record = cursor.next()) {
+                    recordsArchived++;
+
+                    if (record instanceof MessageRecord) {
+                        pipeline.submit((MessageRecord) record);
+                    } else {
+                        pipeline.submit((TimestampRecord) record);
+
+                        if (recordsArchived >= limit) {
+                            pipeline.drain();
+                            archiveBase.flush();
+                            log.info("Archived {} log records in {} ms", recordsArchived,
+                                    System.currentTimeMillis() - start);
+                            return true;
+                        }
+                    }
+                }
+
+                pipeline.drain();
+                archiveBase.flush();
+
+                log.info("Archived {} log records in {} ms", recordsArchived, System.currentTimeMillis() - start);
+
+                //try to continue if the cursor was full (there might be more)
+                return cursor.getTimestampCount() == MAX_RECORDS_IN_BATCH;
+            } catch (Exception e) {
+                throw new CodedException(ErrorCodes.X_INTERNAL_ERROR, e);
+            } finally {
+                if (pipeline != null) {
+                    pipeline.cancel();
+                }
+                if (recordsArchived > 0) {
+                    runTransferCommand(getArchiveTransferCommand());
+                }
+            }
+        }));
+    }
+
+    private static void evict(Session session, LogRecord record) {
+        if (record instanceof TimestampRecord) {
+            session.flush();
+        }
+        //evict record from persistence context to avoid running out of memory
+        session.detach(record);
+    }
+
     private LogArchiveWriter createLogArchiveWriter(Session session) {
         return new LogArchiveWriter(
                 getArchivePath(),
@@ -259,6 +376,103 @@ public class LogArchiver extends UntypedAbstractActor {
         }
     }
 
+    /**
+     * Queue of records waiting to be written to the archive. Message record containers are prepared
+     * by the workers in parallel, and all pending writes are completed by the thread owning the session
+     * in the order the records were submitted. Records with attachments are streamed to the archive
+     * on the session thread, since the attachment is read from the database and may be large.
+     */
+    private final class ArchivePipeline {
+
+        private final LogArchiveWriter archiveWriter;
+        private final ExecutorService workers;
+        private final int maxPending;
+        private final Consumer<LogRecord> afterWrite;
+
+        private final Deque<PendingWrite> pending = new ArrayDeque<>();
+        private final Deque<Future<?>> preparing = new ArrayDeque<>();
+
+        ArchivePipeline(LogArchiveWriter archiveWriter, ExecutorService workers, int maxPending,
+                Consumer<LogRecord> afterWrite) {
+            this.archiveWriter = archiveWriter;
+            this.workers = workers;
+            this.maxPending = Math.max(1, maxPending);
+            this.afterWrite = afterWrite;
+        }
+
+        void submit(MessageRecord record) throws Exception {
+            if (record.getAttachment() != null) {
+                enqueue(() -> writeMessageRecord(record));
+            } else {
+                final Future<PreparedAsicContainer> container =
+                        workers.submit(() -> PreparedAsicContainer.prepare(record));
+                preparing.addLast(container);
+                enqueue(() -> writePreparedContainer(getPrepared(container)));
+            }
+        }
+
+        void submit(TimestampRecord ts) throws Exception {
+            enqueue(() -> writeTimestampRecord(ts));
+        }
+
+        void drain() throws Exception {
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+        }
+
+        void cancel() {
+            pending.clear();
+            preparing.forEach(f -> f.cancel(true));
+            preparing.clear();
+        }
+
+        private void enqueue(PendingWrite write) throws Exception {
+            pending.addLast(write);
+            while (pending.size() > maxPending) {
+                writeNext();
+            }
+        }
+
+        private void writeNext() throws Exception {
+            pending.removeFirst().write();
+        }
+
+        private PreparedAsicContainer getPrepared(Future<PreparedAsicContainer> container) throws Exception {
+            try {
+                return container.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            } finally {
+                preparing.remove(container);
+            }
+        }
+
+        private void writeMessageRecord(MessageRecord record) throws Exception {
+            if (archiveWriter.write(record)) {
+                runTransferCommand(getArchiveTransferCommand());
+            }
+            afterWrite.accept(record);
+        }
+
+        private void writePreparedContainer(PreparedAsicContainer container) throws Exception {
+            if (archiveWriter.write(container)) {
+                runTransferCommand(getArchiveTransferCommand());
+            }
+            afterWrite.accept(container.getRecord());
+        }
+
+        private void writeTimestampRecord(TimestampRecord ts) throws Exception {
+            archiveWriter.write(ts);
+            afterWrite.accept(ts);
+        }
+    }
+
+    @FunctionalInterface
+    private interface PendingWrite {
+        void write() throws Exception;
+    }
+
     @Value
     private class HibernateLogArchiveBase implements LogArchiveBase {
 
@@ -295,4 +509,64 @@ public class LogArchiver extends UntypedAbstractActor {
                     ? DigestEntry.empty() : lastArchiveEntries.get(0);
         }
     }
+
+    /**
+     * Archive base for the streaming fetch. Collects the ids of the archived records and marks them
+     * archived with a single update per timestamp record, or more often if there are more message
+     * records than the fetch size.
+     */
+    private final class StreamingLogArchiveBase implements LogArchiveBase {
+
+        private final HibernateLogArchiveBase delegate;
+        private final Connection connection;
+        private final String updateArchived;
+        private final int maxPending;
+        private final List<Long> pending = new ArrayList<>();
+
+        StreamingLogArchiveBase(Session session, Connection connection, int maxPending) throws SQLException {
+            this.delegate = new HibernateLogArchiveBase(session);
+            this.connection = connection;
+            this.updateArchived = "PostgreSQL".equals(connection.getMetaData().getDatabaseProductName())
+                    ? UPDATE_ARCHIVED_BY_ID : UPDATE_ARCHIVED_BY_ID_UNNEST;
+            this.maxPending = Math.max(1, maxPending);
+        }
+
+        @Override
+        public void markArchiveCreated(DigestEntry lastArchive) throws Exception {
+            delegate.markArchiveCreated(lastArchive);
+        }
+
+        @Override
+        public void markRecordArchived(LogRecord logRecord) throws SQLException {
+            logRecord.setArchived(true);
+            pending.add(logRecord.getId());
+
+            if (logRecord instanceof TimestampRecord || pending.size() >= maxPending) {
+                flush();
+            }
+        }
+
+        @Override
+        public DigestEntry loadLastArchive() {
+            return delegate.loadLastArchive();
+        }
+
+        void flush() throws SQLException {
+            if (pending.isEmpty()) {
+                return;
+            }
+
+            try (PreparedStatement statement = connection.prepareStatement(updateArchived)) {
+                Array ids = connection.createArrayOf("BIGINT", pending.toArray());
+                try {
+                    statement.setArray(1, ids);
+                    statement.executeUpdate();
+                } finally {
+                    ids.free();
+                }
+            }
+
+            pending.clear();
+        }
+    }
 }
@@ -107,6 +107,9 @@ public class LogManager extends AbstractLogManager {
     private final ActorRef timestamper;
     private final ActorRef timestamperJob;
 
+    // Writes the message records in the write-behind mode, null if the mode is disabled
+    private final MessageRecordWriter messageRecordWriter;
+
     // package private for testing
     final ActorRef taskQueueRef;
     final ActorRef logArchiver;
@@ -115,11 +118,42 @@ public class LogManager extends AbstractLogManager {
     LogManager(JobManager jobManager) throws Exception {
         super(jobManager);
 
+        // The task queue loads the index from the database when it starts time-stamping
+        TimestampTaskIndex.reset();
+
         taskQueueRef = createTaskQueue();
         timestamper = createTimestamper();
         timestamperJob = createTimestamperJob();
         logArchiver = createArchiver(jobManager);
         logCleaner = createCleaner(jobManager);
+        messageRecordWriter = createMessageRecordWriter();
+    }
+
+    private MessageRecordWriter createMessageRecordWriter() throws Exception {
+        if (!MessageLogProperties.isWriteBehindEnabled()) {
+            return null;
+        }
+
+        if (shouldTimestampImmediately()) {
+            log.warn("Message log write-behind mode is not used, because messages are time-stamped immediately");
+
+            return null;
+        }
+
+        log.info("Writing message log records in write-behind mode with {} durability",
+                MessageLogProperties.getWriteBehindDurability());
+
+        MessageRecordWriter writer = new MessageRecordWriter();
+        writer.start();
+
+        return writer;
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        if (messageRecordWriter != null) {
+            messageRecordWriter.stop();
+        }
     }
 
     private ActorRef createTaskQueue() {
@@ -177,6 +211,40 @@ public class LogManager extends AbstractLogManager {
         }
     }
 
+    /**
+     * Logs the message in the write-behind mode. The reply is sent to the sender once the message record
+     * has been written according to the configured durability, so that the actor can meanwhile accept
+     * further messages. Records with attachments too large for the write-behind mode are saved directly.
+     */
+    private void logWriteBehind(LogMessage message) throws Exception {
+        verifyCanLogMessage(false);
+
+        MessageRecord logRecord;
+        if (message instanceof SoapLogMessage) {
+            logRecord = createMessageRecord((SoapLogMessage)message);
+        } else {
+            logRecord = createMessageRecord((RestLogMessage)message);
+        }
+
+        if (!messageRecordWriter.accepts(logRecord)) {
+            getSender().tell(saveMessageRecord(logRecord), getSelf());
+
+            return;
+        }
+
+        final ActorRef sender = getSender();
+        final ActorRef self = getSelf();
+
+        messageRecordWriter.write(logRecord).whenComplete((record, error) -> {
+            if (error == null) {
+                sender.tell(record, self);
+            } else {
+                sender.tell(error instanceof Exception ? error : new CodedException(X_LOGGING_FAILED_X, error),
+                        self);
+            }
+        });
+    }
+
     @Override
     protected TimestampRecord timestamp(Long messageRecordId) throws Exception {
         log.trace("timestamp({})", messageRecordId);
@@ -212,6 +280,8 @@ public class LogManager extends AbstractLogManager {
                 getSender().tell(statusMap, getSelf());
             } else if (message instanceof SetTimestampingStatusMessage) {
                 setTimestampingStatus((SetTimestampingStatusMessage)message);
+            } else if (message instanceof LogMessage && messageRecordWriter != null) {
+                logWriteBehind((LogMessage)message);
             } else {
                 super.onReceive(message);
             }
@@ -324,6 +394,8 @@ public class LogManager extends AbstractLogManager {
 
     protected MessageRecord saveMessageRecord(MessageRecord messageRecord) throws Exception {
         LogRecordManager.saveMessageRecord(messageRecord);
+        TimestampTaskIndex.add(messageRecord);
+
         return messageRecord;
     }
 
@@ -335,6 +407,7 @@ public class LogManager extends AbstractLogManager {
 
         TimestampRecord timestampRecord = createTimestampRecord(message);
         LogRecordManager.saveTimestampRecord(timestampRecord, message.getMessageRecords(), message.getHashChains());
+        TimestampTaskIndex.remove(message.getMessageRecords());
 
         return timestampRecord;
     }
@@ -0,0 +1,195 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.messagelog.LogRecord;
+import ee.ria.xroad.common.messagelog.MessageRecord;
+import ee.ria.xroad.common.messagelog.TimestampRecord;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Forward-only JDBC cursor over the non-archived time-stamped log records. Returns the message records of
+ * each timestamp record followed by the timestamp record itself, which is the order the records are archived
+ * in. The cursor covers at most the given number of timestamp records, and the rows are fetched from the
+ * database in chunks of the given fetch size, so the memory used does not depend on the number of records
+ * to be archived. The returned records are not attached to a Hibernate session.
+ */
+final class LogRecordCursor implements AutoCloseable {
+
+    private static final String SELECT_NON_ARCHIVED_RECORDS =
+            "SELECT t.id AS t_id, t.time AS t_time, t.timestamp AS t_timestamp,"
+                    + " t.hashchainresult AS t_hashchainresult, m.id AS m_id, m.time AS m_time, m.queryid,"
+                    + " m.message, m.signature, m.hashchain, m.hashchainresult, m.signaturehash,"
+                    + " m.timestamphashchain, m.response, m.memberclass, m.membercode, m.subsystemcode,"
+                    + " m.xrequestid, m.attachment"
+                    + " FROM logrecord t LEFT JOIN logrecord m ON m.timestamprecord = t.id AND m.archived = false"
+                    + " WHERE t.discriminator = 't' AND t.archived = false AND t.id <= ?"
+                    + " ORDER BY t.id";
+
+    private static final String SELECT_NON_ARCHIVED_TIMESTAMP_IDS =
+            "SELECT id FROM logrecord WHERE discriminator = 't' AND archived = false AND id <= ? ORDER BY id";
+
+    // The client identifier is not stored as such in the log record, the identifier fields are set separately
+    private static final ClientId PLACEHOLDER_CLIENT = ClientId.create("UNKNOWN", "UNKNOWN", "UNKNOWN");
+
+    private final int timestampCount;
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+
+    private TimestampRecord current;
+    private boolean rowPending;
+    private boolean exhausted;
+
+    /**
+     * Opens the cursor.
+     * @param connection the database connection, must not be in auto-commit mode for the fetch size to apply
+     * @param maxTimestampId the largest timestamp record id to be returned
+     * @param maxTimestamps the maximum number of timestamp records to be returned
+     * @param fetchSize the number of rows fetched from the database at a time
+     * @throws SQLException if the query fails
+     */
+    LogRecordCursor(Connection connection, long maxTimestampId, int maxTimestamps, int fetchSize)
+            throws SQLException {
+        long lastTimestampId = 0;
+        int count = 0;
+
+        try (PreparedStatement ids = connection.prepareStatement(SELECT_NON_ARCHIVED_TIMESTAMP_IDS)) {
+            ids.setMaxRows(maxTimestamps);
+            ids.setLong(1, maxTimestampId);
+
+            try (ResultSet rs = ids.executeQuery()) {
+                while (rs.next()) {
+                    lastTimestampId = rs.getLong(1);
+                    count++;
+                }
+            }
+        }
+
+        timestampCount = count;
+        statement = connection.prepareStatement(SELECT_NON_ARCHIVED_RECORDS, ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY);
+
+        try {
+            statement.setFetchSize(fetchSize);
+            statement.setLong(1, lastTimestampId);
+            resultSet = statement.executeQuery();
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of timestamp records covered by the cursor
+     */
+    int getTimestampCount() {
+        return timestampCount;
+    }
+
+    /**
+     * @return the next record to be archived or null if there are no more records
+     * @throws SQLException if reading the record fails
+     */
+    LogRecord next() throws SQLException {
+        while (true) {
+            if (!rowPending && !exhausted) {
+                rowPending = resultSet.next();
+                exhausted = !rowPending;
+            }
+
+            if (!rowPending) {
+                // The last timestamp record is returned after its message records
+                return takeCurrent();
+            }
+
+            if (current != null && current.getId() != resultSet.getLong("t_id")) {
+                return takeCurrent();
+            }
+
+            if (current == null) {
+                current = readTimestampRecord();
+            }
+
+            rowPending = false;
+            resultSet.getLong("m_id");
+
+            // Timestamp records without non-archived message records have a single row without a message record
+            if (!resultSet.wasNull()) {
+                return readMessageRecord(current);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            resultSet.close();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private TimestampRecord takeCurrent() {
+        TimestampRecord timestampRecord = current;
+        current = null;
+
+        return timestampRecord;
+    }
+
+    private TimestampRecord readTimestampRecord() throws SQLException {
+        TimestampRecord timestampRecord = new TimestampRecord();
+        timestampRecord.setId(resultSet.getLong("t_id"));
+        timestampRecord.setTime(resultSet.getLong("t_time"));
+        timestampRecord.setTimestamp(resultSet.getString("t_timestamp"));
+        timestampRecord.setHashChainResult(resultSet.getString("t_hashchainresult"));
+
+        return timestampRecord;
+    }
+
+    private MessageRecord readMessageRecord(TimestampRecord timestampRecord) throws SQLException {
+        MessageRecord messageRecord = new MessageRecord(resultSet.getString("queryid"),
+                resultSet.getString("message"), resultSet.getString("signature"), resultSet.getBoolean("response"),
+                PLACEHOLDER_CLIENT, resultSet.getString("xrequestid"));
+        messageRecord.setId(resultSet.getLong("m_id"));
+        messageRecord.setTime(resultSet.getLong("m_time"));
+        messageRecord.setHashChain(resultSet.getString("hashchain"));
+        messageRecord.setHashChainResult(resultSet.getString("hashchainresult"));
+        messageRecord.setSignatureHash(resultSet.getString("signaturehash"));
+        messageRecord.setTimestampHashChain(resultSet.getString("timestamphashchain"));
+        messageRecord.setMemberClass(resultSet.getString("memberclass"));
+        messageRecord.setMemberCode(resultSet.getString("membercode"));
+        messageRecord.setSubsystemCode(resultSet.getString("subsystemcode"));
+        messageRecord.setAttachment(resultSet.getBlob("attachment"));
+        messageRecord.setTimestampRecord(timestampRecord);
+
+        return messageRecord;
+    }
+}
@@ -149,6 +149,81 @@ public final class LogRecordManager {
         });
     }
 
+    /**
+     * Saves the message records to database in one transaction. The inserts are sent to the database
+     * as JDBC batches of the given size.
+     * @param messageRecords the message records to be saved.
+     * @param batchSize      the JDBC batch size.
+     * @throws Exception if an error occurs while communicating with database.
+     */
+    static void saveMessageRecords(List<MessageRecord> messageRecords, int batchSize) throws Exception {
+        doInTransaction(session -> {
+            saveMessageRecords(session, messageRecords, batchSize);
+            return null;
+        });
+    }
+
+    /**
+     * Saves the journaled message records to database in one transaction, skipping the records that
+     * have already been saved. The sequence number of the last saved record is stored in the same
+     * transaction.
+     * @param messageRecords the message records to be saved.
+     * @param sequences      the journal sequence numbers of the records, in ascending order.
+     * @param batchSize      the JDBC batch size.
+     * @throws Exception if an error occurs while communicating with database.
+     */
+    static void saveJournaledMessageRecords(List<MessageRecord> messageRecords, long[] sequences, int batchSize)
+            throws Exception {
+        doInTransaction(session -> {
+            JournalPosition position = session.get(JournalPosition.class, JournalPosition.ID);
+            long committed = position != null ? position.getCommittedSequence() : 0;
+
+            int skipped = 0;
+            while (skipped < sequences.length && sequences[skipped] <= committed) {
+                skipped++;
+            }
+
+            if (skipped > 0) {
+                log.info("Skipping {} journaled message records already saved to database", skipped);
+            }
+
+            saveMessageRecords(session, messageRecords.subList(skipped, messageRecords.size()), batchSize);
+
+            long last = sequences[sequences.length - 1];
+            if (position == null) {
+                session.save(new JournalPosition(last));
+            } else if (last > committed) {
+                position.setCommittedSequence(last);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Returns the sequence number of the last journaled message record saved to database.
+     * @return the sequence number or 0, if no journaled records have been saved.
+     * @throws Exception if an error occurs while communicating with database.
+     */
+    static long getCommittedJournalSequence() throws Exception {
+        return doInTransaction(session -> {
+            JournalPosition position = session.get(JournalPosition.class, JournalPosition.ID);
+            return position != null ? position.getCommittedSequence() : 0L;
+        });
+    }
+
+    private static void saveMessageRecords(Session session, List<MessageRecord> messageRecords, int batchSize) {
+        session.setJdbcBatchSize(batchSize);
+
+        for (MessageRecord messageRecord : messageRecords) {
+            final InputStream is = messageRecord.getAttachmentStream();
+            if (is != null) {
+                messageRecord.setAttachment(session.getLobHelper().createBlob(is,
+                        messageRecord.getAttachmentStreamSize()));
+            }
+            save(session, messageRecord);
+        }
+    }
+
     /**
      * Saves the message record in the database.
      * @param messageRecord the message record to be updated.
@@ -0,0 +1,432 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.messagelog.MessageRecord;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Local append-only journal of message records that have been acknowledged but not yet committed
+ * to the database. The journal consists of segment files named after the sequence number of their
+ * first entry. Each entry consists of the payload length, the sequence number, the CRC32 checksum of
+ * the sequence number and the payload, and the payload itself. An entry with a missing or corrupted
+ * payload ends the segment.
+ *
+ * The entries are encoded in memory, so the attachments of journaled records must be small (see
+ * {@link MessageRecordWriter#accepts(MessageRecord)}); larger attachments are rejected.
+ *
+ * Segments are released (deleted) once all their entries have been committed to the database. The
+ * segment being appended to is never deleted, so that the journal always knows the last sequence number.
+ */
+@Slf4j
+final class MessageRecordJournal implements Closeable {
+
+    private static final int HEADER_LENGTH = 20;
+    private static final int SEQUENCE_LENGTH = 8;
+    private static final int NULL_LENGTH = -1;
+
+    // Attachments must leave room for the rest of the entry in an int-sized buffer
+    static final long MAX_ATTACHMENT_SIZE = Integer.MAX_VALUE / 2;
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String SEGMENT_NAME_FORMAT = "%020d" + SEGMENT_SUFFIX;
+
+    // The X-Road instance of the client is not stored in the message record
+    private static final String UNKNOWN_INSTANCE = "UNKNOWN";
+
+    private final Path directory;
+    private final long segmentSize;
+
+    // First sequence numbers of the segments, the segment being appended to is the last one
+    private final List<Long> segments = new ArrayList<>();
+
+    private FileChannel current;
+    private long nextSequence;
+
+    /**
+     * A journaled message record.
+     */
+    @Value
+    static class Entry {
+        long sequence;
+        MessageRecord record;
+    }
+
+    /**
+     * Opens the journal in the given directory, creating the directory if it does not exist.
+     * The journal must be recovered before appending to it.
+     * @param directory the journal directory
+     * @param segmentSize size in bytes after which a new segment is started
+     * @throws IOException if the journal directory can not be read
+     */
+    MessageRecordJournal(Path directory, long segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        Files.createDirectories(directory);
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+
+        Collections.sort(segments);
+    }
+
+    /**
+     * Reads all entries from the journal and prepares it for appending. An incomplete or corrupted
+     * entry at the end of the last segment (e.g. a write interrupted by a crash) is discarded.
+     * @param minimumSequence the smallest sequence number to use for new entries, used in case the
+     * journal has been removed
+     * @return the entries in the order they were appended
+     * @throws IOException if reading the journal fails
+     */
+    List<Entry> recover(long minimumSequence) throws IOException {
+        final List<Entry> entries = new ArrayList<>();
+
+        nextSequence = minimumSequence;
+
+        for (int i = 0; i < segments.size(); i++) {
+            long firstSequence = segments.get(i);
+
+            nextSequence = Math.max(nextSequence, firstSequence);
+
+            try (FileChannel channel = FileChannel.open(segmentPath(firstSequence), READ, WRITE)) {
+                readSegment(channel, firstSequence, i == segments.size() - 1, entries);
+            }
+        }
+
+        if (!entries.isEmpty()) {
+            nextSequence = Math.max(nextSequence, entries.get(entries.size() - 1).getSequence() + 1);
+        }
+
+        if (segments.isEmpty()) {
+            segments.add(nextSequence);
+        }
+
+        current = FileChannel.open(segmentPath(segments.get(segments.size() - 1)), CREATE, READ, WRITE);
+
+        return entries;
+    }
+
+    /**
+     * Appends the message records to the end of the journal and syncs the journal to the disk.
+     * Attachment streams of the records are read into memory and replaced with in-memory streams.
+     * @param records the message records
+     * @return the sequence number of the first record, the following records get consecutive numbers
+     * @throws IOException if writing the journal fails or an attachment is larger than {@link #MAX_ATTACHMENT_SIZE}
+     */
+    long append(List<MessageRecord> records) throws IOException {
+        if (current == null) {
+            throw new IllegalStateException("Message log journal has not been recovered");
+        }
+
+        final long firstSequence = nextSequence;
+        final ByteBuffer[] buffers = new ByteBuffer[records.size()];
+        long length = 0;
+
+        for (int i = 0; i < records.size(); i++) {
+            buffers[i] = encode(firstSequence + i, records.get(i));
+            length += buffers[i].remaining();
+        }
+
+        if (current.size() > 0 && current.size() + length > segmentSize) {
+            startSegment(firstSequence);
+        }
+
+        final long end = current.size();
+        current.position(end);
+
+        try {
+            for (ByteBuffer buffer : buffers) {
+                while (buffer.hasRemaining()) {
+                    current.write(buffer);
+                }
+            }
+
+            current.force(false);
+        } catch (IOException e) {
+            // Do not leave a partially written entry in front of the entries appended later
+            current.truncate(end);
+            throw e;
+        }
+
+        nextSequence = firstSequence + records.size();
+
+        return firstSequence;
+    }
+
+    /**
+     * Deletes the segments whose entries have all been committed to the database.
+     * @param committedSequence sequence number of the last committed entry
+     * @throws IOException if deleting a segment fails
+     */
+    void release(long committedSequence) throws IOException {
+        while (segments.size() > 1 && segments.get(1) <= committedSequence + 1) {
+            Files.deleteIfExists(segmentPath(segments.remove(0)));
+        }
+    }
+
+    /**
+     * @return number of segment files in the journal
+     */
+    int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private void startSegment(long firstSequence) throws IOException {
+        current.close();
+
+        segments.add(firstSequence);
+        current = FileChannel.open(segmentPath(firstSequence), CREATE, READ, WRITE);
+    }
+
+    private Path segmentPath(long firstSequence) {
+        return directory.resolve(String.format(SEGMENT_NAME_FORMAT, firstSequence));
+    }
+
+    private void readSegment(FileChannel channel, long firstSequence, boolean last, List<Entry> entries)
+            throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        long position = 0;
+
+        while (true) {
+            header.clear();
+
+            if (!readFully(channel, header, position)) {
+                break;
+            }
+
+            header.flip();
+            final int length = header.getInt();
+            final long sequence = header.getLong();
+            final long checksum = header.getLong();
+
+            if (length < 0 || position + HEADER_LENGTH + length > channel.size()) {
+                break;
+            }
+
+            final ByteBuffer payload = ByteBuffer.allocate(length);
+
+            if (!readFully(channel, payload, position + HEADER_LENGTH)
+                    || checksum(sequence, payload.array(), 0, length) != checksum || sequence < firstSequence) {
+                break;
+            }
+
+            entries.add(new Entry(sequence, decode(payload.array())));
+            position += HEADER_LENGTH + length;
+        }
+
+        if (position < channel.size()) {
+            if (last) {
+                log.warn("Discarding {} bytes of incomplete entries at the end of message log journal segment {}",
+                        channel.size() - position, segmentPath(firstSequence));
+
+                channel.truncate(position);
+            } else {
+                log.error("Message log journal segment {} is corrupted after position {}",
+                        segmentPath(firstSequence), position);
+            }
+        }
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static ByteBuffer encode(long sequence, MessageRecord record) throws IOException {
+        final EntryOutputStream bytes = new EntryOutputStream();
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            // The header is filled in once the length and checksum of the payload are known
+            out.write(new byte[HEADER_LENGTH]);
+            out.writeLong(record.getTime());
+            writeString(out, record.getQueryId());
+            writeString(out, record.getMessage());
+            writeString(out, record.getSignature());
+            writeString(out, record.getHashChain());
+            writeString(out, record.getHashChainResult());
+            writeString(out, record.getSignatureHash());
+            out.writeBoolean(record.isResponse());
+            writeString(out, record.getMemberClass());
+            writeString(out, record.getMemberCode());
+            writeString(out, record.getSubsystemCode());
+            writeString(out, record.getXRequestId());
+            writeBytes(out, readAttachment(record));
+        }
+
+        final int payloadLength = bytes.size() - HEADER_LENGTH;
+        final ByteBuffer buffer = bytes.toByteBuffer();
+        buffer.putInt(0, payloadLength).putLong(Integer.BYTES, sequence)
+                .putLong(Integer.BYTES + SEQUENCE_LENGTH, checksum(sequence, buffer.array(), HEADER_LENGTH,
+                        payloadLength));
+
+        return buffer;
+    }
+
+    private static MessageRecord decode(byte[] payload) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            final long time = in.readLong();
+            final String queryId = readString(in);
+            final String message = readString(in);
+            final String signature = readString(in);
+            final String hashChain = readString(in);
+            final String hashChainResult = readString(in);
+            final String signatureHash = readString(in);
+            final boolean response = in.readBoolean();
+            final ClientId clientId = ClientId.create(UNKNOWN_INSTANCE, readString(in), readString(in),
+                    readString(in));
+            final String xRequestId = readString(in);
+            final byte[] attachment = readBytes(in);
+
+            final MessageRecord record = new MessageRecord(queryId, message, signature, response, clientId,
+                    xRequestId);
+            record.setTime(time);
+            record.setHashChain(hashChain);
+            record.setHashChainResult(hashChainResult);
+            record.setSignatureHash(signatureHash);
+
+            if (attachment != null) {
+                record.setAttachmentStream(new ByteArrayInputStream(attachment), attachment.length);
+            }
+
+            return record;
+        }
+    }
+
+    /**
+     * Reads the attachment of the record into memory. The attachment stream of the record is replaced
+     * with an in-memory stream, since the original stream can not be used after the record has been
+     * acknowledged.
+     */
+    private static byte[] readAttachment(MessageRecord record) throws IOException {
+        final InputStream stream = record.getAttachmentStream();
+
+        if (stream == null) {
+            return null;
+        }
+
+        if (record.getAttachmentStreamSize() > MAX_ATTACHMENT_SIZE) {
+            throw new IOException(String.format("Attachment of %d bytes is too large for the message log journal",
+                    record.getAttachmentStreamSize()));
+        }
+
+        final byte[] attachment = IOUtils.toByteArray(stream);
+        record.setAttachmentStream(new ByteArrayInputStream(attachment), attachment.length);
+
+        return attachment;
+    }
+
+    private static long checksum(long sequence, byte[] payload, int offset, int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(SEQUENCE_LENGTH).putLong(0, sequence).array(), 0, SEQUENCE_LENGTH);
+        crc.update(payload, offset, length);
+
+        return crc.getValue();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value != null ? value.getBytes(UTF_8) : null);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final byte[] value = readBytes(in);
+
+        return value != null ? new String(value, UTF_8) : null;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_LENGTH);
+        } else {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+
+        final byte[] value = new byte[length];
+        in.readFully(value);
+
+        return value;
+    }
+
+    /**
+     * Byte array output stream whose contents can be written to the journal without copying them.
+     */
+    private static final class EntryOutputStream extends ByteArrayOutputStream {
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
@@ -0,0 +1,487 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import ee.ria.xroad.common.messagelog.MessageLogProperties;
+import ee.ria.xroad.common.messagelog.MessageLogProperties.WriteBehindDurability;
+import ee.ria.xroad.common.messagelog.MessageRecord;
+import ee.ria.xroad.common.util.PerformanceMetrics;
+
+import com.codahale.metrics.Histogram;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Writes message records to the database asynchronously. The records are put to a bounded queue and
+ * written to the database in batches, one transaction per batch, so that concurrently logged messages
+ * share the cost of the commit. The queue is bounded both by the number of records and by their size,
+ * and records with attachments larger than the configured maximum are not accepted at all (see
+ * {@link #accepts(MessageRecord)}), since their attachments would be held in memory until committed.
+ *
+ * With {@link WriteBehindDurability#COMMIT} durability a record is acknowledged after the transaction
+ * containing it has been committed. With {@link WriteBehindDurability#JOURNAL} durability the records are
+ * first appended to a local journal and acknowledged once the journal has been synced to the disk; the
+ * database transactions are then committed in the background and the journal segments are deleted once
+ * all their records have been committed. Records left in the journal are written to the database when
+ * the writer is started next time. The journal sequence number of the last committed record is stored in
+ * the same transaction as the records, so records are never written twice.
+ */
+@Slf4j
+class MessageRecordWriter {
+
+    private static final long POLL_TIMEOUT_MS = 100;
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final long STOP_TIMEOUT_MS = 30000;
+
+    private final Histogram batchSize = PerformanceMetrics.histogram(MessageRecordWriter.class, "batchSize");
+    private final Histogram commitLatency = PerformanceMetrics.histogram(MessageRecordWriter.class,
+            "commitLatencyMicros");
+    private final Histogram journalSyncLatency = PerformanceMetrics.histogram(MessageRecordWriter.class,
+            "journalSyncLatencyMicros");
+
+    private final int maxBatchSize;
+    private final long commitIntervalNanos;
+    private final int maxAttachmentSize;
+
+    private final BlockingQueue<PendingRecord> queue;
+    // Bytes of the records not yet written to the database, one permit per byte
+    private final int queueBytes;
+    private final Semaphore availableBytes;
+    private final BlockingQueue<PendingRecord> journaled;
+    private final MessageRecordJournal journal;
+
+    private final Thread journalWriter;
+    private final Thread databaseWriter;
+
+    private volatile boolean accepting = true;
+    private volatile boolean committing = true;
+
+    /**
+     * Creates the writer using the message log properties.
+     * @throws IOException if the journal can not be opened or read, or the committed journal position
+     * can not be read from the database
+     */
+    MessageRecordWriter() throws IOException {
+        this(MessageLogProperties.getWriteBehindDurability(), MessageLogProperties.getWriteBehindQueueSize(),
+                MessageLogProperties.getWriteBehindQueueBytes(), MessageLogProperties.getWriteBehindBatchSize(),
+                MessageLogProperties.getWriteBehindCommitInterval());
+    }
+
+    MessageRecordWriter(WriteBehindDurability durability, int queueSize, int queueBytes, int maxBatchSize,
+            int commitIntervalMs) throws IOException {
+        this.maxBatchSize = maxBatchSize;
+        this.commitIntervalNanos = TimeUnit.MILLISECONDS.toNanos(commitIntervalMs);
+        this.maxAttachmentSize = Math.min(MessageLogProperties.getWriteBehindMaxAttachmentSize(), queueBytes);
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.queueBytes = queueBytes;
+        // Fair, so that a large record waiting for space is not overtaken by smaller ones
+        this.availableBytes = new Semaphore(queueBytes, true);
+
+        if (durability == WriteBehindDurability.JOURNAL) {
+            journal = new MessageRecordJournal(Paths.get(MessageLogProperties.getWriteBehindJournalPath()),
+                    MessageLogProperties.getWriteBehindJournalSegmentSize());
+
+            List<MessageRecordJournal.Entry> replayed = journal.recover(getCommittedJournalSequence() + 1);
+
+            if (!replayed.isEmpty()) {
+                log.info("Writing {} message records left in the message log journal", replayed.size());
+            }
+
+            journaled = new LinkedBlockingQueue<>(Math.max(queueSize, replayed.size()));
+            // The replayed records are already in memory, so they are not counted against the queue size in bytes
+            replayed.forEach(entry -> journaled.add(new PendingRecord(entry.getRecord(), null, 0,
+                    entry.getSequence())));
+
+            journalWriter = new Thread(this::writeJournal, "MessageLogJournalWriter");
+        } else {
+            journal = null;
+            journaled = queue;
+            journalWriter = null;
+        }
+
+        databaseWriter = new Thread(this::writeDatabase, "MessageLogDatabaseWriter");
+
+        PerformanceMetrics.gauge(MessageRecordWriter.class, "queueDepth", this::getQueueDepth);
+        PerformanceMetrics.gauge(MessageRecordWriter.class, "queueBytes", this::getQueueBytes);
+    }
+
+    /**
+     * Starts the writer threads.
+     */
+    void start() {
+        if (journalWriter != null) {
+            journalWriter.start();
+        }
+
+        databaseWriter.start();
+    }
+
+    /**
+     * Stops accepting new records and waits until the queued records have been written.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void stop() throws InterruptedException {
+        accepting = false;
+
+        if (journalWriter != null) {
+            journalWriter.join(STOP_TIMEOUT_MS);
+        }
+
+        committing = false;
+        databaseWriter.join(STOP_TIMEOUT_MS);
+
+        failUnwritten();
+
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.error("Failed to close message log journal", e);
+            }
+        }
+    }
+
+    /**
+     * @param record the message record
+     * @return true if the record can be written by this writer, false if its attachment is too large to be
+     * held in memory until written and the record must be saved directly
+     */
+    boolean accepts(MessageRecord record) {
+        return record.getAttachmentStream() == null || record.getAttachmentStreamSize() <= maxAttachmentSize;
+    }
+
+    /**
+     * Queues the message record for writing. Blocks if the queue is full, either by the number of records
+     * or by their size.
+     * @param record the message record, must be accepted by {@link #accepts(MessageRecord)}
+     * @return future that completes when the record has been acknowledged according to the durability
+     * @throws InterruptedException if interrupted while waiting for space in the queue
+     */
+    CompletableFuture<MessageRecord> write(MessageRecord record) throws InterruptedException {
+        if (!accepting) {
+            throw new IllegalStateException("Message record writer has been stopped");
+        }
+
+        if (!accepts(record)) {
+            throw new IllegalArgumentException("Message record attachment exceeds the write-behind maximum size");
+        }
+
+        PendingRecord pending = new PendingRecord(record, new CompletableFuture<>(), size(record), 0);
+        availableBytes.acquire(pending.bytes);
+
+        try {
+            queue.put(pending);
+        } catch (InterruptedException e) {
+            availableBytes.release(pending.bytes);
+            throw e;
+        }
+
+        // If the writer was stopped while the record was being queued, it may never be taken from the queue.
+        // Otherwise the writer or stop() has taken it and completes the future.
+        if (!accepting && queue.remove(pending)) {
+            availableBytes.release(pending.bytes);
+            throw new IllegalStateException("Message record writer has been stopped");
+        }
+
+        return pending.future;
+    }
+
+    /**
+     * @return number of message records not yet written to the database
+     */
+    int getQueueDepth() {
+        return journal != null ? queue.size() + journaled.size() : queue.size();
+    }
+
+    /**
+     * @return size in bytes of the message records not yet written to the database, not including the
+     * records replayed from the journal
+     */
+    int getQueueBytes() {
+        return queueBytes - availableBytes.availablePermits();
+    }
+
+    /**
+     * Fails the records that were queued but not taken by the writer before it stopped.
+     */
+    private void failUnwritten() {
+        List<PendingRecord> unwritten = new ArrayList<>();
+        queue.drainTo(unwritten);
+
+        if (!unwritten.isEmpty()) {
+            log.warn("Message record writer stopped before writing {} message records", unwritten.size());
+
+            IllegalStateException e = new IllegalStateException("Message record writer has been stopped");
+            unwritten.forEach(pending -> pending.future.completeExceptionally(e));
+            release(unwritten);
+        }
+    }
+
+    private void writeJournal() {
+        while (accepting || !queue.isEmpty()) {
+            List<PendingRecord> batch = takeBatch(queue);
+
+            if (batch.isEmpty()) {
+                continue;
+            }
+
+            try {
+                long start = System.nanoTime();
+
+                long firstSequence;
+
+                synchronized (journal) {
+                    firstSequence = journal.append(records(batch));
+                }
+
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).sequence = firstSequence + i;
+                }
+
+                journalSyncLatency.update(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            } catch (Exception e) {
+                log.error("Failed to write message records to the message log journal", e);
+
+                batch.forEach(pending -> pending.future.completeExceptionally(e));
+                release(batch);
+                continue;
+            }
+
+            for (PendingRecord pending : batch) {
+                pending.future.complete(pending.record);
+
+                try {
+                    journaled.put(pending);
+                } catch (InterruptedException e) {
+                    // The records remain in the journal and are written when the writer is started next time
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void writeDatabase() {
+        while (committing || !journaled.isEmpty()) {
+            List<PendingRecord> batch = takeBatch(journaled);
+
+            if (batch.isEmpty()) {
+                continue;
+            }
+
+            if (journal == null) {
+                commit(batch);
+            } else if (!commitJournaled(batch)) {
+                return;
+            }
+
+            release(batch);
+        }
+    }
+
+    private void commit(List<PendingRecord> batch) {
+        try {
+            save(batch);
+        } catch (Exception e) {
+            log.error("Failed to save message records to database", e);
+
+            batch.forEach(pending -> pending.future.completeExceptionally(e));
+            return;
+        }
+
+        batch.forEach(pending -> pending.future.complete(pending.record));
+    }
+
+    private boolean commitJournaled(List<PendingRecord> batch) {
+        while (true) {
+            try {
+                long start = System.nanoTime();
+
+                LogRecordManager.saveJournaledMessageRecords(records(batch),
+                        batch.stream().mapToLong(pending -> pending.sequence).toArray(), maxBatchSize);
+                TimestampTaskIndex.add(records(batch));
+
+                commitLatency.update(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                batchSize.update(batch.size());
+                break;
+            } catch (Exception e) {
+                log.error("Failed to save journaled message records to database", e);
+
+                if (!committing) {
+                    log.warn("Leaving {} message records in the message log journal", getQueueDepth() + batch.size());
+                    return false;
+                }
+
+                try {
+                    Thread.sleep(RETRY_DELAY_MS);
+                    rewind(batch);
+                } catch (InterruptedException | IOException e1) {
+                    log.error("Stopped saving journaled message records to database", e1);
+                    return false;
+                }
+            }
+        }
+
+        synchronized (journal) {
+            try {
+                journal.release(batch.get(batch.size() - 1).sequence);
+            } catch (IOException e) {
+                log.error("Failed to delete committed message log journal segments", e);
+            }
+        }
+
+        return true;
+    }
+
+    private void save(List<PendingRecord> batch) throws Exception {
+        long start = System.nanoTime();
+
+        LogRecordManager.saveMessageRecords(records(batch), maxBatchSize);
+        TimestampTaskIndex.add(records(batch));
+
+        commitLatency.update(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        batchSize.update(batch.size());
+    }
+
+    /**
+     * Restores the records of a failed transaction to their unsaved state. Attachments of journaled
+     * records are kept in memory, so their streams can be reset.
+     */
+    private static void rewind(List<PendingRecord> batch) throws IOException {
+        for (PendingRecord pending : batch) {
+            pending.record.setId(null);
+            pending.record.setAttachment(null);
+
+            InputStream attachment = pending.record.getAttachmentStream();
+
+            if (attachment != null) {
+                attachment.reset();
+            }
+        }
+    }
+
+    /**
+     * Takes the next batch of records from the source queue. Waits for the first record at most
+     * {@link #POLL_TIMEOUT_MS} and then collects more records until the batch is full or the commit
+     * interval has elapsed.
+     */
+    private List<PendingRecord> takeBatch(BlockingQueue<PendingRecord> source) {
+        List<PendingRecord> batch = new ArrayList<>();
+
+        try {
+            PendingRecord first = source.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+            if (first == null) {
+                return Collections.emptyList();
+            }
+
+            batch.add(first);
+            long deadline = System.nanoTime() + commitIntervalNanos;
+
+            while (batch.size() < maxBatchSize) {
+                if (source.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                    continue;
+                }
+
+                long remaining = deadline - System.nanoTime();
+                PendingRecord next = remaining > 0 ? source.poll(remaining, TimeUnit.NANOSECONDS) : null;
+
+                if (next == null) {
+                    break;
+                }
+
+                batch.add(next);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return batch;
+    }
+
+    private void release(List<PendingRecord> batch) {
+        availableBytes.release(batch.stream().mapToInt(pending -> pending.bytes).sum());
+    }
+
+    /**
+     * Returns the size of the record counted against the queue size in bytes: the size of its attachment
+     * and the length of its message and signature. Capped at the queue size, so that a single record always fits.
+     */
+    private int size(MessageRecord record) {
+        long size = length(record.getMessage()) + length(record.getSignature()) + length(record.getHashChain());
+
+        if (record.getAttachmentStream() != null) {
+            size += record.getAttachmentStreamSize();
+        }
+
+        return (int) Math.min(size, queueBytes);
+    }
+
+    private static long length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    private static List<MessageRecord> records(List<PendingRecord> batch) {
+        return batch.stream().map(pending -> pending.record).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the sequence number of the last committed journal entry. The journal uses it as the lower
+     * bound of new sequence numbers in case the journal files have been removed, so the writer can not be
+     * started without it: sequence numbers below the stored position would be skipped when committing.
+     */
+    private static long getCommittedJournalSequence() throws IOException {
+        try {
+            return LogRecordManager.getCommittedJournalSequence();
+        } catch (Exception e) {
+            throw new IOException("Could not read the committed message log journal position", e);
+        }
+    }
+
+    @AllArgsConstructor
+    private static final class PendingRecord {
+        private final MessageRecord record;
+        private final CompletableFuture<MessageRecord> future;
+        // Size counted against the queue size in bytes
+        private final int bytes;
+        // Journal sequence number, set once the record has been journaled
+        private long sequence;
+    }
+}
@@ -25,8 +25,11 @@
  */
 package ee.ria.xroad.proxy.messagelog;
 
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.serverconf.ServerConf;
 import ee.ria.xroad.common.messagelog.MessageLogProperties;
 import ee.ria.xroad.proxy.messagelog.Timestamper.TimestampFailed;
+import ee.ria.xroad.proxy.messagelog.Timestamper.TimestampResult;
 import ee.ria.xroad.proxy.messagelog.Timestamper.TimestampSucceeded;
 import ee.ria.xroad.proxy.messagelog.Timestamper.TimestampTask;
 
@@ -36,16 +39,24 @@ import akka.actor.UntypedAbstractActor;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.hibernate.Session;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import static ee.ria.xroad.proxy.messagelog.LogManager.TIMESTAMPER_NAME;
-import static ee.ria.xroad.proxy.messagelog.MessageLogDatabaseCtx.doInTransaction;
 
 /**
  * Handles the TaskQueues -- adds tasks to the queue and sends the active queue for time-stamping.
+ *
+ * Up to {@link MessageLogProperties#getTimestamperMaxInFlightBatches()} batches can be time-stamped at the same
+ * time. The results are handled in the order the batches were sent, so the time-stamp records are saved in the
+ * same order regardless of which time-stamping provider responds first. The message records to time-stamp are
+ * taken from the {@link TimestampTaskIndex}, which is loaded from the database when time-stamping starts.
  */
 @Slf4j
 @RequiredArgsConstructor(access = AccessLevel.PACKAGE)
@@ -56,6 +67,26 @@ public class TaskQueue extends UntypedAbstractActor {
     static final double TIMESTAMPED_RECORDS_RATIO_THRESHOLD = 0.7;
     static final int TIMESTAMP_RECORDS_LIMIT_RETRY_MODE = 1;
 
+    /** Time allowed for the timestamper in addition to the client timeouts before a batch is abandoned. */
+    private static final long IN_FLIGHT_TIMEOUT_MARGIN_MILLIS = 60000;
+
+    /** Batches sent for time-stamping, in the order they were sent. */
+    private final Deque<InFlightBatch> inFlightBatches = new ArrayDeque<>();
+
+    /** Message records of the batches sent for time-stamping. */
+    private final Set<Long> inFlightRecords = new HashSet<>();
+
+    /** Identifier of the next batch, so that the late results of abandoned batches can be recognized. */
+    private long nextBatchId = 1;
+
+    @RequiredArgsConstructor
+    private static final class InFlightBatch {
+        private final long id;
+        private final Long[] messageRecords;
+        private final long sentAt;
+        private TimestampResult result;
+    }
+
     @Override
     public void onReceive(Object message) throws Exception {
         log.trace("onReceive({})", message);
@@ -63,7 +94,8 @@ public class TaskQueue extends UntypedAbstractActor {
         if (message.equals(START_TIMESTAMPING)) {
             handleStartTimestamping();
         } else if (message.equals(START_TIMESTAMPING_RETRY_MODE)) {
-            handleStartTimestamping(TIMESTAMP_RECORDS_LIMIT_RETRY_MODE);
+            // In the retry mode a single record is time-stamped to find out if time-stamping works again.
+            startTimestamping(TIMESTAMP_RECORDS_LIMIT_RETRY_MODE, 1);
         } else if (message instanceof Timestamper.TimestampSucceeded) {
             handleTimestampSucceeded((Timestamper.TimestampSucceeded) message);
         } else if (message instanceof Timestamper.TimestampFailed) {
@@ -80,28 +112,93 @@ public class TaskQueue extends UntypedAbstractActor {
             log.trace("Time-stamped message records {}", Arrays.toString(message.getMessageRecords()));
         }
 
-        boolean succeeded = true;
+        handleTimestampResult(message);
+    }
+
+    protected void handleTimestampFailed(TimestampFailed message) {
+        log.trace("handleTimestampFailed");
+
+        handleTimestampResult(message);
+    }
+
+    /**
+     * Stores the result of a batch and handles the results of the batches that are no longer waiting for the
+     * results of earlier batches. The result of an abandoned batch is dropped, since its message records have
+     * been returned to the queue and may already be time-stamped by another batch.
+     */
+    private void handleTimestampResult(TimestampResult result) {
+        InFlightBatch batch = getInFlightBatch(result.getBatchId());
+
+        if (batch == null) {
+            log.info("Ignoring time-stamping result of batch {}, which is no longer in progress",
+                    result.getBatchId());
+
+            return;
+        }
+
+        batch.result = result;
+
+        if (processCompletedBatches()) {
+            // If time-stamped records count equals to time-stamp records limit, there are probably
+            // still records to be time-stamped. Init another another time-stamping round to prevent
+            // messagelog records to begin to bloat.
+            log.info("Time-stamped records count equaled to time-stamp records limit");
+            handleStartTimestamping();
+        }
+    }
+
+    /**
+     * Handles the results of the completed batches that are not preceded by a batch still in progress.
+     * @return true if a full batch was successfully time-stamped
+     */
+    private boolean processCompletedBatches() {
+        boolean fullBatchTimestamped = false;
+
+        while (!inFlightBatches.isEmpty() && inFlightBatches.peekFirst().result != null) {
+            InFlightBatch completed = inFlightBatches.removeFirst();
+            inFlightRecords.removeAll(Arrays.asList(completed.messageRecords));
+
+            fullBatchTimestamped |= processTimestampResult(completed.result);
+        }
+
+        return fullBatchTimestamped;
+    }
+
+    /**
+     * @return true if a full batch was successfully time-stamped
+     */
+    private boolean processTimestampResult(TimestampResult result) {
+        if (result instanceof TimestampFailed) {
+            indicateFailure();
+
+            return false;
+        }
+
+        TimestampSucceeded message = (TimestampSucceeded) result;
 
         try {
             saveTimestampRecord(message);
         } catch (Exception e) {
             log.error("Failed to save time-stamp record to database", e);
 
-            succeeded = false;
-        } finally {
-            if (succeeded) {
-                indicateSuccess();
-                // If time-stamped records count equals to time-stamp records limit, there are probably
-                // still records to be time-stamped. Init another another time-stamping round to prevent
-                // messagelog records to begin to bloat.
-                if (message.getMessageRecords().length == MessageLogProperties.getTimestampRecordsLimit()) {
-                    log.info("Time-stamped records count equaled to time-stamp records limit");
-                    handleStartTimestamping();
-                }
-            } else {
-                indicateFailure();
+            indicateFailure();
+
+            return false;
+        }
+
+        indicateSuccess();
+
+        return message.getMessageRecords().length == MessageLogProperties.getTimestampRecordsLimit();
+    }
+
+    private InFlightBatch getInFlightBatch(long batchId) {
+        for (InFlightBatch batch : inFlightBatches) {
+            if (batch.result == null && batch.id == batchId) {
+                return batch;
             }
         }
+
+        return null;
     }
 
     protected void saveTimestampRecord(TimestampSucceeded message) throws Exception {
@@ -132,31 +229,49 @@ public class TaskQueue extends UntypedAbstractActor {
         getContext().parent().tell(new SetTimestampingStatusMessage(status), ActorRef.noSender());
     }
 
-    protected void handleTimestampFailed(TimestampFailed message) {
-        log.trace("handleTimestampFailed");
-
-        indicateFailure();
-    }
-
     protected void handleStartTimestamping() {
         handleStartTimestamping(MessageLogProperties.getTimestampRecordsLimit());
     }
 
     protected void handleStartTimestamping(int timestampRecordsLimit) {
-        List<Task> timestampTasks;
+        startTimestamping(timestampRecordsLimit, MessageLogProperties.getTimestamperMaxInFlightBatches());
+    }
 
-        try {
-            timestampTasks = doInTransaction(session -> getTimestampTasks(session, timestampRecordsLimit));
-        } catch (Exception e) {
-            log.error("Error getting time-stamp tasks", e);
+    private void startTimestamping(int timestampRecordsLimit, int maxInFlightBatches) {
+        abandonExpiredBatches();
+
+        if (inFlightBatches.size() >= maxInFlightBatches) {
+            log.debug("Not starting time-stamping, {} batches already in progress", inFlightBatches.size());
+
+            return;
+        }
+
+        if (!TimestampTaskIndex.isLoaded() && !TimestampTaskIndex.load()) {
+            return;
+        }
+
+        // The timestamper ignores the tasks while the global configuration is not valid.
+        if (!GlobalConf.isValid()) {
+            log.debug("Not starting time-stamping, global configuration is not valid");
 
             return;
         }
 
+        while (inFlightBatches.size() < maxInFlightBatches && startTimestampingBatch(timestampRecordsLimit)) {
+            log.trace("{} batches in progress", inFlightBatches.size());
+        }
+    }
+
+    /**
+     * @return true if a batch was sent for time-stamping
+     */
+    private boolean startTimestampingBatch(int timestampRecordsLimit) {
+        List<Task> timestampTasks = TimestampTaskIndex.getTasks(timestampRecordsLimit, inFlightRecords);
+
         if (timestampTasks.isEmpty()) {
             log.trace("Nothing to time-stamp, task queue is empty");
 
-            return;
+            return false;
         }
 
         int timestampTasksSize = timestampTasks.size();
@@ -169,14 +284,77 @@ public class TaskQueue extends UntypedAbstractActor {
                     TIMESTAMPED_RECORDS_RATIO_THRESHOLD * 100);
         }
 
-        sendToTimestamper(createTimestampTask(timestampTasks));
+        TimestampTask timestampTask = createTimestampTask(timestampTasks);
+        timestampTask.setBatchId(nextBatchId++);
+
+        inFlightBatches.addLast(new InFlightBatch(timestampTask.getBatchId(), timestampTask.getMessageRecords(),
+                currentTimeMillis()));
+        inFlightRecords.addAll(Arrays.asList(timestampTask.getMessageRecords()));
+
+        sendToTimestamper(timestampTask);
+
+        return true;
     }
 
-    private void sendToTimestamper(TimestampTask timestampTask) {
+    /**
+     * Abandons the batches that have not received a result within the time the timestamper can take, so that
+     * their message records can be time-stamped again. The results of the later batches are then handled.
+     */
+    private void abandonExpiredBatches() {
+        long timeout = getInFlightTimeoutMillis();
+
+        if (inFlightBatches.isEmpty() || timeout <= 0) {
+            return;
+        }
+
+        long expiredBefore = currentTimeMillis() - timeout;
+        boolean abandoned = false;
+
+        for (Iterator<InFlightBatch> it = inFlightBatches.iterator(); it.hasNext();) {
+            InFlightBatch batch = it.next();
+
+            if (batch.result == null && batch.sentAt < expiredBefore) {
+                log.warn("No time-stamping result for {} message records in {} ms, abandoning the batch",
+                        batch.messageRecords.length, timeout);
+
+                it.remove();
+                inFlightRecords.removeAll(Arrays.asList(batch.messageRecords));
+                abandoned = true;
+            }
+        }
+
+        if (abandoned) {
+            // The caller is about to start time-stamping anyway.
+            processCompletedBatches();
+        }
+    }
+
+    /**
+     * @return the time in milliseconds after which a batch without a result is abandoned, or 0 if the
+     * timestamper client timeouts are infinite
+     */
+    private static long getInFlightTimeoutMillis() {
+        long connectTimeout = MessageLogProperties.getTimestamperClientConnectTimeout();
+        long readTimeout = MessageLogProperties.getTimestamperClientReadTimeout();
+
+        if (connectTimeout <= 0 || readTimeout <= 0) {
+            return 0;
+        }
+
+        // In the worst case every time-stamping provider is tried in turn and uses the full timeouts.
+        return Math.max(1, ServerConf.getTspUrl().size()) * (connectTimeout + readTimeout)
+                + IN_FLIGHT_TIMEOUT_MARGIN_MILLIS;
+    }
+
+    protected void sendToTimestamper(TimestampTask timestampTask) {
         ActorSelection timestamper = getContext().actorSelection("../" + TIMESTAMPER_NAME);
         timestamper.tell(timestampTask, getSelf());
     }
 
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
     private TimestampTask createTimestampTask(List<Task> timestampTasks) {
         Long[] messageRecords = new Long[timestampTasks.size()];
         String[] signatureHashes = new String[timestampTasks.size()];
@@ -190,31 +368,11 @@ public class TaskQueue extends UntypedAbstractActor {
     }
 
     private static boolean isTaskQueueEmpty() {
-        try {
-            return doInTransaction(TaskQueue::getTasksQueueSize) == 0L;
-        } catch (Exception e) {
-            log.error("Could not read timestamp task queue status", e);
-
-            return false;
-        }
-    }
-
-    @SuppressWarnings("unchecked")
-    private List<Task> getTimestampTasks(Session session, int timestampRecordsLimit) {
-        return session.createQuery(getTaskQueueQuery()).setMaxResults(timestampRecordsLimit).list();
-    }
-
-    @SuppressWarnings("unchecked")
-    private static Long getTasksQueueSize(Session session) {
-        return (Long) session.createQuery(getTaskQueueSizeQuery()).uniqueResult();
+        return TimestampTaskIndex.isLoaded() && TimestampTaskIndex.size() == 0;
     }
 
     static String getTaskQueueQuery() {
         return "select new " + Task.class.getName() + "(m.id, m.signatureHash) "
                 + "from MessageRecord m where m.signatureHash is not null";
     }
-
-    private static String getTaskQueueSizeQuery() {
-        return "select COUNT(*) from MessageRecord m where m.signatureHash is not null";
-    }
 }
@@ -0,0 +1,182 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import ee.ria.xroad.common.messagelog.MessageRecord;
+import ee.ria.xroad.common.util.PerformanceMetrics;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static ee.ria.xroad.proxy.messagelog.MessageLogDatabaseCtx.doInTransaction;
+
+/**
+ * In-memory index of the message records waiting to be time-stamped, in the order they were saved. The index
+ * is loaded from the database once when time-stamping starts; after that the message records are added when
+ * they have been saved to the database and removed when their time-stamp has been saved, so that the task
+ * queue does not need to query the database for every time-stamping round.
+ */
+@Slf4j
+final class TimestampTaskIndex {
+
+    /** Signature hashes of the message records waiting to be time-stamped, by message record number. */
+    private static Map<Long, String> tasks = new LinkedHashMap<>();
+
+    /** Message records time-stamped before the index was loaded, left out when the index is loaded. */
+    private static Set<Long> timestampedBeforeLoad = new HashSet<>();
+
+    private static boolean loaded;
+
+    static {
+        PerformanceMetrics.gauge(TimestampTaskIndex.class, "size", TimestampTaskIndex::size);
+    }
+
+    private TimestampTaskIndex() {
+    }
+
+    /**
+     * Clears the index. The index needs to be loaded again before it is used.
+     */
+    static synchronized void reset() {
+        tasks = new LinkedHashMap<>();
+        timestampedBeforeLoad = new HashSet<>();
+        loaded = false;
+    }
+
+    /**
+     * Loads the message records waiting to be time-stamped from the database. The message records saved or
+     * time-stamped while the index is being loaded are taken into account.
+     * @return true if the index was loaded, false if reading the database failed
+     */
+    static boolean load() {
+        List<Task> stored;
+
+        try {
+            stored = doInTransaction(TimestampTaskIndex::getStoredTasks);
+        } catch (Exception e) {
+            log.error("Error loading time-stamp tasks", e);
+
+            return false;
+        }
+
+        synchronized (TimestampTaskIndex.class) {
+            Map<Long, String> merged = new LinkedHashMap<>();
+
+            for (Task task : stored) {
+                if (!timestampedBeforeLoad.contains(task.getMessageRecordNo())) {
+                    merged.put(task.getMessageRecordNo(), task.getSignatureHash());
+                }
+            }
+
+            merged.putAll(tasks);
+
+            tasks = merged;
+            timestampedBeforeLoad = new HashSet<>();
+            loaded = true;
+
+            log.info("{} message records waiting for time-stamping", tasks.size());
+        }
+
+        return true;
+    }
+
+    static synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @return number of message records waiting to be time-stamped
+     */
+    static synchronized int size() {
+        return tasks.size();
+    }
+
+    /**
+     * Adds the message record saved to the database.
+     * @param messageRecord the message record
+     */
+    static synchronized void add(MessageRecord messageRecord) {
+        if (messageRecord.getId() != null && messageRecord.getSignatureHash() != null) {
+            tasks.put(messageRecord.getId(), messageRecord.getSignatureHash());
+        }
+    }
+
+    /**
+     * Adds the message records saved to the database.
+     * @param messageRecords the message records
+     */
+    static synchronized void add(List<MessageRecord> messageRecords) {
+        messageRecords.forEach(TimestampTaskIndex::add);
+    }
+
+    /**
+     * Removes the message records whose time-stamp has been saved to the database.
+     * @param messageRecords numbers of the message records
+     */
+    static synchronized void remove(Long[] messageRecords) {
+        for (Long messageRecord : messageRecords) {
+            tasks.remove(messageRecord);
+        }
+
+        if (!loaded) {
+            timestampedBeforeLoad.addAll(Arrays.asList(messageRecords));
+        }
+    }
+
+    /**
+     * @param limit maximum number of tasks
+     * @param excluded numbers of the message records to leave out
+     * @return the oldest message records waiting to be time-stamped
+     */
+    static synchronized List<Task> getTasks(int limit, Set<Long> excluded) {
+        List<Task> result = new ArrayList<>(Math.min(limit, tasks.size()));
+
+        for (Map.Entry<Long, String> task : tasks.entrySet()) {
+            if (result.size() >= limit) {
+                break;
+            }
+
+            if (!excluded.contains(task.getKey())) {
+                result.add(new Task(task.getKey(), task.getValue()));
+            }
+        }
+
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Task> getStoredTasks(Session session) {
+        return session.createQuery(TaskQueue.getTaskQueueQuery() + " order by m.id").list();
+    }
+}
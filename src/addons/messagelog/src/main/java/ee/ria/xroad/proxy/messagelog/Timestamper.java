@@ -51,6 +51,8 @@ public class Timestamper extends UntypedAbstractActor {
     static final class TimestampTask implements Serializable {
         private final Long[] messageRecords;
         private final String[] signatureHashes;
+        // Identifies the batch of the task queue, returned in the result
+        private long batchId;
 
         TimestampTask(MessageRecord messageRecord) {
             this.messageRecords = new Long[] {messageRecord.getId()};
@@ -58,7 +60,11 @@ public class Timestamper extends UntypedAbstractActor {
         }
     }
 
-    interface TimestampResult { }
+    interface TimestampResult {
+        long getBatchId();
+
+        void setBatchId(long batchId);
+    }
 
     @Data
     @ToString(exclude = { "timestampDer", "hashChains" })
@@ -68,12 +74,14 @@ public class Timestamper extends UntypedAbstractActor {
         private final String hashChainResult;
         private final String[] hashChains;
         private final String url;
+        private long batchId;
     }
 
     @Data
     static final class TimestampFailed implements TimestampResult, Serializable {
         private final Long[] messageRecords;
         private final Exception cause;
+        private long batchId;
     }
 
     @Override
@@ -65,8 +65,10 @@ public class TimestamperWorker extends UntypedAbstractActor {
         log.error("Timestamper failed for message records {}: {}",
                 Arrays.toString(message.getMessageRecords()), e.getMessage());
 
-        getSender().tell(new Timestamper.TimestampFailed(
-                message.getMessageRecords(), e), ActorRef.noSender());
+        Timestamper.TimestampFailed result = new Timestamper.TimestampFailed(message.getMessageRecords(), e);
+        result.setBatchId(message.getBatchId());
+
+        getSender().tell(result, ActorRef.noSender());
     }
 
     private void handleTimestampTask(TimestampTask message) throws Exception {
@@ -94,6 +96,7 @@ public class TimestamperWorker extends UntypedAbstractActor {
                 createTimestampRequest(logRecords, signatureHashes);
 
         Timestamper.TimestampResult result = tsRequest.execute(tspUrls);
+        result.setBatchId(message.getBatchId());
 
         log.info("Timestamped {} message records in {} ms",
                 message.getMessageRecords().length,
@@ -0,0 +1,100 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import ee.ria.xroad.common.messagelog.MessageLogProperties;
+import ee.ria.xroad.common.util.PerformanceMetrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+
+/**
+ * Latency and failure metrics of the time-stamping providers. The latencies of a provider also determine how
+ * long a time-stamp request waits for it before the request is hedged, that is, also sent to the next provider.
+ */
+final class TspStatistics {
+
+    /** Number of latencies needed before the latency percentile is used for hedging. */
+    static final int MIN_SAMPLES = 10;
+
+    private static final double PERCENT = 100.0;
+
+    private static final Counter HEDGED = PerformanceMetrics.counter(TspStatistics.class, "hedged");
+
+    private TspStatistics() {
+    }
+
+    /**
+     * Records the latency of a valid time-stamp response.
+     * @param url URL of the time-stamping provider
+     * @param millis time from sending the request to verifying the response
+     */
+    static void success(String url, long millis) {
+        latency(url).update(millis);
+    }
+
+    /**
+     * Records a failed time-stamp request.
+     * @param url URL of the time-stamping provider
+     */
+    static void failure(String url) {
+        PerformanceMetrics.counter(TspStatistics.class, url, "failures").inc();
+    }
+
+    /**
+     * Records a time-stamp request that was also sent to the next time-stamping provider.
+     */
+    static void hedged() {
+        HEDGED.inc();
+    }
+
+    /**
+     * @param url URL of the time-stamping provider
+     * @return the time in milliseconds to wait for a response from the provider before the request is also sent
+     * to the next provider, or -1 if the request should not be hedged
+     */
+    static long getHedgingDelay(String url) {
+        int percentile = MessageLogProperties.getTimestamperHedgePercentile();
+
+        if (percentile <= 0) {
+            return -1;
+        }
+
+        Histogram latency = latency(url);
+
+        // Until the latencies of the provider are known, it is only replaced if it fails.
+        if (latency.getCount() < MIN_SAMPLES) {
+            return -1;
+        }
+
+        return Math.max(MessageLogProperties.getTimestamperHedgeMinDelay(),
+                Math.round(latency.getSnapshot().getValue(percentile / PERCENT)));
+    }
+
+    private static Histogram latency(String url) {
+        return PerformanceMetrics.histogram(TspStatistics.class, url, "latencyMillis");
+    }
+}
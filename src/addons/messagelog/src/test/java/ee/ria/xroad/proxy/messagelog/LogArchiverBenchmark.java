@@ -0,0 +1,314 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.serverconf.ServerConf;
+import ee.ria.xroad.common.messagelog.MessageLogProperties;
+import ee.ria.xroad.common.messagelog.archive.DigestEntry;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.TestActorRef;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static ee.ria.xroad.proxy.messagelog.MessageLogDatabaseCtx.doInTransaction;
+
+/**
+ * Benchmark program for archiving a large message log. Compares reading the records as Hibernate entities
+ * with the streaming fetch through a JDBC cursor, reporting the archiving rate and the peak heap usage.
+ *
+ * Usage: LogArchiverBenchmark [rows] [messages per timestamp], 10 000 000 rows and 100 messages per
+ * timestamp by default.
+ *
+ * The synthetic rows are inserted into a file-based HSQLDB with disk-backed tables, which is reused between
+ * runs with the same number of rows. Set the system property xroad.common.database-properties to a database
+ * properties file to run the benchmark against PostgreSQL. The fixture writes the record ids directly, so
+ * use a dedicated database for it.
+ *
+ * HSQLDB ignores the fetch size of an in-process connection and builds the whole result of a query before
+ * returning the first row (spilling it to disk), so the memory use and the cursor behaviour of the streaming
+ * fetch are only representative when run against PostgreSQL.
+ */
+@Slf4j
+public final class LogArchiverBenchmark {
+
+    private static final long DEFAULT_ROWS = 10_000_000L;
+    private static final int DEFAULT_MESSAGES_PER_TIMESTAMP = 100;
+    private static final int ROWS_PER_TRANSACTION = 10_000;
+    private static final long MEMORY_SAMPLE_INTERVAL_MS = 50;
+    private static final String DATABASE_PATH = "build/logarchiver-benchmark-db";
+    private static final String ARCHIVE_PATH = "build/logarchiver-benchmark-archive";
+
+    private static final String INSERT_TIMESTAMP_RECORD = "INSERT INTO logrecord"
+            + " (id, discriminator, time, archived, timestamp, hashchainresult) VALUES (?, 't', ?, false, ?, ?)";
+    private static final String INSERT_MESSAGE_RECORD = "INSERT INTO logrecord"
+            + " (id, discriminator, time, archived, queryid, message, signature, memberclass, membercode,"
+            + " subsystemcode, signaturehash, timestamprecord, timestamphashchain, response, xrequestid)"
+            + " VALUES (?, 'm', ?, false, ?, ?, ?, 'GOV', '1234', 'SUBSYSTEM', ?, ?, ?, false, ?)";
+
+    private LogArchiverBenchmark() {
+    }
+
+    /**
+     * Main program entry point.
+     * @param args command-line arguments
+     * @throws Exception in case of any errors
+     */
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_ROWS;
+        int messagesPerTimestamp = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MESSAGES_PER_TIMESTAMP;
+
+        if (System.getProperty(SystemProperties.DATABASE_PROPERTIES) == null) {
+            System.setProperty(SystemProperties.DATABASE_PROPERTIES, createDatabaseProperties());
+        }
+
+        ServerConf.reload(TestUtil.getServerConf());
+        GlobalConf.reload(TestUtil.getGlobalConf());
+
+        populate(rows, messagesPerTimestamp);
+
+        ActorSystem actorSystem = ActorSystem.create("Proxy", ConfigFactory.load().getConfig("proxy")
+                .withValue("akka.actor.provider", ConfigValueFactory.fromAnyRef("local")));
+
+        try {
+            run(actorSystem, "entities", false);
+            run(actorSystem, "streaming", true);
+        } finally {
+            Await.ready(actorSystem.terminate(), Duration.Inf());
+            FileUtils.deleteDirectory(new File(ARCHIVE_PATH));
+        }
+    }
+
+    private static String createDatabaseProperties() throws Exception {
+        File database = new File(DATABASE_PATH);
+        FileUtils.forceMkdir(database);
+
+        Properties properties = new Properties();
+        properties.setProperty("messagelog.hibernate.dialect", "org.hibernate.dialect.HSQLDialect");
+        properties.setProperty("messagelog.hibernate.connection.driver_class", "org.hsqldb.jdbcDriver");
+        properties.setProperty("messagelog.hibernate.connection.url", "jdbc:hsqldb:file:" + DATABASE_PATH
+                + "/messagelog;hsqldb.default_table_type=cached"
+                + ";hsqldb.result_max_memory_rows=" + ROWS_PER_TRANSACTION);
+        properties.setProperty("messagelog.hibernate.connection.username", "messagelog");
+        properties.setProperty("messagelog.hibernate.connection.password", "messagelog");
+        properties.setProperty("messagelog.hibernate.hbm2ddl.auto", "update");
+
+        File file = new File(database, "db.properties");
+
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, null);
+        }
+
+        return file.getPath();
+    }
+
+    private static void populate(long rows, int messagesPerTimestamp) throws Exception {
+        long existing = doInTransaction(session -> session.doReturningWork(connection -> {
+            try (Statement statement = connection.createStatement();
+                    ResultSet result = statement.executeQuery("SELECT count(*) FROM logrecord")) {
+                result.next();
+                return result.getLong(1);
+            }
+        }));
+
+        if (existing == rows) {
+            log.info("Using the existing {} log records", existing);
+            return;
+        }
+
+        log.info("Inserting {} log records...", rows);
+
+        String message = TestUtil.createMessage().getXml();
+        String signature = TestUtil.createSignature().getSignatureXml();
+        long start = System.currentTimeMillis();
+        AtomicLong id = new AtomicLong();
+
+        doInTransaction(session -> session.createSQLQuery("DELETE FROM logrecord").executeUpdate());
+
+        while (id.get() < rows) {
+            doInTransaction(session -> {
+                session.doWork(connection -> insertRecords(connection, id, rows, messagesPerTimestamp, message,
+                        signature, start));
+                return null;
+            });
+        }
+
+        log.info("Inserted {} log records in {} s", rows,
+                TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - start));
+    }
+
+    private static void insertRecords(Connection connection, AtomicLong id, long rows, int messagesPerTimestamp,
+            String message, String signature, long time) throws SQLException {
+        try (PreparedStatement timestamps = connection.prepareStatement(INSERT_TIMESTAMP_RECORD);
+                PreparedStatement messages = connection.prepareStatement(INSERT_MESSAGE_RECORD)) {
+            long limit = Math.min(rows, id.get() + ROWS_PER_TRANSACTION);
+
+            while (id.get() < limit) {
+                // The message records are followed by the timestamp record covering them
+                long messageCount = Math.min(messagesPerTimestamp, rows - id.get() - 1);
+                long timestampId = id.get() + messageCount + 1;
+
+                for (long i = 0; i < messageCount; i++) {
+                    long messageId = id.incrementAndGet();
+                    messages.setLong(1, messageId);
+                    messages.setLong(2, time);
+                    messages.setString(3, "query-" + messageId);
+                    messages.setString(4, message);
+                    messages.setString(5, signature);
+                    messages.setString(6, "signature-hash-" + messageId);
+                    messages.setLong(7, timestampId);
+                    messages.setString(8, "timestamp-hash-chain-" + messageId);
+                    messages.setString(9, "request-" + messageId);
+                    messages.addBatch();
+                }
+
+                timestamps.setLong(1, id.incrementAndGet());
+                timestamps.setLong(2, time);
+                timestamps.setString(3, "timestamp-" + timestampId);
+                timestamps.setString(4, "hash-chain-result-" + timestampId);
+                timestamps.addBatch();
+            }
+
+            timestamps.executeBatch();
+            messages.executeBatch();
+        }
+    }
+
+    private static void resetArchived() throws Exception {
+        long maxId = doInTransaction(session -> ((Number) session.createSQLQuery(
+                "SELECT coalesce(max(id), 0) FROM logrecord").uniqueResult()).longValue());
+
+        // Reset in chunks, updating millions of rows in one transaction is slow
+        for (long from = 0; from < maxId; from += ROWS_PER_TRANSACTION) {
+            final long start = from;
+            doInTransaction(session -> session.createSQLQuery(
+                    "UPDATE logrecord SET archived = false WHERE archived = true AND id > :start AND id <= :end")
+                    .setParameter("start", start)
+                    .setParameter("end", start + ROWS_PER_TRANSACTION)
+                    .executeUpdate());
+        }
+
+        doInTransaction(session -> session.createQuery("DELETE FROM " + DigestEntry.class.getName())
+                .executeUpdate());
+    }
+
+    private static void run(ActorSystem actorSystem, String name, boolean streaming) throws Exception {
+        System.setProperty(MessageLogProperties.ARCHIVE_STREAMING_FETCH, String.valueOf(streaming));
+
+        resetArchived();
+
+        File archives = new File(ARCHIVE_PATH);
+        FileUtils.deleteDirectory(archives);
+        FileUtils.forceMkdir(archives);
+
+        long rows = doInTransaction(session -> ((Number) session.createSQLQuery(
+                "SELECT count(*) FROM logrecord WHERE archived = false").uniqueResult()).longValue());
+
+        // Archives on the calling thread
+        ActorRef archiver = TestActorRef.create(actorSystem, Props.create(LogArchiver.class,
+                Paths.get(ARCHIVE_PATH), Paths.get(ARCHIVE_PATH)));
+
+        System.gc();
+        MemorySampler sampler = new MemorySampler();
+        sampler.start();
+
+        long start = System.nanoTime();
+        archiver.tell(LogArchiver.START_ARCHIVING, ActorRef.noSender());
+        long elapsed = System.nanoTime() - start;
+
+        sampler.interrupt();
+        sampler.join();
+        actorSystem.stop(archiver);
+
+        long archived = doInTransaction(session -> ((Number) session.createSQLQuery(
+                "SELECT count(*) FROM logrecord WHERE archived = true").uniqueResult()).longValue());
+
+        log.info("{}: archived {}/{} records in {} ms, {} records/s, peak live heap {} MiB", name, archived, rows,
+                TimeUnit.NANOSECONDS.toMillis(elapsed),
+                String.format("%.0f", archived / (elapsed / (double) TimeUnit.SECONDS.toNanos(1))),
+                sampler.getPeak() / FileUtils.ONE_MB);
+    }
+
+    /**
+     * Samples the heap used after garbage collections while archiving, which excludes the garbage
+     * the archiving has produced but not yet been collected.
+     */
+    private static final class MemorySampler extends Thread {
+
+        private volatile long peak;
+
+        MemorySampler() {
+            setDaemon(true);
+        }
+
+        long getPeak() {
+            return peak;
+        }
+
+        @Override
+        public void run() {
+            List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                    .filter(pool -> pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null)
+                    .collect(Collectors.toList());
+
+            while (!isInterrupted()) {
+                peak = Math.max(peak, heapPools.stream().mapToLong(pool -> pool.getCollectionUsage().getUsed()).sum());
+
+                try {
+                    Thread.sleep(MEMORY_SAMPLE_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -44,6 +44,7 @@ import ee.ria.xroad.proxy.messagelog.Timestamper.TimestampSucceeded;
 import akka.actor.Props;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.filefilter.RegexFileFilter;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.After;
@@ -59,13 +60,24 @@ import javax.persistence.criteria.Root;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import static ee.ria.xroad.common.ErrorCodes.X_MLOG_TIMESTAMPER_FAILED;
 import static ee.ria.xroad.proxy.messagelog.MessageLogDatabaseCtx.doInTransaction;
@@ -285,6 +297,63 @@ public class MessageLogTest extends AbstractMessageLogTest {
         assertArchiveHashChain();
     }
 
+    /**
+     * Logs messages, time-stamps them and archives the messages reading them through the JDBC cursor. Each
+     * message must be archived once, in the order it was logged, and exactly the archived records must be
+     * marked archived.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void logTimestampAndArchiveWithStreamingFetch() throws Exception {
+        log.trace("logTimestampAndArchiveWithStreamingFetch()");
+
+        System.setProperty(MessageLogProperties.ARCHIVE_STREAMING_FETCH, "true");
+        System.setProperty(MessageLogProperties.ARCHIVE_FETCH_SIZE, "2");
+
+        try {
+            String[] queryIds = {"stream-1", "stream-2", "stream-3"};
+
+            for (String queryId : queryIds) {
+                log(createMessage(queryId), createSignature());
+            }
+
+            assertTaskQueueSize(3);
+
+            startTimestamping();
+            waitForTimestampSuccessful();
+            assertTrue(TestTaskQueue.waitForTimestampSaved());
+
+            // The messages and their time-stamp
+            List<Long> recordIds = getRecordIds(false);
+            assertEquals(4, recordIds.size());
+
+            Set<String> archiveFiles = getArchiveFiles();
+
+            startArchiving();
+            TestLogArchiver.waitForArchiveSuccessful();
+
+            assertEquals(recordIds, getRecordIds(true));
+            assertEquals(0, getNumberOfRecords(false));
+
+            Set<String> createdFiles = getArchiveFiles();
+            createdFiles.removeAll(archiveFiles);
+            assertEquals(1, createdFiles.size());
+
+            Map<String, String> messages = getArchivedMessages(new File("build", createdFiles.iterator().next()));
+            List<String> containers = new ArrayList<>(messages.keySet());
+
+            assertEquals(queryIds.length, containers.size());
+
+            for (int i = 0; i < queryIds.length; i++) {
+                assertTrue(containers.get(i), containers.get(i).startsWith(queryIds[i] + "-request-"));
+                assertTrue(messages.get(containers.get(i)).contains("<xroad:id>" + queryIds[i] + "</xroad:id>"));
+            }
+        } finally {
+            System.clearProperty(MessageLogProperties.ARCHIVE_STREAMING_FETCH);
+            System.clearProperty(MessageLogProperties.ARCHIVE_FETCH_SIZE);
+        }
+    }
+
     /**
      * Logs 3 messages, time-stamping fails. Task queue must have 3 tasks. Logs 1 more message, task queue must
      * have 4 tasks.
@@ -586,6 +655,54 @@ public class MessageLogTest extends AbstractMessageLogTest {
         return new SimpleDateFormat("dd-MM-yyyy HH:mm:ss.SSS").parse(dateStr);
     }
 
+    private static List<Long> getRecordIds(boolean archived) throws Exception {
+        return doInTransaction(session -> {
+            final CriteriaBuilder cb = session.getCriteriaBuilder();
+            final CriteriaQuery<Long> query = cb.createQuery(Long.class);
+            final Root<AbstractLogRecord> r = query.from(AbstractLogRecord.class);
+            query.select(r.get("id")).where(cb.equal(r.get("archived"), archived)).orderBy(cb.asc(r.get("id")));
+            return session.createQuery(query).getResultList();
+        });
+    }
+
+    private static Set<String> getArchiveFiles() {
+        String[] files = new File("build").list(new RegexFileFilter("^mlog-\\d+-\\d+-.\\w+\\.zip$"));
+
+        return files != null ? new HashSet<>(Arrays.asList(files)) : new HashSet<>();
+    }
+
+    /**
+     * Reads the message of each ASiC container in the archive file.
+     * @return the messages by the names of the containers, in the order of the containers in the archive
+     */
+    private static Map<String, String> getArchivedMessages(File archiveFile) throws Exception {
+        Map<String, String> messages = new LinkedHashMap<>();
+
+        try (ZipInputStream archive = new ZipInputStream(new FileInputStream(archiveFile))) {
+            ZipEntry entry;
+
+            while ((entry = archive.getNextEntry()) != null) {
+                if (entry.getName().endsWith(".asice")) {
+                    messages.put(entry.getName(), getContainerMessage(new ZipInputStream(archive)));
+                }
+            }
+        }
+
+        return messages;
+    }
+
+    private static String getContainerMessage(ZipInputStream container) throws Exception {
+        ZipEntry entry;
+
+        while ((entry = container.getNextEntry()) != null) {
+            if (entry.getName().equals("message.xml")) {
+                return IOUtils.toString(container, StandardCharsets.UTF_8);
+            }
+        }
+
+        throw new AssertionError("No message in the container");
+    }
+
     private static int getNumberOfRecords(final boolean archived) throws Exception {
         return doInTransaction(session -> {
             final CriteriaBuilder cb = session.getCriteriaBuilder();
@@ -0,0 +1,217 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.serverconf.ServerConf;
+import ee.ria.xroad.common.message.SoapMessageImpl;
+import ee.ria.xroad.common.messagelog.MessageLogProperties;
+import ee.ria.xroad.common.messagelog.SoapLogMessage;
+import ee.ria.xroad.common.signature.SignatureData;
+import ee.ria.xroad.common.util.JobManager;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.actor.Props;
+import akka.pattern.Patterns;
+import akka.util.Timeout;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmark program for the per-message latency of logging a message through the LogManager. Compares
+ * writing each record in its own transaction with the write-behind mode using commit and journal durability.
+ *
+ * Usage: MessageLogWriteBehindBenchmark [threads] [messages per thread], 16 threads and 500 messages by default.
+ *
+ * By default a file-based HSQLDB that syncs every commit to the disk is used, so that the commit latency is
+ * comparable to a real database. Set the system property xroad.common.database-properties to a database
+ * properties file to run the benchmark against PostgreSQL.
+ */
+@Slf4j
+public final class MessageLogWriteBehindBenchmark {
+
+    private static final int DEFAULT_THREADS = 16;
+    private static final int DEFAULT_MESSAGES = 500;
+    private static final Timeout TIMEOUT = new Timeout(Duration.create(30, TimeUnit.SECONDS));
+    private static final String JOURNAL_PATH = "build/messagelog-benchmark-journal";
+    private static final String DATABASE_PATH = "build/messagelog-benchmark-db";
+    private static final double P99 = 0.99;
+
+    private static final AtomicInteger QUERY_ID = new AtomicInteger();
+
+    private MessageLogWriteBehindBenchmark() {
+    }
+
+    /**
+     * Main program entry point.
+     * @param args command-line arguments
+     * @throws Exception in case of any errors
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_THREADS;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MESSAGES;
+
+        if (System.getProperty(SystemProperties.DATABASE_PROPERTIES) == null) {
+            System.setProperty(SystemProperties.DATABASE_PROPERTIES, createDatabaseProperties());
+        }
+
+        ServerConf.reload(TestUtil.getServerConf());
+        GlobalConf.reload(TestUtil.getGlobalConf());
+        System.setProperty(MessageLogProperties.WRITE_BEHIND_JOURNAL_PATH, JOURNAL_PATH);
+
+        ActorSystem actorSystem = ActorSystem.create("Proxy", ConfigFactory.load().getConfig("proxy")
+                .withValue("akka.actor.provider", ConfigValueFactory.fromAnyRef("local")));
+
+        try {
+            // Warm up with the synchronous mode
+            run(actorSystem, "warmup", false, null, threads, messages);
+            run(actorSystem, "synchronous", false, null, threads, messages);
+            run(actorSystem, "write-behind/commit", true, "commit", threads, messages);
+
+            FileUtils.deleteDirectory(new File(JOURNAL_PATH));
+            run(actorSystem, "write-behind/journal", true, "journal", threads, messages);
+        } finally {
+            Await.ready(actorSystem.terminate(), Duration.Inf());
+        }
+    }
+
+    private static String createDatabaseProperties() throws Exception {
+        File database = new File(DATABASE_PATH);
+        FileUtils.deleteDirectory(database);
+        FileUtils.forceMkdir(database);
+
+        Properties properties = new Properties();
+        properties.setProperty("messagelog.hibernate.dialect", "org.hibernate.dialect.HSQLDialect");
+        properties.setProperty("messagelog.hibernate.connection.driver_class", "org.hsqldb.jdbcDriver");
+        properties.setProperty("messagelog.hibernate.connection.url",
+                "jdbc:hsqldb:file:" + DATABASE_PATH + "/messagelog;hsqldb.write_delay=false");
+        properties.setProperty("messagelog.hibernate.connection.username", "messagelog");
+        properties.setProperty("messagelog.hibernate.connection.password", "messagelog");
+        properties.setProperty("messagelog.hibernate.hbm2ddl.auto", "update");
+
+        File file = new File(database, "db.properties");
+
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, null);
+        }
+
+        return file.getPath();
+    }
+
+    private static void run(ActorSystem actorSystem, String name, boolean writeBehind, String durability,
+            int threads, int messages) throws Exception {
+        System.setProperty(MessageLogProperties.WRITE_BEHIND_ENABLED, String.valueOf(writeBehind));
+
+        if (durability != null) {
+            System.setProperty(MessageLogProperties.WRITE_BEHIND_DURABILITY, durability);
+        }
+
+        JobManager jobManager = new JobManager();
+        ActorRef logManager = actorSystem.actorOf(Props.create(BenchmarkLogManager.class, jobManager));
+        SignatureData signature = TestUtil.createSignature();
+        List<long[]> latencies = new ArrayList<>();
+        List<Thread> loggers = new ArrayList<>();
+
+        for (int i = 0; i < threads; i++) {
+            long[] threadLatencies = new long[messages];
+            latencies.add(threadLatencies);
+            loggers.add(new Thread(() -> log(logManager, signature, threadLatencies)));
+        }
+
+        long start = System.nanoTime();
+        loggers.forEach(Thread::start);
+
+        for (Thread logger : loggers) {
+            logger.join();
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        Await.ready(Patterns.gracefulStop(logManager, TIMEOUT.duration(), PoisonPill.getInstance()),
+                TIMEOUT.duration());
+        jobManager.stop();
+
+        long[] all = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+
+        log.info("{}: {} messages, {} msg/s, latency p50 {} us, p99 {} us, max {} us", name, all.length,
+                String.format("%.0f", all.length / (elapsed / (double) TimeUnit.SECONDS.toNanos(1))),
+                TimeUnit.NANOSECONDS.toMicros(all[all.length / 2]),
+                TimeUnit.NANOSECONDS.toMicros(all[(int) (all.length * P99)]),
+                TimeUnit.NANOSECONDS.toMicros(all[all.length - 1]));
+    }
+
+    private static void log(ActorRef logManager, SignatureData signature, long[] latencies) {
+        try {
+            for (int i = 0; i < latencies.length; i++) {
+                SoapMessageImpl message = TestUtil.createMessage(String.valueOf(QUERY_ID.incrementAndGet()));
+
+                long start = System.nanoTime();
+                Object result = Await.result(Patterns.ask(logManager, new SoapLogMessage(message, signature, true),
+                        TIMEOUT), TIMEOUT.duration());
+                latencies[i] = System.nanoTime() - start;
+
+                if (result instanceof Exception) {
+                    throw (Exception) result;
+                }
+            }
+        } catch (Exception e) {
+            log.error("Logging message failed", e);
+        }
+    }
+
+    /**
+     * Log manager that does not start time-stamping during the benchmark.
+     */
+    static class BenchmarkLogManager extends LogManager {
+
+        BenchmarkLogManager(JobManager jobManager) throws Exception {
+            super(jobManager);
+        }
+
+        @Override
+        protected FiniteDuration getTimestamperJobInitialDelay() {
+            return Duration.create(1, TimeUnit.HOURS);
+        }
+    }
+}
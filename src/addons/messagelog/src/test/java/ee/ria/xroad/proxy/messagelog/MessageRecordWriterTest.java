@@ -0,0 +1,381 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.messagelog.MessageLogProperties;
+import ee.ria.xroad.common.messagelog.MessageLogProperties.WriteBehindDurability;
+import ee.ria.xroad.common.messagelog.MessageRecord;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static ee.ria.xroad.proxy.messagelog.MessageLogDatabaseCtx.doInTransaction;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the write-behind mode of message records.
+ */
+public class MessageRecordWriterTest {
+
+    private static final Path JOURNAL = Paths.get("build/messagelog-test-journal");
+    private static final long SEGMENT_SIZE = 1024;
+    private static final byte[] ATTACHMENT = "attachment".getBytes(UTF_8);
+
+    private static final int QUEUE_SIZE = 100;
+    private static final int QUEUE_BYTES = 1024 * 1024;
+    private static final int BATCH_SIZE = 10;
+    private static final int COMMIT_INTERVAL = 5;
+
+    private MessageRecordWriter writer;
+
+    /**
+     * Set up the database and the journal path.
+     * @throws Exception in case of any errors
+     */
+    @Before
+    public void setUp() throws Exception {
+        TestUtil.initForTest();
+        TestUtil.cleanUpDatabase();
+
+        FileUtils.deleteDirectory(JOURNAL.toFile());
+        System.setProperty(MessageLogProperties.WRITE_BEHIND_JOURNAL_PATH, JOURNAL.toString());
+        System.setProperty(MessageLogProperties.WRITE_BEHIND_JOURNAL_SEGMENT_SIZE, String.valueOf(SEGMENT_SIZE));
+    }
+
+    /**
+     * Stop the writer.
+     * @throws Exception in case of any errors
+     */
+    @After
+    public void tearDown() throws Exception {
+        if (writer != null) {
+            writer.stop();
+        }
+    }
+
+    @Test
+    public void acknowledgeAfterCommit() throws Exception {
+        writer = new MessageRecordWriter(WriteBehindDurability.COMMIT, QUEUE_SIZE, QUEUE_BYTES,
+                BATCH_SIZE, COMMIT_INTERVAL);
+        writer.start();
+
+        List<CompletableFuture<MessageRecord>> acks = writeRecords(35);
+
+        for (CompletableFuture<MessageRecord> ack : acks) {
+            assertNotNull(ack.get(5, TimeUnit.SECONDS).getId());
+        }
+
+        assertEquals(35, countRecords());
+    }
+
+    @Test
+    public void limitQueueBytes() throws Exception {
+        // Room for two records of 26 bytes: message, signature and attachment
+        writer = new MessageRecordWriter(WriteBehindDurability.COMMIT, QUEUE_SIZE, 52, BATCH_SIZE,
+                COMMIT_INTERVAL);
+
+        List<CompletableFuture<MessageRecord>> acks = writeRecords(2);
+        assertEquals(52, writer.getQueueBytes());
+
+        CompletableFuture<CompletableFuture<MessageRecord>> third = CompletableFuture.supplyAsync(() -> {
+            try {
+                return writer.write(createRecord(2));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        Thread.sleep(200);
+        assertFalse(third.isDone());
+
+        writer.start();
+        acks.add(third.get(5, TimeUnit.SECONDS));
+
+        for (CompletableFuture<MessageRecord> ack : acks) {
+            ack.get(5, TimeUnit.SECONDS);
+        }
+
+        writer.stop();
+
+        assertEquals(0, writer.getQueueBytes());
+        assertEquals(3, countRecords());
+
+        writer = null;
+    }
+
+    @Test
+    public void rejectLargeAttachments() throws Exception {
+        System.setProperty(MessageLogProperties.WRITE_BEHIND_MAX_ATTACHMENT_SIZE,
+                String.valueOf(ATTACHMENT.length - 1));
+
+        try {
+            writer = new MessageRecordWriter(WriteBehindDurability.JOURNAL, QUEUE_SIZE, QUEUE_BYTES,
+                    BATCH_SIZE, COMMIT_INTERVAL);
+        } finally {
+            System.clearProperty(MessageLogProperties.WRITE_BEHIND_MAX_ATTACHMENT_SIZE);
+        }
+
+        MessageRecord withoutAttachment = createRecord(0);
+        withoutAttachment.setAttachmentStream(null, 0);
+
+        assertFalse(writer.accepts(createRecord(1)));
+        assertTrue(writer.accepts(withoutAttachment));
+    }
+
+    @Test
+    public void rejectAttachmentTooLargeForJournal() throws Exception {
+        try (MessageRecordJournal journal = new MessageRecordJournal(JOURNAL, SEGMENT_SIZE)) {
+            journal.recover(1);
+
+            MessageRecord record = createRecord(0);
+            record.setAttachmentStream(new ByteArrayInputStream(ATTACHMENT),
+                    MessageRecordJournal.MAX_ATTACHMENT_SIZE + 1);
+
+            try {
+                journal.append(Collections.singletonList(record));
+                fail("Appending should have failed");
+            } catch (IOException e) {
+                // expected
+            }
+
+            assertEquals(1, journal.append(Collections.singletonList(createRecord(1))));
+        }
+    }
+
+    @Test
+    public void acknowledgeAfterJournalSync() throws Exception {
+        writer = new MessageRecordWriter(WriteBehindDurability.JOURNAL, QUEUE_SIZE, QUEUE_BYTES,
+                BATCH_SIZE, COMMIT_INTERVAL);
+        writer.start();
+
+        for (CompletableFuture<MessageRecord> ack : writeRecords(35)) {
+            ack.get(5, TimeUnit.SECONDS);
+        }
+
+        writer.stop();
+        writer = null;
+
+        assertEquals(35, countRecords());
+        assertEquals(35, LogRecordManager.getCommittedJournalSequence());
+        assertEquals(1, countSegments());
+        assertArrayEquals(ATTACHMENT, readAttachment());
+    }
+
+    @Test
+    public void writeRecordsLeftInJournal() throws Exception {
+        try (MessageRecordJournal journal = new MessageRecordJournal(JOURNAL, SEGMENT_SIZE)) {
+            journal.recover(1);
+
+            for (int i = 0; i < 10; i++) {
+                journal.append(Collections.singletonList(createRecord(i)));
+            }
+
+            assertTrue(journal.getSegmentCount() > 1);
+        }
+
+        // Simulate an append interrupted by a crash
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(JOURNAL)) {
+            Path last = StreamSupport.stream(segments.spliterator(), false).max(Path::compareTo).get();
+            Files.write(last, new byte[] {0, 0, 1}, StandardOpenOption.APPEND);
+        }
+
+        restartWriter();
+
+        assertEquals(10, countRecords());
+        assertEquals(1, countSegments());
+    }
+
+    @Test
+    public void replayJournalIdempotently() throws Exception {
+        writer = new MessageRecordWriter(WriteBehindDurability.JOURNAL, QUEUE_SIZE, QUEUE_BYTES,
+                BATCH_SIZE, COMMIT_INTERVAL);
+        writer.start();
+
+        for (CompletableFuture<MessageRecord> ack : writeRecords(5)) {
+            ack.get(5, TimeUnit.SECONDS);
+        }
+
+        writer.stop();
+
+        // The current segment is kept after commit, so its records are replayed but must not be written again
+        restartWriter();
+
+        assertEquals(5, countRecords());
+
+        writer = new MessageRecordWriter(WriteBehindDurability.JOURNAL, QUEUE_SIZE, QUEUE_BYTES,
+                BATCH_SIZE, COMMIT_INTERVAL);
+        writer.start();
+        writer.write(createRecord(5)).get(5, TimeUnit.SECONDS);
+        writer.stop();
+        writer = null;
+
+        assertEquals(6, countRecords());
+        assertEquals(6, LogRecordManager.getCommittedJournalSequence());
+    }
+
+    @Test
+    public void continueSequenceAfterJournalRemoved() throws Exception {
+        writer = new MessageRecordWriter(WriteBehindDurability.JOURNAL, QUEUE_SIZE, QUEUE_BYTES,
+                BATCH_SIZE, COMMIT_INTERVAL);
+        writer.start();
+        writer.write(createRecord(0)).get(5, TimeUnit.SECONDS);
+        writer.stop();
+
+        FileUtils.deleteDirectory(JOURNAL.toFile());
+
+        writer = new MessageRecordWriter(WriteBehindDurability.JOURNAL, QUEUE_SIZE, QUEUE_BYTES,
+                BATCH_SIZE, COMMIT_INTERVAL);
+        writer.start();
+        writer.write(createRecord(1)).get(5, TimeUnit.SECONDS);
+        writer.stop();
+        writer = null;
+
+        assertEquals(2, countRecords());
+    }
+
+    @Test
+    public void completeRecordsWrittenWhileStopping() throws Exception {
+        writer = new MessageRecordWriter(WriteBehindDurability.COMMIT, QUEUE_SIZE, QUEUE_BYTES,
+                BATCH_SIZE, COMMIT_INTERVAL);
+        writer.start();
+
+        List<CompletableFuture<MessageRecord>> acks = new CopyOnWriteArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        for (int i = 0; i < 4; i++) {
+            executor.execute(() -> {
+                try {
+                    for (int j = 0; ; j++) {
+                        acks.add(writer.write(createRecord(j)));
+                    }
+                } catch (IllegalStateException | InterruptedException e) {
+                    // writer stopped
+                }
+            });
+        }
+
+        Thread.sleep(200);
+        writer.stop();
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        long written = 0;
+
+        for (CompletableFuture<MessageRecord> ack : acks) {
+            try {
+                ack.get(5, TimeUnit.SECONDS);
+                written++;
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+
+        writer = null;
+
+        assertEquals(written, countRecords());
+    }
+
+    private void restartWriter() throws Exception {
+        writer = new MessageRecordWriter(WriteBehindDurability.JOURNAL, QUEUE_SIZE, QUEUE_BYTES,
+                BATCH_SIZE, COMMIT_INTERVAL);
+        writer.start();
+        writer.stop();
+        writer = null;
+    }
+
+    private static long countSegments() throws Exception {
+        try (Stream<Path> segments = Files.list(JOURNAL)) {
+            return segments.count();
+        }
+    }
+
+    private List<CompletableFuture<MessageRecord>> writeRecords(int count) throws Exception {
+        List<CompletableFuture<MessageRecord>> acks = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            acks.add(writer.write(createRecord(i)));
+        }
+
+        return acks;
+    }
+
+    private static MessageRecord createRecord(int i) {
+        MessageRecord record = new MessageRecord("query" + i, "message", "signature", false,
+                ClientId.create("EE", "GOV", "1234"), "request" + i);
+        record.setTime(System.currentTimeMillis());
+        record.setAttachmentStream(new ByteArrayInputStream(ATTACHMENT), ATTACHMENT.length);
+
+        return record;
+    }
+
+    private static long countRecords() throws Exception {
+        return doInTransaction(session -> (Long) session.createQuery("select count(*) from MessageRecord")
+                .uniqueResult());
+    }
+
+    private static byte[] readAttachment() throws Exception {
+        return doInTransaction(session -> {
+            MessageRecord record = (MessageRecord) session.createQuery("from MessageRecord")
+                    .setMaxResults(1).uniqueResult();
+
+            try {
+                return IOUtils.toByteArray(record.getAttachment().getBinaryStream());
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+}
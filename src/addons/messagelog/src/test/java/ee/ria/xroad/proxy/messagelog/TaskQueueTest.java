@@ -0,0 +1,273 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.messagelog.MessageLogProperties;
+import ee.ria.xroad.common.messagelog.MessageRecord;
+import ee.ria.xroad.proxy.messagelog.Timestamper.TimestampSucceeded;
+import ee.ria.xroad.proxy.messagelog.Timestamper.TimestampTask;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.TestActorRef;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests handling the results of the batches time-stamped at the same time. The timestamper is replaced by
+ * the test, which sends the results of the batches in the order it chooses.
+ */
+public class TaskQueueTest {
+
+    private static final int CLIENT_TIMEOUT = 1000;
+
+    // The timeout of a batch with a single time-stamping provider
+    private static final long IN_FLIGHT_TIMEOUT = 2 * CLIENT_TIMEOUT + 60000;
+
+    private ActorSystem actorSystem;
+    private TestActorRef<InFlightTaskQueue> taskQueueRef;
+    private InFlightTaskQueue taskQueue;
+
+    /**
+     * Set up the database, the properties and the task queue.
+     * @throws Exception in case of any errors
+     */
+    @Before
+    public void setUp() throws Exception {
+        TestUtil.initForTest();
+        TestUtil.cleanUpDatabase();
+
+        TimestampTaskIndex.reset();
+
+        System.setProperty(MessageLogProperties.TIMESTAMP_RECORDS_LIMIT, "2");
+        System.setProperty(MessageLogProperties.TIMESTAMPER_MAX_IN_FLIGHT_BATCHES, "2");
+        System.setProperty(MessageLogProperties.TIMESTAMPER_CLIENT_CONNECT_TIMEOUT, String.valueOf(CLIENT_TIMEOUT));
+        System.setProperty(MessageLogProperties.TIMESTAMPER_CLIENT_READ_TIMEOUT, String.valueOf(CLIENT_TIMEOUT));
+
+        actorSystem = ActorSystem.create("Proxy", ConfigFactory.load()
+                .getConfig("proxy")
+                .withValue("akka.actor.provider", ConfigValueFactory.fromAnyRef("local")));
+
+        taskQueueRef = TestActorRef.create(actorSystem, Props.create(InFlightTaskQueue.class));
+        taskQueue = taskQueueRef.underlyingActor();
+    }
+
+    /**
+     * Stop the task queue and remove the records and the properties.
+     * @throws Exception in case of any errors
+     */
+    @After
+    public void tearDown() throws Exception {
+        Await.ready(actorSystem.terminate(), Duration.Inf());
+
+        System.clearProperty(MessageLogProperties.TIMESTAMP_RECORDS_LIMIT);
+        System.clearProperty(MessageLogProperties.TIMESTAMPER_MAX_IN_FLIGHT_BATCHES);
+        System.clearProperty(MessageLogProperties.TIMESTAMPER_CLIENT_CONNECT_TIMEOUT);
+        System.clearProperty(MessageLogProperties.TIMESTAMPER_CLIENT_READ_TIMEOUT);
+
+        TestUtil.cleanUpDatabase();
+        TimestampTaskIndex.reset();
+    }
+
+    /**
+     * Tests that the results of the batches are saved in the order the batches were sent, even if the later
+     * batch is time-stamped first.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void saveResultsInOrderOfBatches() throws Exception {
+        List<Long> records = saveRecords(4);
+
+        startTimestamping();
+
+        assertEquals(Arrays.asList(records.subList(0, 2), records.subList(2, 4)), taskQueue.sent);
+
+        succeed(taskQueue.tasks.get(1));
+
+        // Waiting for the result of the first batch
+        assertTrue(taskQueue.saved.isEmpty());
+
+        succeed(taskQueue.tasks.get(0));
+
+        assertEquals(Arrays.asList(records.subList(0, 2), records.subList(2, 4)), taskQueue.saved);
+        assertEquals(0, TimestampTaskIndex.size());
+
+        // Time-stamping is started again after the full batches, but there is nothing left to time-stamp.
+        assertEquals(2, taskQueue.sent.size());
+    }
+
+    /**
+     * Tests that no more batches are sent while the maximum number of batches are in progress.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void limitBatchesInProgress() throws Exception {
+        List<Long> records = saveRecords(6);
+
+        startTimestamping();
+        startTimestamping();
+
+        assertEquals(2, taskQueue.sent.size());
+
+        succeed(taskQueue.tasks.get(0));
+
+        // The first batch was full, so the next one is sent right away.
+        assertEquals(Arrays.asList(records.subList(0, 2), records.subList(2, 4), records.subList(4, 6)),
+                taskQueue.sent);
+    }
+
+    /**
+     * Tests that a batch without a result is abandoned after the timestamper timeout, so that the results of
+     * the later batches are saved and its records are time-stamped again.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void abandonExpiredBatch() throws Exception {
+        List<Long> records = saveRecords(4);
+
+        startTimestamping();
+        succeed(taskQueue.tasks.get(1));
+
+        taskQueue.now += IN_FLIGHT_TIMEOUT;
+        startTimestamping();
+
+        // Not expired yet
+        assertTrue(taskQueue.saved.isEmpty());
+        assertEquals(2, taskQueue.sent.size());
+
+        taskQueue.now += 1;
+        startTimestamping();
+
+        assertEquals(Arrays.asList(records.subList(2, 4)), taskQueue.saved);
+        assertEquals(Arrays.asList(records.subList(0, 2), records.subList(2, 4), records.subList(0, 2)),
+                taskQueue.sent);
+
+        succeed(taskQueue.tasks.get(2));
+
+        assertEquals(Arrays.asList(records.subList(2, 4), records.subList(0, 2)), taskQueue.saved);
+        assertEquals(0, TimestampTaskIndex.size());
+    }
+
+    /**
+     * Tests that the result of an abandoned batch is dropped when it arrives after its records have been sent
+     * for time-stamping again, so that the records are not time-stamped twice.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void dropLateResultOfAbandonedBatch() throws Exception {
+        List<Long> records = saveRecords(2);
+
+        startTimestamping();
+
+        taskQueue.now += IN_FLIGHT_TIMEOUT + 1;
+        startTimestamping();
+
+        // The same records are sent again in a new batch
+        assertEquals(Arrays.asList(records, records), taskQueue.sent);
+
+        succeed(taskQueue.tasks.get(0));
+
+        assertTrue(taskQueue.saved.isEmpty());
+        assertEquals(2, TimestampTaskIndex.size());
+
+        succeed(taskQueue.tasks.get(1));
+
+        assertEquals(Arrays.asList(records), taskQueue.saved);
+        assertEquals(0, TimestampTaskIndex.size());
+    }
+
+    private void startTimestamping() {
+        taskQueueRef.tell(TaskQueue.START_TIMESTAMPING, ActorRef.noSender());
+    }
+
+    private void succeed(TimestampTask task) {
+        TimestampSucceeded result = new TimestampSucceeded(task.getMessageRecords(), null, null, null, "http://tsp");
+        result.setBatchId(task.getBatchId());
+
+        taskQueueRef.tell(result, ActorRef.noSender());
+    }
+
+    private static List<Long> saveRecords(int count) throws Exception {
+        List<Long> ids = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            MessageRecord record = new MessageRecord("query" + i, "message", "signature" + i, false,
+                    ClientId.create("EE", "GOV", "1234"), "request" + i);
+            record.setTime(System.currentTimeMillis());
+            record.setSignatureHash(LogManager.signatureHash(record.getSignature()));
+
+            LogRecordManager.saveMessageRecord(record);
+            ids.add(record.getId());
+        }
+
+        return ids;
+    }
+
+    /**
+     * Task queue that records the batches sent for time-stamping and the saved results, with a clock set
+     * by the test.
+     */
+    static class InFlightTaskQueue extends TaskQueue {
+
+        private final List<TimestampTask> tasks = new ArrayList<>();
+        private final List<List<Long>> sent = new ArrayList<>();
+        private final List<List<Long>> saved = new ArrayList<>();
+
+        private long now = System.currentTimeMillis();
+
+        @Override
+        protected void sendToTimestamper(TimestampTask timestampTask) {
+            tasks.add(timestampTask);
+            sent.add(Arrays.asList(timestampTask.getMessageRecords()));
+        }
+
+        @Override
+        protected void saveTimestampRecord(TimestampSucceeded message) {
+            saved.add(Arrays.asList(message.getMessageRecords()));
+
+            TimestampTaskIndex.remove(message.getMessageRecords());
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+}
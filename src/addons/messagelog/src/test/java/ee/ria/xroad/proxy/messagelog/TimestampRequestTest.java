@@ -0,0 +1,265 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import ee.ria.xroad.common.messagelog.MessageLogProperties;
+
+import org.apache.commons.io.FileUtils;
+import org.bouncycastle.tsp.TimeStampRequest;
+import org.bouncycastle.tsp.TimeStampResponse;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests sending time-stamp requests to several time-stamping providers, using local stub providers that
+ * respond with a fixed time-stamp response.
+ */
+public class TimestampRequestTest {
+
+    private static final long SLOW_RESPONSE = 10000;
+    private static final long DELAYED_RESPONSE = 1000;
+    private static final long HEDGE_MIN_DELAY = 200;
+
+    private static final AtomicInteger STUB_COUNT = new AtomicInteger();
+
+    private final List<StubTsp> stubs = new ArrayList<>();
+
+    private final CountDownLatch testFinished = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        System.setProperty(MessageLogProperties.TIMESTAMPER_HEDGE_MIN_DELAY, String.valueOf(HEDGE_MIN_DELAY));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty(MessageLogProperties.TIMESTAMPER_HEDGE_MIN_DELAY);
+        System.clearProperty(MessageLogProperties.TIMESTAMPER_HEDGE_PERCENTILE);
+
+        testFinished.countDown();
+
+        for (StubTsp stub : stubs) {
+            stub.server.stop();
+        }
+    }
+
+    /**
+     * Test to ensure that the first provider is used when it responds.
+     * @throws Exception in case of unexpected errors
+     */
+    @Test
+    public void firstProviderResponds() throws Exception {
+        StubTsp first = startStub(false, 0);
+        StubTsp second = startStub(false, 0);
+
+        assertEquals(first.url, timestamp(first, second));
+        assertEquals(0, second.requests.get());
+    }
+
+    /**
+     * Test to ensure that the next provider is used when the first one fails.
+     * @throws Exception in case of unexpected errors
+     */
+    @Test
+    public void failover() throws Exception {
+        StubTsp first = startStub(true, 0);
+        StubTsp second = startStub(false, 0);
+
+        assertEquals(second.url, timestamp(first, second));
+        assertEquals(1, first.requests.get());
+    }
+
+    /**
+     * Test to ensure that the request is also sent to the next provider when the first one is slower than
+     * its observed latencies, and that the first valid response is used.
+     * @throws Exception in case of unexpected errors
+     */
+    @Test
+    public void hedgedRequest() throws Exception {
+        StubTsp first = startStub(false, SLOW_RESPONSE);
+        StubTsp second = startStub(false, 0);
+
+        recordLatencies(first, 1);
+
+        long start = System.currentTimeMillis();
+
+        assertEquals(second.url, timestamp(first, second));
+        assertTrue(System.currentTimeMillis() - start < SLOW_RESPONSE);
+        assertEquals(1, first.requests.get());
+    }
+
+    /**
+     * Test to ensure that the request is not hedged while the latencies of the provider are not known
+     * or when hedging is disabled.
+     * @throws Exception in case of unexpected errors
+     */
+    @Test
+    public void noHedging() throws Exception {
+        StubTsp first = startStub(false, DELAYED_RESPONSE);
+        StubTsp second = startStub(false, 0);
+
+        assertEquals(first.url, timestamp(first, second));
+
+        System.setProperty(MessageLogProperties.TIMESTAMPER_HEDGE_PERCENTILE, "0");
+
+        StubTsp third = startStub(false, DELAYED_RESPONSE);
+        recordLatencies(third, 1);
+
+        assertEquals(third.url, timestamp(third, second));
+        assertEquals(0, second.requests.get());
+    }
+
+    /**
+     * Test to ensure that the request fails when all the providers fail.
+     * @throws Exception in case of unexpected errors
+     */
+    @Test
+    public void allProvidersFail() throws Exception {
+        StubTsp first = startStub(true, 0);
+        StubTsp second = startStub(true, 0);
+
+        try {
+            timestamp(first, second);
+            fail("Time-stamping should have failed");
+        } catch (RuntimeException expected) {
+            assertEquals(1, first.requests.get());
+            assertEquals(1, second.requests.get());
+        }
+    }
+
+    private static void recordLatencies(StubTsp stub, long millis) {
+        for (int i = 0; i < TspStatistics.MIN_SAMPLES; i++) {
+            TspStatistics.success(stub.url, millis);
+        }
+    }
+
+    private String timestamp(StubTsp... providers) throws Exception {
+        List<String> urls = new ArrayList<>();
+
+        for (StubTsp provider : providers) {
+            urls.add(provider.url);
+        }
+
+        AbstractTimestampRequest request = new AbstractTimestampRequest(new Long[] {1L}) {
+            @Override
+            byte[] getRequestData() {
+                return new byte[] {1, 2, 3};
+            }
+
+            @Override
+            Timestamper.TimestampResult result(TimeStampResponse tsResponse, String url) {
+                assertNotNull(tsResponse.getTimeStampToken());
+
+                return new Timestamper.TimestampSucceeded(logRecords, null, null, null, url);
+            }
+
+            @Override
+            protected void verify(TimeStampRequest tsRequest, TimeStampResponse tsResponse) {
+                // The fixed response does not match the request
+            }
+        };
+
+        return ((Timestamper.TimestampSucceeded) request.execute(urls)).getUrl();
+    }
+
+    /**
+     * Starts a stub time-stamping provider.
+     * @param failing whether the provider responds with an HTTP error
+     * @param delay time in milliseconds the provider delays the response, at most until the end of the test
+     */
+    private StubTsp startStub(boolean failing, long delay) throws Exception {
+        byte[] response = FileUtils.readFileToByteArray(new File("src/test/resources/tsp.response"));
+        AtomicInteger requests = new AtomicInteger();
+
+        Server server = new Server(0);
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                    HttpServletResponse servletResponse) throws IOException {
+                requests.incrementAndGet();
+                baseRequest.setHandled(true);
+
+                if (delay > 0) {
+                    try {
+                        testFinished.await(delay, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                if (failing) {
+                    servletResponse.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                } else {
+                    servletResponse.setContentType("application/timestamp-reply");
+                    servletResponse.getOutputStream().write(response);
+                }
+            }
+        });
+        server.start();
+
+        // Unique path, so that the latencies of earlier stubs on the same port are not used
+        String url = "http://127.0.0.1:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort()
+                + "/tsp" + STUB_COUNT.incrementAndGet();
+
+        StubTsp stub = new StubTsp(server, url, requests);
+        stubs.add(stub);
+
+        return stub;
+    }
+
+    private static final class StubTsp {
+        private final Server server;
+        private final String url;
+        private final AtomicInteger requests;
+
+        StubTsp(Server server, String url, AtomicInteger requests) {
+            this.server = server;
+            this.url = url;
+            this.requests = requests;
+        }
+    }
+}
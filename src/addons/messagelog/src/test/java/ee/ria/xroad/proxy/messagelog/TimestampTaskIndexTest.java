@@ -0,0 +1,150 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.messagelog;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.messagelog.MessageRecord;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the in-memory index of the message records waiting to be time-stamped.
+ */
+public class TimestampTaskIndexTest {
+
+    /**
+     * Set up the database and clear the index.
+     * @throws Exception in case of any errors
+     */
+    @Before
+    public void setUp() throws Exception {
+        TestUtil.initForTest();
+        TestUtil.cleanUpDatabase();
+
+        TimestampTaskIndex.reset();
+    }
+
+    /**
+     * Remove the records and clear the index, so that the other tests do not see them.
+     * @throws Exception in case of any errors
+     */
+    @After
+    public void tearDown() throws Exception {
+        TestUtil.cleanUpDatabase();
+        TimestampTaskIndex.reset();
+    }
+
+    /**
+     * Tests that the index is loaded with the records not yet time-stamped.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void loadStoredTasks() throws Exception {
+        List<MessageRecord> records = saveRecords(3);
+
+        assertFalse(TimestampTaskIndex.isLoaded());
+        assertTrue(TimestampTaskIndex.load());
+        assertTrue(TimestampTaskIndex.isLoaded());
+
+        assertEquals(ids(records), taskIds(TimestampTaskIndex.getTasks(10, Collections.emptySet())));
+        assertEquals(records.get(0).getSignatureHash(),
+                TimestampTaskIndex.getTasks(1, Collections.emptySet()).get(0).getSignatureHash());
+    }
+
+    /**
+     * Tests that records added or removed before the index is loaded are taken into account.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void changesBeforeLoad() throws Exception {
+        List<MessageRecord> records = saveRecords(3);
+
+        // Saved and time-stamped while the index was being loaded
+        TimestampTaskIndex.add(records.get(2));
+        TimestampTaskIndex.remove(new Long[] {records.get(0).getId()});
+
+        assertTrue(TimestampTaskIndex.load());
+
+        assertEquals(ids(records.subList(1, 3)), taskIds(TimestampTaskIndex.getTasks(10, Collections.emptySet())));
+        assertEquals(2, TimestampTaskIndex.size());
+    }
+
+    /**
+     * Tests that the tasks are returned in the order of the records, excluding the ones in progress.
+     * @throws Exception in case of any errors
+     */
+    @Test
+    public void getTasksInOrder() throws Exception {
+        assertTrue(TimestampTaskIndex.load());
+
+        List<MessageRecord> records = saveRecords(5);
+        TimestampTaskIndex.add(records);
+
+        assertEquals(ids(records.subList(0, 2)), taskIds(TimestampTaskIndex.getTasks(2, Collections.emptySet())));
+        assertEquals(ids(records.subList(2, 4)), taskIds(TimestampTaskIndex.getTasks(2,
+                new HashSet<>(ids(records.subList(0, 2))))));
+
+        TimestampTaskIndex.remove(new Long[] {records.get(0).getId(), records.get(1).getId()});
+
+        assertEquals(ids(records.subList(2, 5)), taskIds(TimestampTaskIndex.getTasks(10, Collections.emptySet())));
+        assertEquals(3, TimestampTaskIndex.size());
+    }
+
+    private static List<MessageRecord> saveRecords(int count) throws Exception {
+        MessageRecord[] records = new MessageRecord[count];
+
+        for (int i = 0; i < count; i++) {
+            records[i] = new MessageRecord("query" + i, "message", "signature" + i, false,
+                    ClientId.create("EE", "GOV", "1234"), "request" + i);
+            records[i].setTime(System.currentTimeMillis());
+            records[i].setSignatureHash(LogManager.signatureHash(records[i].getSignature()));
+
+            LogRecordManager.saveMessageRecord(records[i]);
+        }
+
+        return Arrays.asList(records);
+    }
+
+    private static List<Long> ids(List<MessageRecord> records) {
+        return records.stream().map(MessageRecord::getId).collect(Collectors.toList());
+    }
+
+    private static List<Long> taskIds(List<Task> tasks) {
+        return tasks.stream().map(Task::getMessageRecordNo).collect(Collectors.toList());
+    }
+}
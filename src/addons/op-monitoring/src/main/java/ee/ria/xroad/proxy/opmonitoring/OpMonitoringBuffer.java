@@ -30,14 +30,13 @@ import ee.ria.xroad.common.opmonitoring.AbstractOpMonitoringBuffer;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringDaemonHttpClient;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
-import ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataRequest;
-import ee.ria.xroad.common.util.JsonUtils;
+import ee.ria.xroad.common.util.PerformanceMetrics;
 import ee.ria.xroad.common.util.TimeUtils;
 
 import akka.actor.ActorRef;
 import akka.actor.Cancellable;
 import akka.actor.Props;
-import com.google.gson.Gson;
+import com.codahale.metrics.Counter;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
@@ -45,11 +44,9 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import scala.concurrent.duration.FiniteDuration;
 
 import java.net.NetworkInterface;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.net.NetworkInterface.getNetworkInterfaces;
 import static java.util.Collections.list;
@@ -58,6 +55,10 @@ import static java.util.Collections.list;
  * Operational monitoring buffer. This buffer is used for gathering
  * operational data and for periodically sending the data to the operational
  * monitoring daemon (using OpMonitoringDaemonSender).
+ *
+ * The threads handling the requests add the data directly to a preallocated ring buffer, so storing the data
+ * does not require an actor message for each request. If the ring buffer is full, the oldest data is discarded
+ * and counted in the overflow metric.
  */
 @Slf4j
 public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
@@ -66,10 +67,11 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
     private static final String NO_ADDRESS_FOUND = "No suitable IP address is bound to the network interface ";
     private static final String NO_INTERFACE_FOUND = "No non-loopback network interface found";
 
-    private static final long MAX_BUFFER_SIZE = OpMonitoringSystemProperties.getOpMonitorBufferSize();
+    private static final int MAX_BUFFER_SIZE = OpMonitoringSystemProperties.getOpMonitorBufferSize();
+
+    // The ring buffer needs at least two slots
+    private static final int MIN_RING_BUFFER_CAPACITY = 2;
 
-    private static final int MAX_RECORDS_IN_MESSAGE =
-            OpMonitoringSystemProperties.getOpMonitorBufferMaxRecordsInMessage();
     private static final long SENDING_INTERVAL_SECONDS =
             OpMonitoringSystemProperties.getOpMonitorBufferSendingIntervalSeconds();
 
@@ -79,33 +81,32 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
     private static final int CLIENT_SOCKET_TIMEOUT_MILLISECONDS = TimeUtils.secondsToMillis(
             OpMonitoringSystemProperties.getOpMonitorBufferSocketTimeoutSeconds());
 
-    private static final Gson GSON = JsonUtils.getSerializer();
+    private static final Counter OVERFLOW = PerformanceMetrics.counter(OpMonitoringBuffer.class, "overflow");
 
     private Cancellable tick;
 
-    final Map<Long, OpMonitoringData> buffer =
-            new LinkedHashMap<Long, OpMonitoringData>() {
-                @Override
-                protected boolean removeEldestEntry(Map.Entry eldest) {
-                    boolean overflow = size() > MAX_BUFFER_SIZE;
+    final OpMonitoringDataRingBuffer buffer;
 
-                    if (overflow) {
-                        log.warn("Operational monitoring buffer overflow, removing eldest record: {}", eldest.getKey());
-                    }
+    // Set when the buffer starts discarding records, cleared after a sending interval without discarded records
+    private final AtomicBoolean overflowing = new AtomicBoolean();
 
-                    return overflow;
-                }
-            };
+    // Number of records discarded since the last overflow warning
+    private final AtomicLong discardedSinceWarning = new AtomicLong();
 
-    private long bufferIndex = 0;
+    // Time (millis) after which the discarded records are counted again
+    private long nextOverflowCheck;
 
-    private final Set<Long> processedBufferIndices = new HashSet<>();
+    // Set when a thread storing data has asked the buffer to send the data, cleared when the buffer handles it
+    private final AtomicBoolean sendRequested = new AtomicBoolean();
+
+    // Whether the sender is sending records
+    private boolean sending;
 
     private final CloseableHttpClient httpClient;
 
     private final ActorRef sender;
 
-    private static String ipAddress;
+    private static volatile String ipAddress;
 
     /**
      * Constructor.
@@ -115,11 +116,15 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
         if (ignoreOpMonitoringData()) {
             log.info("Operational monitoring buffer is switched off, no operational monitoring data is stored");
 
+            buffer = null;
             httpClient = null;
             sender = null;
         } else {
+            buffer = new OpMonitoringDataRingBuffer(Math.max(MIN_RING_BUFFER_CAPACITY, MAX_BUFFER_SIZE));
             httpClient = createHttpClient();
             sender = createSender();
+
+            PerformanceMetrics.gauge(OpMonitoringBuffer.class, "size", buffer::size);
         }
     }
 
@@ -129,7 +134,7 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
     }
 
     ActorRef createSender() {
-        return getContext().system().actorOf(Props.create(OpMonitoringDaemonSender.class, httpClient),
+        return getContext().system().actorOf(Props.create(OpMonitoringDaemonSender.class, httpClient, buffer),
                 OP_MONITORING_DAEMON_SENDER);
     }
 
@@ -139,49 +144,88 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
             return;
         }
 
+        add(data);
+        send();
+    }
+
+    /**
+     * Stores the data in the thread handling the request and asks the buffer to send it, unless the buffer
+     * has already been asked to.
+     */
+    private void storeDirectly(OpMonitoringData data, ActorRef self) {
+        add(data);
+
+        if (sendRequested.compareAndSet(false, true)) {
+            self.tell(SEND_MONITORING_DATA, ActorRef.noSender());
+        }
+    }
+
+    /**
+     * Adds the data to the buffer. Only the first discarded record of an overflow is logged, the number of the
+     * records discarded after it is logged by {@link #warnOverflow()}.
+     */
+    private void add(OpMonitoringData data) {
         data.setSecurityServerInternalIp(getIpAddress());
 
-        buffer.put(getNextBufferIndex(), data);
+        int discarded = buffer.add(data);
 
-        send();
+        if (discarded > 0) {
+            OVERFLOW.inc(discarded);
+            discardedSinceWarning.addAndGet(discarded);
+
+            if (!overflowing.getAndSet(true)) {
+                log.warn("Operational monitoring buffer overflow, discarding the oldest records");
+            }
+        }
     }
 
-    @Override
-    protected void send() throws Exception {
-        if (!canSend()) {
+    /**
+     * Logs the number of records discarded during the last sending interval, or ends the overflow if none were.
+     */
+    private void warnOverflow() {
+        long now = System.currentTimeMillis();
+
+        if (!overflowing.get() || now < nextOverflowCheck) {
             return;
         }
 
-        String json = prepareMonitoringMessage();
+        nextOverflowCheck = now + TimeUnit.SECONDS.toMillis(SENDING_INTERVAL_SECONDS);
 
-        sender.tell(json, getSelf());
-    }
+        long discarded = discardedSinceWarning.getAndSet(0);
 
-    private boolean canSend() {
-        return !buffer.isEmpty() && processedBufferIndices.isEmpty();
+        if (discarded > 0) {
+            log.warn("Operational monitoring buffer overflow, {} oldest records discarded ({} in total)",
+                    discarded, OVERFLOW.getCount());
+        } else {
+            overflowing.set(false);
+        }
     }
 
-    private String prepareMonitoringMessage() {
-        StoreOpMonitoringDataRequest request = new StoreOpMonitoringDataRequest();
+    @Override
+    protected void send() throws Exception {
+        sendRequested.set(false);
 
-        for (Map.Entry<Long, OpMonitoringData> entry : buffer.entrySet()) {
-            processedBufferIndices.add(entry.getKey());
-            request.addRecord(entry.getValue().getData());
+        if (buffer != null) {
+            warnOverflow();
+        }
 
-            if (request.getRecords().size() == MAX_RECORDS_IN_MESSAGE) {
-                break;
-            }
+        if (!canSend()) {
+            return;
         }
 
         log.debug("Op monitoring buffer records count: {}", buffer.size());
 
-        return GSON.toJson(request);
+        sending = true;
+        sender.tell(SEND_MONITORING_DATA, getSelf());
+    }
+
+    private boolean canSend() {
+        return buffer != null && !sending && !buffer.isEmpty();
     }
 
     @Override
     protected void sendingSuccess() throws Exception {
-        processedBufferIndices.forEach(buffer::remove);
-        processedBufferIndices.clear();
+        sending = false;
 
         if (canSend()) {
             send();
@@ -190,17 +234,11 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
 
     @Override
     protected void sendingFailure() throws Exception {
-        processedBufferIndices.clear();
+        sending = false;
 
         // Do not worry, scheduled sending retries..
     }
 
-    long getNextBufferIndex() {
-        bufferIndex = bufferIndex == Long.MAX_VALUE ? 0 : bufferIndex + 1;
-
-        return bufferIndex;
-    }
-
     private void scheduleSendMonitoringData() {
         FiniteDuration interval = FiniteDuration.create(SENDING_INTERVAL_SECONDS, TimeUnit.SECONDS);
 
@@ -215,10 +253,15 @@ public class OpMonitoringBuffer extends AbstractOpMonitoringBuffer {
         }
 
         scheduleSendMonitoringData();
+
+        ActorRef self = getSelf();
+        OpMonitoring.setDirectStore(data -> storeDirectly(data, self));
     }
 
     @Override
     public void postStop() throws Exception {
+        OpMonitoring.setDirectStore(null);
+
         if (tick != null) {
             tick.cancel();
         }
@@ -27,6 +27,7 @@ package ee.ria.xroad.proxy.opmonitoring;
 
 import ee.ria.xroad.common.opmonitoring.AbstractOpMonitoringBuffer;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringDaemonEndpoints;
+import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
 import ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataResponse;
 import ee.ria.xroad.common.util.HttpSender;
@@ -38,13 +39,23 @@ import ee.ria.xroad.common.util.TimeUtils;
 import akka.actor.ActorRef;
 import akka.actor.UntypedAbstractActor;
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.EntityTemplate;
 import org.apache.http.impl.client.CloseableHttpClient;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
 
 import static ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataResponse.STATUS_ERROR;
 import static ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataResponse.STATUS_OK;
@@ -52,12 +63,20 @@ import static ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataResponse.STA
 /**
  * Actor for sending operational data to the operational monitoring daemon. This actor is used by the
  * OpMonitoringBuffer class for periodically forwarding operational data gathered in the buffer.
+ *
+ * The records are read from the ring buffer and written straight to the connection as JSON. The records are
+ * released from the ring buffer once the daemon has stored them.
  */
 @Slf4j
 public class OpMonitoringDaemonSender extends UntypedAbstractActor {
 
     private static final Gson GSON = JsonUtils.getSerializer();
 
+    private static final String RECORDS = "records";
+
+    private static final int MAX_RECORDS_IN_MESSAGE =
+            OpMonitoringSystemProperties.getOpMonitorBufferMaxRecordsInMessage();
+
     private static final int CONNECTION_TIMEOUT_MILLISECONDS = TimeUtils.secondsToMillis(
             OpMonitoringSystemProperties.getOpMonitorBufferConnectionTimeoutSeconds());
 
@@ -66,19 +85,26 @@ public class OpMonitoringDaemonSender extends UntypedAbstractActor {
 
     private CloseableHttpClient httpClient;
 
-    OpMonitoringDaemonSender(CloseableHttpClient httpClient) {
+    private final OpMonitoringDataRingBuffer buffer;
+
+    OpMonitoringDaemonSender(CloseableHttpClient httpClient, OpMonitoringDataRingBuffer buffer) {
         this.httpClient = httpClient;
+        this.buffer = buffer;
     }
 
     @Override
     public void onReceive(Object message) throws Exception {
-        if (message instanceof String) {
-            String json = (String) message;
+        if (AbstractOpMonitoringBuffer.SEND_MONITORING_DATA.equals(message)) {
+            List<OpMonitoringData> records = buffer.peek(MAX_RECORDS_IN_MESSAGE);
 
-            log.trace("onReceive: {}", json);
+            log.trace("onReceive: {} records", records.size());
 
             try {
-                send(json);
+                if (!records.isEmpty()) {
+                    send(records);
+                    buffer.release(records.size());
+                }
+
                 success();
             } catch (Exception e) {
                 log.error("Sending operational monitoring data failed", e);
@@ -98,12 +124,12 @@ public class OpMonitoringDaemonSender extends UntypedAbstractActor {
         getSender().tell(AbstractOpMonitoringBuffer.SENDING_FAILURE, ActorRef.noSender());
     }
 
-    private void send(String json) throws Exception {
+    private void send(List<OpMonitoringData> records) throws Exception {
         try (HttpSender sender = new HttpSender(httpClient)) {
             sender.setConnectionTimeout(CONNECTION_TIMEOUT_MILLISECONDS);
             sender.setSocketTimeout(SOCKET_TIMEOUT_MILLISECONDS);
 
-            sender.doPost(getAddress(), json, MimeTypes.JSON);
+            sender.doPost(getAddress(), createEntity(records));
 
             String responseJson = IOUtils.toString(sender.getResponseContent(), MimeUtils.UTF8);
             StoreOpMonitoringDataResponse response;
@@ -129,6 +155,33 @@ public class OpMonitoringDaemonSender extends UntypedAbstractActor {
         }
     }
 
+    private static HttpEntity createEntity(List<OpMonitoringData> records) {
+        EntityTemplate entity = new EntityTemplate(out -> writeRecords(records, out));
+        entity.setContentType(ContentType.create(MimeTypes.JSON, MimeUtils.UTF8).toString());
+        entity.setChunked(true);
+
+        return entity;
+    }
+
+    /**
+     * Writes the records as a store operational monitoring data request.
+     * @param records the records
+     * @param out the stream to write to
+     * @throws IOException if writing fails
+     */
+    static void writeRecords(List<OpMonitoringData> records, OutputStream out) throws IOException {
+        JsonWriter writer = GSON.newJsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+
+        writer.beginObject().name(RECORDS).beginArray();
+
+        for (OpMonitoringData record : records) {
+            GSON.toJson(record.getData(), Map.class, writer);
+        }
+
+        writer.endArray().endObject();
+        writer.flush();
+    }
+
     private URI getAddress() throws URISyntaxException {
         return new URI(OpMonitoringSystemProperties.getOpMonitorDaemonScheme(), null,
                 OpMonitoringSystemProperties.getOpMonitorHost(), OpMonitoringSystemProperties.getOpMonitorPort(),
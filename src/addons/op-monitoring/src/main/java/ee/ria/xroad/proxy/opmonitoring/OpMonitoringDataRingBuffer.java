@@ -0,0 +1,209 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.opmonitoring;
+
+import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded ring buffer of operational monitoring data with preallocated slots. Any number of threads can add
+ * records at the same time without locking; the records are read and released by a single consumer. The records
+ * read by the consumer keep their slots until they are released, so that they can be read again if sending them
+ * fails. If the buffer is full, the oldest record is discarded to make room for the new one, even if the consumer
+ * has already read it.
+ *
+ * A slot is freed by the thread that advances the head past it, either the consumer releasing the record or a
+ * thread discarding it, so that each slot is freed exactly once.
+ */
+final class OpMonitoringDataRingBuffer {
+
+    private final int capacity;
+
+    private final AtomicReferenceArray<OpMonitoringData> slots;
+
+    /**
+     * Sequence of each slot: equals the position of the next record to be added to the slot if the slot is
+     * free, and the position of the record plus one if the record has been added to the slot.
+     */
+    private final AtomicLongArray sequences;
+
+    /** Position of the next record to be added. */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** Position of the oldest record not yet released or discarded. */
+    private final AtomicLong head = new AtomicLong();
+
+    /** Position of the first record returned by the last peek, only used by the consumer. */
+    private long peeked;
+
+    /**
+     * Constructor.
+     * @param capacity maximum number of records in the buffer, at least 2
+     */
+    OpMonitoringDataRingBuffer(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Ring buffer capacity must be at least 2");
+        }
+
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds the record to the buffer, discarding the oldest records if the buffer is full. Can be called by any
+     * thread.
+     * @param data the record
+     * @return the number of records this call discarded to make room for the record
+     */
+    int add(OpMonitoringData data) {
+        int discarded = 0;
+        long position = tail.get();
+
+        while (true) {
+            int index = index(position);
+            long difference = sequences.get(index) - position;
+
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.set(index, data);
+                    sequences.set(index, position + 1);
+
+                    return discarded;
+                }
+            } else if (difference < 0 && discardOldest(position)) {
+                discarded++;
+            }
+
+            // Another thread added a record at this position, or the slot is being freed
+            position = tail.get();
+        }
+    }
+
+    /**
+     * Returns the oldest records without releasing them. Only called by the consumer.
+     * @param max maximum number of records to return
+     * @return the records, in the order they were added
+     */
+    List<OpMonitoringData> peek(int max) {
+        List<OpMonitoringData> records = new ArrayList<>(Math.min(max, size()));
+        long position = head.get();
+
+        peeked = position;
+
+        while (records.size() < max) {
+            int index = index(position);
+
+            if (sequences.get(index) != position + 1) {
+                // The record has not been added yet
+                break;
+            }
+
+            OpMonitoringData data = slots.get(index);
+
+            if (data == null || sequences.get(index) != position + 1) {
+                // The record was discarded meanwhile
+                break;
+            }
+
+            records.add(data);
+            position++;
+        }
+
+        return records;
+    }
+
+    /**
+     * Releases the records returned by the last peek, making room for new ones. Records discarded since the
+     * peek are skipped. Only called by the consumer.
+     * @param count number of records to release, at most the number of records returned by the last peek
+     */
+    void release(int count) {
+        long end = peeked + count;
+        long position;
+
+        while ((position = head.get()) < end) {
+            free(position);
+        }
+    }
+
+    /**
+     * @return the number of records in the buffer, including the ones being added
+     */
+    int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Discards the oldest record, if the buffer is full for a record to be added at the given position.
+     * @return true if this thread discarded the record
+     */
+    private boolean discardOldest(long position) {
+        long oldest = head.get();
+
+        // Otherwise the oldest record has been freed, but its slot not yet, or it is still being added
+        return position - oldest >= capacity && sequences.get(index(oldest)) == oldest + 1 && free(oldest);
+    }
+
+    /**
+     * Advances the head past the record at the given position and frees its slot, unless another thread
+     * advanced the head first.
+     * @return true if this thread freed the slot
+     */
+    private boolean free(long position) {
+        if (!head.compareAndSet(position, position + 1)) {
+            return false;
+        }
+
+        int index = index(position);
+
+        slots.set(index, null);
+        sequences.set(index, position + capacity);
+
+        return true;
+    }
+
+    private int index(long position) {
+        return (int) (position % capacity);
+    }
+}
@@ -26,6 +26,7 @@
 package ee.ria.xroad.proxy.opmonitoring;
 
 import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
+import ee.ria.xroad.common.util.PerformanceMetrics;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
@@ -34,6 +35,8 @@ import akka.testkit.TestActorRef;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -58,8 +61,8 @@ public class OpMonitoringBufferTest {
         }
 
         @Override
-        protected void store(OpMonitoringData data) throws Exception {
-            buffer.put(getNextBufferIndex(), data);
+        protected void send() throws Exception {
+            // records are left in the buffer
         }
     }
 
@@ -74,15 +77,18 @@ public class OpMonitoringBufferTest {
         TestOpMonitoringBuffer opMonitoringBuffer =
                 testActorRef.underlyingActor();
 
-        OpMonitoringData opMonitoringData = new OpMonitoringData(
-                OpMonitoringData.SecurityServerType.CLIENT, 100);
+        OpMonitoringData first = new OpMonitoringData(OpMonitoringData.SecurityServerType.CLIENT, 100);
+        OpMonitoringData second = new OpMonitoringData(OpMonitoringData.SecurityServerType.CLIENT, 200);
+        OpMonitoringData third = new OpMonitoringData(OpMonitoringData.SecurityServerType.CLIENT, 300);
+
+        long overflow = PerformanceMetrics.counter(OpMonitoringBuffer.class, "overflow").getCount();
 
-        opMonitoringBuffer.store(opMonitoringData);
-        opMonitoringBuffer.store(opMonitoringData);
-        opMonitoringBuffer.store(opMonitoringData);
+        opMonitoringBuffer.store(first);
+        opMonitoringBuffer.store(second);
+        opMonitoringBuffer.store(third);
 
         assertEquals(2, opMonitoringBuffer.buffer.size());
-        assertEquals(true, opMonitoringBuffer.buffer.containsKey(2L));
-        assertEquals(true, opMonitoringBuffer.buffer.containsKey(3L));
+        assertEquals(Arrays.asList(second, third), opMonitoringBuffer.buffer.peek(3));
+        assertEquals(overflow + 1, PerformanceMetrics.counter(OpMonitoringBuffer.class, "overflow").getCount());
     }
 }
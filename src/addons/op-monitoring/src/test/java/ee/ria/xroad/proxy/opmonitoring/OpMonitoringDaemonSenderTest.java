@@ -0,0 +1,75 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.opmonitoring;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.ServiceId;
+import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
+import ee.ria.xroad.common.opmonitoring.StoreOpMonitoringDataRequest;
+import ee.ria.xroad.common.util.JsonUtils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests sending operational monitoring data to the operational monitoring daemon.
+ */
+public class OpMonitoringDaemonSenderTest {
+
+    private static final long MILLIS = 1451606401000L;
+
+    @Test
+    public void writeRecordsAsStoreRequest() throws Exception {
+        List<OpMonitoringData> records = Arrays.asList(createRecord("1"), createRecord("2 \"<&>\" ä"));
+
+        StoreOpMonitoringDataRequest request = new StoreOpMonitoringDataRequest();
+        records.forEach(record -> request.addRecord(record.getData()));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OpMonitoringDaemonSender.writeRecords(records, out);
+
+        assertEquals(JsonUtils.getSerializer().toJson(request), new String(out.toByteArray(), UTF_8));
+    }
+
+    private static OpMonitoringData createRecord(String messageId) {
+        OpMonitoringData record = new OpMonitoringData(OpMonitoringData.SecurityServerType.PRODUCER, MILLIS);
+        record.setRequestInTs(MILLIS);
+        record.setResponseOutTs(MILLIS, true);
+        record.setClientId(ClientId.create("EE", "GOV", "1234", "SUB"));
+        record.setServiceId(ServiceId.create("EE", "GOV", "5678", null, "getData", "v1"));
+        record.setMessageId(messageId);
+        record.setRequestSize(10L);
+        record.setSucceeded(true);
+
+        return record;
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.opmonitoring;
+
+import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the ring buffer of operational monitoring data.
+ */
+public class OpMonitoringDataRingBufferTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int RECORDS_PER_PRODUCER = 10000;
+
+    @Test
+    public void addPeekAndRelease() {
+        OpMonitoringDataRingBuffer buffer = new OpMonitoringDataRingBuffer(3);
+        OpMonitoringData[] records = createRecords(5);
+
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.add(records[0]));
+        assertEquals(0, buffer.add(records[1]));
+        assertEquals(0, buffer.add(records[2]));
+        assertEquals(3, buffer.size());
+
+        // Records are not removed until they are released
+        assertEquals(Arrays.asList(records[0], records[1]), buffer.peek(2));
+        assertEquals(Arrays.asList(records[0], records[1], records[2]), buffer.peek(10));
+
+        buffer.release(2);
+
+        assertEquals(1, buffer.size());
+        assertEquals(0, buffer.add(records[3]));
+        assertEquals(0, buffer.add(records[4]));
+        assertEquals(Arrays.asList(records[2], records[3], records[4]), buffer.peek(10));
+
+        buffer.release(3);
+
+        assertTrue(buffer.isEmpty());
+        assertTrue(buffer.peek(10).isEmpty());
+    }
+
+    @Test
+    public void discardOldestWhenFull() {
+        OpMonitoringDataRingBuffer buffer = new OpMonitoringDataRingBuffer(3);
+        OpMonitoringData[] records = createRecords(6);
+
+        for (int i = 0; i < 3; i++) {
+            buffer.add(records[i]);
+        }
+
+        assertEquals(Arrays.asList(records[0], records[1]), buffer.peek(2));
+
+        // The records being sent are discarded as well
+        assertEquals(1, buffer.add(records[3]));
+        assertEquals(1, buffer.add(records[4]));
+        assertEquals(3, buffer.size());
+
+        // Releasing the sent records does not release the records added after them
+        buffer.release(2);
+
+        assertEquals(Arrays.asList(records[2], records[3], records[4]), buffer.peek(10));
+        assertEquals(1, buffer.add(records[5]));
+        assertEquals(Arrays.asList(records[3], records[4], records[5]), buffer.peek(10));
+    }
+
+    @Test
+    public void concurrentProducers() throws Exception {
+        OpMonitoringDataRingBuffer buffer = new OpMonitoringDataRingBuffer(100);
+        OpMonitoringData[][] records = new OpMonitoringData[PRODUCERS][];
+        CountDownLatch done = new CountDownLatch(PRODUCERS);
+        AtomicLong discarded = new AtomicLong();
+
+        for (int i = 0; i < PRODUCERS; i++) {
+            OpMonitoringData[] produced = createRecords(RECORDS_PER_PRODUCER);
+            records[i] = produced;
+
+            new Thread(() -> {
+                for (OpMonitoringData record : produced) {
+                    discarded.addAndGet(buffer.add(record));
+                }
+
+                done.countDown();
+            }).start();
+        }
+
+        List<OpMonitoringData> consumed = new ArrayList<>();
+
+        while (done.getCount() > 0 || !buffer.isEmpty()) {
+            List<OpMonitoringData> batch = buffer.peek(10);
+
+            consumed.addAll(batch);
+            buffer.release(batch.size());
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        // Every record is consumed at most once, the records not consumed have been discarded, and the
+        // consumed records of each producer are in the order they were added. Records discarded after being
+        // read by the consumer are consumed as well.
+        assertEquals(consumed.size(), new HashSet<>(consumed).size());
+        assertTrue(PRODUCERS * RECORDS_PER_PRODUCER - consumed.size() <= discarded.get());
+
+        for (OpMonitoringData[] produced : records) {
+            List<OpMonitoringData> expected = new ArrayList<>(Arrays.asList(produced));
+            expected.retainAll(new HashSet<>(consumed));
+
+            List<OpMonitoringData> actual = new ArrayList<>(consumed);
+            actual.retainAll(new HashSet<>(Arrays.asList(produced)));
+
+            assertEquals(expected, actual);
+        }
+    }
+
+    private static OpMonitoringData[] createRecords(int count) {
+        OpMonitoringData[] records = new OpMonitoringData[count];
+
+        for (int i = 0; i < count; i++) {
+            records[i] = new OpMonitoringData(OpMonitoringData.SecurityServerType.CLIENT, i);
+        }
+
+        return records;
+    }
+}
@@ -104,6 +104,31 @@ public class DatabaseCtx {
         }
     }
 
+    /**
+     * Calls the callback in a transaction of a new session, which is closed afterwards. Unlike
+     * {@link #doInTransaction(TransactionCallback)}, does not take part in the transaction of the current
+     * session, so a failure does not roll back the work of the caller.
+     * @param <T> the type of result
+     * @param callback the callback to call
+     * @return the result from the callback
+     * @throws Exception if an exception occurred, database errors are not translated
+     */
+    public <T> T doInSeparateTransaction(TransactionCallback<T> callback) throws Exception {
+        try (Session session = getSessionFactory(sessionFactoryName, interceptor).openSession()) {
+            Transaction tx = session.beginTransaction();
+            try {
+                T result = callback.apply(session);
+                tx.commit();
+                return result;
+            } catch (Exception e) {
+                if (tx.getStatus().canRollback()) {
+                    tx.rollback();
+                }
+                throw e;
+            }
+        }
+    }
+
     /**
      * @return the current session
      */
@@ -54,12 +54,28 @@ public final class MessageLogProperties {
 
     private static final int DEFAULT_TIMESTAMP_RETRY_DELAY = 60;
 
+    private static final int DEFAULT_TIMESTAMPER_HEDGE_PERCENTILE = 95;
+
+    private static final int DEFAULT_TIMESTAMPER_HEDGE_MIN_DELAY = 1000;
+
+    private static final int DEFAULT_TIMESTAMPER_MAX_IN_FLIGHT_BATCHES = 2;
+
+    private static final int MAX_PERCENTILE = 100;
+
     private static final int DEFAULT_ARCHIVE_TRANSACTION_BATCH_SIZE = 10000;
     private static final int DEFAULT_CLEAN_TRANSACTION_BATCH_SIZE = 10000;
+    private static final int DEFAULT_ARCHIVE_FETCH_SIZE = 1000;
 
     private static final long DEFAULT_MAX_LOGGABLE_MESSAGE_BODY_SIZE = 10 * 1024 * 1024;
     private static final long MAX_LOGGABLE_MESSAGE_BODY_SIZE_LIMIT = 1024 * 1024 * 1024;
 
+    private static final int DEFAULT_WRITE_BEHIND_QUEUE_SIZE = 10000;
+    private static final int DEFAULT_WRITE_BEHIND_QUEUE_BYTES = 64 * 1024 * 1024;
+    private static final int DEFAULT_WRITE_BEHIND_MAX_ATTACHMENT_SIZE = 1024 * 1024;
+    private static final int DEFAULT_WRITE_BEHIND_BATCH_SIZE = 500;
+    private static final int DEFAULT_WRITE_BEHIND_COMMIT_INTERVAL = 5;
+    private static final long DEFAULT_WRITE_BEHIND_JOURNAL_SEGMENT_SIZE = 64 * 1024 * 1024;
+
     private static final String PREFIX = "xroad.message-log.";
 
     /** Property name of the timestamper client connect timeout (milliseconds). */
@@ -68,6 +84,15 @@ public final class MessageLogProperties {
     /** Property name of the timestamper client read timeout (milliseconds). */
     public static final String TIMESTAMPER_CLIENT_READ_TIMEOUT = PREFIX + "timestamper-client-read-timeout";
 
+    /** Property name of the latency percentile after which a time-stamp request is also sent to the next TSP. */
+    public static final String TIMESTAMPER_HEDGE_PERCENTILE = PREFIX + "timestamper-hedge-percentile";
+
+    /** Property name of the minimum delay (milliseconds) before a time-stamp request is sent to the next TSP. */
+    public static final String TIMESTAMPER_HEDGE_MIN_DELAY = PREFIX + "timestamper-hedge-min-delay";
+
+    /** Property name of the maximum number of time-stamping batches in progress at the same time. */
+    public static final String TIMESTAMPER_MAX_IN_FLIGHT_BATCHES = PREFIX + "timestamper-max-in-flight-batches";
+
     public static final String TIMESTAMP_IMMEDIATELY = PREFIX + "timestamp-immediately";
 
     public static final String TIMESTAMP_RECORDS_LIMIT = PREFIX + "timestamp-records-limit";
@@ -87,6 +112,12 @@ public final class MessageLogProperties {
 
     public static final String ARCHIVE_TRANSACTION_BATCH = PREFIX + "archive-transaction-batch";
 
+    public static final String ARCHIVE_WORKERS = PREFIX + "archive-workers";
+
+    public static final String ARCHIVE_STREAMING_FETCH = PREFIX + "archive-streaming-fetch";
+
+    public static final String ARCHIVE_FETCH_SIZE = PREFIX + "archive-fetch-size";
+
     public static final String CLEAN_INTERVAL = PREFIX + "clean-interval";
 
     private static final String CLEAN_TRANSACTION_BATCH = "clean-transaction-batch";
@@ -122,12 +153,50 @@ public final class MessageLogProperties {
     /** is truncating body in logging allowed **/
     private static final String REST_TRUNCATED_BODY_ALLOWED = PREFIX + "truncated-body-allowed";
 
+    /** Property name for toggling the write-behind mode of message log records on/off **/
+    public static final String WRITE_BEHIND_ENABLED = PREFIX + "write-behind-enabled";
+
+    /** Property name of the maximum number of message records waiting to be written to the database **/
+    public static final String WRITE_BEHIND_QUEUE_SIZE = PREFIX + "write-behind-queue-size";
+
+    /** Property name of the maximum size (bytes) of message records waiting to be written to the database **/
+    public static final String WRITE_BEHIND_QUEUE_BYTES = PREFIX + "write-behind-queue-bytes";
+
+    /** Property name of the maximum attachment size (bytes) of message records written in the write-behind mode **/
+    public static final String WRITE_BEHIND_MAX_ATTACHMENT_SIZE = PREFIX + "write-behind-max-attachment-size";
+
+    /** Property name of the maximum number of message records written to the database in one transaction **/
+    public static final String WRITE_BEHIND_BATCH_SIZE = PREFIX + "write-behind-batch-size";
+
+    /** Property name of the time (milliseconds) to collect message records into one transaction **/
+    public static final String WRITE_BEHIND_COMMIT_INTERVAL = PREFIX + "write-behind-commit-interval";
+
+    /** Property name of the point at which a written message record is acknowledged (commit or journal) **/
+    public static final String WRITE_BEHIND_DURABILITY = PREFIX + "write-behind-durability";
+
+    /** Property name of the local journal directory used with the journal durability **/
+    public static final String WRITE_BEHIND_JOURNAL_PATH = PREFIX + "write-behind-journal-path";
+
+    /** Property name of the size (bytes) of the local journal segment files **/
+    public static final String WRITE_BEHIND_JOURNAL_SEGMENT_SIZE = PREFIX + "write-behind-journal-segment-size";
+
     public static final int NUM_COMPONENTS = 4;
     public static final int FIRST_COMPONENT = 0;
     public static final int SECOND_COMPONENT = 1;
     public static final int THIRD_COMPONENT = 2;
     public static final int FOURTH_COMPONENT = 3;
 
+    /**
+     * Durability of a message record written in the write-behind mode, i.e. the point at which logging
+     * the message is acknowledged.
+     */
+    public enum WriteBehindDurability {
+        /** The record is acknowledged after the database transaction containing it has been committed. */
+        COMMIT,
+        /** The record is acknowledged after it has been synced to the local journal file. */
+        JOURNAL
+    }
+
     private MessageLogProperties() {
     }
 
@@ -158,6 +227,32 @@ public final class MessageLogProperties {
                 DEFAULT_TIMESTAMP_RETRY_DELAY);
     }
 
+    /**
+     * @return the percentile of the observed latencies of a time-stamping provider after which the time-stamp
+     * request is also sent to the next provider. Zero disables hedging, the next provider is then tried only
+     * after the previous one has failed. '95' by default.
+     */
+    public static int getTimestamperHedgePercentile() {
+        return Math.min(MAX_PERCENTILE, getInt(System.getProperty(TIMESTAMPER_HEDGE_PERCENTILE),
+                DEFAULT_TIMESTAMPER_HEDGE_PERCENTILE));
+    }
+
+    /**
+     * @return the minimum time in milliseconds to wait for a time-stamping provider before the time-stamp request is
+     * also sent to the next provider. '1000' by default.
+     */
+    public static int getTimestamperHedgeMinDelay() {
+        return getInt(System.getProperty(TIMESTAMPER_HEDGE_MIN_DELAY), DEFAULT_TIMESTAMPER_HEDGE_MIN_DELAY);
+    }
+
+    /**
+     * @return the maximum number of batches being time-stamped at the same time. '2' by default.
+     */
+    public static int getTimestamperMaxInFlightBatches() {
+        return Math.max(1, getInt(System.getProperty(TIMESTAMPER_MAX_IN_FLIGHT_BATCHES),
+                DEFAULT_TIMESTAMPER_MAX_IN_FLIGHT_BATCHES));
+    }
+
     /**
      * @return true if the time-stamp is created synchronously for each request message. This is a security policy to
      * guarantee the time-stamp at the time of logging the message.
@@ -196,6 +291,31 @@ public final class MessageLogProperties {
         return getInt(System.getProperty(ARCHIVE_TRANSACTION_BATCH), DEFAULT_ARCHIVE_TRANSACTION_BATCH_SIZE);
     }
 
+    /**
+     * @return the number of worker threads building ASiC containers in parallel during archiving,
+     * by default half of the available processors.
+     */
+    public static int getArchiveWorkers() {
+        return Math.max(1, getInt(System.getProperty(ARCHIVE_WORKERS),
+                Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /**
+     * @return true if the log records to be archived are read through a forward-only JDBC cursor
+     * instead of loading them as Hibernate entities. False by default.
+     */
+    public static boolean isArchiveStreamingFetchEnabled() {
+        return Boolean.getBoolean(ARCHIVE_STREAMING_FETCH);
+    }
+
+    /**
+     * @return the number of rows fetched from the database at a time when archiving with the
+     * streaming fetch enabled.
+     */
+    public static int getArchiveFetchSize() {
+        return getInt(System.getProperty(ARCHIVE_FETCH_SIZE), DEFAULT_ARCHIVE_FETCH_SIZE);
+    }
+
     /**
      * @return the time interval as Cron expression for cleaning archived records from online database.
      */
@@ -299,6 +419,81 @@ public final class MessageLogProperties {
         return Integer.getInteger(CLEAN_TRANSACTION_BATCH, DEFAULT_CLEAN_TRANSACTION_BATCH_SIZE);
     }
 
+    /**
+     * @return true if message records are written to the database asynchronously in batches. 'false' by default.
+     */
+    public static boolean isWriteBehindEnabled() {
+        return Boolean.getBoolean(WRITE_BEHIND_ENABLED);
+    }
+
+    /**
+     * @return the maximum number of message records waiting to be written to the database in the
+     * write-behind mode. '10000' by default.
+     */
+    public static int getWriteBehindQueueSize() {
+        return getInt(System.getProperty(WRITE_BEHIND_QUEUE_SIZE), DEFAULT_WRITE_BEHIND_QUEUE_SIZE);
+    }
+
+    /**
+     * @return the maximum size in bytes of the message records waiting to be written to the database in the
+     * write-behind mode. Defaults to 64 MB.
+     */
+    public static int getWriteBehindQueueBytes() {
+        return getInt(System.getProperty(WRITE_BEHIND_QUEUE_BYTES), DEFAULT_WRITE_BEHIND_QUEUE_BYTES);
+    }
+
+    /**
+     * @return the maximum attachment size in bytes of the message records written in the write-behind mode.
+     * Records with larger attachments are saved directly. Defaults to 1 MB.
+     */
+    public static int getWriteBehindMaxAttachmentSize() {
+        return getInt(System.getProperty(WRITE_BEHIND_MAX_ATTACHMENT_SIZE), DEFAULT_WRITE_BEHIND_MAX_ATTACHMENT_SIZE);
+    }
+
+    /**
+     * @return the maximum number of message records written to the database in one transaction in the
+     * write-behind mode. '500' by default.
+     */
+    public static int getWriteBehindBatchSize() {
+        return getInt(System.getProperty(WRITE_BEHIND_BATCH_SIZE), DEFAULT_WRITE_BEHIND_BATCH_SIZE);
+    }
+
+    /**
+     * @return the time in milliseconds the write-behind writer waits for more message records before
+     * writing a batch. '5' by default.
+     */
+    public static int getWriteBehindCommitInterval() {
+        return getInt(System.getProperty(WRITE_BEHIND_COMMIT_INTERVAL), DEFAULT_WRITE_BEHIND_COMMIT_INTERVAL);
+    }
+
+    /**
+     * @return the durability of message records in the write-behind mode. 'commit' by default.
+     */
+    public static WriteBehindDurability getWriteBehindDurability() {
+        final String value = System.getProperty(WRITE_BEHIND_DURABILITY, "commit");
+
+        try {
+            return WriteBehindDurability.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("%s must be either 'commit' or 'journal'",
+                    WRITE_BEHIND_DURABILITY), e);
+        }
+    }
+
+    /**
+     * @return the path of the local journal directory used by the write-behind mode with the journal durability.
+     */
+    public static String getWriteBehindJournalPath() {
+        return System.getProperty(WRITE_BEHIND_JOURNAL_PATH, "/var/lib/xroad/messagelog-journal");
+    }
+
+    /**
+     * @return the size in bytes after which a new local journal segment file is started. Defaults to 64 MB.
+     */
+    public static long getWriteBehindJournalSegmentSize() {
+        return Long.getLong(WRITE_BEHIND_JOURNAL_SEGMENT_SIZE, DEFAULT_WRITE_BEHIND_JOURNAL_SEGMENT_SIZE);
+    }
+
     private static String getMessageBodyLoggingOverrideParameterName(boolean enable, boolean local) {
         String prefix = enable ? MESSAGE_BODY_LOGGING_ENABLE : MESSAGE_BODY_LOGGING_DISABLE;
         String postfix = local ? MESSAGE_BODY_LOGGING_LOCAL_PRODUCER : MESSAGE_BODY_LOGGING_REMOTE_PRODUCER;
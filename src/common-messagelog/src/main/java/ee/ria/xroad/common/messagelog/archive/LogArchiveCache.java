@@ -98,6 +98,17 @@ class LogArchiveCache implements Closeable {
         }
     }
 
+    void addPrepared(PreparedAsicContainer container) throws Exception {
+        try {
+            validateMessageRecord(container != null ? container.getRecord() : null);
+            handleRotation();
+            cacheRecord(container);
+            updateState();
+        } catch (Exception e) {
+            handleCacheError(e);
+        }
+    }
+
     Path getArchiveFile() throws IOException {
         try {
             addLinkingInfoToArchive(archiveTmp);
@@ -166,8 +177,18 @@ class LogArchiveCache implements Closeable {
         reset();
     }
 
-    @SuppressWarnings("checkstyle:InnerAssignment")
     private void cacheRecord(MessageRecord messageRecord) throws Exception {
+        updateCreationTime(messageRecord);
+        addContainerToArchive(messageRecord);
+    }
+
+    private void cacheRecord(PreparedAsicContainer container) throws Exception {
+        updateCreationTime(container.getRecord());
+        addContainerToArchive(container);
+    }
+
+    @SuppressWarnings("checkstyle:InnerAssignment")
+    private void updateCreationTime(MessageRecord messageRecord) {
         final Date creationTime = new Date(messageRecord.getTime());
 
         if (minCreationTime == null && maxCreationTime == null) {
@@ -177,7 +198,6 @@ class LogArchiveCache implements Closeable {
         } else if (creationTime.after(maxCreationTime)) {
             maxCreationTime = creationTime;
         }
-        addContainerToArchive(messageRecord);
     }
 
     private void updateState() {
@@ -189,10 +209,7 @@ class LogArchiveCache implements Closeable {
     }
 
     private void addContainerToArchive(MessageRecord record) throws Exception {
-        String archiveFilename =
-                nameGenerator.getArchiveFilename(record.getQueryId(),
-                        record.isResponse() ? AsicContainerNameGenerator.TYPE_RESPONSE
-                                : AsicContainerNameGenerator.TYPE_REQUEST);
+        String archiveFilename = getArchiveFilename(record);
 
         final MessageDigest digest = MessageDigest.getInstance(MessageLogProperties.getHashAlg());
         archiveTmp.putNextEntry(new ZipEntry(archiveFilename));
@@ -209,6 +226,24 @@ class LogArchiveCache implements Closeable {
         linkingInfoBuilder.addNextFile(archiveFilename, digest.digest());
     }
 
+    private void addContainerToArchive(PreparedAsicContainer container) throws Exception {
+        String archiveFilename = getArchiveFilename(container.getRecord());
+
+        // The container bytes are exactly what the streaming variant would write into the entry,
+        // so the resulting archive and linking info do not depend on which variant was used
+        archiveTmp.putNextEntry(new ZipEntry(archiveFilename));
+        archiveTmp.write(container.getContainer());
+        archiveTmp.closeEntry();
+        archivesTotalSize += container.getContainer().length;
+        linkingInfoBuilder.addNextFile(archiveFilename, container.getDigest());
+    }
+
+    private String getArchiveFilename(MessageRecord record) {
+        return nameGenerator.getArchiveFilename(record.getQueryId(),
+                record.isResponse() ? AsicContainerNameGenerator.TYPE_RESPONSE
+                        : AsicContainerNameGenerator.TYPE_REQUEST);
+    }
+
     private void reset() {
         try {
             resetArchive();
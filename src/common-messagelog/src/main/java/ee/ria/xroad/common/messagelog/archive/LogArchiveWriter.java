@@ -103,6 +103,29 @@ public class LogArchiveWriter implements Closeable {
 
         archiveBase.markRecordArchived(logRecord);
 
+        return rotateIfNeeded();
+    }
+
+    /**
+     * Write a message log record whose ASiC container has already been prepared.
+     * @param container the prepared container
+     * @return true if the a archive file was rotated
+     * @throws Exception in case of any errors
+     */
+    public boolean write(PreparedAsicContainer container) throws Exception {
+        if (container == null) {
+            throw new IllegalArgumentException("prepared container must not be null");
+        }
+
+        if (log.isTraceEnabled()) log.trace("write({})", container.getRecord().getId());
+
+        logArchiveCache.addPrepared(container);
+        archiveBase.markRecordArchived(container.getRecord());
+
+        return rotateIfNeeded();
+    }
+
+    private boolean rotateIfNeeded() throws IOException {
         if (logArchiveCache.isRotating()) {
             rotate();
             return true;
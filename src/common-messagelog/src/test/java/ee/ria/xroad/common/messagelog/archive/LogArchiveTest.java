@@ -31,6 +31,7 @@ import ee.ria.xroad.common.messagelog.LogRecord;
 import ee.ria.xroad.common.messagelog.MessageLogProperties;
 import ee.ria.xroad.common.messagelog.MessageRecord;
 import ee.ria.xroad.common.messagelog.TimestampRecord;
+import ee.ria.xroad.common.util.CryptoUtils;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
@@ -39,9 +40,21 @@ import org.junit.Rule;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
+import static org.apache.commons.io.IOUtils.toByteArray;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -100,9 +113,36 @@ public class LogArchiveTest {
         assertTrue(rotated);
     }
 
+    /**
+     * Writes records with prepared containers and checks that the archive entries match
+     * the linking info hash chain, the same way as for records written by streaming.
+     */
+    @Test
+    public void writePreparedContainers() throws Exception {
+        System.setProperty(MessageLogProperties.ARCHIVE_MAX_FILESIZE, "33554432");
+
+        writeRecordsToLog(false, true);
+        assertLinkingInfoMatchesEntries(NUM_TIMESTAMPS * NUM_RECORDS_PER_TIMESTAMP);
+    }
+
+    /**
+     * Writes records by streaming and checks that the archive entries match the linking info hash chain.
+     */
+    @Test
+    public void writeStreamedContainers() throws Exception {
+        System.setProperty(MessageLogProperties.ARCHIVE_MAX_FILESIZE, "33554432");
+
+        writeRecordsToLog(false, false);
+        assertLinkingInfoMatchesEntries(NUM_TIMESTAMPS * NUM_RECORDS_PER_TIMESTAMP);
+    }
+
     // ------------------------------------------------------------------------
 
     private void writeRecordsToLog(boolean finishAfterRotate) throws Exception {
+        writeRecordsToLog(finishAfterRotate, false);
+    }
+
+    private void writeRecordsToLog(boolean finishAfterRotate, boolean prepared) throws Exception {
         try (LogArchiveWriter writer = getWriter()) {
             outer:
             for (int i = 0; i < NUM_TIMESTAMPS; i++) {
@@ -112,7 +152,11 @@ public class LogArchiveTest {
                     messageRecord.setTimestampRecord(ts);
                     messageRecord.setTimestampHashChain("foo");
 
-                    if (writer.write(messageRecord) && finishAfterRotate) {
+                    boolean rotatedNow = prepared
+                            ? writer.write(PreparedAsicContainer.prepare(messageRecord))
+                            : writer.write(messageRecord);
+
+                    if (rotatedNow && finishAfterRotate) {
                         break outer;
                     }
                 }
@@ -120,6 +164,47 @@ public class LogArchiveTest {
         }
     }
 
+    private void assertLinkingInfoMatchesEntries(int expectedEntries) throws Exception {
+        List<Path> archives;
+        try (Stream<Path> files = Files.list(Paths.get("build/slog"))) {
+            archives = files.filter(f -> f.getFileName().toString().startsWith("mlog-"))
+                    .collect(Collectors.toList());
+        }
+        assertEquals(1, archives.size());
+
+        try (ZipFile zip = new ZipFile(archives.get(0).toFile())) {
+            String hashAlg = MessageLogProperties.getHashAlg();
+            List<String> expected = new ArrayList<>();
+            String lastDigest = "";
+
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if ("linkinginfo".equals(entry.getName())) {
+                    continue;
+                }
+
+                try (InputStream in = zip.getInputStream(entry)) {
+                    String combined = lastDigest + CryptoUtils.encodeHex(
+                            CryptoUtils.calculateDigest(hashAlg, toByteArray(in)));
+                    lastDigest = CryptoUtils.hexDigest(hashAlg, combined.getBytes(StandardCharsets.UTF_8));
+                }
+                expected.add(lastDigest + " " + entry.getName());
+            }
+            assertEquals(expectedEntries, expected.size());
+
+            String linkingInfo;
+            try (InputStream in = zip.getInputStream(zip.getEntry("linkinginfo"))) {
+                linkingInfo = new String(toByteArray(in), StandardCharsets.UTF_8);
+            }
+            String[] lines = linkingInfo.split("\n");
+            assertEquals("- - " + hashAlg, lines[0]);
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i), lines[i + 1]);
+            }
+        }
+    }
+
     private LogArchiveWriter getWriter() {
         return new LogArchiveWriter(
                 Paths.get("build/slog"),
@@ -52,6 +52,14 @@ public final class SystemProperties {
     public static final String CONFIGURATION_PATH =
             PREFIX + "common.configuration-path";
 
+    /** Property name of the amount of direct memory used for buffering message contents. */
+    public static final String SPOOL_MEMORY_BUDGET =
+            PREFIX + "common.spool-memory-budget";
+
+    /** Property name of the amount of memory one message may use for buffering its contents. */
+    public static final String SPOOL_MESSAGE_MEMORY_LIMIT =
+            PREFIX + "common.spool-message-memory-limit";
+
     /** Current version number of the global configuration **/
     public static final int CURRENT_GLOBAL_CONFIGURATION_VERSION = 2;
 
@@ -193,6 +201,23 @@ public final class SystemProperties {
 
     public static final String SERVER_CONF_ACL_CACHE_SIZE = PREFIX + "proxy.server-conf-acl-cache-size";
 
+    public static final String SERVER_CONF_VERSION_CHECK_INTERVAL_MILLIS =
+            PREFIX + "proxy.server-conf-version-check-interval-millis";
+
+    public static final String BATCH_SIGNING_WINDOW_MICROS = PREFIX + "proxy.batch-signing-window-micros";
+
+    public static final String BATCH_SIGNING_MAX_BATCH_SIZE = PREFIX + "proxy.batch-signing-max-batch-size";
+
+    public static final String CLIENTPROXY_ASYNC_ENABLED = PREFIX + "proxy.client-async-enabled";
+
+    public static final String CLIENTPROXY_ASYNC_IO_THREADS = PREFIX + "proxy.client-async-io-threads";
+
+    public static final String PROXY_VIRTUAL_THREADS_ENABLED = PREFIX + "proxy.virtual-threads-enabled";
+
+    public static final String PROXY_STAX_SOAP_PARSER_ENABLED = PREFIX + "proxy.stax-soap-parser-enabled";
+
+    public static final String PROXY_REST_BODY_MEMORY_THRESHOLD = PREFIX + "proxy.rest-body-memory-threshold";
+
 
     /** Property name of the idle time that connections to the ServerProxy Connector are allowed, in milliseconds */
     private static final String SERVERPROXY_CONNECTOR_MAX_IDLE_TIME =
@@ -339,6 +364,17 @@ public final class SystemProperties {
 
     private static final int OCSP_VERIFIER_CACHE_PERIOD_MAX = 180;
 
+    private static final String SIGNATURE_VERIFIER_CACHE_PERIOD =
+            PREFIX + "proxy.signature-verifier-cache-period";
+
+    private static final int SIGNATURE_VERIFIER_CACHE_PERIOD_MAX = 180;
+
+    private static final String SIGNATURE_VERIFIER_CACHE_SIZE =
+            PREFIX + "proxy.signature-verifier-cache-size";
+
+    private static final String CERT_PATH_CACHE_SIZE =
+            PREFIX + "proxy.cert-path-cache-size";
+
     // Signer -----------------------------------------------------------------
 
     /** Property name of the key configuration file. */
@@ -806,6 +842,24 @@ public final class SystemProperties {
         return System.getProperty(TEMP_FILES_PATH, DefaultFilepaths.TEMP_FILES_PATH);
     }
 
+    /**
+     * @return maximum amount of direct memory in bytes used for buffering message contents before they are
+     * written to temporary files, 32 MiB by default
+     */
+    @SuppressWarnings("checkstyle:MagicNumber")
+    public static long getSpoolMemoryBudget() {
+        return Long.getLong(SPOOL_MEMORY_BUDGET, 32 * 1024 * 1024);
+    }
+
+    /**
+     * @return maximum amount of memory in bytes one message may use for buffering its contents before they are
+     * written to a temporary file, 256 KiB by default
+     */
+    @SuppressWarnings("checkstyle:MagicNumber")
+    public static int getSpoolMessageMemoryLimit() {
+        return Integer.getInteger(SPOOL_MESSAGE_MEMORY_LIMIT, 256 * 1024);
+    }
+
     /**
      * @return path to the directory where OCSP responses are stored, '/var/cache/xroad/' by default.
      */
@@ -1350,6 +1404,31 @@ public final class SystemProperties {
         return period < OCSP_VERIFIER_CACHE_PERIOD_MAX ? period : OCSP_VERIFIER_CACHE_PERIOD_MAX;
     }
 
+    /**
+     * @return the number of seconds successful batch signature verification results are cached.
+     * Max value is 180 seconds and cannot be exceeded in configuration. Default is 60 s.
+     */
+    public static int getSignatureVerifierCachePeriod() {
+        int period = Integer.parseInt(System.getProperty(SIGNATURE_VERIFIER_CACHE_PERIOD, "60"));
+        return period < SIGNATURE_VERIFIER_CACHE_PERIOD_MAX ? period : SIGNATURE_VERIFIER_CACHE_PERIOD_MAX;
+    }
+
+    /**
+     * @return the maximum number of cached batch signature verification results, 0 disables the cache.
+     * Default is 1000.
+     */
+    public static int getSignatureVerifierCacheSize() {
+        return Integer.parseInt(System.getProperty(SIGNATURE_VERIFIER_CACHE_SIZE, "1000"));
+    }
+
+    /**
+     * @return the maximum number of cached validated certificate paths, 0 disables the cache.
+     * Default is 1000.
+     */
+    public static int getCertPathCacheSize() {
+        return Integer.parseInt(System.getProperty(CERT_PATH_CACHE_SIZE, "1000"));
+    }
+
     /**
      * @return serverproxy initial idle time (used until the request processing starts)
      */
@@ -1569,6 +1648,14 @@ public final class SystemProperties {
         return Long.getLong(SERVER_CONF_ACL_CACHE_SIZE, 100_000);
     }
 
+    /**
+     * @return the interval in milliseconds at which the cached server conf is checked for changes, '1000' by default
+     */
+    @SuppressWarnings("checkstyle:MagicNumber")
+    public static long getServerConfVersionCheckIntervalMillis() {
+        return Long.getLong(SERVER_CONF_VERSION_CHECK_INTERVAL_MILLIS, 1000);
+    }
+
     private static void checkVersionValidity(int version, int current, String defaultVersion) {
         if (version > current || version < 1) {
             throw new IllegalArgumentException("Illegal minimum global configuration version in system parameters");
@@ -1582,4 +1669,60 @@ public final class SystemProperties {
         return "true".equalsIgnoreCase(System.getProperty(ENFORCE_CLIENT_IS_CERT_VALIDITY_PERIOD_CHECK,
                 DEFAULT_ENFORCE_CLIENT_IS_CERT_VALIDITY_PERIOD_CHECK));
     }
+
+    /**
+     * @return maximum time in microseconds an idle batch signer waits for more signing requests before starting
+     * the signature calculation, '0' (no waiting) by default
+     */
+    public static long getBatchSigningWindowMicros() {
+        return Long.getLong(BATCH_SIGNING_WINDOW_MICROS, 0);
+    }
+
+    /**
+     * @return maximum number of signing requests in one batch signature, '0' (unlimited) by default
+     */
+    public static int getBatchSigningMaxBatchSize() {
+        return Integer.getInteger(BATCH_SIGNING_MAX_BATCH_SIZE, 0);
+    }
+
+    /**
+     * @return Whether the client proxy releases the request thread while waiting for the server proxy response,
+     * 'false' by default
+     */
+    public static boolean isClientProxyAsyncEnabled() {
+        return Boolean.getBoolean(CLIENTPROXY_ASYNC_ENABLED);
+    }
+
+    /**
+     * @return number of I/O dispatcher threads used by the asynchronous client proxy HTTP client, the number of
+     * available processors by default
+     */
+    public static int getClientProxyAsyncIoThreads() {
+        return Integer.getInteger(CLIENTPROXY_ASYNC_IO_THREADS, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return Whether the client proxy and server proxy handle requests on virtual threads when the runtime
+     * supports them, 'false' by default
+     */
+    public static boolean isProxyVirtualThreadsEnabled() {
+        return Boolean.getBoolean(PROXY_VIRTUAL_THREADS_ENABLED);
+    }
+
+    /**
+     * @return Whether the SOAP parts of the messages exchanged between security servers are parsed with the
+     * StAX based parser instead of the SAX based parser, 'false' by default
+     */
+    public static boolean isProxyStaxSoapParserEnabled() {
+        return Boolean.getBoolean(PROXY_STAX_SOAP_PARSER_ENABLED);
+    }
+
+    /**
+     * @return maximum size in bytes of a REST message body that is buffered in memory instead of a temporary
+     * file, '65536' by default
+     */
+    @SuppressWarnings("checkstyle:MagicNumber")
+    public static int getProxyRestBodyMemoryThreshold() {
+        return Integer.getInteger(PROXY_REST_BODY_MEMORY_THRESHOLD, 65_536);
+    }
 }
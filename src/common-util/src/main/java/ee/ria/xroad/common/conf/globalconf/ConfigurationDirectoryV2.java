@@ -26,6 +26,7 @@
 package ee.ria.xroad.common.conf.globalconf;
 
 import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.conf.ConfProvider;
 
 import lombok.Getter;
@@ -44,9 +45,16 @@ import java.nio.file.Paths;
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 
 import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
@@ -58,8 +66,14 @@ import static ee.ria.xroad.common.conf.globalconf.ConfigurationUtils.escapeInsta
  * Class for reading global configuration directory. The directory must have sub directory per instance identifier.
  * Each sub directory must contain private and/or shared parameters.
  *
- * When querying the parameters from this class, the parameters XML is checked for modifications and if the XML has
- * been modified, the parameters are reloaded from the XML.
+ * The parameters are published as an immutable, versioned snapshot that is replaced as a whole by {@link #reload()}.
+ * Queries only read the current snapshot, they neither lock nor touch the file system. A reload reads only the
+ * parameter files that are new or have changed; parameters that have not changed are carried over to the new
+ * snapshot as they are, changed parameters are loaded into new instances, so a parameters instance that has been
+ * handed out is never modified.
+ *
+ * If the directory is created with reloadIfChanged, a query that finds the snapshot older than the configuration
+ * client update interval schedules a reload in the background and carries on with the current snapshot.
  */
 @Slf4j
 public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
@@ -67,15 +81,25 @@ public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
     public static final String PRIVATE_PARAMETERS_XML = "private-params.xml";
     public static final String SHARED_PARAMETERS_XML = "shared-params.xml";
 
+    private static final ExecutorService BACKGROUND_RELOADER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "globalconf-reload");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
     @Getter
     @Setter
-    private Path path;
+    private volatile Path path;
     private final boolean reloadIfChanged;
 
-    private String instanceIdentifier;
+    // Guards reloading. Queries never take it, they only read the published snapshot.
+    private final ReentrantLock reloadLock = new ReentrantLock();
+
+    private final AtomicBoolean backgroundReloadScheduled = new AtomicBoolean();
+    private volatile long nextBackgroundReloadNanos;
 
-    private Map<String, PrivateParametersV2> privateParameters = new HashMap<>();
-    private Map<String, SharedParametersV2> sharedParameters = new HashMap<>();
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
 
     // ------------------------------------------------------------------------
 
@@ -104,47 +128,68 @@ public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
     }
 
     /**
-     * @return the instance identifier of this configuration. The instance identifier is lazy initialized.
+     * @return the instance identifier of this configuration.
      */
-    public synchronized String getInstanceIdentifier() {
-        if (instanceIdentifier == null) {
-            loadInstanceIdentifier();
-        }
+    public String getInstanceIdentifier() {
+        String instanceIdentifier = currentSnapshot().instanceIdentifier;
 
-        return instanceIdentifier;
+        return instanceIdentifier != null ? instanceIdentifier : loadInstanceIdentifier();
     }
 
     /**
-     * Reloads the configuration directory. Only files that are new or have changed, are actually loaded.
+     * @return the version of the current snapshot. The version is incremented by every reload that replaces any
+     * of the parameters or the instance identifier.
+     */
+    public long getVersion() {
+        return currentSnapshot().version;
+    }
+
+    /**
+     * Reloads the configuration directory and publishes the result as a new snapshot. Only files that are new or
+     * have changed, are actually loaded.
      *
      * @throws Exception if an error occurs during reload
      */
-    public synchronized void reload() throws Exception {
-        Map<String, PrivateParametersV2> privateParams = new HashMap<>();
-        Map<String, SharedParametersV2> sharedParams = new HashMap<>();
+    public void reload() throws Exception {
+        reloadLock.lock();
 
-        log.trace("Reloading configuration from {}", path);
+        try {
+            Snapshot current = snapshot;
+
+            Map<String, PrivateParametersV2> privateParams = new HashMap<>();
+            Map<String, SharedParametersV2> sharedParams = new HashMap<>();
+
+            log.trace("Reloading configuration from {}", path);
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(path, Files::isDirectory)) {
+                for (Path instanceDir : stream) {
+                    log.trace("Loading parameters from {}", instanceDir);
+                    try {
+                        loadPrivateParameters(instanceDir, current.privateParameters, privateParams);
+                    } catch (Exception e) {
+                        log.error("Unable to load private parameters from {}", instanceDir, e);
+                    }
+                    try {
+                        loadSharedParameters(instanceDir, current.sharedParameters, sharedParams);
+                    } catch (Exception e) {
+                        log.error("Unable to load shared parameters from {}", instanceDir, e);
+                    }
+                }
+            }
 
-        instanceIdentifier = null;
+            Snapshot next = new Snapshot(current, readInstanceIdentifier(), privateParams, sharedParams,
+                    readExpiration());
 
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path, Files::isDirectory)) {
-            for (Path instanceDir : stream) {
-                log.trace("Loading parameters from {}", instanceDir);
-                try {
-                    loadPrivateParameters(instanceDir, privateParams);
-                } catch (Exception e) {
-                    log.error("Unable to load private parameters from {}", instanceDir, e);
-                }
-                try {
-                    loadSharedParameters(instanceDir, sharedParams);
-                } catch (Exception e) {
-                    log.error("Unable to load shared parameters from {}", instanceDir, e);
-                }
+            snapshot = next;
+
+            if (next.version != current.version) {
+                log.debug("Published configuration snapshot version {} from {}", next.version, path);
             }
-        }
+        } finally {
+            postponeBackgroundReload();
 
-        privateParameters = privateParams;
-        sharedParameters = sharedParams;
+            reloadLock.unlock();
+        }
     }
 
     /**
@@ -154,26 +199,12 @@ public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
      * @return private parameters or null, if no private parameters exist for given instance identifier
      * @throws Exception if an error occurs while reading parameters
      */
-    public synchronized PrivateParametersV2 getPrivate(String instanceId) throws Exception {
+    public PrivateParametersV2 getPrivate(String instanceId) throws Exception {
         String safeInstanceId = escapeInstanceIdentifier(instanceId);
 
         log.trace("getPrivate(instance = {}, directory = {})", instanceId, safeInstanceId);
 
-        PrivateParametersV2 parameters = privateParameters.get(safeInstanceId);
-
-        if (!reloadIfChanged) {
-            return parameters;
-        }
-
-        if (parameters != null && parameters.hasChanged()) {
-            parameters.reload();
-        } else if (parameters == null) {
-            // Parameters not cached, attempt to load it from disk.
-            Path instanceDir = Paths.get(path.toString(), safeInstanceId);
-            loadPrivateParameters(instanceDir, privateParameters);
-        }
-
-        return privateParameters.get(safeInstanceId);
+        return currentSnapshot().privateParameters.get(safeInstanceId);
     }
 
     /**
@@ -183,33 +214,19 @@ public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
      * @return shared parameters or null, if no shared parameters exist for given instance identifier
      * @throws Exception if an error occurs while reading parameters
      */
-    public synchronized SharedParametersV2 getShared(String instanceId) throws Exception {
+    public SharedParametersV2 getShared(String instanceId) throws Exception {
         String safeInstanceId = escapeInstanceIdentifier(instanceId);
 
         log.trace("getShared(instance = {}, directory = {})", instanceId, safeInstanceId);
 
-        SharedParametersV2 parameters = sharedParameters.get(safeInstanceId);
-
-        if (!reloadIfChanged) {
-            return parameters;
-        }
-
-        if (parameters != null && parameters.hasChanged()) {
-            parameters.reload();
-        } else if (parameters == null) {
-            // Parameters not cached, attempt to load it from disk.
-            Path instanceDir = Paths.get(path.toString(), safeInstanceId);
-            loadSharedParameters(instanceDir, sharedParameters);
-        }
-
-        return sharedParameters.get(safeInstanceId);
+        return currentSnapshot().sharedParameters.get(safeInstanceId);
     }
 
     /**
-     * @return all known shared parameters
+     * @return all known shared parameters, as an unmodifiable list
      */
-    public synchronized List<SharedParametersV2> getShared() {
-        return new ArrayList<>(sharedParameters.values());
+    public List<SharedParametersV2> getShared() {
+        return currentSnapshot().sharedParameterList;
     }
 
     /**
@@ -307,11 +324,21 @@ public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
 
     /**
      * Throws exception with error code ErrorCodes.X_OUTDATED_GLOBALCONF if any of the configuration files is too old.
+     * The expiration dates are read from the metadata of the configuration files on reload.
      */
     public void verifyUpToDate() throws Exception {
-        eachFile(ConfigurationDirectoryV2::verifyUpToDate);
-    }
+        Expiration expiration = currentSnapshot().expiration;
+
+        if (expiration.fileListError != null) {
+            throw new CodedException(X_MALFORMED_GLOBALCONF, expiration.fileListError);
+        }
 
+        if (expiration.expiresOn != null && expiration.expiresOn.toInstant().isBefore(Instant.now())) {
+            log.info("{} expired on {}", expiration.file, expiration.expiresOn);
+
+            throw new CodedException(X_OUTDATED_GLOBALCONF, "%s is too old", expiration.file);
+        }
+    }
 
     /**
      * Gets the metadata for the given file.
@@ -330,13 +357,57 @@ public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
 
     // ------------------------------------------------------------------------
 
-    private void loadInstanceIdentifier() {
+    private Snapshot currentSnapshot() {
+        Snapshot current = snapshot;
+
+        if (reloadIfChanged && System.nanoTime() - nextBackgroundReloadNanos > 0
+                && backgroundReloadScheduled.compareAndSet(false, true)) {
+            BACKGROUND_RELOADER.execute(this::reloadInBackground);
+        }
+
+        return current;
+    }
+
+    private void reloadInBackground() {
+        try {
+            reload();
+        } catch (Exception e) {
+            log.error("Failed to reload configuration from {}", path, e);
+        } finally {
+            // Subclasses may skip a reload, the next attempt is still made only after the interval
+            postponeBackgroundReload();
+            backgroundReloadScheduled.set(false);
+        }
+    }
+
+    private void postponeBackgroundReload() {
+        nextBackgroundReloadNanos = System.nanoTime()
+                + TimeUnit.SECONDS.toNanos(SystemProperties.getConfigurationClientUpdateIntervalSeconds());
+    }
+
+    private String readInstanceIdentifier() {
+        Path file = Paths.get(path.toString(), INSTANCE_IDENTIFIER_FILE);
+
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        try {
+            return FileUtils.readFileToString(file.toFile(), StandardCharsets.UTF_8).trim();
+        } catch (Exception e) {
+            log.error("Failed to read instance identifier from " + file, e);
+
+            return null;
+        }
+    }
+
+    private String loadInstanceIdentifier() {
         Path file = Paths.get(path.toString(), INSTANCE_IDENTIFIER_FILE);
 
         log.trace("Loading instance identifier from {}", file);
 
         try {
-            instanceIdentifier = FileUtils.readFileToString(file.toFile()).trim();
+            return FileUtils.readFileToString(file.toFile(), StandardCharsets.UTF_8).trim();
         } catch (Exception e) {
             log.error("Failed to read instance identifier from " + file, e);
 
@@ -345,8 +416,42 @@ public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
         }
     }
 
-    private void loadPrivateParameters(Path instanceDir, Map<String, PrivateParametersV2> privateParams)
-            throws Exception {
+    // Finds the configuration file that expires first. Files whose metadata cannot be read are skipped, like in
+    // isExpired().
+    private Expiration readExpiration() {
+        List<Path> files;
+
+        try {
+            files = getConfigurationFiles();
+        } catch (CodedException e) {
+            return new Expiration(e.getFaultString(), null, null);
+        } catch (Exception e) {
+            log.error("Failed to read the list of configuration files from {}", path, e);
+
+            return new Expiration("Could not read the list of configuration files: " + e.getMessage(), null, null);
+        }
+
+        Path expiringFile = null;
+        OffsetDateTime earliest = null;
+
+        for (Path file : files) {
+            try {
+                OffsetDateTime expiresOn = getMetadata(file).getExpirationDate();
+
+                if (earliest == null || expiresOn.isBefore(earliest)) {
+                    earliest = expiresOn;
+                    expiringFile = file;
+                }
+            } catch (Exception e) {
+                log.error("Failed to get expiration date of file " + file, e);
+            }
+        }
+
+        return new Expiration(null, expiringFile, earliest);
+    }
+
+    private static void loadPrivateParameters(Path instanceDir, Map<String, PrivateParametersV2> current,
+            Map<String, PrivateParametersV2> privateParams) throws Exception {
         String instanceId = instanceDir.getFileName().toString();
 
         Path privateParametersPath = Paths.get(instanceDir.toString(), PRIVATE_PARAMETERS_XML);
@@ -355,13 +460,14 @@ public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
             log.trace("Loading private parameters from {}", privateParametersPath);
 
             privateParams.put(instanceId, loadParameters(privateParametersPath, PrivateParametersV2.class,
-                    privateParameters.get(instanceId)));
+                    current.get(instanceId)));
         } else {
             log.trace("Not loading private parameters from {}, file does not exist", privateParametersPath);
         }
     }
 
-    private void loadSharedParameters(Path instanceDir, Map<String, SharedParametersV2> sharedParams) throws Exception {
+    private static void loadSharedParameters(Path instanceDir, Map<String, SharedParametersV2> current,
+            Map<String, SharedParametersV2> sharedParams) throws Exception {
         String instanceId = instanceDir.getFileName().toString();
 
         Path sharedParametersPath = Paths.get(instanceDir.toString(), SHARED_PARAMETERS_XML);
@@ -369,24 +475,90 @@ public class ConfigurationDirectoryV2 implements ConfigurationDirectory {
             log.trace("Loading shared parameters from {}", sharedParametersPath);
 
             sharedParams.put(instanceId, loadParameters(sharedParametersPath, SharedParametersV2.class,
-                    sharedParameters.get(instanceId)));
+                    current.get(instanceId)));
         } else {
             log.trace("Not loading shared parameters from {}, file does not exist", sharedParametersPath);
         }
     }
 
-    // Loads the parameters from file if the file has changed.
-    // Returns the parameters or null if the file does not exist.
+    // Returns the existing instance if the file has not changed, otherwise loads the file into a new instance.
     private static <T extends ConfProvider> T loadParameters(Path path, Class<T> clazz, T existingInstance)
             throws Exception {
-        T params = existingInstance != null ? existingInstance : (T) clazz.newInstance();
+        if (existingInstance != null && !existingInstance.hasChanged()) {
+            return existingInstance;
+        }
 
-        if (params.hasChanged()) {
-            log.trace("Loading {} from {}", clazz.getSimpleName(), path);
+        log.trace("Loading {} from {}", clazz.getSimpleName(), path);
 
-            params.load(path.toString());
-        }
+        T params = clazz.newInstance();
+        params.load(path.toString());
 
         return params;
     }
+
+    /**
+     * Parameters of the configuration directory as of one reload.
+     */
+    private static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot();
+
+        final long version;
+        final String instanceIdentifier;
+        final Map<String, PrivateParametersV2> privateParameters;
+        final Map<String, SharedParametersV2> sharedParameters;
+        final List<SharedParametersV2> sharedParameterList;
+        final Expiration expiration;
+
+        private Snapshot() {
+            version = 0;
+            instanceIdentifier = null;
+            privateParameters = Collections.emptyMap();
+            sharedParameters = Collections.emptyMap();
+            sharedParameterList = Collections.emptyList();
+            expiration = new Expiration(null, null, null);
+        }
+
+        Snapshot(Snapshot previous, String instanceIdentifier, Map<String, PrivateParametersV2> privateParameters,
+                Map<String, SharedParametersV2> sharedParameters, Expiration expiration) {
+            boolean changed = !Objects.equals(previous.instanceIdentifier, instanceIdentifier)
+                    || !sameInstances(previous.privateParameters, privateParameters)
+                    || !sameInstances(previous.sharedParameters, sharedParameters);
+
+            this.version = changed ? previous.version + 1 : previous.version;
+            this.instanceIdentifier = instanceIdentifier;
+            this.privateParameters = Collections.unmodifiableMap(privateParameters);
+            this.sharedParameters = Collections.unmodifiableMap(sharedParameters);
+            this.sharedParameterList = Collections.unmodifiableList(new ArrayList<>(sharedParameters.values()));
+            this.expiration = expiration;
+        }
+
+        private static boolean sameInstances(Map<String, ?> previous, Map<String, ?> next) {
+            if (previous.size() != next.size()) {
+                return false;
+            }
+
+            for (Map.Entry<String, ?> entry : next.entrySet()) {
+                if (previous.get(entry.getKey()) != entry.getValue()) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    // The configuration file that expires first, or the reason why the list of configuration files could not be read
+    private static final class Expiration {
+
+        final String fileListError;
+        final Path file;
+        final OffsetDateTime expiresOn;
+
+        Expiration(String fileListError, Path file, OffsetDateTime expiresOn) {
+            this.fileListError = fileListError;
+            this.file = file;
+            this.expiresOn = expiresOn;
+        }
+    }
 }
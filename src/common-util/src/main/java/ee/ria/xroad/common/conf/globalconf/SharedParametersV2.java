@@ -55,6 +55,7 @@ import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -91,6 +92,16 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
     private final List<X509Certificate> verificationCaCerts = new ArrayList<>();
     private final Set<String> knownAddresses = new HashSet<>();
     private final Map<SecurityServerId, SecurityServerType> securityServersById = new HashMap<>();
+    private final List<SecurityServerId> securityServerIds = new ArrayList<>();
+    // Identifiers of the members and their subsystems, in the order of the configuration
+    private final List<ClientId> memberIds = new ArrayList<>();
+    // Member and subsystem identifiers mapped to the name of the member
+    private final Map<ClientId, String> memberNames = new HashMap<>();
+    private final Map<String, GlobalGroupType> globalGroupsByCode = new HashMap<>();
+    private final Map<String, Set<ClientId>> globalGroupMembers = new HashMap<>();
+
+    // Replaced as a whole at conf reload, so readers never see a partially filled index
+    private volatile TrustStore trustStore = new TrustStore(Collections.emptyList());
 
     SharedParametersV2() {
         super(ObjectFactory.class, SharedParametersSchemaValidatorV2.class);
@@ -150,20 +161,35 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
             return null;
         }
 
-        return confType.getGlobalGroup().stream()
-                .filter(g -> g.getGroupCode().equals(groupId.getGroupCode()))
-                .findFirst().orElse(null);
+        return globalGroupsByCode.get(groupId.getGroupCode());
     }
 
-    X509Certificate getCaCertForSubject(X509Certificate subject)
-            throws Exception {
-        X509CertificateHolder certHolder =
-                new X509CertificateHolder(subject.getEncoded());
-        if (certHolder.getSubject().equals(certHolder.getIssuer())) {
+    /**
+     * Returns the members of the given global group or null, if the group does not exist in this instance.
+     */
+    Set<ClientId> getGlobalGroupMembers(GlobalGroupId groupId) {
+        if (!groupId.getXRoadInstance().equals(
+                confType.getInstanceIdentifier())) {
             return null;
         }
 
-        return subjectsAndCaCerts.get(certHolder.getIssuer());
+        return globalGroupMembers.get(groupId.getGroupCode());
+    }
+
+    /**
+     * Returns the name of the member the given member or subsystem identifier belongs to, or null, if the member
+     * does not exist.
+     */
+    String getMemberName(ClientId clientId) {
+        String name = memberNames.get(clientId);
+
+        if (name == null && clientId.getSubsystemCode() != null) {
+            // The subsystem is not registered, the name of the member is still known
+            name = memberNames.get(ClientId.create(clientId.getXRoadInstance(), clientId.getMemberClass(),
+                    clientId.getMemberCode()));
+        }
+
+        return name;
     }
 
     @Override
@@ -179,6 +205,8 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
             cacheCaCerts();
             cacheKnownAddresses();
             cacheSecurityServers();
+            cacheMembers();
+            cacheGlobalGroups();
         } catch (Exception e) {
             throw translateException(e);
         }
@@ -206,6 +234,11 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
         verificationCaCerts.clear();
         knownAddresses.clear();
         securityServersById.clear();
+        securityServerIds.clear();
+        memberIds.clear();
+        memberNames.clear();
+        globalGroupsByCode.clear();
+        globalGroupMembers.clear();
     }
 
     private void cacheCaCerts() throws CertificateException, IOException {
@@ -242,6 +275,8 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
                     new X509CertificateHolder(cert.getEncoded());
             subjectsAndCaCerts.put(certHolder.getSubject(), cert);
         }
+
+        trustStore = new TrustStore(allCaCerts);
     }
 
     private void cacheKnownAddresses() {
@@ -271,6 +306,7 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
                     owner.getMemberClass().getCode(),
                     owner.getMemberCode(), securityServer.getServerCode());
             securityServersById.put(securityServerId, securityServer);
+            securityServerIds.add(securityServerId);
 
             // Add clients of the security server.
             for (JAXBElement<?> client : securityServer.getClient()) {
@@ -288,6 +324,30 @@ public class SharedParametersV2 extends AbstractXmlConf<SharedParametersTypeV2>
         }
     }
 
+    private void cacheMembers() {
+        for (MemberType member : confType.getMember()) {
+            ClientId memberId = createMemberId(member);
+
+            memberIds.add(memberId);
+            memberNames.putIfAbsent(memberId, member.getName());
+
+            for (SubsystemType subsystem : member.getSubsystem()) {
+                ClientId subsystemId = createSubsystemId(member, subsystem);
+
+                memberIds.add(subsystemId);
+                memberNames.putIfAbsent(subsystemId, member.getName());
+            }
+        }
+    }
+
+    private void cacheGlobalGroups() {
+        for (GlobalGroupType globalGroup : confType.getGlobalGroup()) {
+            if (globalGroupsByCode.putIfAbsent(globalGroup.getGroupCode(), globalGroup) == null) {
+                globalGroupMembers.put(globalGroup.getGroupCode(), new HashSet<>(globalGroup.getGroupMember()));
+            }
+        }
+    }
+
     private void addServerClient(ClientId client, SecurityServerType server) {
         // Add the mapping from client to security server address.
         if (isNotBlank(server.getAddress())) {
@@ -0,0 +1,155 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.globalconf;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
+import org.bouncycastle.util.encoders.Hex;
+
+import javax.security.auth.x500.X500Principal;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable index of the CA certificates of one version of the shared parameters. The certificates are
+ * indexed by subject name and by subject key identifier, so that the issuer of a certificate can be found
+ * without re-parsing it. A new instance is built every time the shared parameters are loaded, so the
+ * identity of the instance identifies the configuration version it was built from.
+ */
+@Slf4j
+public final class TrustStore {
+
+    private final List<X509Certificate> caCerts;
+
+    private final Map<X500Principal, List<X509Certificate>> caCertsBySubject = new HashMap<>();
+
+    private final Map<String, List<X509Certificate>> caCertsByKeyIdentifier = new HashMap<>();
+
+    /**
+     * Creates the trust store.
+     * @param caCerts the CA certificates
+     */
+    public TrustStore(Collection<X509Certificate> caCerts) {
+        this.caCerts = Collections.unmodifiableList(new ArrayList<>(caCerts));
+
+        for (X509Certificate caCert : this.caCerts) {
+            caCertsBySubject.computeIfAbsent(caCert.getSubjectX500Principal(), k -> new ArrayList<>())
+                    .add(caCert);
+
+            byte[] keyIdentifier = getSubjectKeyIdentifier(caCert);
+            if (keyIdentifier != null) {
+                caCertsByKeyIdentifier.computeIfAbsent(Hex.toHexString(keyIdentifier), k -> new ArrayList<>())
+                        .add(caCert);
+            }
+        }
+    }
+
+    /**
+     * @return all CA certificates in the trust store
+     */
+    public List<X509Certificate> getCaCerts() {
+        return caCerts;
+    }
+
+    /**
+     * @param keyIdentifier the subject key identifier
+     * @return CA certificates with the given subject key identifier
+     */
+    public List<X509Certificate> getCaCertsByKeyIdentifier(byte[] keyIdentifier) {
+        return caCertsByKeyIdentifier.getOrDefault(Hex.toHexString(keyIdentifier), Collections.emptyList());
+    }
+
+    /**
+     * Finds the CA certificate that issued the given certificate. If several CA certificates share the
+     * issuer name (e.g. after a CA key change), the one matching the authority key identifier of the
+     * certificate is returned.
+     * @param cert the certificate
+     * @return the issuer certificate or null, if the issuer is not in the trust store
+     */
+    public X509Certificate getIssuer(X509Certificate cert) {
+        List<X509Certificate> candidates = caCertsBySubject.get(cert.getIssuerX500Principal());
+        if (candidates == null) {
+            return null;
+        }
+
+        if (candidates.size() > 1) {
+            byte[] keyIdentifier = getAuthorityKeyIdentifier(cert);
+            if (keyIdentifier != null) {
+                for (X509Certificate caCert : getCaCertsByKeyIdentifier(keyIdentifier)) {
+                    if (candidates.contains(caCert)) {
+                        return caCert;
+                    }
+                }
+            }
+        }
+
+        // Without a matching key identifier the last one wins, as in the shared parameters
+        return candidates.get(candidates.size() - 1);
+    }
+
+    private static byte[] getSubjectKeyIdentifier(X509Certificate cert) {
+        byte[] value = cert.getExtensionValue(Extension.subjectKeyIdentifier.getId());
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            return SubjectKeyIdentifier.getInstance(ASN1OctetString.getInstance(value).getOctets())
+                    .getKeyIdentifier();
+        } catch (IllegalArgumentException e) {
+            log.warn("Malformed subject key identifier in certificate {}",
+                    cert.getSubjectX500Principal().getName(), e);
+
+            return null;
+        }
+    }
+
+    private static byte[] getAuthorityKeyIdentifier(X509Certificate cert) {
+        byte[] value = cert.getExtensionValue(Extension.authorityKeyIdentifier.getId());
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            return AuthorityKeyIdentifier.getInstance(ASN1OctetString.getInstance(value).getOctets())
+                    .getKeyIdentifier();
+        } catch (IllegalArgumentException e) {
+            log.warn("Malformed authority key identifier in certificate {}",
+                    cert.getSubjectX500Principal().getName(), e);
+
+            return null;
+        }
+    }
+}
@@ -25,17 +25,61 @@
  */
 package ee.ria.xroad.common.hashchain;
 
-import org.bouncycastle.asn1.ASN1Encodable;
-import org.bouncycastle.asn1.DEROctetString;
-import org.bouncycastle.asn1.DERSequence;
-import org.bouncycastle.asn1.DERUTF8String;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
 
-import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
+import static ee.ria.xroad.common.util.CryptoUtils.SHA1_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.SHA224_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.SHA256_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.SHA384_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.SHA512_ID;
 import static ee.ria.xroad.common.util.CryptoUtils.getDigestAlgorithmURI;
-import static org.bouncycastle.asn1.ASN1Encoding.DER;
 
+/**
+ * Computes digests of hash steps. A hash step is encoded as the DER
+ * DigestList data structure:
+ *
+ * DigestList ::= SEQUENCE OF SingleDigest
+ * SingleDigest ::= SEQUENCE {
+ *     digest OCTET STRING,
+ *     digestMethod UTF8String,
+ *     transforms SEQUENCE {} }
+ *
+ * The encoding is written directly to a message digest that is reused by
+ * the current thread, so no intermediate encoding is allocated.
+ */
 final class DigestList {
 
+    private static final int SEQUENCE = 0x30;
+    private static final int OCTET_STRING = 0x04;
+    private static final int UTF8_STRING = 0x0C;
+
+    private static final int LONG_LENGTH = 0x80;
+    private static final int BYTE_BITS = 8;
+    private static final int BYTE_MASK = 0xFF;
+
+    /** Digests reused by the current thread, by algorithm id. */
+    private static final ThreadLocal<Map<String, MessageDigest>> DIGESTS =
+            ThreadLocal.withInitial(HashMap::new);
+
+    /** UTF-8 encodings of the supported digest method URIs. */
+    private static final Map<String, byte[]> URI_BYTES = new HashMap<>();
+
+    static {
+        for (String id : new String[] {SHA1_ID, SHA224_ID, SHA256_ID,
+                SHA384_ID, SHA512_ID}) {
+            try {
+                String uri = getDigestAlgorithmURI(id);
+                URI_BYTES.put(uri, uri.getBytes(StandardCharsets.UTF_8));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
     private DigestList() {
     }
 
@@ -44,54 +88,134 @@ final class DigestList {
      * data structure and computes hash of the data structure.
      */
     static byte[] digestHashStep(String digestMethod, byte[]... items)
-            throws Exception {
-        return calculateDigest(digestMethod,
-                concatDigests(getDigestAlgorithmURI(digestMethod), items));
+            throws NoSuchAlgorithmException {
+        byte[] uri = uriBytes(getDigestAlgorithmURI(digestMethod));
+
+        int length = 0;
+        for (byte[] item : items) {
+            length += encodedLength(singleDigestLength(item, uri));
+        }
+
+        MessageDigest md = getMessageDigest(digestMethod);
+        writeHeader(md, SEQUENCE, length);
+
+        for (byte[] item : items) {
+            writeSingleDigest(md, item, uri);
+        }
+
+        return md.digest();
     }
 
     /**
-     * Takes as input a sequence of hashes and combines them using DigestList
-     * data structure.
+     * Takes as input a sequence of hashes, combines them using DigestList
+     * data structure and computes hash of the data structure with the
+     * given algorithm.
      */
-    static byte[] concatDigests(String digestMethodUri, byte[]... items)
-            throws Exception {
-        ASN1Encodable[] digestList = new ASN1Encodable[items.length];
+    static byte[] digestHashStep(String digestMethod, DigestValue... items)
+            throws NoSuchAlgorithmException {
+        byte[][] uris = new byte[items.length][];
 
+        int length = 0;
         for (int i = 0; i < items.length; ++i) {
-            digestList[i] = singleDigest(digestMethodUri, items[i]);
+            uris[i] = uriBytes(items[i].getDigestMethod());
+            length += encodedLength(
+                    singleDigestLength(items[i].getDigestValue(), uris[i]));
         }
 
-        DERSequence step = new DERSequence(digestList);
-        return step.getEncoded(DER);
+        MessageDigest md = getMessageDigest(digestMethod);
+        writeHeader(md, SEQUENCE, length);
+
+        for (int i = 0; i < items.length; ++i) {
+            writeSingleDigest(md, items[i].getDigestValue(), uris[i]);
+        }
+
+        return md.digest();
     }
 
     /**
-     * Takes as input a sequence of hashes and combines them using DigestList
-     * data structure.
+     * @return true if the URI identifies a supported digest method
      */
-    static byte[] concatDigests(DigestValue... items) throws Exception {
-        ASN1Encodable[] digestList = new ASN1Encodable[items.length];
+    static boolean isSupportedDigestMethod(String uri) {
+        return URI_BYTES.containsKey(uri);
+    }
 
-        for (int i = 0; i < items.length; ++i) {
-            digestList[i] = singleDigest(items[i].getDigestMethod(),
-                    items[i].getDigestValue());
+    private static MessageDigest getMessageDigest(String digestMethod)
+            throws NoSuchAlgorithmException {
+        Map<String, MessageDigest> digests = DIGESTS.get();
+        MessageDigest md = digests.get(digestMethod);
+
+        if (md == null) {
+            md = MessageDigest.getInstance(digestMethod);
+            digests.put(digestMethod, md);
+        } else {
+            md.reset();
         }
 
-        DERSequence step = new DERSequence(digestList);
-        return step.getEncoded(DER);
+        return md;
+    }
+
+    private static byte[] uriBytes(String uri) {
+        byte[] bytes = URI_BYTES.get(uri);
+
+        return bytes != null ? bytes : uri.getBytes(StandardCharsets.UTF_8);
     }
 
     /**
      * Encodes hash value as SingleDigest data structure.
      */
-    private static DERSequence singleDigest(String digestMethodUri,
-            byte[] digest) throws Exception {
-        DEROctetString digestValue = new DEROctetString(digest);
-        DERUTF8String digestMethod = new DERUTF8String(digestMethodUri);
+    private static void writeSingleDigest(MessageDigest md, byte[] digest,
+            byte[] digestMethodUri) {
+        writeHeader(md, SEQUENCE, singleDigestLength(digest, digestMethodUri));
+
+        writeHeader(md, OCTET_STRING, digest.length);
+        md.update(digest);
+
+        writeHeader(md, UTF8_STRING, digestMethodUri.length);
+        md.update(digestMethodUri);
+
+        // Empty transforms
+        writeHeader(md, SEQUENCE, 0);
+    }
+
+    private static int singleDigestLength(byte[] digest,
+            byte[] digestMethodUri) {
+        return encodedLength(digest.length)
+                + encodedLength(digestMethodUri.length) + encodedLength(0);
+    }
+
+    /**
+     * Returns the length of a DER element with contents of given length.
+     */
+    private static int encodedLength(int contentLength) {
+        return 1 + lengthOfLength(contentLength) + contentLength;
+    }
+
+    private static int lengthOfLength(int length) {
+        if (length < LONG_LENGTH) {
+            return 1;
+        }
+
+        int bytes = 1;
+        for (int l = length; l != 0; l >>>= BYTE_BITS) {
+            ++bytes;
+        }
 
-        DERSequence transforms = new DERSequence();
+        return bytes;
+    }
+
+    private static void writeHeader(MessageDigest md, int tag, int length) {
+        md.update((byte) tag);
+
+        if (length < LONG_LENGTH) {
+            md.update((byte) length);
+            return;
+        }
+
+        int bytes = lengthOfLength(length) - 1;
+        md.update((byte) (LONG_LENGTH | bytes));
 
-        return new DERSequence(new ASN1Encodable[] {
-                digestValue, digestMethod, transforms });
+        for (int i = bytes - 1; i >= 0; --i) {
+            md.update((byte) ((length >>> (i * BYTE_BITS)) & BYTE_MASK));
+        }
     }
 }
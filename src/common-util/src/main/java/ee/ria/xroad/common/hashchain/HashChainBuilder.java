@@ -28,17 +28,13 @@ package ee.ria.xroad.common.hashchain;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
-import javax.xml.bind.Marshaller;
-
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static ee.ria.xroad.common.hashchain.DigestList.digestHashStep;
+import static ee.ria.xroad.common.util.CryptoUtils.encodeBase64;
 import static ee.ria.xroad.common.util.CryptoUtils.getDigestAlgorithmURI;
 import static ee.ria.xroad.common.util.MessageFileNames.attachment;
 import static java.lang.Integer.numberOfLeadingZeros;
@@ -66,6 +62,9 @@ import static java.lang.Integer.numberOfLeadingZeros;
  * treated as a single array consisting of nodes+inputs.
  *
  * For incomplete binary trees, some inputs and nodes can be null.
+ *
+ * The hash chains are written directly as XML, formatted the same way as
+ * a JAXB marshaller with formatted output would write them.
  */
 public final class HashChainBuilder {
 
@@ -74,9 +73,6 @@ public final class HashChainBuilder {
     private static final Logger LOG =
             LoggerFactory.getLogger(HashChainBuilder.class);
 
-    /** For accessing JAXB functionality. Shared between all the builders. */
-    private static JAXBContext jaxbCtx;
-
     /**
      * Index of the root of the tree.
      */
@@ -84,6 +80,21 @@ public final class HashChainBuilder {
 
     private static final String STEP = "STEP";
 
+    private static final String XML_DECLARATION =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+
+    private static final String NAMESPACES =
+            " xmlns=\"http://www.w3.org/2000/09/xmldsig#\""
+                    + " xmlns:ns2=\"http://cyber.ee/hashchain\"";
+
+    private static final String INDENT = "    ";
+
+    /** Indentation depth of the digest values in hash step values. */
+    private static final int VALUE_DEPTH = 3;
+
+    /** Approximate size of a hash step in the XML, for sizing buffers. */
+    private static final int HASH_STEP_SIZE = 256;
+
     /** Hash algorithm used to hash tree nodes and inputs. */
     private final String hashAlgorithm;
 
@@ -108,12 +119,6 @@ public final class HashChainBuilder {
     /** Maximum index a tree node can have. */
     private int maxIndex;
 
-    /** Used for serializing XML objects. */
-    private Marshaller marshaller;
-
-    /** Factory for creating XML objects. */
-    private ObjectFactory objectFactory = new ObjectFactory();
-
     /**
      * Constructs a hash chain builder.
      * @param hashAlgorithm Identifier (not URL) of the hash algorithm
@@ -125,10 +130,6 @@ public final class HashChainBuilder {
     public HashChainBuilder(String hashAlgorithm) throws Exception {
         this.hashAlgorithm = hashAlgorithm;
         hashAlgorithmUri = getDigestAlgorithmURI(hashAlgorithm);
-
-        marshaller = jaxbCtx.createMarshaller();
-        // Format the XML, good for debugging.
-        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
     }
 
     /**
@@ -217,13 +218,19 @@ public final class HashChainBuilder {
                             + "without attachments.");
         }
 
-        HashChainResultType result = new HashChainResultType();
+        StringBuilder xml = new StringBuilder(HASH_STEP_SIZE);
+
+        xml.append(XML_DECLARATION).append("<ns2:HashChainResult URI=\"");
+        appendEscaped(xml, hashChainFileName + "#" + STEP + "0");
+        xml.append('"').append(NAMESPACES).append(">\n");
+
+        xml.append(INDENT).append("<DigestMethod Algorithm=\"");
+        appendEscaped(xml, hashAlgorithmUri);
+        xml.append("\"/>\n");
 
-        result.setDigestValue(getTreeTop());
-        result.setDigestMethod(digestMethod());
-        result.setURI(hashChainFileName + "#" + STEP + "0");
+        appendDigestValue(xml, 1, getTreeTop());
 
-        return elementToString(objectFactory.createHashChainResult(result));
+        return xml.append("</ns2:HashChainResult>\n").toString();
     }
 
     /**
@@ -409,19 +416,19 @@ public final class HashChainBuilder {
     /**
      * Returns XML-encoded hash chain for a n-th input data item.
      */
-    private String makeHashChain(int itemIndex) throws Exception {
+    private String makeHashChain(int itemIndex) {
         LOG.trace("makeHashChain({})", itemIndex);
 
-        HashChainType hashChain = new HashChainType();
-        hashChain.setDefaultDigestMethod(digestMethod());
+        // current level will be height of non-leaf part of the tree.
+        int currentLevel = ceilingLog2(inputs.size()) - 1;
+
+        StringBuilder xml = startHashChain(currentLevel + 2);
 
         // Hash step count is used to generate references.
         int stepCount = 0;
 
         // Start with root node
         int currentNodeIdx = ROOT_IDX;
-        // current level will be height of non-leaf part of the tree.
-        int currentLevel = ceilingLog2(inputs.size()) - 1;
 
         // Walk the tree downwards from the root node.
         while (currentNodeIdx < nodes.length) {
@@ -442,35 +449,25 @@ public final class HashChainBuilder {
                 --currentLevel;
             }
 
-            // For the other node, we always use hash value.
-            AbstractValueType otherData = hashValue(getDeep(otherChildIdx));
-            AbstractValueType myData;
-
             // If the child is leaf node and there are no attachments,
             // use the data ref. Otherwise use the StepRef.
-            if (isLeaf(myChildIdx) && !multiparts.containsKey(itemIndex)) {
-                // Plain data ref.
-                myData = dataRef(get(myChildIdx));
-            } else {
-                // Non-leaf nodes refer to other hash steps.
-                myData = stepRef(stepCount + 1);
-            }
+            boolean myDataRef = isLeaf(myChildIdx)
+                    && !multiparts.containsKey(itemIndex);
 
-            // Construct the hash step.
-            HashStepType hashStep = new HashStepType();
-            hashStep.setId(STEP + stepCount);
-            // Create two elements.
-            hashStep.getHashValueOrStepRefOrDataRef().add(null);
-            hashStep.getHashValueOrStepRefOrDataRef().add(null);
+            // Construct the hash step, the values in the order of
+            // the children.
+            startHashStep(xml, stepCount);
 
-            // Set the data items.
-            hashStep.getHashValueOrStepRefOrDataRef().set(
-                    myDirection, myData);
-            hashStep.getHashValueOrStepRefOrDataRef().set(
-                    1 - myDirection, otherData);
+            if (myDirection == 0) {
+                appendMyValue(xml, myDataRef, myChildIdx, stepCount);
+                // For the other node, we always use hash value.
+                appendHashValue(xml, getDeep(otherChildIdx));
+            } else {
+                appendHashValue(xml, getDeep(otherChildIdx));
+                appendMyValue(xml, myDataRef, myChildIdx, stepCount);
+            }
 
-            // Add to chain
-            hashChain.getHashStep().add(hashStep);
+            endHashStep(xml);
 
             // Update state variables.
             ++stepCount;
@@ -482,99 +479,159 @@ public final class HashChainBuilder {
         // step that references all the individual parts.
         if (multiparts.containsKey(itemIndex)) {
             LOG.trace("Adding attachments");
-            hashChain.getHashStep().add(
-                    multipartStep(multiparts.get(itemIndex), stepCount));
+            appendMultipartStep(xml, multiparts.get(itemIndex), stepCount);
         }
 
-        return elementToString(objectFactory.createHashChain(hashChain));
-    }
-
-    /**
-     * Creates reference to input data.
-     */
-    private DataRefType dataRef(byte[] digest) {
-        return dataRef(dataRefFileName, digest);
+        return endHashChain(xml);
     }
 
-    /**
-     * Creates reference to input data with given file name.
-     */
-    private static DataRefType dataRef(String fileName, byte[] digest) {
-        DataRefType dataRef = new DataRefType();
-        dataRef.setURI(fileName);
-        dataRef.setDigestValue(digest);
-        return dataRef;
-    }
-
-    /**
-     * Creates reference to another hash step.
-     */
-    private static StepRefType stepRef(int stepCount) {
-        StepRefType stepRef = new StepRefType();
-        stepRef.setURI("#" + STEP + stepCount);
-        return stepRef;
-    }
-
-    /**
-     * Creates a concrete hash value.
-     */
-    private static HashValueType hashValue(byte[] data) {
-        HashValueType hashValue = new HashValueType();
-        hashValue.setDigestValue(data);
-        return hashValue;
+    private void appendMyValue(StringBuilder xml, boolean dataRef,
+            int childIdx, int stepCount) {
+        if (dataRef) {
+            // Plain data ref.
+            appendDataRef(xml, dataRefFileName, get(childIdx));
+        } else {
+            // Non-leaf nodes refer to other hash steps.
+            appendStepRef(xml, stepCount + 1);
+        }
     }
 
     /**
      * Makes hash chain for special case of inputs.size() == 1.
      */
-    private String makeSingleInputHashChain() throws Exception {
+    private String makeSingleInputHashChain() {
         LOG.trace("makeSingleInputHashChain()");
 
-        HashChainType hashChain = new HashChainType();
-        hashChain.setDefaultDigestMethod(digestMethod());
+        StringBuilder xml = startHashChain(1);
 
         // This is a multipart input. Add single step for all
         // the input parts
-        hashChain.getHashStep().add(multipartStep(multiparts.get(0), 0));
+        appendMultipartStep(xml, multiparts.get(0), 0);
 
-        return elementToString(objectFactory.createHashChain(hashChain));
+        return endHashChain(xml);
     }
 
-    private HashStepType multipartStep(byte[][] inputSet, int stepCount) {
-        HashStepType ret = new HashStepType();
-        ret.setId(STEP + stepCount);
+    private void appendMultipartStep(StringBuilder xml, byte[][] inputSet,
+            int stepCount) {
+        startHashStep(xml, stepCount);
 
         for (int i = 0; i < inputSet.length; ++i) {
             if (i == 0) {
                 // The first input is message
-                ret.getHashValueOrStepRefOrDataRef().add(dataRef(inputSet[i]));
+                appendDataRef(xml, dataRefFileName, inputSet[i]);
             } else {
                 // All the other inputs are attachments, starting from 1.
-                ret.getHashValueOrStepRefOrDataRef().add(
-                        dataRef(attachment(i), inputSet[i]));
+                appendDataRef(xml, attachment(i), inputSet[i]);
             }
         }
 
-        return ret;
+        endHashStep(xml);
     }
 
     /**
-     * Creates a DigestMethod element, based on the current hash algorithm.
+     * Starts a HashChain element with the default digest method.
      */
-    private DigestMethodType digestMethod() {
-        DigestMethodType digestMethod = new DigestMethodType();
-        digestMethod.setAlgorithm(hashAlgorithmUri);
-        return digestMethod;
+    private StringBuilder startHashChain(int expectedSteps) {
+        StringBuilder xml =
+                new StringBuilder(HASH_STEP_SIZE * (expectedSteps + 1));
+
+        xml.append(XML_DECLARATION)
+                .append("<ns2:HashChain").append(NAMESPACES).append(">\n");
+
+        xml.append(INDENT).append("<ns2:DefaultDigestMethod Algorithm=\"");
+        appendEscaped(xml, hashAlgorithmUri);
+        xml.append("\"/>\n");
+
+        return xml;
+    }
+
+    private static String endHashChain(StringBuilder xml) {
+        return xml.append("</ns2:HashChain>\n").toString();
+    }
+
+    private static void startHashStep(StringBuilder xml, int stepCount) {
+        xml.append(INDENT).append("<ns2:HashStep id=\"").append(STEP)
+                .append(stepCount).append("\">\n");
+    }
+
+    private static void endHashStep(StringBuilder xml) {
+        xml.append(INDENT).append("</ns2:HashStep>\n");
     }
 
     /**
-     * Serializes the given XML element to a string.
+     * Appends reference to input data with given file name.
      */
-    private <T> String elementToString(JAXBElement<T> element)
-            throws Exception {
-        StringWriter writer = new StringWriter();
-        marshaller.marshal(element, writer);
-        return writer.toString();
+    private static void appendDataRef(StringBuilder xml, String fileName,
+            byte[] digest) {
+        xml.append(INDENT).append(INDENT).append("<ns2:DataRef URI=\"");
+        appendEscaped(xml, fileName);
+        xml.append("\">\n");
+
+        appendDigestValue(xml, VALUE_DEPTH, digest);
+
+        xml.append(INDENT).append(INDENT).append("</ns2:DataRef>\n");
+    }
+
+    /**
+     * Appends reference to another hash step.
+     */
+    private static void appendStepRef(StringBuilder xml, int stepCount) {
+        xml.append(INDENT).append(INDENT).append("<ns2:StepRef URI=\"#")
+                .append(STEP).append(stepCount).append("\"/>\n");
+    }
+
+    /**
+     * Appends a concrete hash value.
+     */
+    private static void appendHashValue(StringBuilder xml, byte[] digest) {
+        xml.append(INDENT).append(INDENT).append("<ns2:HashValue>\n");
+
+        appendDigestValue(xml, VALUE_DEPTH, digest);
+
+        xml.append(INDENT).append(INDENT).append("</ns2:HashValue>\n");
+    }
+
+    private static void appendDigestValue(StringBuilder xml, int depth,
+            byte[] digest) {
+        for (int i = 0; i < depth; ++i) {
+            xml.append(INDENT);
+        }
+
+        xml.append("<DigestValue>").append(encodeBase64(digest))
+                .append("</DigestValue>\n");
+    }
+
+    /**
+     * Appends the value escaped the same way as JAXB escapes attribute
+     * values.
+     */
+    private static void appendEscaped(StringBuilder xml, String value) {
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+
+            switch (c) {
+                case '&':
+                    xml.append("&amp;");
+                    break;
+                case '<':
+                    xml.append("&lt;");
+                    break;
+                case '>':
+                    xml.append("&gt;");
+                    break;
+                case '"':
+                    xml.append("&quot;");
+                    break;
+                case '\r':
+                    xml.append("&#13;");
+                    break;
+                case '\n':
+                    xml.append("&#10;");
+                    break;
+                default:
+                    xml.append(c);
+            }
+        }
     }
 
     /**
@@ -627,12 +684,4 @@ public final class HashChainBuilder {
     private static int pow2(int n) {
         return 1 << n;
     }
-
-    static {
-        try {
-            jaxbCtx = JAXBContext.newInstance(ObjectFactory.class);
-        } catch (Exception ex) {
-            LOG.error("Failed to initialize JAXB context", ex);
-        }
-    }
 }
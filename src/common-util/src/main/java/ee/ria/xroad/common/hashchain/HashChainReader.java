@@ -0,0 +1,441 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.hashchain;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.ByteArrayInputStream;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Reads hash chains and hash chain results with a streaming parser, without
+ * schema validation and JAXB unmarshalling. Only documents that are
+ * certainly valid according to the hash chain schema are read: the elements
+ * and attributes defined by the schema without transforms, digest methods
+ * from the supported set, canonical base64 digest values and simple
+ * relative URIs, as written by {@link HashChainBuilder}. For any other
+ * document null is returned, and the caller must validate and unmarshal
+ * the document instead, which also reports the errors.
+ */
+@Slf4j
+final class HashChainReader {
+
+    private static final String NS = "http://cyber.ee/hashchain";
+    private static final String DS_NS = "http://www.w3.org/2000/09/xmldsig#";
+
+    private static final String HASH_CHAIN = "HashChain";
+    private static final String HASH_CHAIN_RESULT = "HashChainResult";
+    private static final String DEFAULT_DIGEST_METHOD = "DefaultDigestMethod";
+    private static final String HASH_STEP = "HashStep";
+    private static final String HASH_VALUE = "HashValue";
+    private static final String STEP_REF = "StepRef";
+    private static final String DATA_REF = "DataRef";
+    private static final String DIGEST_METHOD = "DigestMethod";
+    private static final String DIGEST_VALUE = "DigestValue";
+
+    private static final String URI = "URI";
+    private static final String ID = "id";
+    private static final String ALGORITHM = "Algorithm";
+
+    /** Relative URIs consisting of unreserved characters only. */
+    private static final Pattern SIMPLE_URI =
+            Pattern.compile("[A-Za-z0-9._~-]*(/[A-Za-z0-9._~-]*)*(#[A-Za-z0-9._-]*)?");
+
+    /** ASCII subset of NCName. */
+    private static final Pattern SIMPLE_ID = Pattern.compile("[A-Za-z_][A-Za-z0-9._-]*");
+
+    private static final ThreadLocal<XMLInputFactory> FACTORY =
+            ThreadLocal.withInitial(HashChainReader::createInputFactory);
+
+    private final XMLStreamReader reader;
+
+    private final Set<String> ids = new HashSet<>();
+
+    private HashChainReader(XMLStreamReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @param xml the hash chain result document
+     * @return the hash chain result or null, if the document must be read
+     * with schema validation
+     */
+    static HashChainResultType readHashChainResult(byte[] xml) {
+        return read(xml, HASH_CHAIN_RESULT, HashChainReader::hashChainResult);
+    }
+
+    /**
+     * @param xml the hash chain document
+     * @return the hash chain or null, if the document must be read with
+     * schema validation
+     */
+    static HashChainType readHashChain(byte[] xml) {
+        return read(xml, HASH_CHAIN, HashChainReader::hashChain);
+    }
+
+    private static <T> T read(byte[] xml, String rootElement, ElementReader<T> rootReader) {
+        XMLStreamReader reader = null;
+
+        try {
+            reader = FACTORY.get().createXMLStreamReader(new ByteArrayInputStream(xml));
+
+            HashChainReader hashChainReader = new HashChainReader(reader);
+            hashChainReader.nextStartElement(NS, rootElement);
+
+            T result = rootReader.read(hashChainReader);
+
+            hashChainReader.endDocument();
+
+            return result;
+        } catch (UnsupportedContentException | XMLStreamException e) {
+            log.debug("Validating {} with schema: {}", rootElement, e.getMessage());
+
+            return null;
+        } finally {
+            close(reader);
+        }
+    }
+
+    private HashChainResultType hashChainResult() throws XMLStreamException, UnsupportedContentException {
+        HashChainResultType result = new HashChainResultType();
+        result.setURI(uriAttribute());
+
+        int event = next();
+
+        if (isStartElement(event, DS_NS, DIGEST_METHOD)) {
+            result.setDigestMethod(digestMethod());
+            event = next();
+        }
+
+        requireStartElement(event, DS_NS, DIGEST_VALUE);
+        result.setDigestValue(digestValue());
+
+        requireEndElement(next());
+
+        return result;
+    }
+
+    private HashChainType hashChain() throws XMLStreamException, UnsupportedContentException {
+        requireAttributes();
+
+        HashChainType hashChain = new HashChainType();
+
+        int event = next();
+
+        if (isStartElement(event, NS, DEFAULT_DIGEST_METHOD)) {
+            hashChain.setDefaultDigestMethod(digestMethod());
+            event = next();
+        }
+
+        while (isStartElement(event, NS, HASH_STEP)) {
+            hashChain.getHashStep().add(hashStep());
+            event = next();
+        }
+
+        requireEndElement(event);
+
+        return hashChain;
+    }
+
+    private HashStepType hashStep() throws XMLStreamException, UnsupportedContentException {
+        HashStepType hashStep = new HashStepType();
+
+        if (reader.getAttributeCount() > 0) {
+            hashStep.setId(idAttribute());
+        }
+
+        List<AbstractValueType> values = hashStep.getHashValueOrStepRefOrDataRef();
+
+        int event = next();
+
+        while (event == XMLStreamConstants.START_ELEMENT) {
+            if (isStartElement(event, NS, HASH_VALUE)) {
+                requireAttributes();
+
+                HashValueType hashValue = new HashValueType();
+                hashValue.setDigestValue(valueDigest(hashValue));
+                values.add(hashValue);
+            } else if (isStartElement(event, NS, STEP_REF)) {
+                StepRefType stepRef = new StepRefType();
+                stepRef.setURI(uriAttribute());
+
+                event = next();
+
+                if (isStartElement(event, DS_NS, DIGEST_METHOD)) {
+                    stepRef.setDigestMethod(digestMethod());
+                    event = next();
+                }
+
+                requireEndElement(event);
+                values.add(stepRef);
+            } else if (isStartElement(event, NS, DATA_REF)) {
+                DataRefType dataRef = new DataRefType();
+                dataRef.setURI(uriAttribute());
+                dataRef.setDigestValue(valueDigest(dataRef));
+                values.add(dataRef);
+            } else {
+                throw new UnsupportedContentException("Unexpected element " + reader.getName());
+            }
+
+            event = next();
+        }
+
+        requireEndElement(event);
+
+        return hashStep;
+    }
+
+    /**
+     * Reads the optional digest method and the digest value of a hash value
+     * or a data reference. Transforms are not supported.
+     */
+    private byte[] valueDigest(AbstractValueType value) throws XMLStreamException, UnsupportedContentException {
+        int event = next();
+
+        if (isStartElement(event, DS_NS, DIGEST_METHOD)) {
+            value.setDigestMethod(digestMethod());
+            event = next();
+        }
+
+        requireStartElement(event, DS_NS, DIGEST_VALUE);
+        byte[] digest = digestValue();
+
+        requireEndElement(next());
+
+        return digest;
+    }
+
+    private DigestMethodType digestMethod() throws XMLStreamException, UnsupportedContentException {
+        String algorithm = singleAttribute(ALGORITHM);
+
+        if (!DigestList.isSupportedDigestMethod(algorithm)) {
+            throw new UnsupportedContentException("Unsupported digest method " + algorithm);
+        }
+
+        requireEndElement(next());
+
+        DigestMethodType digestMethod = new DigestMethodType();
+        digestMethod.setAlgorithm(algorithm);
+
+        return digestMethod;
+    }
+
+    private byte[] digestValue() throws XMLStreamException, UnsupportedContentException {
+        requireAttributes();
+
+        StringBuilder text = new StringBuilder();
+
+        int event = reader.next();
+
+        while (event != XMLStreamConstants.END_ELEMENT) {
+            switch (event) {
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.COMMENT:
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    break;
+                default:
+                    throw new UnsupportedContentException("Unexpected content in digest value");
+            }
+
+            event = reader.next();
+        }
+
+        String base64 = text.toString();
+
+        try {
+            byte[] digest = Base64.getDecoder().decode(base64);
+
+            // Only canonical encodings are certainly valid base64Binary values
+            if (Base64.getEncoder().encodeToString(digest).equals(base64)) {
+                return digest;
+            }
+        } catch (IllegalArgumentException e) {
+            // fall through
+        }
+
+        throw new UnsupportedContentException("Digest value is not in canonical base64 encoding");
+    }
+
+    private String uriAttribute() throws UnsupportedContentException {
+        String uri = singleAttribute(URI);
+
+        if (!SIMPLE_URI.matcher(uri).matches()) {
+            throw new UnsupportedContentException("Unsupported URI " + uri);
+        }
+
+        return uri;
+    }
+
+    private String idAttribute() throws UnsupportedContentException {
+        String id = singleAttribute(ID);
+
+        if (!SIMPLE_ID.matcher(id).matches() || !ids.add(id)) {
+            throw new UnsupportedContentException("Unsupported or duplicate id " + id);
+        }
+
+        return id;
+    }
+
+    private String singleAttribute(String localName) throws UnsupportedContentException {
+        if (reader.getAttributeCount() != 1 || !isEmpty(reader.getAttributeNamespace(0))
+                || !localName.equals(reader.getAttributeLocalName(0))) {
+            throw new UnsupportedContentException("Unexpected attributes in " + reader.getName());
+        }
+
+        return reader.getAttributeValue(0);
+    }
+
+    private void requireAttributes() throws UnsupportedContentException {
+        if (reader.getAttributeCount() != 0) {
+            throw new UnsupportedContentException("Unexpected attributes in " + reader.getName());
+        }
+    }
+
+    /**
+     * Moves to the next start or end element, skipping whitespace, comments
+     * and processing instructions.
+     */
+    private int next() throws XMLStreamException, UnsupportedContentException {
+        int event = reader.next();
+
+        while (event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT) {
+            switch (event) {
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (!reader.isWhiteSpace()) {
+                        throw new UnsupportedContentException("Unexpected text in " + reader.getLocation());
+                    }
+                    break;
+                case XMLStreamConstants.COMMENT:
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    break;
+                default:
+                    throw new UnsupportedContentException("Unexpected event " + event);
+            }
+
+            event = reader.next();
+        }
+
+        return event;
+    }
+
+    private void nextStartElement(String namespace, String localName)
+            throws XMLStreamException, UnsupportedContentException {
+        int event = reader.getEventType();
+
+        if (event == XMLStreamConstants.START_DOCUMENT) {
+            event = next();
+        }
+
+        requireStartElement(event, namespace, localName);
+    }
+
+    private void endDocument() throws XMLStreamException, UnsupportedContentException {
+        int event = reader.next();
+
+        while (event != XMLStreamConstants.END_DOCUMENT) {
+            if (event != XMLStreamConstants.COMMENT && event != XMLStreamConstants.PROCESSING_INSTRUCTION
+                    && !(event == XMLStreamConstants.SPACE || event == XMLStreamConstants.CHARACTERS
+                            && reader.isWhiteSpace())) {
+                throw new UnsupportedContentException("Unexpected content after document element");
+            }
+
+            event = reader.next();
+        }
+    }
+
+    private boolean isStartElement(int event, String namespace, String localName) {
+        return event == XMLStreamConstants.START_ELEMENT
+                && localName.equals(reader.getLocalName())
+                && namespace.equals(reader.getNamespaceURI());
+    }
+
+    private void requireStartElement(int event, String namespace, String localName)
+            throws UnsupportedContentException {
+        if (!isStartElement(event, namespace, localName)) {
+            throw new UnsupportedContentException("Expected element " + localName);
+        }
+    }
+
+    private void requireEndElement(int event) throws UnsupportedContentException {
+        if (event != XMLStreamConstants.END_ELEMENT) {
+            throw new UnsupportedContentException("Unexpected element " + reader.getName());
+        }
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    private static void close(XMLStreamReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                log.trace("Failed to close reader", e);
+            }
+        }
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        // Documents with a DTD are left to the schema validation
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        return factory;
+    }
+
+    @FunctionalInterface
+    private interface ElementReader<T> {
+        T read(HashChainReader reader) throws XMLStreamException, UnsupportedContentException;
+    }
+
+    /**
+     * Thrown when the document is outside the subset that can be read
+     * without schema validation.
+     */
+    private static final class UnsupportedContentException extends Exception {
+        UnsupportedContentException(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
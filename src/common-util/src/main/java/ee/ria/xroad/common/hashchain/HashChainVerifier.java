@@ -119,12 +119,9 @@ public final class HashChainVerifier {
 
         HashChainResultType hashChainResult = parseHashChainResult(hashChainResultXml);
 
-        // Resolve last hash step in chain.
-        byte[] hashStepData = resolveHashStep(hashChainResult.getURI(), null);
-
-        // Digest the last hash step result.
-        byte[] digestedData = calculateDigest(
-                getAlgorithmId(hashChainResult.getDigestMethod().getAlgorithm()), hashStepData);
+        // Resolve and digest the last hash step in chain.
+        byte[] digestedData = resolveHashStep(hashChainResult.getURI(), null,
+                hashChainResult.getDigestMethod().getAlgorithm());
 
         // Compare with the signed hash chain result.
         if (!Arrays.equals(digestedData, hashChainResult.getDigestValue())) {
@@ -148,20 +145,27 @@ public final class HashChainVerifier {
     }
 
     private static HashChainResultType parseHashChainResult(InputStream xml) throws Exception {
-        return validateAndParse(xml, HashChainResultType.class);
-    }
+        byte[] xmlBytes = IOUtils.toByteArray(xml);
+        HashChainResultType hashChainResult = HashChainReader.readHashChainResult(xmlBytes);
 
+        return hashChainResult != null ? hashChainResult : validateAndParse(xmlBytes, HashChainResultType.class);
+    }
 
     private static HashChainType parseHashChain(InputStream xml) throws Exception {
-        return validateAndParse(xml, HashChainType.class);
+        byte[] xmlBytes = IOUtils.toByteArray(xml);
+        HashChainType hashChain = HashChainReader.readHashChain(xmlBytes);
+
+        return hashChain != null ? hashChain : validateAndParse(xmlBytes, HashChainType.class);
     }
 
+    /**
+     * Validates the document against the hash chain schema and unmarshals it. Used for the documents that
+     * {@link HashChainReader} does not read.
+     */
     @SuppressWarnings("unchecked")
-    private static <T> T validateAndParse(InputStream xml, Class<T> type) throws Exception {
+    private static <T> T validateAndParse(byte[] xmlBytes, Class<T> type) throws Exception {
         // They have made it rather impossible to get the actual source from JAXBSource so let's
         // pass StreamSource which we are actually able to handle later in SchemaVerfier.
-        byte[] xmlBytes = IOUtils.toByteArray(xml);
-
         HashChainValidator.validate(new StreamSource(new ByteArrayInputStream(xmlBytes)));
 
         Unmarshaller unmarshaller = jaxbCtx.createUnmarshaller();
@@ -172,9 +176,9 @@ public final class HashChainVerifier {
 
     /**
      * Downloads hash step, calculates all the values and concatenates the results to DigestList data structure.
-     * @return DER-encoding of the DigestList data structure.
+     * @return digest of the DER-encoding of the DigestList data structure.
      */
-    private byte[] resolveHashStep(String uri, HashChainType currentChain) throws Exception {
+    private byte[] resolveHashStep(String uri, HashChainType currentChain, String digestMethodUri) throws Exception {
         log.trace("resolveHashStep({})", uri);
 
         Pair<HashStepType, HashChainType> hashStep = fetchHashStep(uri, currentChain);
@@ -188,7 +192,7 @@ public final class HashChainVerifier {
             digests[i] = resolveValue(values.get(i), hashStep.getRight());
         }
 
-        return DigestList.concatDigests(digests);
+        return DigestList.digestHashStep(getAlgorithmId(digestMethodUri), digests);
     }
 
     /** Calculates digest of the value in a hash step. */
@@ -214,12 +218,10 @@ public final class HashChainVerifier {
     }
 
     private DigestValue resolveStepRef(StepRefType stepRef, HashChainType currentChain) throws Exception {
-        // Calculate result of the referenced hash step
-        byte[] resolved = resolveHashStep(stepRef.getURI(), currentChain);
         String digestMethodUri = getValueDigestMethodUri(stepRef, currentChain);
 
-        // Digest the hash step result.
-        return new DigestValue(digestMethodUri, calculateDigest(getAlgorithmId(digestMethodUri), resolved));
+        // Calculate and digest the result of the referenced hash step
+        return new DigestValue(digestMethodUri, resolveHashStep(stepRef.getURI(), currentChain, digestMethodUri));
     }
 
     private DigestValue resolveDataRef(DataRefType dataRef, HashChainType currentChain) throws Exception {
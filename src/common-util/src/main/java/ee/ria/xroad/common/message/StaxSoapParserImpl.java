@@ -0,0 +1,760 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.message;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.identifier.CentralServiceId;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.SecurityServerId;
+import ee.ria.xroad.common.identifier.ServiceId;
+import ee.ria.xroad.common.identifier.XRoadObjectType;
+import ee.ria.xroad.common.util.MimeUtils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.xml.namespace.QName;
+import javax.xml.soap.SOAPException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static ee.ria.xroad.common.ErrorCodes.X_DUPLICATE_HEADER_FIELD;
+import static ee.ria.xroad.common.ErrorCodes.X_INVALID_BODY;
+import static ee.ria.xroad.common.ErrorCodes.X_INVALID_SOAP;
+import static ee.ria.xroad.common.ErrorCodes.X_INVALID_XML;
+import static ee.ria.xroad.common.ErrorCodes.X_MISSING_BODY;
+import static ee.ria.xroad.common.ErrorCodes.X_MISSING_HEADER;
+import static ee.ria.xroad.common.ErrorCodes.X_MISSING_HEADER_FIELD;
+import static ee.ria.xroad.common.ErrorCodes.translateException;
+import static ee.ria.xroad.common.message.SoapUtils.validateMimeType;
+import static ee.ria.xroad.common.util.MimeUtils.UTF8;
+import static ee.ria.xroad.common.util.MimeUtils.hasUtf8Charset;
+import static javax.xml.stream.XMLStreamConstants.CDATA;
+import static javax.xml.stream.XMLStreamConstants.CHARACTERS;
+import static javax.xml.stream.XMLStreamConstants.DTD;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.SPACE;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+/**
+ * SOAP message parser built on a StAX pull parser. Produces the same messages, faults and
+ * error codes as {@link SaxSoapParserImpl} with the original XML as message bytes, but reads
+ * the envelope into a pooled buffer, keeps only a single exact-sized copy of the message and
+ * extracts the X-Road header fields in one pass without per-element handler objects.
+ *
+ * Re-encoding the message (see {@link SaxSoapParserImpl#isProcessedXmlRequired()}) is not supported.
+ * The proxy uses this parser for the messages exchanged between security servers when
+ * {@link ee.ria.xroad.common.SystemProperties#PROXY_STAX_SOAP_PARSER_ENABLED} is set.
+ */
+@Slf4j
+public class StaxSoapParserImpl implements SoapParser {
+
+    private static final String URI_IDENTIFIERS = "http://x-road.eu/xsd/identifiers";
+    private static final String URI_ENCODING = "http://schemas.xmlsoap.org/soap/encoding/";
+
+    private static final String ENVELOPE = "Envelope";
+    private static final String HEADER = "Header";
+    private static final String BODY = "Body";
+    private static final String FAULT = "Fault";
+
+    private static final String FAULT_CODE = "faultcode";
+    private static final String FAULT_STRING = "faultstring";
+    private static final String FAULT_ACTOR = "faultactor";
+    private static final String FAULT_DETAIL = "detail";
+    private static final String FAULT_DETAIL_CONTENT = "faultDetail";
+
+    private static final String QUERY_ID = "id";
+    private static final String USER_ID = "userId";
+    private static final String ISSUE = "issue";
+    private static final String REPRESENTED_PARTY = "representedParty";
+    private static final String PARTY_CLASS = "partyClass";
+    private static final String PARTY_CODE = "partyCode";
+    private static final String PROTOCOL_VERSION = "protocolVersion";
+    private static final String CLIENT = "client";
+    private static final String SERVICE = "service";
+    private static final String CENTRAL_SERVICE = "centralService";
+    private static final String SECURITY_SERVER = "securityServer";
+    private static final String REQUEST_HASH = "requestHash";
+    private static final String INSTANCE = "xRoadInstance";
+    private static final String MEMBER_CLASS = "memberClass";
+    private static final String MEMBER_CODE = "memberCode";
+    private static final String SUBSYSTEM_CODE = "subsystemCode";
+    private static final String SERVICE_CODE = "serviceCode";
+    private static final String SERVICE_VERSION = "serviceVersion";
+    private static final String SERVER_CODE = "serverCode";
+
+    private static final String ATTR_OBJECT_TYPE = "objectType";
+    private static final String ATTR_ALGORITHM_ID = "algorithmId";
+    private static final String ATTR_ENCODING_STYLE = "encodingStyle";
+
+    private static final Set<XRoadObjectType> CLIENT_TYPES = EnumSet.of(XRoadObjectType.MEMBER,
+            XRoadObjectType.SUBSYSTEM);
+    private static final Set<XRoadObjectType> SERVICE_TYPES = EnumSet.of(XRoadObjectType.SERVICE);
+    private static final Set<XRoadObjectType> CENTRAL_SERVICE_TYPES = EnumSet.of(XRoadObjectType.CENTRALSERVICE);
+    private static final Set<XRoadObjectType> SECURITY_SERVER_TYPES = EnumSet.of(XRoadObjectType.SERVER);
+
+    private static final String[] CLIENT_ID_PARTS = {INSTANCE, MEMBER_CLASS, MEMBER_CODE, SUBSYSTEM_CODE};
+    private static final String[] SERVICE_ID_PARTS = {INSTANCE, MEMBER_CLASS, MEMBER_CODE, SUBSYSTEM_CODE,
+            SERVICE_CODE, SERVICE_VERSION};
+    private static final String[] CENTRAL_SERVICE_ID_PARTS = {INSTANCE, SERVICE_CODE};
+    private static final String[] SECURITY_SERVER_ID_PARTS = {INSTANCE, MEMBER_CLASS, MEMBER_CODE, SERVER_CODE};
+
+    private static final String MISSING_HEADER_MESSAGE = "Malformed SOAP message: header missing";
+    private static final String MISSING_SERVICE_MESSAGE =
+            "Message header must contain either service id or central service id";
+    private static final String MISSING_HEADER_FIELD_MESSAGE = "Required field '%s' is missing";
+    private static final String DUPLICATE_HEADER_MESSAGE = "SOAP header contains duplicate field '%s'";
+    private static final String MISSING_BODY_MESSAGE = "Malformed SOAP message: body missing";
+    private static final String INVALID_BODY_MESSAGE =
+            "Malformed SOAP message: body must have exactly one child element";
+    private static final String MISSING_ENVELOPE_MESSAGE = "Malformed SOAP message: envelope missing";
+
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    // The messages are read into pooled buffers, the part of a larger message that does not fit is read
+    // into temporary chunks of the same size. At most MAX_POOLED_BUFFERS buffers are kept.
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    private static final BlockingQueue<byte[]> BUFFERS = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+    // Creating readers of a configured factory is thread safe
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    @Override
+    public Soap parse(String contentType, InputStream is) {
+        String mimeType = MimeUtils.getBaseContentType(contentType);
+
+        String charset = MimeUtils.getCharset(contentType);
+        charset = StringUtils.isNotBlank(charset) ? charset : UTF8;
+
+        // Explicitly check content type to produce better error code
+        // for client.
+        if (mimeType != null) {
+            validateMimeType(mimeType);
+        }
+
+        try {
+            return parseMessage(is, contentType, charset);
+        } catch (Exception e) {
+            throw translateException(e);
+        }
+    }
+
+    private Soap parseMessage(InputStream is, String contentType, String charset) throws Exception {
+        log.trace("parseMessage({}, {})", contentType, charset);
+
+        byte[] rawXml = readMessage(is);
+        int offset = hasUtf8Charset(contentType) && startsWithUtf8Bom(rawXml) ? UTF8_BOM.length : 0;
+
+        EnvelopeReader envelope;
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(
+                new ByteArrayInputStream(rawXml, offset, rawXml.length - offset));
+        try {
+            envelope = new EnvelopeReader(reader);
+            envelope.read();
+        } catch (XMLStreamException e) {
+            throw new SOAPException(e);
+        } finally {
+            reader.close();
+        }
+
+        CodedException fault = envelope.getFault();
+        if (fault != null) {
+            return new SoapFault(fault.getFaultCode(), fault.getFaultString(), fault.getFaultActor(),
+                    fault.getFaultDetail(), rawXml, charset);
+        }
+
+        return new SoapMessageImpl(rawXml, charset, envelope.getHeader(), null, envelope.getServiceName(),
+                envelope.isRpc(), contentType);
+    }
+
+    private static boolean startsWithUtf8Bom(byte[] data) {
+        if (data.length < UTF8_BOM.length) {
+            return false;
+        }
+
+        for (int i = 0; i < UTF8_BOM.length; i++) {
+            if (data[i] != UTF8_BOM[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        // disable DTDs and external entities to avoid DOS attacks
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        return factory;
+    }
+
+    /**
+     * Reads the message into a pooled buffer and returns an exact-sized copy of it.
+     */
+    private static byte[] readMessage(InputStream is) throws IOException {
+        byte[] buffer = BUFFERS.poll();
+
+        if (buffer == null) {
+            buffer = new byte[BUFFER_SIZE];
+        }
+
+        try {
+            int length = readFully(is, buffer);
+
+            if (length < BUFFER_SIZE) {
+                return Arrays.copyOf(buffer, length);
+            }
+
+            // read the rest of a larger message into temporary chunks and copy them to the result only once
+            List<byte[]> chunks = new ArrayList<>();
+            long total = length;
+            int lastChunkLength;
+            do {
+                byte[] chunk = new byte[BUFFER_SIZE];
+                lastChunkLength = readFully(is, chunk);
+                chunks.add(chunk);
+                total += lastChunkLength;
+            } while (lastChunkLength == BUFFER_SIZE);
+
+            byte[] result = new byte[Math.toIntExact(total)];
+            System.arraycopy(buffer, 0, result, 0, length);
+
+            int position = length;
+            for (int i = 0; i < chunks.size(); i++) {
+                int chunkLength = i < chunks.size() - 1 ? BUFFER_SIZE : lastChunkLength;
+                System.arraycopy(chunks.get(i), 0, result, position, chunkLength);
+                position += chunkLength;
+            }
+
+            return result;
+        } finally {
+            BUFFERS.offer(buffer);
+        }
+    }
+
+    private static int readFully(InputStream is, byte[] target) throws IOException {
+        int position = 0;
+        int count;
+
+        while (position < target.length && (count = is.read(target, position, target.length - position)) != -1) {
+            position += count;
+        }
+
+        return position;
+    }
+
+    /**
+     * Reads the SOAP envelope with a single pass of the pull parser. Mirrors the element handlers of
+     * {@link SaxSoapParserImpl}: unknown elements are skipped, duplicate header fields are rejected as
+     * soon as they are encountered and the header and body are validated when the envelope ends.
+     */
+    private static final class EnvelopeReader {
+        private final XMLStreamReader reader;
+
+        private final SoapHeader header = new SoapHeader();
+
+        private boolean rpc;
+        private boolean headerFinished;
+        private boolean bodyFound;
+        private String serviceName;
+        private CodedException fault;
+
+        EnvelopeReader(XMLStreamReader reader) {
+            this.reader = reader;
+        }
+
+        SoapHeader getHeader() {
+            return header;
+        }
+
+        boolean isRpc() {
+            return rpc;
+        }
+
+        String getServiceName() {
+            return serviceName;
+        }
+
+        CodedException getFault() {
+            return fault;
+        }
+
+        void read() throws Exception {
+            moveToRootElement();
+
+            if (!isElement(SoapUtils.NS_SOAPENV, ENVELOPE)) {
+                throw new CodedException(X_INVALID_SOAP, MISSING_ENVELOPE_MESSAGE);
+            }
+
+            rpc = URI_ENCODING.equals(reader.getAttributeValue(SoapUtils.NS_SOAPENV, ATTR_ENCODING_STYLE));
+
+            while (nextChildElement()) {
+                if (isElement(SoapUtils.NS_SOAPENV, HEADER)) {
+                    readHeader();
+                } else if (isElement(SoapUtils.NS_SOAPENV, BODY)) {
+                    readBody();
+                } else {
+                    skipElement();
+                }
+            }
+
+            if (fault == null) {
+                validateHeader();
+                validateBody();
+            }
+
+            // consume the rest of the document so that it is checked for well-formedness
+            while (reader.hasNext()) {
+                reader.next();
+            }
+        }
+
+        private void moveToRootElement() throws XMLStreamException {
+            while (reader.hasNext()) {
+                int event = reader.next();
+
+                if (event == START_ELEMENT) {
+                    return;
+                } else if (event == DTD) {
+                    throw new XMLStreamException("DOCTYPE is not allowed", reader.getLocation());
+                }
+            }
+
+            throw new XMLStreamException("Premature end of file", reader.getLocation());
+        }
+
+        private void readHeader() throws Exception {
+            while (nextChildElement()) {
+                String namespace = reader.getNamespaceURI();
+
+                if (SoapHeader.NS_XROAD.equals(namespace)) {
+                    readXRoadHeaderField(reader.getLocalName());
+                } else if (SoapHeader.NS_REPR.equals(namespace) && REPRESENTED_PARTY.equals(reader.getLocalName())) {
+                    validateDuplicateHeader(header.getRepresentedParty());
+                    header.setRepresentedParty(readRepresentedParty());
+                } else {
+                    skipElement();
+                }
+            }
+
+            headerFinished = true;
+        }
+
+        private void readXRoadHeaderField(String name) throws Exception {
+            switch (name) {
+                case QUERY_ID:
+                    validateDuplicateHeader(header.getQueryId());
+                    header.setQueryId(readText());
+                    break;
+                case USER_ID:
+                    validateDuplicateHeader(header.getUserId());
+                    header.setUserId(readText());
+                    break;
+                case ISSUE:
+                    validateDuplicateHeader(header.getIssue());
+                    header.setIssue(readText());
+                    break;
+                case PROTOCOL_VERSION:
+                    validateDuplicateHeader(header.getProtocolVersion());
+                    header.setProtocolVersion(new ProtocolVersion(readText()));
+                    break;
+                case CLIENT:
+                    validateDuplicateHeader(header.getClient());
+                    header.setClient(readIdentifier(CLIENT_TYPES, CLIENT_ID_PARTS).toClientId());
+                    break;
+                case SERVICE:
+                    validateDuplicateHeader(header.getService());
+                    header.setService(readIdentifier(SERVICE_TYPES, SERVICE_ID_PARTS).toServiceId());
+                    break;
+                case CENTRAL_SERVICE:
+                    // same check as in SaxSoapParserImpl, service and central service are mutually exclusive
+                    validateDuplicateHeader(header.getService());
+                    header.setCentralService(readIdentifier(CENTRAL_SERVICE_TYPES, CENTRAL_SERVICE_ID_PARTS)
+                            .toCentralServiceId());
+                    break;
+                case SECURITY_SERVER:
+                    validateDuplicateHeader(header.getSecurityServer());
+                    header.setSecurityServer(readIdentifier(SECURITY_SERVER_TYPES, SECURITY_SERVER_ID_PARTS)
+                            .toSecurityServerId());
+                    break;
+                case REQUEST_HASH:
+                    validateDuplicateHeader(header.getRequestHash());
+                    String algorithmId = reader.getAttributeValue("", ATTR_ALGORITHM_ID);
+                    header.setRequestHash(new RequestHash(algorithmId, readText()));
+                    break;
+                default:
+                    skipElement();
+            }
+        }
+
+        private IdentifierParts readIdentifier(Set<XRoadObjectType> expected, String[] allowedParts)
+                throws XMLStreamException {
+            XRoadObjectType objectType = getObjectType();
+            if (!expected.contains(objectType)) {
+                throw new CodedException(X_INVALID_XML, "Unexpected objectType: %s", objectType);
+            }
+
+            IdentifierParts parts = new IdentifierParts();
+
+            while (nextChildElement()) {
+                String name = reader.getLocalName();
+
+                if (URI_IDENTIFIERS.equals(reader.getNamespaceURI()) && contains(allowedParts, name)) {
+                    validateDuplicateHeader(parts.get(name));
+                    parts.set(name, readText());
+                } else {
+                    skipElement();
+                }
+            }
+
+            return parts;
+        }
+
+        private XRoadObjectType getObjectType() {
+            String objectType = reader.getAttributeValue(URI_IDENTIFIERS, ATTR_OBJECT_TYPE);
+            if (objectType == null) {
+                throw new CodedException(X_INVALID_XML, "Missing objectType attribute");
+            }
+
+            try {
+                return XRoadObjectType.valueOf(objectType);
+            } catch (IllegalArgumentException e) {
+                throw new CodedException(X_INVALID_XML, "Unknown objectType: %s", objectType);
+            }
+        }
+
+        private RepresentedParty readRepresentedParty() throws XMLStreamException {
+            String partyClass = null;
+            String partyCode = null;
+
+            while (nextChildElement()) {
+                if (isElement(SoapHeader.NS_REPR, PARTY_CLASS)) {
+                    validateDuplicateHeader(partyClass);
+                    partyClass = readText();
+                } else if (isElement(SoapHeader.NS_REPR, PARTY_CODE)) {
+                    validateDuplicateHeader(partyCode);
+                    partyCode = readText();
+                } else {
+                    skipElement();
+                }
+            }
+
+            return new RepresentedParty(partyClass, partyCode);
+        }
+
+        private void readBody() throws XMLStreamException {
+            bodyFound = true;
+            serviceName = null;
+            fault = null;
+
+            CodedException bodyFault = null;
+
+            while (nextChildElement()) {
+                if (isElement(SoapUtils.NS_SOAPENV, FAULT)) {
+                    bodyFault = readFault();
+                } else if (serviceName == null) {
+                    // the first body element is assumed to be the request wrapper element
+                    serviceName = reader.getLocalName();
+                    skipElement();
+                } else {
+                    throw new CodedException(X_INVALID_BODY, INVALID_BODY_MESSAGE);
+                }
+            }
+
+            fault = bodyFault;
+        }
+
+        private CodedException readFault() throws XMLStreamException {
+            String faultCode = null;
+            String faultString = null;
+            String faultActor = null;
+            String faultDetail = null;
+
+            while (nextChildElement()) {
+                switch (reader.getLocalName()) {
+                    case FAULT_CODE:
+                        faultCode = readText();
+                        break;
+                    case FAULT_STRING:
+                        faultString = readText();
+                        break;
+                    case FAULT_ACTOR:
+                        faultActor = readText();
+                        break;
+                    case FAULT_DETAIL:
+                        faultDetail = readFaultDetail(faultDetail);
+                        break;
+                    default:
+                        skipElement();
+                }
+            }
+
+            return CodedException.fromFault(faultCode, faultString, faultActor, faultDetail, null);
+        }
+
+        private String readFaultDetail(String current) throws XMLStreamException {
+            String faultDetail = current;
+            StringBuilder text = new StringBuilder();
+
+            while (true) {
+                int event = reader.next();
+
+                if (event == START_ELEMENT) {
+                    if (FAULT_DETAIL_CONTENT.equals(reader.getLocalName())) {
+                        faultDetail = readText();
+                    } else {
+                        skipElement();
+                    }
+                } else if (event == END_ELEMENT) {
+                    break;
+                } else if (isText(event)) {
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                }
+            }
+
+            return StringUtils.isEmpty(faultDetail) ? text.toString() : faultDetail;
+        }
+
+        private void validateHeader() {
+            if (!headerFinished) {
+                throw new CodedException(X_MISSING_HEADER, MISSING_HEADER_MESSAGE);
+            }
+            if (header.getProtocolVersion() == null) {
+                onMissingRequiredField(PROTOCOL_VERSION);
+            }
+            if (header.getClient() == null) {
+                onMissingRequiredField(CLIENT);
+            }
+            if (header.getQueryId() == null) {
+                onMissingRequiredField(QUERY_ID);
+            }
+            if (getService() == null) {
+                throw new CodedException(X_MISSING_HEADER_FIELD, MISSING_SERVICE_MESSAGE);
+            }
+        }
+
+        private void onMissingRequiredField(String fieldName) {
+            throw new CodedException(X_MISSING_HEADER_FIELD, MISSING_HEADER_FIELD_MESSAGE, fieldName);
+        }
+
+        private void validateBody() {
+            if (!bodyFound) {
+                throw new CodedException(X_MISSING_BODY, MISSING_BODY_MESSAGE);
+            }
+            if (serviceName == null) {
+                throw new CodedException(X_INVALID_BODY, INVALID_BODY_MESSAGE);
+            }
+            SoapUtils.validateServiceName(getService().getServiceCode(), serviceName);
+        }
+
+        private ServiceId getService() {
+            return header.getService() != null ? header.getService() : header.getCentralService();
+        }
+
+        private void validateDuplicateHeader(Object existing) {
+            if (existing != null) {
+                throw new CodedException(X_DUPLICATE_HEADER_FIELD, DUPLICATE_HEADER_MESSAGE,
+                        new QName(reader.getNamespaceURI(), reader.getLocalName()));
+            }
+        }
+
+        private boolean isElement(String namespace, String localName) {
+            return localName.equals(reader.getLocalName()) && namespace.equals(reader.getNamespaceURI());
+        }
+
+        /**
+         * Advances to the next child element of the current element.
+         * @return false if the end of the current element was reached instead
+         */
+        private boolean nextChildElement() throws XMLStreamException {
+            while (true) {
+                int event = reader.next();
+
+                if (event == START_ELEMENT) {
+                    return true;
+                } else if (event == END_ELEMENT) {
+                    return false;
+                }
+            }
+        }
+
+        private void skipElement() throws XMLStreamException {
+            int depth = 1;
+
+            while (depth > 0) {
+                int event = reader.next();
+
+                if (event == START_ELEMENT) {
+                    depth++;
+                } else if (event == END_ELEMENT) {
+                    depth--;
+                }
+            }
+        }
+
+        /**
+         * Reads the character content of the current element up to its end tag, ignoring any child elements.
+         */
+        private String readText() throws XMLStreamException {
+            String value = null;
+            StringBuilder buffer = null;
+
+            while (true) {
+                int event = reader.next();
+
+                if (event == START_ELEMENT) {
+                    skipElement();
+                } else if (event == END_ELEMENT) {
+                    break;
+                } else if (isText(event)) {
+                    if (value == null) {
+                        value = reader.getText();
+                    } else {
+                        if (buffer == null) {
+                            buffer = new StringBuilder(value);
+                        }
+                        buffer.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                }
+            }
+
+            if (buffer != null) {
+                return buffer.toString();
+            }
+
+            return value != null ? value : "";
+        }
+
+        private static boolean isText(int event) {
+            return event == CHARACTERS || event == CDATA || event == SPACE;
+        }
+
+        private static boolean contains(String[] values, String value) {
+            for (String candidate : values) {
+                if (candidate.equals(value)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Values of the identifier elements of an X-Road client, service or security server header.
+     */
+    private static final class IdentifierParts {
+        private String instance;
+        private String memberClass;
+        private String memberCode;
+        private String subsystemCode;
+        private String serviceCode;
+        private String serviceVersion;
+        private String serverCode;
+
+        String get(String name) {
+            switch (name) {
+                case INSTANCE:
+                    return instance;
+                case MEMBER_CLASS:
+                    return memberClass;
+                case MEMBER_CODE:
+                    return memberCode;
+                case SUBSYSTEM_CODE:
+                    return subsystemCode;
+                case SERVICE_CODE:
+                    return serviceCode;
+                case SERVICE_VERSION:
+                    return serviceVersion;
+                case SERVER_CODE:
+                    return serverCode;
+                default:
+                    throw new IllegalArgumentException(name);
+            }
+        }
+
+        void set(String name, String value) {
+            switch (name) {
+                case INSTANCE:
+                    instance = value;
+                    break;
+                case MEMBER_CLASS:
+                    memberClass = value;
+                    break;
+                case MEMBER_CODE:
+                    memberCode = value;
+                    break;
+                case SUBSYSTEM_CODE:
+                    subsystemCode = value;
+                    break;
+                case SERVICE_CODE:
+                    serviceCode = value;
+                    break;
+                case SERVICE_VERSION:
+                    serviceVersion = value;
+                    break;
+                case SERVER_CODE:
+                    serverCode = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException(name);
+            }
+        }
+
+        ClientId toClientId() {
+            return ClientId.create(instance, memberClass, memberCode, subsystemCode);
+        }
+
+        ServiceId toServiceId() {
+            return ServiceId.create(instance, memberClass, memberCode, subsystemCode, serviceCode, serviceVersion);
+        }
+
+        CentralServiceId toCentralServiceId() {
+            return CentralServiceId.create(instance, serviceCode);
+        }
+
+        SecurityServerId toSecurityServerId() {
+            return SecurityServerId.create(instance, memberClass, memberCode, serverCode);
+        }
+    }
+}
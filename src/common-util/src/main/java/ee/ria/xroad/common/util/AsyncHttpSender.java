@@ -40,6 +40,8 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -62,6 +64,8 @@ public class AsyncHttpSender extends AbstractHttpSender {
 
     private Future<HttpResponse> futureResponse;
 
+    private CompletableFuture<HttpResponse> responseReceived;
+
     /**
      * Configures an asynchronous HTTP sender using the given HTTP client.
      * @param client asynchronous closeable HTTP client this sender should use
@@ -157,6 +161,33 @@ public class AsyncHttpSender extends AbstractHttpSender {
         }
     }
 
+    /**
+     * Returns a future that is completed when the response has been received and handled, after which
+     * {@link #getResponseContent()} and {@link #getResponseContentType()} can be used to retrieve the response.
+     * Unlike {@link #waitForResponse(int)}, this method does not block. The future is completed by an I/O
+     * dispatcher thread of the HTTP client, so any blocking follow-up work should be run on another executor.
+     * @return future that completes exceptionally with a {@link CodedException} if the request failed
+     */
+    public CompletableFuture<Void> whenResponseReceived() {
+        if (responseReceived == null) {
+            throw new CodedException(X_INTERNAL_ERROR, "Request uninitialized");
+        }
+
+        return responseReceived.handle((response, error) -> {
+            if (error != null) {
+                throw translateException(error instanceof CompletionException ? error.getCause() : error);
+            }
+
+            try {
+                handleResponse(response);
+            } catch (Exception e) {
+                throw translateException(e);
+            }
+
+            return null;
+        });
+    }
+
     private void handleFailure(Exception cause) {
         cancelRequest();
         throw translateException(cause);
@@ -177,7 +208,8 @@ public class AsyncHttpSender extends AbstractHttpSender {
 
         addAdditionalHeaders();
         try {
-            futureResponse = client.execute(request, context, new Callback());
+            responseReceived = new CompletableFuture<>();
+            futureResponse = client.execute(request, context, new Callback(responseReceived));
         } catch (Exception ex) {
             LOG.debug("Request failed", ex);
             request.abort();
@@ -193,20 +225,29 @@ public class AsyncHttpSender extends AbstractHttpSender {
 
     private class Callback implements FutureCallback<HttpResponse> {
 
+        private final CompletableFuture<HttpResponse> result;
+
+        Callback(CompletableFuture<HttpResponse> result) {
+            this.result = result;
+        }
+
         @Override
         public void cancelled() {
             consumeEntity();
+            result.cancel(false);
         }
 
         @Override
         public void completed(HttpResponse arg0) {
             consumeEntity();
+            result.complete(arg0);
         }
 
         @Override
         public void failed(Exception e) {
             LOG.trace("failed()", e);
             consumeEntity();
+            result.completeExceptionally(e);
         }
     }
 }
@@ -27,42 +27,136 @@ package ee.ria.xroad.common.util;
 
 import ee.ria.xroad.common.DefaultFilepaths;
 import ee.ria.xroad.common.ErrorCodes;
+import ee.ria.xroad.common.SystemProperties;
 
+import com.codahale.metrics.Counter;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
-import java.nio.channels.SeekableByteChannel;
-import java.nio.file.Files;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
 
 /**
- * Caches stuff in a temporary file.
+ * Caches stuff in memory and, once it no longer fits there, in a temporary file. The memory is taken in
+ * direct memory segments from the shared {@link SpoolBufferPool}, and is limited both per stream and by the
+ * budget of the pool. When either limit is reached, the contents are moved to a temporary file and the
+ * segments are returned to the pool.
  */
 @Slf4j
-public class CachingStream extends FilterOutputStream {
-    private SeekableByteChannel channel;
+public class CachingStream extends OutputStream {
+    private static final Counter SPILLS = PerformanceMetrics.counter(CachingStream.class, "spills");
+
+    private final SpoolBufferPool pool;
+    private final long memoryLimit;
+
+    private List<ByteBuffer> segments = new ArrayList<>();
+    // Readers of the segments validate their reads against this lock, the segments may be reused once released
+    private final StampedLock releaseLock = new StampedLock();
+    private volatile boolean released;
+    private int writeIndex;
+    private long size;
+
+    private FileChannel channel;
     private Path tempFile;
 
+    // Writing and consume() exclude each other, so that a write racing with consume() can neither write to
+    // segments already returned to the pool nor take segments that are never returned. Not a monitor, writing to
+    // the temporary file would pin the carrier of a virtual thread.
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // Set by consume(), the stream can then be neither written nor read
+    private volatile boolean consumed;
+
     /**
-     * Constructs a new caching stream that caches data in a temporary file.
+     * Constructs a new caching stream that caches data in memory up to the configured per message limit and
+     * in a temporary file beyond that.
      *
      * @throws IOException if I/O errors occurred
      */
     public CachingStream() throws IOException {
-        // Construct the parent class with null stream and replace it later.
-        super(null);
+        this(SystemProperties.getSpoolMessageMemoryLimit());
+    }
 
-        tempFile = DefaultFilepaths.createTempFile("tmpattach", null);
-        channel = Files.newByteChannel(tempFile, StandardOpenOption.CREATE,
-                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING,
-                StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+    /**
+     * Constructs a new caching stream that caches data in memory up to the given number of bytes and in a
+     * temporary file beyond that.
+     *
+     * @param memoryLimit maximum number of bytes to keep in memory, 0 to always use a temporary file
+     * @throws IOException if I/O errors occurred
+     */
+    public CachingStream(int memoryLimit) throws IOException {
+        this(memoryLimit, SpoolBufferPool.getInstance());
+    }
+
+    CachingStream(int memoryLimit, SpoolBufferPool pool) throws IOException {
+        this.memoryLimit = memoryLimit;
+        this.pool = pool;
+
+        if (memoryLimit <= 0) {
+            spill();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        writeLock.lock();
+        try {
+            checkNotConsumed();
+            writeLocked(b, off, len);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void writeLocked(byte[] b, int off, int len) throws IOException {
+        if (segments != null && !reserve(len)) {
+            spill();
+        }
+
+        if (segments == null) {
+            writeFully(ByteBuffer.wrap(b, off, len));
+        } else {
+            int offset = off;
+            int remaining = len;
+
+            while (remaining > 0) {
+                ByteBuffer segment = segments.get(writeIndex);
+
+                if (!segment.hasRemaining()) {
+                    // the next one has been reserved already
+                    writeIndex++;
+                    continue;
+                }
+
+                int count = Math.min(remaining, segment.remaining());
+                segment.put(b, offset, count);
+                offset += count;
+                remaining -= count;
+            }
+        }
+
+        size += len;
+    }
 
-        // Now that we are set up, we can set the output stream in the
-        // parent class.
-        out = Channels.newOutputStream(channel);
+    @Override
+    public void flush() {
+        // NOP, the contents are only read through this object
     }
 
     @Override
@@ -71,18 +165,36 @@ public class CachingStream extends FilterOutputStream {
         flush();
     }
 
-    @Override
-    public void write(byte[] b, int off, int len) throws IOException {
-        // prevent FilterOutputStream from writing inefficiently
-        out.write(b, off, len);
+    /**
+     * @return the number of bytes cached
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return true if the data did not fit in memory and is cached in a temporary file
+     */
+    public boolean isSpilled() {
+        return channel != null;
     }
 
     /**
      * @return input stream that contains the encoded attachment contents.
-     * The returned stream does not support mark, and closing the stream has no effect.
+     * The returned stream does not support mark, and closing the stream has no effect. Contents kept in memory
+     * can not be read after {@link #consume()}, reading them then fails with an IOException.
      * @see #consume() to free resources used by the cache.
      */
     public CacheInputStream getCachedContents() {
+        if (consumed) {
+            throw ErrorCodes.translateException(new ClosedChannelException());
+        }
+
+        if (segments != null) {
+            return new CacheInputStream(new SegmentInputStream(readableSegments(), releaseLock.tryOptimisticRead()),
+                    size);
+        }
+
         try {
             return new CacheInputStream(channel);
         } catch (IOException ex) { // the position shouldn't really throw
@@ -91,9 +203,68 @@ public class CachingStream extends FilterOutputStream {
     }
 
     /**
-     * Finalize caching stream. Use to avoid file handle leaks.
+     * Writes the cached contents to the given stream. Contents cached in a temporary file are transferred
+     * directly from the file channel, without copying them through an intermediate input stream.
+     *
+     * @param target the stream to write to, not closed by this method
+     * @throws IOException if I/O errors occurred
+     */
+    public void writeTo(OutputStream target) throws IOException {
+        checkNotConsumed();
+
+        WritableByteChannel targetChannel = Channels.newChannel(target);
+
+        if (segments != null) {
+            long stamp = releaseLock.tryOptimisticRead();
+
+            for (ByteBuffer segment : readableSegments()) {
+                while (segment.hasRemaining()) {
+                    targetChannel.write(segment);
+                    checkNotReleased(stamp);
+                }
+            }
+
+            return;
+        }
+
+        long position = 0;
+
+        while (position < size) {
+            position += channel.transferTo(position, size - position, targetChannel);
+        }
+    }
+
+    /**
+     * Finalize caching stream. Use to avoid file handle leaks and to return the memory to the pool. The stream
+     * can not be used afterwards, writing and reading it fail with a {@link ClosedChannelException}. Waits for
+     * a write in progress in another thread to complete.
      */
     public void consume() {
+        writeLock.lock();
+        try {
+            consumeLocked();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void consumeLocked() {
+        if (consumed) {
+            return;
+        }
+
+        consumed = true;
+
+        if (segments != null) {
+            // the segments are no longer ours, the readers still holding them fail
+            releaseSegments();
+            segments = null;
+        }
+
+        if (channel == null) {
+            return;
+        }
+
         try {
             channel.close();
         } catch (IOException e) {
@@ -101,4 +272,158 @@ public class CachingStream extends FilterOutputStream {
         }
     }
 
+    // Makes sure the segments have room for count more bytes. Returns false if the data should be spilled.
+    private boolean reserve(int count) {
+        if (size + count > memoryLimit) {
+            return false;
+        }
+
+        long free = (long) segments.size() * SpoolBufferPool.SEGMENT_SIZE - size;
+
+        while (free < count) {
+            ByteBuffer segment = pool.acquire();
+
+            if (segment == null) {
+                return false;
+            }
+
+            segments.add(segment);
+            free += SpoolBufferPool.SEGMENT_SIZE;
+        }
+
+        return true;
+    }
+
+    private List<ByteBuffer> readableSegments() {
+        List<ByteBuffer> readable = new ArrayList<>(segments.size());
+
+        for (ByteBuffer segment : segments) {
+            ByteBuffer duplicate = segment.duplicate();
+            duplicate.flip();
+            readable.add(duplicate);
+        }
+
+        return readable;
+    }
+
+    private void releaseSegments() {
+        // readers still holding the segments fail instead of reading memory reused by other streams
+        long stamp = releaseLock.writeLock();
+        released = true;
+        releaseLock.unlockWrite(stamp);
+
+        for (ByteBuffer segment : segments) {
+            pool.release(segment);
+        }
+    }
+
+    private void spill() throws IOException {
+        tempFile = DefaultFilepaths.createTempFile("tmpattach", null);
+        channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+
+        if (segments != null) {
+            SPILLS.inc();
+
+            for (ByteBuffer segment : readableSegments()) {
+                writeFully(segment);
+            }
+
+            releaseSegments();
+        }
+
+        segments = null;
+    }
+
+    private void writeFully(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+    private void checkNotConsumed() throws ClosedChannelException {
+        if (consumed) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * Fails if the segments have been released since the stamp was taken.
+     */
+    private void checkNotReleased(long stamp) throws IOException {
+        if (released || !releaseLock.validate(stamp)) {
+            throw new IOException("Cached contents have been released");
+        }
+    }
+
+    /**
+     * Reads the memory segments in order. Every read is validated after copying, so data from segments released
+     * meanwhile is never returned.
+     */
+    private final class SegmentInputStream extends InputStream {
+        private final List<ByteBuffer> segments;
+        private final long stamp;
+        private int current;
+
+        SegmentInputStream(List<ByteBuffer> segments, long stamp) {
+            this.segments = segments;
+            this.stamp = stamp;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkNotReleased(stamp);
+
+            ByteBuffer segment = nextReadable();
+            int b = segment == null ? -1 : Byte.toUnsignedInt(segment.get());
+
+            checkNotReleased(stamp);
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            checkNotReleased(stamp);
+
+            ByteBuffer segment = nextReadable();
+
+            if (segment == null) {
+                return -1;
+            }
+
+            int count = Math.min(len, segment.remaining());
+            segment.get(b, off, count);
+
+            checkNotReleased(stamp);
+
+            return count;
+        }
+
+        @Override
+        public int available() {
+            ByteBuffer segment = current < segments.size() ? segments.get(current) : null;
+
+            return segment == null ? 0 : segment.remaining();
+        }
+
+        private ByteBuffer nextReadable() {
+            while (current < segments.size()) {
+                ByteBuffer segment = segments.get(current);
+
+                if (segment.hasRemaining()) {
+                    return segment;
+                }
+
+                current++;
+            }
+
+            return null;
+        }
+    }
 }
@@ -0,0 +1,103 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.util;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.jmx.JmxReporter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Global access point for the performance metrics (histograms, counters and gauges) collected
+ * by the components running inside a single JVM. The metrics can be published over JMX with
+ * {@link #startJmxReporter(String)}.
+ */
+@Slf4j
+public final class PerformanceMetrics {
+
+    private static final MetricRegistry REGISTRY = new MetricRegistry();
+
+    private static JmxReporter jmxReporter;
+
+    private PerformanceMetrics() {
+    }
+
+    /**
+     * @return the metric registry holding all performance metrics
+     */
+    public static MetricRegistry getRegistry() {
+        return REGISTRY;
+    }
+
+    /**
+     * Either registers a new histogram or reuses an already registered one.
+     * @param owner class that owns the metric
+     * @param names name parts of the metric
+     * @return the histogram
+     */
+    public static Histogram histogram(Class<?> owner, String... names) {
+        return REGISTRY.histogram(MetricRegistry.name(owner, names));
+    }
+
+    /**
+     * Either registers a new counter or reuses an already registered one.
+     * @param owner class that owns the metric
+     * @param names name parts of the metric
+     * @return the counter
+     */
+    public static Counter counter(Class<?> owner, String... names) {
+        return REGISTRY.counter(MetricRegistry.name(owner, names));
+    }
+
+    /**
+     * Registers the given gauge, replacing any gauge previously registered with the same name.
+     * @param owner class that owns the metric
+     * @param name name of the metric
+     * @param gauge the gauge
+     * @param <T> type of the gauge value
+     */
+    public static <T> void gauge(Class<?> owner, String name, Gauge<T> gauge) {
+        String metricName = MetricRegistry.name(owner, name);
+
+        REGISTRY.remove(metricName);
+        REGISTRY.register(metricName, gauge);
+    }
+
+    /**
+     * Starts publishing the metrics over JMX under the given domain. Subsequent calls have no effect.
+     * @param domain the JMX domain
+     */
+    public static synchronized void startJmxReporter(String domain) {
+        if (jmxReporter == null) {
+            log.debug("Publishing performance metrics over JMX (domain '{}')", domain);
+
+            jmxReporter = JmxReporter.forRegistry(REGISTRY).inDomain(domain).build();
+            jmxReporter.start();
+        }
+    }
+}
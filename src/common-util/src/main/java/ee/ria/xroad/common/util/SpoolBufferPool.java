@@ -0,0 +1,121 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.util;
+
+import ee.ria.xroad.common.SystemProperties;
+
+import com.codahale.metrics.Counter;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of fixed size direct memory segments used by {@link CachingStream} for buffering message contents in
+ * memory. The total size of the segments is limited by a global budget. Released segments are kept for reuse,
+ * so the pool never allocates more direct memory than the budget.
+ */
+public final class SpoolBufferPool {
+
+    static final int SEGMENT_SIZE = 16 * 1024;
+
+    private static final SpoolBufferPool INSTANCE = new SpoolBufferPool(SystemProperties.getSpoolMemoryBudget());
+
+    static {
+        PerformanceMetrics.gauge(SpoolBufferPool.class, "segments.capacity", INSTANCE::getCapacity);
+        PerformanceMetrics.gauge(SpoolBufferPool.class, "segments.in-use", INSTANCE::getSegmentsInUse);
+        PerformanceMetrics.gauge(SpoolBufferPool.class, "segments.allocated", INSTANCE.allocated::get);
+    }
+
+    private final int capacity;
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger allocated = new AtomicInteger();
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+
+    private final Counter exhausted = PerformanceMetrics.counter(SpoolBufferPool.class, "exhausted");
+
+    SpoolBufferPool(long budget) {
+        this.capacity = (int) Math.min(Integer.MAX_VALUE, budget / SEGMENT_SIZE);
+    }
+
+    /**
+     * @return the pool shared by all message buffers
+     */
+    public static SpoolBufferPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Takes a cleared segment from the pool.
+     * @return the segment, or null if the memory budget is used up
+     */
+    ByteBuffer acquire() {
+        int used;
+        do {
+            used = inUse.get();
+
+            if (used >= capacity) {
+                exhausted.inc();
+                return null;
+            }
+        } while (!inUse.compareAndSet(used, used + 1));
+
+        ByteBuffer segment = free.poll();
+
+        if (segment == null) {
+            allocated.incrementAndGet();
+            segment = ByteBuffer.allocateDirect(SEGMENT_SIZE);
+        }
+
+        segment.clear();
+
+        return segment;
+    }
+
+    /**
+     * Returns a segment to the pool.
+     * @param segment the segment acquired earlier from this pool
+     */
+    void release(ByteBuffer segment) {
+        free.offer(segment);
+        inUse.decrementAndGet();
+    }
+
+    /**
+     * @return the number of segments currently in use
+     */
+    public int getSegmentsInUse() {
+        return inUse.get();
+    }
+
+    /**
+     * @return the maximum number of segments the pool hands out
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+}
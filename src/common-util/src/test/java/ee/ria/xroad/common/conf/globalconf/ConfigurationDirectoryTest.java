@@ -25,17 +25,28 @@
  */
 package ee.ria.xroad.common.conf.globalconf;
 
+import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.util.ExpectedCodedException;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 
+import static ee.ria.xroad.common.ErrorCodes.X_MALFORMED_GLOBALCONF;
 import static ee.ria.xroad.common.ErrorCodes.X_OUTDATED_GLOBALCONF;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 /**
  * Tests to verify configuration directories are read correctly.
@@ -45,6 +56,9 @@ public class ConfigurationDirectoryTest {
     @Rule
     public ExpectedCodedException thrown = ExpectedCodedException.none();
 
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
     /**
      * Test to ensure a correct configuration directory is read properly.
      *
@@ -109,4 +123,78 @@ public class ConfigurationDirectoryTest {
         ConfigurationDirectoryV2.verifyUpToDate(Paths.get("src/test/resources/globalconf_expired/foo/"
                 + ConfigurationDirectoryV2.PRIVATE_PARAMETERS_XML));
     }
+
+    /**
+     * Test to ensure that a reload publishes a new snapshot only for changed parameters and leaves the parameters
+     * handed out earlier untouched.
+     *
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void reloadReplacesChangedParameters() throws Exception {
+        File confDir = tempDir.newFolder("globalconf");
+        FileUtils.copyDirectory(new File("src/test/resources/globalconf_good_v2"), confDir);
+
+        ConfigurationDirectoryV2 dir = new ConfigurationDirectoryV2(confDir.getPath());
+
+        long version = dir.getVersion();
+        SharedParametersV2 foo = dir.getShared("foo");
+        SharedParametersV2 bar = dir.getShared("bar");
+
+        dir.reload();
+
+        assertEquals(version, dir.getVersion());
+        assertSame(foo, dir.getShared("foo"));
+
+        File fooShared = new File(confDir, "foo/" + ConfigurationDirectoryV2.SHARED_PARAMETERS_XML);
+        FileUtils.writeStringToFile(fooShared,
+                FileUtils.readFileToString(fooShared, StandardCharsets.UTF_8) + "\n", StandardCharsets.UTF_8);
+
+        dir.reload();
+
+        assertEquals(version + 1, dir.getVersion());
+        assertNotSame(foo, dir.getShared("foo"));
+        assertSame(bar, dir.getShared("bar"));
+        assertEquals("foo", foo.getInstanceIdentifier());
+    }
+
+    /**
+     * Test to ensure that the expiration of the configuration files is checked against the snapshot.
+     *
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void verifyDirectoryUpToDate() throws Exception {
+        File confDir = tempDir.newFolder("globalconf");
+        FileUtils.copyDirectory(new File("src/test/resources/globalconf_good_v2"), confDir);
+
+        ConfigurationDirectoryV2 dir = new ConfigurationDirectoryV2(confDir.getPath());
+
+        try {
+            dir.verifyUpToDate();
+
+            fail("Expected the missing list of configuration files to be reported");
+        } catch (CodedException e) {
+            assertEquals(X_MALFORMED_GLOBALCONF, e.getFaultCode());
+        }
+
+        Path good = Paths.get(confDir.getPath(), "foo", ConfigurationDirectoryV2.PRIVATE_PARAMETERS_XML);
+        Path expired = Paths.get("src/test/resources/globalconf_expired/foo",
+                ConfigurationDirectoryV2.PRIVATE_PARAMETERS_XML).toAbsolutePath();
+
+        writeFileList(confDir, good);
+        dir.reload();
+        dir.verifyUpToDate();
+
+        writeFileList(confDir, good, expired);
+        dir.reload();
+
+        thrown.expectError(X_OUTDATED_GLOBALCONF);
+
+        dir.verifyUpToDate();
+    }
+
+    private static void writeFileList(File confDir, Path... files) throws Exception {
+        FileUtils.writeLines(new File(confDir, "files"), StandardCharsets.UTF_8.name(), Arrays.asList(files));
+    }
 }
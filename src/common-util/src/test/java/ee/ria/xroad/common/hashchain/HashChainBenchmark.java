@@ -0,0 +1,174 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.hashchain;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+
+import static ee.ria.xroad.common.util.CryptoUtils.SHA512_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.getDigestAlgorithmURI;
+import static ee.ria.xroad.common.util.MessageFileNames.MESSAGE;
+import static ee.ria.xroad.common.util.MessageFileNames.SIG_HASH_CHAIN;
+import static ee.ria.xroad.common.util.MessageFileNames.attachment;
+
+/**
+ * Benchmark program for building and verifying hash chains of message log batches. For each batch
+ * size, builds the hash chain result and the hash chains of all the messages (as is done for a batch
+ * signature or a batch timestamp), and verifies the hash chains of the messages against the result
+ * (as is done when verifying a signed or archived message). Reports the average time per batch for
+ * building and per message for verifying.
+ *
+ * Usage: HashChainBenchmark [batch sizes...], 1, 10, 100, 1000 and 10000 by default. A batch of size
+ * 1 contains a message with an attachment, since a hash chain is not built for a single plain message.
+ */
+@Slf4j
+public final class HashChainBenchmark {
+
+    private static final int[] DEFAULT_SIZES = {1, 10, 100, 1000, 10_000};
+
+    // Roughly the same number of messages for each size, at least five rounds
+    private static final int MESSAGES_PER_SIZE = 100_000;
+    private static final int MIN_ROUNDS = 5;
+    private static final int MAX_VERIFIED_PER_ROUND = 1000;
+
+    private static final String HASH_ALGORITHM = SHA512_ID;
+    private static final int HASH_LENGTH = 64;
+
+    private HashChainBenchmark() {
+    }
+
+    /**
+     * Main program entry point.
+     * @param args command-line arguments
+     * @throws Exception in case of any errors
+     */
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length > 0 ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray() : DEFAULT_SIZES;
+
+        for (int size : sizes) {
+            byte[][][] inputs = createInputs(size);
+            int rounds = Math.max(MIN_ROUNDS, MESSAGES_PER_SIZE / size);
+
+            // Warm up
+            run(inputs, Math.max(1, rounds / 2));
+
+            long[] result = run(inputs, rounds);
+
+            log.info("Batch size {}: build {} us/batch ({} us/message), verify {} us/message", size,
+                    String.format("%.1f", result[0] / 1000.0 / rounds),
+                    String.format("%.2f", result[0] / 1000.0 / rounds / size),
+                    String.format("%.1f", result[1] / 1000.0 / result[2]));
+        }
+    }
+
+    /**
+     * Builds and verifies the batch the given number of times. Returns the total build time, the total
+     * verification time and the number of verified messages.
+     */
+    private static long[] run(byte[][][] inputs, int rounds) throws Exception {
+        long buildTime = 0;
+        long verifyTime = 0;
+        long verified = 0;
+
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+
+            HashChainBuilder builder = new HashChainBuilder(HASH_ALGORITHM);
+
+            for (byte[][] input : inputs) {
+                builder.addInputHash(input);
+            }
+
+            builder.finishBuilding();
+
+            String result = builder.getHashChainResult(SIG_HASH_CHAIN);
+            String[] hashChains = builder.getHashChains(MESSAGE);
+
+            buildTime += System.nanoTime() - start;
+
+            // Verify a different sample of messages every round
+            int count = Math.min(inputs.length, MAX_VERIFIED_PER_ROUND);
+
+            start = System.nanoTime();
+
+            for (int i = 0; i < count; i++) {
+                int message = (round * count + i) % inputs.length;
+
+                verify(result, hashChains[message], inputs[message]);
+            }
+
+            verifyTime += System.nanoTime() - start;
+            verified += count;
+        }
+
+        return new long[] {buildTime, verifyTime, verified};
+    }
+
+    private static void verify(String result, String hashChain, byte[][] input) throws Exception {
+        String digestMethod = getDigestAlgorithmURI(HASH_ALGORITHM);
+        Map<String, DigestValue> digests = Collections.singletonMap(MESSAGE, new DigestValue(digestMethod, input[0]));
+
+        HashChainVerifier.verify(toStream(result), new HashChainReferenceResolver() {
+            @Override
+            public InputStream resolve(String uri) {
+                return SIG_HASH_CHAIN.equals(uri) ? toStream(hashChain) : null;
+            }
+
+            @Override
+            public boolean shouldResolve(String uri, byte[] digestValue) {
+                // Attachments are not available, trust the digests in the hash chain
+                return !uri.equals(attachment(1));
+            }
+        }, digests);
+    }
+
+    private static byte[][][] createInputs(int size) {
+        Random random = new Random(size);
+        byte[][][] inputs = new byte[size][][];
+
+        for (int i = 0; i < size; i++) {
+            // A single message must have an attachment to get a hash chain
+            inputs[i] = new byte[size == 1 ? 2 : 1][HASH_LENGTH];
+
+            for (byte[] hash : inputs[i]) {
+                random.nextBytes(hash);
+            }
+        }
+
+        return inputs;
+    }
+
+    private static InputStream toStream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+}
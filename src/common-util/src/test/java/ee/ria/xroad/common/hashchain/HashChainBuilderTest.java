@@ -25,18 +25,32 @@
  */
 package ee.ria.xroad.common.hashchain;
 
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERUTF8String;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.Marshaller;
+
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 
 import static ee.ria.xroad.common.util.CryptoUtils.SHA256_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.SHA512_ID;
 import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
 import static ee.ria.xroad.common.util.CryptoUtils.encodeBase64;
 import static ee.ria.xroad.common.util.CryptoUtils.encodeHex;
+import static ee.ria.xroad.common.util.CryptoUtils.getDigestAlgorithmURI;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
 /**
@@ -213,4 +227,139 @@ public class HashChainBuilderTest {
         LOG.debug("Hash chain result:\n{}", builder.getHashChainResult("foo"));
         printChains(builder);
     }
+
+    /**
+     * Test to ensure that the hash chains are written exactly as JAXB would
+     * marshal them and that they are read back to the same content.
+     * @throws Exception in case of unexpected errors
+     */
+    @Test
+    public void jaxbCompatibleOutput() throws Exception {
+        JAXBContext jaxbCtx = JAXBContext.newInstance(ObjectFactory.class);
+
+        for (int treeSize = 1; treeSize < 20; ++treeSize) {
+            HashChainBuilder builder = new HashChainBuilder(SHA512_ID);
+            for (int i = 0; i < treeSize; ++i) {
+                byte[] hash = calculateDigest(SHA512_ID, new byte[] {(byte) i });
+
+                if (i % 3 == 0) {
+                    builder.addInputHash(new byte[][] {hash, hash, hash });
+                } else {
+                    builder.addInputHash(hash);
+                }
+            }
+            builder.finishBuilding();
+
+            String result = builder.getHashChainResult("/hashchain.xml");
+            HashChainResultType resultType = HashChainReader.readHashChainResult(
+                    result.getBytes(StandardCharsets.UTF_8));
+
+            assertNotNull(resultType);
+            assertEquals(result, marshal(jaxbCtx, new ObjectFactory().createHashChainResult(resultType)));
+            assertEquals(result, marshal(jaxbCtx, unmarshal(jaxbCtx, result)));
+
+            for (String hashChain : builder.getHashChains("/message.xml")) {
+                HashChainType hashChainType = HashChainReader.readHashChain(
+                        hashChain.getBytes(StandardCharsets.UTF_8));
+
+                assertNotNull(hashChainType);
+                assertEquals(hashChain, marshal(jaxbCtx, new ObjectFactory().createHashChain(hashChainType)));
+                assertEquals(hashChain, marshal(jaxbCtx, unmarshal(jaxbCtx, hashChain)));
+            }
+        }
+    }
+
+    /**
+     * Test to ensure that file names are escaped as JAXB would escape them.
+     * @throws Exception in case of unexpected errors
+     */
+    @Test
+    public void escapedFileNames() throws Exception {
+        JAXBContext jaxbCtx = JAXBContext.newInstance(ObjectFactory.class);
+
+        HashChainBuilder builder = new HashChainBuilder(SHA256_ID);
+        add(builder, "one");
+        add(builder, "two");
+        builder.finishBuilding();
+
+        String fileName = "/a&b<c>\"d'e\t\r\n.xml";
+
+        // Whitespace in attribute values is normalized when unmarshalling,
+        // so the original values are restored before marshalling.
+        String result = builder.getHashChainResult(fileName);
+        JAXBElement<HashChainResultType> resultElement = unmarshal(jaxbCtx, result);
+        resultElement.getValue().setURI(fileName + "#STEP0");
+
+        assertEquals(result, marshal(jaxbCtx, resultElement));
+
+        // Not a simple URI, must be read with schema validation.
+        assertNull(HashChainReader.readHashChainResult(result.getBytes(StandardCharsets.UTF_8)));
+
+        for (String hashChain : builder.getHashChains(fileName)) {
+            JAXBElement<HashChainType> hashChainElement = unmarshal(jaxbCtx, hashChain);
+
+            for (HashStepType hashStep : hashChainElement.getValue().getHashStep()) {
+                for (AbstractValueType value : hashStep.getHashValueOrStepRefOrDataRef()) {
+                    if (value instanceof DataRefType) {
+                        ((DataRefType) value).setURI(fileName);
+                    }
+                }
+            }
+
+            assertEquals(hashChain, marshal(jaxbCtx, hashChainElement));
+            assertNull(HashChainReader.readHashChain(hashChain.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * Test to ensure that hash steps are digested as DER-encoded DigestList
+     * data structures, also with long encodings.
+     * @throws Exception in case of unexpected errors
+     */
+    @Test
+    public void digestListEncoding() throws Exception {
+        for (int count : new int[] {1, 2, 3, 10, 1000 }) {
+            byte[][] items = new byte[count][];
+            DigestValue[] digestValues = new DigestValue[count];
+
+            for (int i = 0; i < count; ++i) {
+                items[i] = calculateDigest(SHA512_ID, new byte[] {(byte) i });
+                digestValues[i] = new DigestValue(getDigestAlgorithmURI(SHA512_ID), items[i]);
+            }
+
+            assertArrayEquals(derDigestList(SHA256_ID, getDigestAlgorithmURI(SHA256_ID), items),
+                    DigestList.digestHashStep(SHA256_ID, items));
+            assertArrayEquals(derDigestList(SHA256_ID, getDigestAlgorithmURI(SHA512_ID), items),
+                    DigestList.digestHashStep(SHA256_ID, digestValues));
+        }
+    }
+
+    private static byte[] derDigestList(String hashAlgorithm, String digestMethodUri, byte[][] items)
+            throws Exception {
+        ASN1Encodable[] digestList = new ASN1Encodable[items.length];
+
+        for (int i = 0; i < items.length; ++i) {
+            digestList[i] = new DERSequence(new ASN1Encodable[] {
+                    new DEROctetString(items[i]),
+                    new DERUTF8String(digestMethodUri),
+                    new DERSequence() });
+        }
+
+        return calculateDigest(hashAlgorithm, new DERSequence(digestList).getEncoded());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> JAXBElement<T> unmarshal(JAXBContext jaxbCtx, String xml) throws Exception {
+        return (JAXBElement<T>) jaxbCtx.createUnmarshaller().unmarshal(new StringReader(xml));
+    }
+
+    private static String marshal(JAXBContext jaxbCtx, Object element) throws Exception {
+        Marshaller marshaller = jaxbCtx.createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+
+        StringWriter writer = new StringWriter();
+        marshaller.marshal(element, writer);
+
+        return writer.toString();
+    }
 }
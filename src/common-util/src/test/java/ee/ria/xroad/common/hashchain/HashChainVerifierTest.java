@@ -41,6 +41,7 @@ import java.util.Map;
 import static ee.ria.xroad.common.ErrorCodes.X_HASHCHAIN_UNUSED_INPUTS;
 import static ee.ria.xroad.common.ErrorCodes.X_INVALID_HASH_CHAIN_REF;
 import static ee.ria.xroad.common.ErrorCodes.X_INVALID_HASH_CHAIN_RESULT;
+import static ee.ria.xroad.common.ErrorCodes.X_MALFORMED_HASH_CHAIN;
 import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
 import static ee.ria.xroad.common.util.CryptoUtils.getAlgorithmId;
 import static ee.ria.xroad.common.util.MessageFileNames.MESSAGE;
@@ -261,6 +262,27 @@ public class HashChainVerifierTest {
                 resolver, inputs);
     }
 
+    /**
+     * Test case with a hash chain result that does not conform to the schema.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void malformedHashChainResult() throws Exception {
+        LOG.info("malformedHashChainResult()");
+
+        Resolver resolver = new Resolver(
+                HASH_CHAIN, "hc-verifier1-hashchain.xml");
+
+        Map<String, DigestValue> inputs = makeInputs(
+                MESSAGE, "hc-verifier1-message.xml");
+
+        thrown.expectErrorSuffix(X_MALFORMED_HASH_CHAIN);
+
+        HashChainVerifier.verify(
+                load("hc-verifier1-hashchainresult-malformed.xml"),
+                resolver, inputs);
+    }
+
     private static Map<String, DigestValue> makeInputs(Object... items)
             throws Exception {
         Map<String, DigestValue> ret = new HashMap<>();
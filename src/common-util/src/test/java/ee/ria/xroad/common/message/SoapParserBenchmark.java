@@ -0,0 +1,136 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.message;
+
+import ee.ria.xroad.common.util.MimeTypes;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static ee.ria.xroad.common.message.SoapMessageTestUtil.fileToBytes;
+
+/**
+ * Benchmark program comparing {@link SaxSoapParserImpl} and {@link StaxSoapParserImpl}. Parses request
+ * envelopes of the given sizes (the header of simple.query with the body padded to size) and reports the
+ * average time and the average number of bytes allocated by the parsing thread per message.
+ *
+ * Usage: SoapParserBenchmark [envelope sizes in bytes...], 1 KB, 100 KB, 1 MB and 10 MB by default.
+ */
+@Slf4j
+public final class SoapParserBenchmark {
+
+    private static final int KB = 1024;
+    private static final int MB = 1024 * KB;
+    private static final int[] DEFAULT_SIZES = {KB, 100 * KB, MB, 10 * MB};
+
+    // Roughly the same amount of data for each size, at least ten rounds
+    private static final long BYTES_PER_SIZE = 512L * MB;
+    private static final int MIN_ROUNDS = 10;
+    private static final int MAX_ROUNDS = 100_000;
+    private static final long WARMUP_BYTES = 64L * MB;
+
+    private static final String BODY_PLACEHOLDER = "<name>foo</name>";
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private SoapParserBenchmark() {
+    }
+
+    /**
+     * Main program entry point.
+     * @param args command-line arguments
+     * @throws Exception in case of any errors
+     */
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length > 0 ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray() : DEFAULT_SIZES;
+
+        SoapParser sax = new SaxSoapParserImpl();
+        SoapParser stax = new StaxSoapParserImpl();
+
+        for (int size : sizes) {
+            byte[] envelope = createEnvelope(size);
+            int rounds = (int) Math.min(MAX_ROUNDS, Math.max(MIN_ROUNDS, BYTES_PER_SIZE / envelope.length));
+            int warmupRounds = (int) Math.max(1, WARMUP_BYTES / envelope.length);
+
+            measure(sax, envelope, warmupRounds);
+            measure(stax, envelope, warmupRounds);
+
+            Result saxResult = measure(sax, envelope, rounds);
+            Result staxResult = measure(stax, envelope, rounds);
+
+            log.info("Envelope {} bytes, {} rounds: SAX {} ns/op {} bytes/op, StAX {} ns/op {} bytes/op",
+                    envelope.length, rounds, saxResult.nanosPerOp, saxResult.bytesPerOp, staxResult.nanosPerOp,
+                    staxResult.bytesPerOp);
+        }
+    }
+
+    private static Result measure(SoapParser parser, byte[] envelope, int rounds) {
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = THREADS.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < rounds; i++) {
+            SoapMessageImpl message = (SoapMessageImpl) parser.parse(MimeTypes.TEXT_XML_UTF8,
+                    new ByteArrayInputStream(envelope));
+
+            if (message.getService() == null) {
+                throw new IllegalStateException("Service not parsed");
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long allocated = THREADS.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        return new Result(elapsed / rounds, allocated / rounds);
+    }
+
+    private static byte[] createEnvelope(int size) throws Exception {
+        String query = new String(fileToBytes("simple.query"), StandardCharsets.UTF_8);
+        int padding = Math.max(0, size - query.length());
+
+        StringBuilder body = new StringBuilder(BODY_PLACEHOLDER);
+        while (body.length() < padding) {
+            body.append(BODY_PLACEHOLDER);
+        }
+
+        return query.replace(BODY_PLACEHOLDER, body).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class Result {
+        private final long nanosPerOp;
+        private final long bytesPerOp;
+
+        Result(long nanosPerOp, long bytesPerOp) {
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.message;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.util.MimeTypes;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+import static ee.ria.xroad.common.ErrorCodes.X_INVALID_SOAP;
+import static ee.ria.xroad.common.message.SoapMessageTestUtil.QUERY_DIR;
+import static ee.ria.xroad.common.message.SoapMessageTestUtil.fileToBytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that {@link StaxSoapParserImpl} produces the same results as {@link SaxSoapParserImpl}.
+ */
+public class StaxSoapParserImplTest {
+
+    private static final String BODY_PLACEHOLDER = "<name>foo</name>";
+
+    /**
+     * Test that every test query and answer is parsed with the same outcome by both parsers.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void sameResultsAsSaxParser() throws Exception {
+        File[] files = new File(QUERY_DIR).listFiles((dir, name) -> name.endsWith(".query")
+                || name.endsWith(".answer") || name.endsWith(".xml"));
+        assertTrue(files != null && files.length > 0);
+
+        for (File file : files) {
+            byte[] data = FileUtils.readFileToByteArray(file);
+
+            assertSameResult(file.getName(), MimeTypes.TEXT_XML_UTF8, data);
+            assertSameResult(file.getName(), MimeTypes.TEXT_XML, data);
+        }
+    }
+
+    /**
+     * Test that a message starting with an UTF-8 byte order mark is parsed and the original bytes are kept.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void utf8ByteOrderMark() throws Exception {
+        byte[] query = fileToBytes("simple.query");
+        byte[] data = new byte[query.length + 3];
+        data[0] = (byte) 0xEF;
+        data[1] = (byte) 0xBB;
+        data[2] = (byte) 0xBF;
+        System.arraycopy(query, 0, data, 3, query.length);
+
+        assertSameResult("simple.query with BOM", MimeTypes.TEXT_XML_UTF8, data);
+
+        SoapMessageImpl message = (SoapMessageImpl) parse(new StaxSoapParserImpl(), MimeTypes.TEXT_XML_UTF8, data);
+        assertArrayEquals(data, message.getBytes());
+        assertEquals("1234567890", message.getQueryId());
+    }
+
+    /**
+     * Test that document type declarations are rejected.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void doctypeNotAllowed() throws Exception {
+        String query = new String(fileToBytes("simple.query"), StandardCharsets.UTF_8)
+                .replace("<SOAP-ENV:Envelope", "<!DOCTYPE foo [<!ENTITY bar \"baz\">]>\n<SOAP-ENV:Envelope");
+
+        try {
+            new StaxSoapParserImpl().parse(MimeTypes.TEXT_XML_UTF8,
+                    new ByteArrayInputStream(query.getBytes(StandardCharsets.UTF_8)));
+            fail("Expected parsing to fail");
+        } catch (CodedException e) {
+            assertEquals(X_INVALID_SOAP, e.getFaultCode());
+        }
+    }
+
+    /**
+     * Test that messages larger than the pooled parser buffer are parsed and do not affect later messages.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void largeMessages() throws Exception {
+        String query = new String(fileToBytes("simple.query"), StandardCharsets.UTF_8);
+        StringBuilder body = new StringBuilder();
+        while (body.length() < 3 * 1024 * 1024) {
+            body.append(BODY_PLACEHOLDER);
+        }
+
+        byte[] large = query.replace(BODY_PLACEHOLDER, body).getBytes(StandardCharsets.UTF_8);
+        byte[] small = query.getBytes(StandardCharsets.UTF_8);
+
+        for (byte[] data : new byte[][] {large, small, large}) {
+            SoapMessageImpl message = (SoapMessageImpl) parse(new StaxSoapParserImpl(), MimeTypes.TEXT_XML_UTF8,
+                    data);
+            assertArrayEquals(data, message.getBytes());
+            assertEquals("testQuery", message.getService().getServiceCode());
+        }
+    }
+
+    private static void assertSameResult(String name, String contentType, byte[] data) throws Exception {
+        Object expected = describe(new SaxSoapParserImpl(), contentType, data);
+        Object actual = describe(new StaxSoapParserImpl(), contentType, data);
+
+        assertEquals(name + " (" + contentType + ")", expected, actual);
+    }
+
+    private static Soap parse(SoapParser parser, String contentType, byte[] data) {
+        return parser.parse(contentType, new ByteArrayInputStream(data));
+    }
+
+    private static String describe(SoapParser parser, String contentType, byte[] data) throws Exception {
+        Soap soap;
+        try {
+            soap = parse(parser, contentType, data);
+        } catch (CodedException e) {
+            return "error " + e.getFaultCode();
+        }
+
+        if (soap instanceof SoapFault) {
+            SoapFault fault = (SoapFault) soap;
+
+            return String.join("|", "fault", fault.getCode(), fault.getString(), fault.getActor(), fault.getDetail(),
+                    fault.getXml());
+        }
+
+        SoapMessageImpl message = (SoapMessageImpl) soap;
+        SoapHeader header = message.getHeader();
+        RequestHash requestHash = header.getRequestHash();
+
+        return String.join("|", "message", Objects.toString(header.getClient()),
+                Objects.toString(header.getService()), Objects.toString(header.getCentralService()),
+                Objects.toString(header.getSecurityServer()), header.getQueryId(), header.getUserId(),
+                header.getIssue(), Objects.toString(header.getRepresentedParty()),
+                header.getProtocolVersion().getVersion(),
+                requestHash != null ? requestHash.getAlgorithmId() + ":" + requestHash.getHash() : null,
+                String.valueOf(message.isRpcEncoded()), String.valueOf(message.isResponse()), message.getCharset(),
+                message.getContentType(), new String(message.getBytes(), StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,328 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.util;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ClosedChannelException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static ee.ria.xroad.common.ErrorCodes.X_IO_ERROR;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for CachingStream.
+ */
+public class CachingStreamTest {
+
+    private static final int THRESHOLD = 1024;
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    private String originalTempFilesPath;
+
+    /**
+     * Directs the temporary files to a test folder.
+     */
+    @Before
+    public void setUp() {
+        originalTempFilesPath = System.getProperty(SystemProperties.TEMP_FILES_PATH);
+        System.setProperty(SystemProperties.TEMP_FILES_PATH, tempDir.getRoot().getAbsolutePath());
+    }
+
+    /**
+     * Restores the temporary files path.
+     */
+    @After
+    public void tearDown() {
+        if (originalTempFilesPath == null) {
+            System.clearProperty(SystemProperties.TEMP_FILES_PATH);
+        } else {
+            System.setProperty(SystemProperties.TEMP_FILES_PATH, originalTempFilesPath);
+        }
+    }
+
+    /**
+     * Tests that contents kept in memory can not be read after the cache has been consumed.
+     */
+    @Test
+    public void failsToReadAfterConsume() throws Exception {
+        SpoolBufferPool pool = new SpoolBufferPool(SpoolBufferPool.SEGMENT_SIZE * 4);
+        byte[] data = randomBytes(SpoolBufferPool.SEGMENT_SIZE * 2);
+
+        CachingStream cache = new CachingStream(THRESHOLD * 100, pool);
+        cache.write(data);
+
+        InputStream unread = cache.getCachedContents();
+        InputStream partiallyRead = cache.getCachedContents();
+        assertEquals(THRESHOLD, partiallyRead.read(new byte[THRESHOLD]));
+
+        cache.consume();
+
+        assertReadFails(unread);
+        assertReadFails(partiallyRead);
+    }
+
+    /**
+     * Tests that a cache consumed before it was spilled to a file can no longer be written or read.
+     * @throws Exception if error occurs
+     */
+    @Test
+    public void failsToUseConsumedCacheInMemory() throws Exception {
+        SpoolBufferPool pool = new SpoolBufferPool(SpoolBufferPool.SEGMENT_SIZE * 4);
+        byte[] data = randomBytes(THRESHOLD);
+
+        CachingStream cache = new CachingStream(THRESHOLD * 100, pool);
+        cache.write(data);
+
+        cache.consume();
+        cache.consume();
+
+        assertFalse(cache.isSpilled());
+        assertEquals(0, pool.getSegmentsInUse());
+
+        try {
+            cache.write(data);
+            fail("Expected writing a consumed cache to fail");
+        } catch (ClosedChannelException expected) {
+            // expected
+        }
+
+        try {
+            cache.writeTo(new ByteArrayOutputStream());
+            fail("Expected writing out a consumed cache to fail");
+        } catch (ClosedChannelException expected) {
+            // expected
+        }
+
+        try {
+            cache.getCachedContents();
+            fail("Expected reading a consumed cache to fail");
+        } catch (CodedException expected) {
+            assertEquals(X_IO_ERROR, expected.getFaultCode());
+        }
+
+        assertEquals(0, pool.getSegmentsInUse());
+    }
+
+    /**
+     * Tests that a cache consumed while another thread is writing it does not lose segments, the writes after
+     * consume() fail.
+     * @throws Exception if error occurs
+     */
+    @Test
+    public void failsToWriteWhileConsumed() throws Exception {
+        SpoolBufferPool pool = new SpoolBufferPool(SpoolBufferPool.SEGMENT_SIZE * 4);
+        byte[] data = randomBytes(100);
+
+        CachingStream cache = new CachingStream(SpoolBufferPool.SEGMENT_SIZE * 4, pool);
+        AtomicReference<Exception> writeError = new AtomicReference<>();
+
+        Thread writer = new Thread(() -> {
+            try {
+                while (true) {
+                    cache.write(data);
+                }
+            } catch (Exception e) {
+                writeError.set(e);
+            }
+        });
+
+        writer.start();
+        Thread.sleep(10);
+        cache.consume();
+        writer.join();
+
+        assertTrue(writeError.get() instanceof ClosedChannelException);
+        assertEquals(0, pool.getSegmentsInUse());
+    }
+
+    /**
+     * Tests that data below the threshold is kept in memory.
+     * @throws Exception if error occurs
+     */
+    @Test
+    public void keepsSmallContentInMemory() throws Exception {
+        byte[] data = randomBytes(THRESHOLD);
+
+        CachingStream cache = new CachingStream(THRESHOLD);
+        cache.write(data);
+        cache.close();
+
+        assertFalse(cache.isSpilled());
+        assertContents(data, cache);
+
+        cache.consume();
+    }
+
+    /**
+     * Tests that data exceeding the threshold is moved to a temporary file.
+     * @throws Exception if error occurs
+     */
+    @Test
+    public void spillsLargeContentToFile() throws Exception {
+        byte[] data = randomBytes(THRESHOLD * 10);
+
+        CachingStream cache = new CachingStream(THRESHOLD);
+        cache.write(data, 0, THRESHOLD - 1);
+        assertFalse(cache.isSpilled());
+
+        cache.write(data, THRESHOLD - 1, data.length - THRESHOLD + 1);
+        cache.close();
+
+        assertTrue(cache.isSpilled());
+        assertContents(data, cache);
+
+        cache.consume();
+    }
+
+    /**
+     * Tests that a zero limit always uses a temporary file.
+     * @throws Exception if error occurs
+     */
+    @Test
+    public void usesFileWithoutMemoryLimit() throws Exception {
+        byte[] data = randomBytes(10);
+
+        CachingStream cache = new CachingStream(0);
+        cache.write(data);
+        cache.close();
+
+        assertTrue(cache.isSpilled());
+        assertContents(data, cache);
+
+        cache.consume();
+    }
+
+    /**
+     * Tests that the contents spanning several segments are read back in order, also when written byte by byte.
+     * @throws Exception if error occurs
+     */
+    @Test
+    public void readsContentsAcrossSegments() throws Exception {
+        SpoolBufferPool pool = new SpoolBufferPool(SpoolBufferPool.SEGMENT_SIZE * 4);
+        byte[] data = randomBytes(SpoolBufferPool.SEGMENT_SIZE * 3 + 7);
+
+        CachingStream cache = new CachingStream(data.length, pool);
+        cache.write(data, 0, 5);
+        for (int i = 5; i < SpoolBufferPool.SEGMENT_SIZE + 5; i++) {
+            cache.write(data[i]);
+        }
+        cache.write(data, SpoolBufferPool.SEGMENT_SIZE + 5, data.length - SpoolBufferPool.SEGMENT_SIZE - 5);
+        cache.close();
+
+        assertFalse(cache.isSpilled());
+        assertEquals(4, pool.getSegmentsInUse());
+        assertContents(data, cache);
+
+        cache.consume();
+
+        assertEquals(0, pool.getSegmentsInUse());
+    }
+
+    /**
+     * Tests that the contents are moved to a file when the memory budget of the pool is used up.
+     * @throws Exception if error occurs
+     */
+    @Test
+    public void spillsWhenPoolIsExhausted() throws Exception {
+        SpoolBufferPool pool = new SpoolBufferPool(SpoolBufferPool.SEGMENT_SIZE * 2);
+        byte[] data = randomBytes(SpoolBufferPool.SEGMENT_SIZE);
+
+        CachingStream first = new CachingStream(THRESHOLD * 100, pool);
+        first.write(data);
+
+        CachingStream second = new CachingStream(THRESHOLD * 100, pool);
+        second.write(data);
+        assertFalse(second.isSpilled());
+        assertEquals(2, pool.getSegmentsInUse());
+
+        second.write(data);
+        assertTrue(second.isSpilled());
+        assertEquals(1, pool.getSegmentsInUse());
+
+        assertContents(data, first);
+        assertContents(concat(data, data), second);
+
+        first.consume();
+        second.consume();
+
+        assertEquals(0, pool.getSegmentsInUse());
+    }
+
+    private static void assertContents(byte[] expected, CachingStream cache) throws Exception {
+        assertEquals(expected.length, cache.size());
+
+        CacheInputStream contents = cache.getCachedContents();
+        assertEquals(expected.length, contents.size());
+        assertArrayEquals(expected, IOUtils.toByteArray(contents));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cache.writeTo(out);
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+
+        return result;
+    }
+
+    private static byte[] randomBytes(int count) {
+        byte[] data = new byte[count];
+        new Random(count).nextBytes(data);
+
+        return data;
+    }
+
+    private static void assertReadFails(InputStream in) {
+        try {
+            in.read(new byte[THRESHOLD]);
+            fail("Expected reading released contents to fail");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+}
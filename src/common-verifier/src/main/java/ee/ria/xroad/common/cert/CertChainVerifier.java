@@ -27,6 +27,7 @@ package ee.ria.xroad.common.cert;
 
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.globalconf.TrustStore;
 import ee.ria.xroad.common.conf.globalconfextension.GlobalConfExtensions;
 import ee.ria.xroad.common.ocsp.OcspVerifier;
 import ee.ria.xroad.common.ocsp.OcspVerifierOptions;
@@ -65,8 +66,8 @@ public class CertChainVerifier {
     /** Default validation algorithm type is PKIX. */
     private static final String VALIDATION_ALGORITHM = "PKIX";
 
-    /** Holds the PKIX algorithm parameters. */
-    private final PKIXBuilderParameters pkixParams;
+    /** Holds the PKIX algorithm parameters, created when the path needs to be built. */
+    private PKIXBuilderParameters pkixParams;
 
     /** Holds the constructed certificate path. */
     private CertPath certPath;
@@ -75,34 +76,14 @@ public class CertChainVerifier {
     private CertChain certChain;
 
     /**
-     * Builds the certificate path for the target certificate using a list
-     * of trust anchors and a list of intermediate certificates.
+     * Creates a verifier that builds the certificate path for the target
+     * certificate using the trusted root certificate and the intermediate
+     * certificates of the chain. Paths already validated with the current
+     * global configuration are reused.
      * @param certChain the certificate chain object
      */
     public CertChainVerifier(CertChain certChain) {
         this.certChain = certChain;
-
-        Set<TrustAnchor> trustAnchors =
-                createTrustAnchorSet(
-                        Arrays.asList(certChain.getTrustedRootCert()));
-
-        X509CertSelector certSelector = new X509CertSelector();
-        certSelector.setCertificate(certChain.getEndEntityCert());
-
-        try {
-            pkixParams = new PKIXBuilderParameters(trustAnchors, certSelector);
-            pkixParams.setRevocationEnabled(false);
-
-            if (!certChain.getAdditionalCerts().isEmpty()) {
-                CertStore intermediateCertStore =
-                        CertStore.getInstance("Collection",
-                                new CollectionCertStoreParameters(
-                                        certChain.getAdditionalCerts()), "BC");
-                pkixParams.addCertStore(intermediateCertStore);
-            }
-        } catch (Exception e) {
-            throw translateWithPrefix(X_CANNOT_CREATE_CERT_PATH, e);
-        }
     }
 
     /**
@@ -146,12 +127,41 @@ public class CertChainVerifier {
     }
 
     private void verifyImpl(List<OCSPResp> ocspResponses, Date atDate) {
-        pkixParams.setDate(atDate);
+        TrustStore trustStore = null;
+        CertPathCache.Key cacheKey = null;
+        CertPathCache.Entry cached = null;
+
+        if (CertPathCache.isEnabled()
+                && certChain.getInstanceIdentifier() != null) {
+            trustStore = GlobalConf.getTrustStore(
+                    certChain.getInstanceIdentifier());
+
+            if (trustStore != null) {
+                cacheKey = createCacheKey();
+                cached = CertPathCache.get(cacheKey, trustStore,
+                        atDate != null ? atDate : new Date());
+            }
+        }
+
+        PKIXBuilderParameters params = cached == null ? getPkixParams() : null;
+
         try {
-            certPath = buildCertPath(pkixParams);
+            PKIXCertPathValidatorResult pkixResult;
 
-            PKIXCertPathValidatorResult pkixResult =
-                    verifyCertPath(certPath, pkixParams);
+            if (cached != null) {
+                certPath = cached.getCertPath();
+                pkixResult = cached.getResult();
+            } else {
+                params.setDate(atDate);
+
+                certPath = buildCertPath(params);
+                pkixResult = verifyCertPath(certPath, params);
+
+                if (cacheKey != null) {
+                    CertPathCache.put(cacheKey, trustStore, certPath,
+                            pkixResult);
+                }
+            }
 
             if (ocspResponses != null) {
                 verifyOcspResponses(
@@ -164,6 +174,49 @@ public class CertChainVerifier {
         }
     }
 
+    private CertPathCache.Key createCacheKey() {
+        try {
+            return CertPathCache.createKey(certChain);
+        } catch (Exception e) {
+            throw translateWithPrefix(X_CANNOT_CREATE_CERT_PATH, e);
+        }
+    }
+
+    private PKIXBuilderParameters getPkixParams() {
+        if (pkixParams == null) {
+            pkixParams = createPkixParams(certChain);
+        }
+
+        return pkixParams;
+    }
+
+    private static PKIXBuilderParameters createPkixParams(CertChain certChain) {
+        Set<TrustAnchor> trustAnchors =
+                createTrustAnchorSet(
+                        Arrays.asList(certChain.getTrustedRootCert()));
+
+        X509CertSelector certSelector = new X509CertSelector();
+        certSelector.setCertificate(certChain.getEndEntityCert());
+
+        try {
+            PKIXBuilderParameters params =
+                    new PKIXBuilderParameters(trustAnchors, certSelector);
+            params.setRevocationEnabled(false);
+
+            if (!certChain.getAdditionalCerts().isEmpty()) {
+                CertStore intermediateCertStore =
+                        CertStore.getInstance("Collection",
+                                new CollectionCertStoreParameters(
+                                        certChain.getAdditionalCerts()), "BC");
+                params.addCertStore(intermediateCertStore);
+            }
+
+            return params;
+        } catch (Exception e) {
+            throw translateWithPrefix(X_CANNOT_CREATE_CERT_PATH, e);
+        }
+    }
+
     private void verifyOcspResponses(List<X509Certificate> certs,
             List<OCSPResp> ocspResponses, PKIXCertPathValidatorResult result,
             Date atDate) throws Exception {
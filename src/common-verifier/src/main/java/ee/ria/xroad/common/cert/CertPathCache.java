@@ -0,0 +1,173 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.cert;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.conf.globalconf.TrustStore;
+import ee.ria.xroad.common.util.PerformanceMetrics;
+
+import com.codahale.metrics.Counter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.Getter;
+import lombok.Value;
+
+import java.security.cert.CertPath;
+import java.security.cert.PKIXCertPathValidatorResult;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import static ee.ria.xroad.common.util.CryptoUtils.SHA256_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.hexDigest;
+
+/**
+ * LRU cache of validated certificate paths. Building and validating a path gives the same result for
+ * the same end entity and trust anchor, except for the validity periods of the certificates, so a
+ * cached path can be reused for any verification date within the validity periods of all certificates
+ * in the path. Each entry is bound to the global configuration trust store it was built with: when
+ * the configuration is reloaded, a new trust store is created and all entries built with the previous
+ * one stop matching at once.
+ */
+final class CertPathCache {
+
+    private static final Cache<Key, Entry> CACHE = CacheBuilder.newBuilder()
+            .maximumSize(Math.max(0, SystemProperties.getCertPathCacheSize()))
+            .build();
+
+    private static final Counter HITS = PerformanceMetrics.counter(CertPathCache.class, "hits");
+    private static final Counter MISSES = PerformanceMetrics.counter(CertPathCache.class, "misses");
+
+    static {
+        PerformanceMetrics.gauge(CertPathCache.class, "size", CACHE::size);
+        PerformanceMetrics.gauge(CertPathCache.class, "hitRatio", CertPathCache::getHitRatio);
+    }
+
+    private CertPathCache() {
+    }
+
+    /**
+     * @return true if validated paths are cached
+     */
+    static boolean isEnabled() {
+        return SystemProperties.getCertPathCacheSize() > 0;
+    }
+
+    /**
+     * Creates the cache key for a certificate chain.
+     * @param certChain the certificate chain
+     * @return the cache key
+     * @throws Exception if the certificate hashes cannot be calculated
+     */
+    static Key createKey(CertChain certChain) throws Exception {
+        return new Key(certChain.getInstanceIdentifier(),
+                hexDigest(SHA256_ID, certChain.getEndEntityCert().getEncoded()),
+                hexDigest(SHA256_ID, certChain.getTrustedRootCert().getEncoded()));
+    }
+
+    /**
+     * @param key the cache key
+     * @param trustStore the current trust store
+     * @param atDate the verification date
+     * @return the validated path, if one was cached with the given trust store and all certificates
+     * in it are valid at the given date, otherwise null
+     */
+    static Entry get(Key key, TrustStore trustStore, Date atDate) {
+        Entry entry = CACHE.getIfPresent(key);
+
+        if (entry != null && entry.getTrustStore() == trustStore && entry.isValidAt(atDate.getTime())) {
+            HITS.inc();
+
+            return entry;
+        }
+
+        MISSES.inc();
+
+        return null;
+    }
+
+    /**
+     * Records a successfully validated path.
+     * @param key the cache key
+     * @param trustStore the trust store that was current when the path was built
+     * @param certPath the validated path
+     * @param result the result of the path validation
+     */
+    @SuppressWarnings("unchecked")
+    static void put(Key key, TrustStore trustStore, CertPath certPath, PKIXCertPathValidatorResult result) {
+        long notBefore = Long.MIN_VALUE;
+        long notAfter = Long.MAX_VALUE;
+
+        for (X509Certificate cert : (Iterable<X509Certificate>) certPath.getCertificates()) {
+            notBefore = Math.max(notBefore, cert.getNotBefore().getTime());
+            notAfter = Math.min(notAfter, cert.getNotAfter().getTime());
+        }
+
+        CACHE.put(key, new Entry(trustStore, certPath, result, notBefore, notAfter));
+    }
+
+    /**
+     * Removes all cached paths.
+     */
+    static void invalidateAll() {
+        CACHE.invalidateAll();
+    }
+
+    private static double getHitRatio() {
+        long hits = HITS.getCount();
+        long total = hits + MISSES.getCount();
+
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Value
+    static class Key {
+        String instanceIdentifier;
+        String endEntityCertHash;
+        String trustedRootCertHash;
+    }
+
+    @Getter
+    static final class Entry {
+        private final TrustStore trustStore;
+        private final CertPath certPath;
+        private final PKIXCertPathValidatorResult result;
+        private final long notBefore;
+        private final long notAfter;
+
+        private Entry(TrustStore trustStore, CertPath certPath, PKIXCertPathValidatorResult result,
+                long notBefore, long notAfter) {
+            this.trustStore = trustStore;
+            this.certPath = certPath;
+            this.result = result;
+            this.notBefore = notBefore;
+            this.notAfter = notAfter;
+        }
+
+        boolean isValidAt(long atDate) {
+            return atDate >= notBefore && atDate <= notAfter;
+        }
+    }
+}
@@ -45,6 +45,7 @@ import java.security.cert.X509Certificate;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
 import static ee.ria.xroad.common.ErrorCodes.X_OUTDATED_GLOBALCONF;
@@ -67,6 +68,10 @@ public final class GlobalConf {
 
     private static volatile GlobalConfProvider instance;
 
+    // Guards (re)loading of the instance. A lock instead of synchronized, since loading does file I/O and
+    // blocking inside a monitor pins the carrier thread of a virtual thread.
+    private static final ReentrantLock LOCK = new ReentrantLock();
+
     private GlobalConf() {
     }
 
@@ -75,10 +80,13 @@ public final class GlobalConf {
      */
     static GlobalConfProvider getInstance() {
         if (instance == null) {
-            synchronized (GlobalConfProvider.class) {
+            LOCK.lock();
+            try {
                 if (instance == null) {
                     instance = instanceFactory.createInstance(true);
                 }
+            } finally {
+                LOCK.unlock();
             }
         }
         return instance;
@@ -87,17 +95,22 @@ public final class GlobalConf {
     /**
      * Reloads the configuration.
      */
-    public static synchronized void reload() {
-        if (instance != null) {
-            try {
-                log.trace("reload called");
-                instance.load(null);
-            } catch (Exception e) {
-                throw translateException(e);
+    public static void reload() {
+        LOCK.lock();
+        try {
+            if (instance != null) {
+                try {
+                    log.trace("reload called");
+                    instance.load(null);
+                } catch (Exception e) {
+                    throw translateException(e);
+                }
+            } else {
+                log.trace("reload called, create new GlobalConfImpl");
+                instance = instanceFactory.createInstance(true);
             }
-        } else {
-            log.trace("reload called, create new GlobalConfImpl");
-            instance = instanceFactory.createInstance(true);
+        } finally {
+            LOCK.unlock();
         }
     }
 
@@ -114,14 +127,19 @@ public final class GlobalConf {
      * Reloads the configuration if the underlying configuration
      * file has changed.
      */
-    public static synchronized void reloadIfChanged() {
+    public static void reloadIfChanged() {
         log.trace("reloadIfChanged called");
-        if (instance != null) {
-            try {
-                instance.load(null);
-            } catch (Exception e) {
-                throw translateException(e);
+        LOCK.lock();
+        try {
+            if (instance != null) {
+                try {
+                    instance.load(null);
+                } catch (Exception e) {
+                    throw translateException(e);
+                }
             }
+        } finally {
+            LOCK.unlock();
         }
     }
 
@@ -388,6 +406,16 @@ public final class GlobalConf {
         return getInstance().getCertChain(instanceIdentifier, subject);
     }
 
+    /**
+     * @param instanceIdentifier the instance identifier
+     * @return the trust store of the given instance, or null if not available
+     */
+    public static TrustStore getTrustStore(String instanceIdentifier) {
+        log.trace("getTrustStore({})", instanceIdentifier);
+
+        return getInstance().getTrustStore(instanceIdentifier);
+    }
+
     /**
      * @param ca the CA certificate
      * @param ocspCert the OCSP certificate
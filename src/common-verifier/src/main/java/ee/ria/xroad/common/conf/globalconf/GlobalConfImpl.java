@@ -39,7 +39,6 @@ import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.MemberClassType;
 import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.MemberType;
 import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.OcspInfoType;
 import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.SecurityServerType;
-import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.SubsystemType;
 import ee.ria.xroad.common.identifier.CentralServiceId;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.identifier.GlobalGroupId;
@@ -52,7 +51,6 @@ import ee.ria.xroad.common.util.CryptoUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.bouncycastle.cert.X509CertificateHolder;
 
 import java.io.OutputStream;
 import java.math.BigInteger;
@@ -154,13 +152,7 @@ public class GlobalConfImpl implements GlobalConfProvider {
         List<SecurityServerId> serverIds = new ArrayList<SecurityServerId>();
 
         for (SharedParametersV2 p : getSharedParameters(instanceIdentifiers)) {
-            for (SecurityServerType s : p.getSecurityServers()) {
-                MemberType owner = SharedParametersV2.getOwner(s);
-                serverIds.add(SecurityServerId.create(
-                        p.getInstanceIdentifier(),
-                        owner.getMemberClass().getCode(),
-                        owner.getMemberCode(), s.getServerCode()));
-            }
+            serverIds.addAll(p.getSecurityServerIds());
         }
 
         return serverIds;
@@ -171,14 +163,9 @@ public class GlobalConfImpl implements GlobalConfProvider {
         List<MemberInfo> clients = new ArrayList<>();
 
         for (SharedParametersV2 p : getSharedParameters(instanceIdentifiers)) {
-            for (MemberType member : p.getMembers()) {
-                clients.add(new MemberInfo(p.createMemberId(member), member
-                        .getName()));
-
-                for (SubsystemType subsystem : member.getSubsystem()) {
-                    clients.add(new MemberInfo(p.createSubsystemId(member,
-                            subsystem), member.getName()));
-                }
+            for (ClientId memberId : p.getMemberIds()) {
+                clients.add(new MemberInfo(memberId,
+                        p.getMemberNames().get(memberId)));
             }
         }
 
@@ -194,11 +181,7 @@ public class GlobalConfImpl implements GlobalConfProvider {
             throw new CodedException(X_INTERNAL_ERROR, e);
         }
 
-        return p == null ? null : p.getMembers().stream()
-                .filter(m -> p.createMemberId(m).memberEquals(clientId))
-                .map(MemberType::getName)
-                .findFirst()
-                .orElse(null);
+        return p == null ? null : p.getMemberName(clientId);
     }
 
     @Override
@@ -237,11 +220,13 @@ public class GlobalConfImpl implements GlobalConfProvider {
             throw new CodedException(X_INTERNAL_ERROR, e);
         }
 
-        return p == null ? null : p.getGlobalGroups().stream()
-                .filter(g -> g.getGroupCode().equals(
-                        globalGroupId.getGroupCode()))
-                .map(GlobalGroupType::getDescription)
-                .findFirst().orElse(null);
+        if (p == null) {
+            return null;
+        }
+
+        GlobalGroupType group = p.findGlobalGroup(globalGroupId);
+
+        return group == null ? null : group.getDescription();
     }
 
     @Override
@@ -351,15 +336,12 @@ public class GlobalConfImpl implements GlobalConfProvider {
                     "Member certificate must be present to find CA cert!");
         }
 
-        X509CertificateHolder ch = new X509CertificateHolder(
-                memberCert.getEncoded());
-
         String[] instances = instanceIdentifier != null
                 ? new String[] {instanceIdentifier} : new String[] {};
 
         return getSharedParameters(instances)
                 .stream()
-                .map(p -> p.getSubjectsAndCaCerts().get(ch.getIssuer()))
+                .map(p -> p.getTrustStore().getIssuer(memberCert))
                 .filter(Objects::nonNull)
                 .findFirst()
                 .orElseThrow(
@@ -391,12 +373,13 @@ public class GlobalConfImpl implements GlobalConfProvider {
         List<X509Certificate> chain = new ArrayList<>();
         chain.add(subject);
 
-        SharedParametersV2 p = getSharedParameters(instanceIdentifier);
+        TrustStore trustStore =
+                getSharedParameters(instanceIdentifier).getTrustStore();
 
-        X509Certificate ca = p.getCaCertForSubject(subject);
+        X509Certificate ca = getIssuerCaCert(trustStore, subject);
         while (ca != null) {
             chain.add(ca);
-            ca = p.getCaCertForSubject(ca);
+            ca = getIssuerCaCert(trustStore, ca);
         }
 
         if (chain.size() < 2) { // did not found any CA certs
@@ -407,6 +390,28 @@ public class GlobalConfImpl implements GlobalConfProvider {
                 chain.toArray(new X509Certificate[chain.size()]));
     }
 
+    @Override
+    public TrustStore getTrustStore(String instanceIdentifier) {
+        SharedParametersV2 p;
+        try {
+            p = confDir.getShared(instanceIdentifier);
+        } catch (Exception e) {
+            throw new CodedException(X_INTERNAL_ERROR, e);
+        }
+
+        return p == null ? null : p.getTrustStore();
+    }
+
+    private static X509Certificate getIssuerCaCert(TrustStore trustStore,
+            X509Certificate subject) {
+        if (subject.getSubjectX500Principal().equals(
+                subject.getIssuerX500Principal())) {
+            return null;
+        }
+
+        return trustStore.getIssuer(subject);
+    }
+
     @Override
     public boolean isOcspResponderCert(X509Certificate ca,
             X509Certificate ocspCert) {
@@ -572,13 +577,9 @@ public class GlobalConfImpl implements GlobalConfProvider {
             return false;
         }
 
-        GlobalGroupType group = p.findGlobalGroup(groupId);
-        if (group == null) {
-            return false;
-        }
+        Set<ClientId> members = p.getGlobalGroupMembers(groupId);
 
-        return group.getGroupMember().stream().filter(m -> m.equals(subjectId))
-                .findFirst().isPresent();
+        return members != null && members.contains(subjectId);
     }
 
     @Override
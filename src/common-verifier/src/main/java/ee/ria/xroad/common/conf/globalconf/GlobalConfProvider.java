@@ -183,6 +183,16 @@ public interface GlobalConfProvider extends ConfProvider {
     CertChain getCertChain(String instanceIdentifier, X509Certificate subject)
             throws Exception;
 
+    /**
+     * @param instanceIdentifier the instance identifier
+     * @return the CA certificates of the given instance indexed for issuer
+     * lookups, or null if the provider does not maintain a trust store. The
+     * same instance is returned until the CA certificates are reloaded.
+     */
+    default TrustStore getTrustStore(String instanceIdentifier) {
+        return null;
+    }
+
     /**
      * @param ca the CA certificate
      * @param ocspCert the OCSP certificate
@@ -0,0 +1,172 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.signature;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.util.PerformanceMetrics;
+
+import com.codahale.metrics.Counter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.operator.DigestCalculator;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static ee.ria.xroad.common.util.CryptoUtils.SHA256_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.createDigestCalculator;
+import static ee.ria.xroad.common.util.CryptoUtils.encodeBase64;
+
+/**
+ * Cache of successful batch signature verifications. Messages signed in the same batch share the
+ * signature XML and the hash chain result, so the signature value, signer name, timestamp manifest and
+ * certificate chain checks give the same result for all of them. An entry is keyed by the digest of the
+ * signature XML (which contains the signing certificate and the OCSP responses) and the hash chain result,
+ * and is valid for verification dates from the original verification date until the earliest OCSP
+ * freshness limit or certificate expiry. Entries are additionally evicted after the configured cache
+ * period so that changes in the global configuration are noticed.
+ */
+@Slf4j
+final class SignatureVerificationCache {
+
+    private static final Cache<Key, Entry> CACHE;
+
+    private static final Counter HITS = PerformanceMetrics.counter(SignatureVerificationCache.class, "hits");
+    private static final Counter MISSES = PerformanceMetrics.counter(SignatureVerificationCache.class, "misses");
+
+    static {
+        CACHE = CacheBuilder.newBuilder()
+                .expireAfterWrite(SystemProperties.getSignatureVerifierCachePeriod(), TimeUnit.SECONDS)
+                .maximumSize(Math.max(0, SystemProperties.getSignatureVerifierCacheSize()))
+                .build();
+
+        PerformanceMetrics.gauge(SignatureVerificationCache.class, "size", CACHE::size);
+        PerformanceMetrics.gauge(SignatureVerificationCache.class, "hitRatio", SignatureVerificationCache::getHitRatio);
+    }
+
+    private SignatureVerificationCache() {
+    }
+
+    /**
+     * @return true if verification results are cached
+     */
+    static boolean isEnabled() {
+        return SystemProperties.getSignatureVerifierCacheSize() > 0
+                && SystemProperties.getSignatureVerifierCachePeriod() > 0;
+    }
+
+    /**
+     * Creates the cache key for a batch signature.
+     * @param signatureXml the signature XML
+     * @param hashChainResult the hash chain result referenced by the signature
+     * @param signer the client that claims to have signed the message
+     * @param schemaVerified whether the signature XML is verified against the schema
+     * @return the cache key
+     * @throws Exception if the digest cannot be calculated
+     */
+    static Key createKey(String signatureXml, String hashChainResult, ClientId signer, boolean schemaVerified)
+            throws Exception {
+        DigestCalculator dc = createDigestCalculator(SHA256_ID);
+
+        try (OutputStream out = dc.getOutputStream()) {
+            out.write(signatureXml.getBytes(StandardCharsets.UTF_8));
+            out.write(0);
+            out.write(hashChainResult.getBytes(StandardCharsets.UTF_8));
+        }
+
+        return new Key(encodeBase64(dc.getDigest()), signer, schemaVerified);
+    }
+
+    /**
+     * @param key the cache key
+     * @param atDate the verification date
+     * @return true if a signature with the given key has been successfully verified and the result
+     * is still valid at the given date
+     */
+    static boolean isVerified(Key key, Date atDate) {
+        Entry entry = CACHE.getIfPresent(key);
+
+        if (entry != null && entry.isValidAt(atDate.getTime())) {
+            HITS.inc();
+
+            return true;
+        }
+
+        MISSES.inc();
+
+        return false;
+    }
+
+    /**
+     * Records a successful verification.
+     * @param key the cache key
+     * @param atDate the verification date
+     * @param validUntil the date until which the verification result remains valid
+     */
+    static void verified(Key key, Date atDate, Date validUntil) {
+        if (validUntil.after(atDate)) {
+            CACHE.put(key, new Entry(atDate.getTime(), validUntil.getTime()));
+        } else {
+            log.trace("Verification result is not valid after {}, not caching", validUntil);
+        }
+    }
+
+    /**
+     * Removes all cached verification results.
+     */
+    static void invalidateAll() {
+        CACHE.invalidateAll();
+    }
+
+    private static double getHitRatio() {
+        long hits = HITS.getCount();
+        long total = hits + MISSES.getCount();
+
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Value
+    static class Key {
+        String digest;
+        ClientId signer;
+        boolean schemaVerified;
+    }
+
+    @Value
+    private static class Entry {
+        long verifiedAt;
+        long validUntil;
+
+        boolean isValidAt(long atDate) {
+            return atDate >= verifiedAt && atDate < validUntil;
+        }
+    }
+}
@@ -46,7 +46,9 @@ import org.apache.xml.security.signature.XMLSignatureInput;
 import org.apache.xml.security.utils.resolver.ResourceResolverContext;
 import org.apache.xml.security.utils.resolver.ResourceResolverException;
 import org.apache.xml.security.utils.resolver.ResourceResolverSpi;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
 import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.SingleResp;
 import org.w3c.dom.Node;
 
 import javax.xml.transform.dom.DOMSource;
@@ -88,6 +90,9 @@ public class SignatureVerifier {
     /** The hash chain. */
     private final String hashChain;
 
+    /** The signature XML, if the verifier was created from signature data. */
+    private String signatureXml;
+
     /** The instance of Asic resource resolver to use
      * during manifest verification.*/
     private ResourceResolverSpi resourceResolver;
@@ -107,6 +112,8 @@ public class SignatureVerifier {
         this(new Signature(signatureData.getSignatureXml()),
                 signatureData.getHashChainResult(),
                 signatureData.getHashChain());
+
+        this.signatureXml = signatureData.getSignatureXml();
     }
 
     /**
@@ -226,6 +233,9 @@ public class SignatureVerifier {
      * <li>Verify the certificate chain using the signer certificate, OCSP
      * responses and any extra certificates.</li>
      * </ol>
+     * Successful verifications of batch signatures are cached (see
+     * {@link SignatureVerificationCache}), so for the other messages of the
+     * same batch only the hash chain is verified.
      * This method is not reentrant.
      * @param signer names the subject that claims to have been signed
      *                   the message.
@@ -233,25 +243,96 @@ public class SignatureVerifier {
      * @throws Exception if verification fails
      */
     public void verify(ClientId signer, Date atDate) throws Exception {
+        boolean batchSignature = hashChainResult != null
+                && signature.references(SIG_HASH_CHAIN_RESULT);
+
+        SignatureVerificationCache.Key cacheKey =
+                batchSignature ? getCacheKey(signer, atDate) : null;
+
+        boolean verified = cacheKey != null
+                && SignatureVerificationCache.isVerified(cacheKey, atDate);
+
         // first, validate the signature against the Xades schema
         // our asic:XadesSignatures element contains only one Xades signature
-        if (verifySchema) {
+        if (verifySchema && !verified) {
             verifySchema();
         }
 
         // if this is a batch signature, verify the hash chain
-        if (hashChainResult != null
-                && signature.references(SIG_HASH_CHAIN_RESULT)) {
+        if (batchSignature) {
             verifyHashChain();
         }
 
+        if (verified) {
+            return;
+        }
+
         // proceed with verifying the signature
         X509Certificate signingCert = getSigningCertificate();
         verifySignerName(signer, signingCert);
 
         verifySignatureValue(signingCert);
         verifyTimestampManifests();
-        verifyCertificateChain(atDate, signer, signingCert);
+        CertChain certChain = verifyCertificateChain(atDate, signer, signingCert);
+
+        if (cacheKey != null) {
+            SignatureVerificationCache.verified(cacheKey, atDate,
+                    getValidUntil(certChain));
+        }
+    }
+
+    /**
+     * Returns the cache key for the signature, or null if the result of
+     * the verification cannot be cached. Signatures verified with a custom
+     * resource resolver are not cached, since the referenced data is not
+     * known to the verifier.
+     */
+    private SignatureVerificationCache.Key getCacheKey(ClientId signer,
+            Date atDate) throws Exception {
+        if (resourceResolver != null || signer == null || atDate == null
+                || !SignatureVerificationCache.isEnabled()) {
+            return null;
+        }
+
+        if (signatureXml == null) {
+            signatureXml = signature.toXml();
+        }
+
+        return SignatureVerificationCache.createKey(signatureXml,
+                hashChainResult, signer, verifySchema);
+    }
+
+    /**
+     * Returns the date until which the verified certificate chain and
+     * OCSP responses remain valid.
+     */
+    private Date getValidUntil(CertChain certChain) throws Exception {
+        Date validUntil = null;
+
+        for (X509Certificate cert : certChain.getAllCerts()) {
+            validUntil = earliest(validUntil, cert.getNotAfter());
+        }
+
+        int freshnessSeconds = GlobalConf.getOcspFreshnessSeconds(false);
+
+        for (OCSPResp response : signature.getOcspResponses()) {
+            SingleResp singleResp = ((BasicOCSPResp) response
+                    .getResponseObject()).getResponses()[0];
+
+            validUntil = earliest(validUntil, Date.from(
+                    singleResp.getThisUpdate().toInstant().plusSeconds(freshnessSeconds)));
+            validUntil = earliest(validUntil, singleResp.getNextUpdate());
+        }
+
+        return validUntil;
+    }
+
+    private static Date earliest(Date current, Date candidate) {
+        if (candidate == null) {
+            return current;
+        }
+
+        return current == null || candidate.before(current) ? candidate : current;
     }
 
     private void verifySchema() throws Exception {
@@ -326,12 +407,14 @@ public class SignatureVerifier {
         }
     }
 
-    private void verifyCertificateChain(Date atDate, ClientId signer, X509Certificate signingCert) {
+    private CertChain verifyCertificateChain(Date atDate, ClientId signer, X509Certificate signingCert) {
         CertChain certChain =
                 CertChain.create(signer.getXRoadInstance(), signingCert,
                         signature.getExtraCertificates());
         new CertChainVerifier(certChain).verify(signature.getOcspResponses(),
                 atDate);
+
+        return certChain;
     }
 
     private Map<String, DigestValue> getHashChainInputs() throws Exception {
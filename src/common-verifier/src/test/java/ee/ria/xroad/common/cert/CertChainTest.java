@@ -32,10 +32,14 @@ import ee.ria.xroad.common.TestCertUtil;
 import ee.ria.xroad.common.TestSecurityUtil;
 import ee.ria.xroad.common.conf.globalconf.EmptyGlobalConf;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.globalconf.TrustStore;
+import ee.ria.xroad.common.util.PerformanceMetrics;
 
+import com.codahale.metrics.Counter;
 import org.bouncycastle.cert.ocsp.CertificateStatus;
 import org.bouncycastle.cert.ocsp.OCSPResp;
 import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.junit.Before;
 import org.junit.Test;
 
 import java.security.cert.CertPathBuilderException;
@@ -45,6 +49,7 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -57,9 +62,19 @@ import static org.junit.Assert.fail;
  */
 public class CertChainTest {
 
+    private static final CertChainTestGlobalConf GLOBAL_CONF = new CertChainTestGlobalConf();
+
     static {
         TestSecurityUtil.initSecurity();
-        GlobalConf.reload(new CertChainTestGlobalConf());
+        GlobalConf.reload(GLOBAL_CONF);
+    }
+
+    /**
+     * Starts each test with an empty path cache.
+     */
+    @Before
+    public void setUp() {
+        CertPathCache.invalidateAll();
     }
 
     /**
@@ -233,8 +248,76 @@ public class CertChainTest {
         }
     }
 
+    /**
+     * Tests that a validated path is reused for the same chain.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void cachedPath() throws Exception {
+        CertChain chain = createChainWith3Intermediates();
+        Date atDate = makeDate(chain.getTrustedRootCert().getNotBefore(), 1);
+        Counter hits = PerformanceMetrics.counter(CertPathCache.class, "hits");
+        long hitsBefore = hits.getCount();
+
+        verify(chain, getAllOcspResponses(), atDate);
+        assertEquals(hitsBefore, hits.getCount());
+
+        CertChainVerifier verifier = new CertChainVerifier(createChainWith3Intermediates());
+        verifier.verify(getAllOcspResponses(), atDate);
+        assertEquals(hitsBefore + 1, hits.getCount());
+        assertEquals(4, verifier.getCerts().size());
+    }
+
+    /**
+     * Tests that a cached path is not used at a date when a certificate in it
+     * is not valid.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void cachedPathExpired() throws Exception {
+        CertChain chain = createChainWith3Intermediates();
+        verifyChainOnly(chain, makeDate(chain.getTrustedRootCert().getNotBefore(), 1));
+
+        try {
+            verifyChainOnly(chain, makeDate(chain.getEndEntityCert().getNotAfter(), 1));
+            fail("Path creation should fail");
+        } catch (CodedException e) {
+            assertTrue(e.getCause() instanceof CertPathBuilderException);
+        }
+    }
+
+    /**
+     * Tests that cached paths are not used after the trust store changes.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void cachedPathTrustStoreChanged() throws Exception {
+        CertChain chain = createChainWith3Intermediates();
+        Date atDate = makeDate(chain.getTrustedRootCert().getNotBefore(), 1);
+        Counter hits = PerformanceMetrics.counter(CertPathCache.class, "hits");
+
+        verifyChainOnly(chain, atDate);
+        long hitsBefore = hits.getCount();
+
+        GLOBAL_CONF.reloadTrustStore();
+        verifyChainOnly(chain, atDate);
+        assertEquals(hitsBefore, hits.getCount());
+
+        verifyChainOnly(chain, atDate);
+        assertEquals(hitsBefore + 1, hits.getCount());
+    }
+
     // -- Utility methods
 
+    private static CertChain createChainWith3Intermediates() throws Exception {
+        return new CertChain("EE",
+                TestCertUtil.getCertChainCert("user_3.p12"),
+                TestCertUtil.getCertChainCert("root_ca.p12"),
+                Arrays.asList(TestCertUtil.getCertChainCert("ca_1.p12"),
+                        TestCertUtil.getCertChainCert("ca_2.p12"),
+                        TestCertUtil.getCertChainCert("ca_3.p12")));
+    }
+
     private static void  verify(CertChain chain, List<OCSPResp> ocspResponses,
             Date atDate) {
         new CertChainVerifier(chain).verify(ocspResponses, atDate);
@@ -290,6 +373,29 @@ public class CertChainTest {
     }
 
     private static class CertChainTestGlobalConf extends EmptyGlobalConf {
+        private volatile TrustStore trustStore;
+
+        CertChainTestGlobalConf() {
+            reloadTrustStore();
+        }
+
+        void reloadTrustStore() {
+            try {
+                trustStore = new TrustStore(Arrays.asList(
+                        TestCertUtil.getCertChainCert("root_ca.p12"),
+                        TestCertUtil.getCertChainCert("ca_1.p12"),
+                        TestCertUtil.getCertChainCert("ca_2.p12"),
+                        TestCertUtil.getCertChainCert("ca_3.p12")));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public TrustStore getTrustStore(String instanceIdentifier) {
+            return trustStore;
+        }
+
         @Override
         public List<X509Certificate> getOcspResponderCertificates() {
             try {
@@ -0,0 +1,117 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.cert;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.TestCertUtil;
+import ee.ria.xroad.common.TestSecurityUtil;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.globalconf.TestGlobalConfImpl;
+import ee.ria.xroad.common.util.PerformanceMetrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark program for certificate chain verification. For every message, the chain of the signing
+ * certificate is looked up from the global configuration and the certificate path is built and
+ * validated, as is done when verifying a message signature (OCSP responses are verified separately
+ * and are not included). Compares verification without the certificate path cache (the cache is
+ * cleared before each message) to verification with it.
+ *
+ * Usage: CertChainVerifierBenchmark [number of messages], 2000 by default.
+ */
+@Slf4j
+public final class CertChainVerifierBenchmark {
+
+    private static final int DEFAULT_MESSAGES = 2000;
+    private static final int WARMUP_MESSAGES = 500;
+
+    private CertChainVerifierBenchmark() {
+    }
+
+    /**
+     * Main program entry point.
+     * @param args command-line arguments
+     * @throws Exception in case of any errors
+     */
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MESSAGES;
+
+        TestSecurityUtil.initSecurity();
+        System.setProperty(SystemProperties.CONFIGURATION_PATH, "../common-util/src/test/resources/globalconf_good_v2");
+        System.setProperty(SystemProperties.CONFIGURATION_ANCHOR_FILE,
+                "../common-util/src/test/resources/configuration-anchor1.xml");
+
+        GlobalConf.reload(new TestGlobalConfImpl(false));
+
+        X509Certificate signer = TestCertUtil.getCertChainCert("user_3.p12");
+        Date atDate = new Date(TestCertUtil.getCertChainCert("root_ca.p12").getNotBefore().getTime()
+                + TimeUnit.DAYS.toMillis(1));
+
+        run(signer, atDate, WARMUP_MESSAGES, false);
+        run(signer, atDate, WARMUP_MESSAGES, true);
+
+        double uncached = run(signer, atDate, messages, false);
+
+        long hits = PerformanceMetrics.counter(CertPathCache.class, "hits").getCount();
+        long misses = PerformanceMetrics.counter(CertPathCache.class, "misses").getCount();
+
+        double cached = run(signer, atDate, messages, true);
+
+        hits = PerformanceMetrics.counter(CertPathCache.class, "hits").getCount() - hits;
+        misses = PerformanceMetrics.counter(CertPathCache.class, "misses").getCount() - misses;
+
+        log.info("Chain length {}: without cache {} us/message, with cache {} us/message (hit ratio {})",
+                GlobalConf.getCertChain("EE", signer).getAllCerts().size(),
+                String.format("%.0f", uncached), String.format("%.0f", cached),
+                String.format("%.3f", (double) hits / (hits + misses)));
+    }
+
+    /**
+     * Verifies the chain the given number of times and returns the average time per message in microseconds.
+     */
+    private static double run(X509Certificate signer, Date atDate, int messages, boolean cached)
+            throws Exception {
+        CertPathCache.invalidateAll();
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < messages; i++) {
+            if (!cached) {
+                CertPathCache.invalidateAll();
+            }
+
+            CertChain chain = GlobalConf.getCertChain("EE", signer);
+            new CertChainVerifier(chain).verifyChainOnly(atDate);
+        }
+
+        return (System.nanoTime() - start) / 1000.0 / messages;
+    }
+}
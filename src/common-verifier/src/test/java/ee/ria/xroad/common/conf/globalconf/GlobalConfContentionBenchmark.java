@@ -0,0 +1,151 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.globalconf;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.identifier.ClientId;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Benchmark program for global configuration lookups under contention. Reader threads perform the lookups done
+ * for every message (instance identifier, member name and provider address) while a reloader thread reloads the
+ * configuration continuously, as the periodic global configuration update does. Compares the throughput of a
+ * single reader to the throughput of the given number of concurrent readers.
+ *
+ * Usage: GlobalConfContentionBenchmark [number of threads] [lookups per thread], 64 and 200000 by default.
+ */
+@Slf4j
+public final class GlobalConfContentionBenchmark {
+
+    private static final int DEFAULT_THREADS = 64;
+    private static final int DEFAULT_LOOKUPS = 200000;
+    private static final int WARMUP_LOOKUPS = 20000;
+
+    private static final ClientId PRODUCER = ClientId.create("EE", "BUSINESS", "producer");
+
+    private GlobalConfContentionBenchmark() {
+    }
+
+    /**
+     * Main program entry point.
+     * @param args command-line arguments
+     * @throws Exception in case of any errors
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_THREADS;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_LOOKUPS;
+
+        System.setProperty(SystemProperties.CONFIGURATION_PATH, "../common-util/src/test/resources/globalconf_good_v2");
+        // Every reload call actually reloads the configuration directory
+        System.setProperty(SystemProperties.CONFIGURATION_CLIENT_UPDATE_INTERVAL_SECONDS, "0");
+
+        GlobalConf.reload(new TestGlobalConfImpl(true));
+
+        run(1, WARMUP_LOOKUPS);
+        run(threads, WARMUP_LOOKUPS);
+
+        double single = run(1, lookups);
+        double concurrent = run(threads, lookups);
+
+        log.info("{} lookups per thread: 1 thread {} lookups/s, {} threads {} lookups/s (speedup {})",
+                lookups, String.format("%.0f", single), threads, String.format("%.0f", concurrent),
+                String.format("%.1f", concurrent / single));
+    }
+
+    /**
+     * Performs the lookups in the given number of threads while the configuration is being reloaded and returns
+     * the total throughput in lookups per second.
+     */
+    private static double run(int threads, int lookups) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean done = new AtomicBoolean();
+
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+
+            for (int i = 0; i < threads; i++) {
+                readers.add(executor.submit(() -> {
+                    start.await();
+
+                    for (int j = 0; j < lookups; j++) {
+                        lookup();
+                    }
+
+                    return null;
+                }));
+            }
+
+            Future<Integer> reloader = executor.submit(() -> {
+                int reloads = 0;
+
+                start.await();
+
+                while (!done.get()) {
+                    GlobalConf.reloadIfChanged();
+                    reloads++;
+                }
+
+                return reloads;
+            });
+
+            long begin = System.nanoTime();
+            start.countDown();
+
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+
+            long elapsed = System.nanoTime() - begin;
+
+            done.set(true);
+
+            log.info("{} threads: {} reloads during the run", threads, reloader.get());
+
+            return (double) threads * lookups / elapsed * TimeUnit.SECONDS.toNanos(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void lookup() {
+        if (!"EE".equals(GlobalConf.getInstanceIdentifier())
+                || GlobalConf.getMemberName(PRODUCER) == null
+                || GlobalConf.getProviderAddress(PRODUCER).isEmpty()) {
+            throw new IllegalStateException("Unexpected lookup result");
+        }
+    }
+}
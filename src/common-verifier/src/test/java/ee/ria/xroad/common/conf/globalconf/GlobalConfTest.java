@@ -66,6 +66,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -144,6 +145,31 @@ public class GlobalConfTest {
         assertNull("Description", GlobalConf.getGlobalGroupDescription(GlobalGroupId.create("EE", "foo")));
     }
 
+    /**
+     * Tests checking global group membership.
+     */
+    @Test
+    public void isSubjectInGlobalGroup() {
+        GlobalGroupId group = GlobalGroupId.create("EE", "Test group");
+
+        assertTrue(GlobalConf.isSubjectInGlobalGroup(newClientId("member2"), group));
+        assertFalse(GlobalConf.isSubjectInGlobalGroup(newClientId("producer"), group));
+        assertFalse(GlobalConf.isSubjectInGlobalGroup(newClientId("member2"), GlobalGroupId.create("EE", "foo")));
+        assertFalse(GlobalConf.isSubjectInGlobalGroup(newClientId("member2"),
+                GlobalGroupId.create("xxx", "Test group")));
+    }
+
+    /**
+     * Tests getting the member name of members and subsystems.
+     */
+    @Test
+    public void getMemberName() {
+        assertEquals("Experimental producer", GlobalConf.getMemberName(newClientId("producer")));
+        assertEquals("Org with no address", GlobalConf.getMemberName(newClientId("foo", "foosubsystem")));
+        assertEquals("Org with no address", GlobalConf.getMemberName(newClientId("foo", "unknown")));
+        assertNull(GlobalConf.getMemberName(newClientId("unknown")));
+    }
+
     /**
      * Tests getting the actual service identifier for a given identifier.
      *
@@ -243,6 +269,28 @@ public class GlobalConfTest {
         assertEquals(getCertChainCert("user_3.p12"), chain.get(0));
     }
 
+    /**
+     * Tests that the trust store indexes the CA certificates of an instance
+     * and is not rebuilt while the configuration does not change.
+     *
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void getTrustStore() throws Exception {
+        TrustStore trustStore = GlobalConf.getTrustStore("EE");
+
+        assertNotNull(trustStore);
+        assertSame(trustStore, GlobalConf.getTrustStore("EE"));
+        assertEquals(new HashSet<>(GlobalConf.getAllCaCerts("EE")),
+                new HashSet<>(trustStore.getCaCerts()));
+
+        assertEquals(getCertChainCert("ca_3.p12"),
+                trustStore.getIssuer(getCertChainCert("user_3.p12")));
+        assertEquals(getCertChainCert("root_ca.p12"),
+                trustStore.getIssuer(getCertChainCert("ca_1.p12")));
+        assertNull(GlobalConf.getTrustStore("XX"));
+    }
+
     /**
      * Tests getting all OCSP responder certificates.
      */
@@ -0,0 +1,272 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.globalconf;
+
+import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.GlobalGroupType;
+import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.MemberType;
+import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.SecurityServerType;
+import ee.ria.xroad.common.conf.globalconf.sharedparameters.v2.SubsystemType;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.GlobalGroupId;
+import ee.ria.xroad.common.identifier.SecurityServerId;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Benchmark program for member, global group and security server lookups on a synthetic global configuration.
+ * Compares the lookups done by scanning the parsed configuration, as was done before the shared parameters were
+ * indexed on load, to the lookups done by GlobalConfImpl using the indexes.
+ *
+ * The configuration has the given number of members, each with one subsystem, a security server for every tenth
+ * member and a global group containing every other member.
+ *
+ * Usage: SharedParametersBenchmark [number of members], 50000 by default.
+ */
+@Slf4j
+public final class SharedParametersBenchmark {
+
+    private static final int DEFAULT_MEMBERS = 50000;
+    private static final int SCAN_LOOKUPS = 200;
+    private static final int INDEX_LOOKUPS = 1000000;
+    private static final int LIST_CALLS = 100;
+
+    private static final String INSTANCE = "EE";
+    private static final String MEMBER_CLASS = "BUSINESS";
+    private static final String GROUP_CODE = "benchmark-group";
+
+    private static volatile int sink;
+
+    private SharedParametersBenchmark() {
+    }
+
+    /**
+     * Main program entry point.
+     * @param args command-line arguments
+     * @throws Exception in case of any errors
+     */
+    public static void main(String[] args) throws Exception {
+        int members = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MEMBERS;
+
+        Path confDir = Files.createTempDirectory("globalconf-benchmark");
+
+        try {
+            writeConfiguration(confDir, members);
+
+            long start = System.nanoTime();
+            ConfigurationDirectoryV2 dir = new ConfigurationDirectoryV2(confDir.toString());
+            log.info("Loaded {} members in {} ms", members, (System.nanoTime() - start) / 1000000);
+
+            GlobalConfImpl conf = new GlobalConfImpl(dir);
+            SharedParametersV2 p = dir.getShared(INSTANCE);
+            GlobalGroupId groupId = GlobalGroupId.create(INSTANCE, GROUP_CODE);
+
+            List<ClientId> clientIds = randomClientIds(members);
+
+            compare("getMemberName", clientIds,
+                    id -> scanMemberName(p, id), id -> conf.getMemberName(id));
+            compare("isSubjectInGlobalGroup", clientIds,
+                    id -> scanGlobalGroup(p, groupId, id), id -> conf.isSubjectInGlobalGroup(id, groupId));
+
+            log.info("getMembers: scan {} us/call, index {} us/call",
+                    format(run(LIST_CALLS, i -> scanMembers(p).size())),
+                    format(run(LIST_CALLS, i -> conf.getMembers(INSTANCE).size())));
+            log.info("getSecurityServers: scan {} us/call, index {} us/call",
+                    format(run(LIST_CALLS, i -> scanSecurityServers(p).size())),
+                    format(run(LIST_CALLS, i -> conf.getSecurityServers(INSTANCE).size())));
+        } finally {
+            FileUtils.deleteDirectory(confDir.toFile());
+        }
+    }
+
+    private interface Lookup {
+        Object apply(ClientId clientId);
+    }
+
+    private static void compare(String name, List<ClientId> clientIds, Lookup scan, Lookup index) {
+        IntUnaryOperator scanOp = i -> hash(scan.apply(clientIds.get(i % clientIds.size())));
+        IntUnaryOperator indexOp = i -> hash(index.apply(clientIds.get(i % clientIds.size())));
+
+        run(SCAN_LOOKUPS, scanOp);
+        run(INDEX_LOOKUPS, indexOp);
+
+        log.info("{}: scan {} us/lookup, index {} us/lookup", name,
+                format(run(SCAN_LOOKUPS, scanOp)), format(run(INDEX_LOOKUPS, indexOp)));
+    }
+
+    /**
+     * Performs the given operation the given number of times and returns the average time in microseconds.
+     */
+    private static double run(int count, IntUnaryOperator op) {
+        int result = 0;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < count; i++) {
+            result += op.applyAsInt(i);
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        sink = result;
+
+        return elapsed / 1000.0 / count;
+    }
+
+    private static int hash(Object result) {
+        return result == null ? 0 : result.hashCode();
+    }
+
+    private static String format(double value) {
+        return String.format("%.3f", value);
+    }
+
+    // Lookups as they were done before the shared parameters were indexed
+
+    private static String scanMemberName(SharedParametersV2 p, ClientId clientId) {
+        return p.getMembers().stream()
+                .filter(m -> p.createMemberId(m).memberEquals(clientId))
+                .map(MemberType::getName)
+                .findFirst()
+                .orElse(null);
+    }
+
+    private static boolean scanGlobalGroup(SharedParametersV2 p, GlobalGroupId groupId, ClientId clientId) {
+        GlobalGroupType group = p.getGlobalGroups().stream()
+                .filter(g -> g.getGroupCode().equals(groupId.getGroupCode()))
+                .findFirst().orElse(null);
+
+        return group != null && group.getGroupMember().stream().anyMatch(m -> m.equals(clientId));
+    }
+
+    private static List<MemberInfo> scanMembers(SharedParametersV2 p) {
+        List<MemberInfo> clients = new ArrayList<>();
+
+        for (MemberType member : p.getMembers()) {
+            clients.add(new MemberInfo(p.createMemberId(member), member.getName()));
+
+            for (SubsystemType subsystem : member.getSubsystem()) {
+                clients.add(new MemberInfo(p.createSubsystemId(member, subsystem), member.getName()));
+            }
+        }
+
+        return clients;
+    }
+
+    private static List<SecurityServerId> scanSecurityServers(SharedParametersV2 p) {
+        List<SecurityServerId> serverIds = new ArrayList<>();
+
+        for (SecurityServerType s : p.getSecurityServers()) {
+            MemberType owner = SharedParametersV2.getOwner(s);
+            serverIds.add(SecurityServerId.create(p.getInstanceIdentifier(), owner.getMemberClass().getCode(),
+                    owner.getMemberCode(), s.getServerCode()));
+        }
+
+        return serverIds;
+    }
+
+    // Member and subsystem identifiers in random order, a tenth of them unknown
+    private static List<ClientId> randomClientIds(int members) {
+        Random random = new Random(1);
+        List<ClientId> clientIds = new ArrayList<>();
+
+        for (int i = 0; i < SCAN_LOOKUPS; i++) {
+            int member = random.nextInt(members + members / 10);
+
+            clientIds.add(random.nextBoolean()
+                    ? ClientId.create(INSTANCE, MEMBER_CLASS, memberCode(member))
+                    : ClientId.create(INSTANCE, MEMBER_CLASS, memberCode(member), "subsystem"));
+        }
+
+        return clientIds;
+    }
+
+    private static String memberCode(int member) {
+        return "member" + member;
+    }
+
+    private static void writeConfiguration(Path confDir, int members) throws Exception {
+        StringBuilder xml = new StringBuilder();
+
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<tns:conf xmlns:id=\"http://x-road.eu/xsd/identifiers\"")
+                .append(" xmlns:tns=\"http://x-road.eu/xsd/xroad.xsd\">\n")
+                .append("<instanceIdentifier>").append(INSTANCE).append("</instanceIdentifier>\n");
+
+        for (int i = 0; i < members; i++) {
+            xml.append("<member id=\"m").append(i).append("\">")
+                    .append("<memberClass><code>").append(MEMBER_CLASS).append("</code>")
+                    .append("<description>Business</description></memberClass>")
+                    .append("<memberCode>").append(memberCode(i)).append("</memberCode>")
+                    .append("<name>Member ").append(i).append("</name>")
+                    .append("<subsystem id=\"s").append(i).append("\">")
+                    .append("<subsystemCode>subsystem</subsystemCode></subsystem>")
+                    .append("</member>\n");
+        }
+
+        for (int i = 0; i < members; i += 10) {
+            xml.append("<securityServer><owner>m").append(i).append("</owner>")
+                    .append("<serverCode>server").append(i).append("</serverCode>")
+                    .append("<address>ss").append(i).append(".example.com</address>");
+
+            for (int j = i; j < Math.min(i + 10, members); j++) {
+                xml.append("<client>s").append(j).append("</client>");
+            }
+
+            xml.append("</securityServer>\n");
+        }
+
+        xml.append("<globalGroup><groupCode>").append(GROUP_CODE).append("</groupCode>")
+                .append("<description>Every other member</description>\n");
+
+        for (int i = 0; i < members; i += 2) {
+            xml.append("<groupMember id:objectType=\"MEMBER\"><id:xRoadInstance>").append(INSTANCE)
+                    .append("</id:xRoadInstance><id:memberClass>").append(MEMBER_CLASS)
+                    .append("</id:memberClass><id:memberCode>").append(memberCode(i))
+                    .append("</id:memberCode></groupMember>\n");
+        }
+
+        xml.append("</globalGroup>\n")
+                .append("<globalSettings><memberClass><code>").append(MEMBER_CLASS).append("</code>")
+                .append("<description>Business</description></memberClass>")
+                .append("<ocspFreshnessSeconds>60</ocspFreshnessSeconds></globalSettings>\n")
+                .append("</tns:conf>\n");
+
+        Path instanceDir = Files.createDirectories(confDir.resolve(INSTANCE));
+
+        Files.write(instanceDir.resolve(ConfigurationDirectoryV2.SHARED_PARAMETERS_XML),
+                xml.toString().getBytes(StandardCharsets.UTF_8));
+        Files.write(confDir.resolve(ConfigurationDirectory.INSTANCE_IDENTIFIER_FILE),
+                INSTANCE.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.signature;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.TestCertUtil;
+import ee.ria.xroad.common.TestSecurityUtil;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.globalconf.TestGlobalConfImpl;
+import ee.ria.xroad.common.hashchain.HashChainReferenceResolver;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.util.MessageFileNames;
+import ee.ria.xroad.common.util.PerformanceMetrics;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * Benchmark program for verifying batch-signed messages. Every message of a batch shares the batch
+ * signature and the hash chain result and has a hash chain of its own; the test data has one hash chain,
+ * which is verified for every message. Compares verification without the signature verification cache
+ * (the cache is cleared before each message) to verification with it.
+ *
+ * Usage: SignatureVerifierBenchmark [number of messages in a batch], 100 by default.
+ */
+@Slf4j
+public final class SignatureVerifierBenchmark {
+
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final int BATCHES = 20;
+    private static final int WARMUP_BATCHES = 5;
+
+    private static final ClientId SIGNER = ClientId.create("EE", "BUSINESS", "consumer");
+    private static final Date VALIDATION_DATE = validationDate();
+
+    private static final String BASE_DIR = "src/test/signatures/";
+
+    private SignatureVerifierBenchmark() {
+    }
+
+    /**
+     * Main program entry point.
+     * @param args command-line arguments
+     * @throws Exception in case of any errors
+     */
+    public static void main(String[] args) throws Exception {
+        int batchSize = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_BATCH_SIZE;
+
+        TestSecurityUtil.initSecurity();
+        System.setProperty(SystemProperties.CONFIGURATION_PATH, "../common-util/src/test/resources/globalconf_good_v2");
+        System.setProperty(SystemProperties.CONFIGURATION_ANCHOR_FILE,
+                "../common-util/src/test/resources/configuration-anchor1.xml");
+
+        GlobalConf.reload(new TestGlobalConfImpl(false) {
+            @Override
+            public X509Certificate getCaCert(String instanceIdentifier, X509Certificate memberCert) {
+                return TestCertUtil.getCaCert();
+            }
+        });
+
+        SignatureData signatureData = new SignatureData(read("batch-sig.xml"), read("hash-chain-result.xml"),
+                read("hash-chain-1.xml"));
+        byte[] message = FileUtils.readFileToByteArray(new File(BASE_DIR + "message-1.xml"));
+
+        run(signatureData, message, batchSize, WARMUP_BATCHES, false);
+        run(signatureData, message, batchSize, WARMUP_BATCHES, true);
+
+        double uncached = run(signatureData, message, batchSize, BATCHES, false);
+
+        long hits = PerformanceMetrics.counter(SignatureVerificationCache.class, "hits").getCount();
+        long misses = PerformanceMetrics.counter(SignatureVerificationCache.class, "misses").getCount();
+
+        double cached = run(signatureData, message, batchSize, BATCHES, true);
+
+        hits = PerformanceMetrics.counter(SignatureVerificationCache.class, "hits").getCount() - hits;
+        misses = PerformanceMetrics.counter(SignatureVerificationCache.class, "misses").getCount() - misses;
+
+        log.info("Batch size {}: without cache {} us/message, with cache {} us/message (hit ratio {})", batchSize,
+                String.format("%.0f", uncached), String.format("%.0f", cached),
+                String.format("%.3f", (double) hits / (hits + misses)));
+    }
+
+    /**
+     * Verifies the given number of batches and returns the average time per message in microseconds.
+     */
+    private static double run(SignatureData signatureData, byte[] message, int batchSize, int batches,
+            boolean cached) throws Exception {
+        long start = System.nanoTime();
+
+        for (int batch = 0; batch < batches; batch++) {
+            // every batch has a new signature
+            SignatureVerificationCache.invalidateAll();
+
+            for (int i = 0; i < batchSize; i++) {
+                if (!cached) {
+                    SignatureVerificationCache.invalidateAll();
+                }
+
+                SignatureVerifier verifier = new SignatureVerifier(signatureData);
+                verifier.setHashChainResourceResolver(new MessageResolver(signatureData.getHashChain(), message));
+                verifier.verify(SIGNER, VALIDATION_DATE);
+            }
+        }
+
+        return (System.nanoTime() - start) / 1000.0 / batches / batchSize;
+    }
+
+    private static String read(String fileName) throws Exception {
+        return FileUtils.readFileToString(new File(BASE_DIR + fileName), StandardCharsets.UTF_8);
+    }
+
+    private static Date validationDate() {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(2014, Calendar.OCTOBER, 30);
+
+        return cal.getTime();
+    }
+
+    /**
+     * Resolves the hash chain and the message of a single message in a batch.
+     */
+    private static final class MessageResolver implements HashChainReferenceResolver {
+        private final String hashChain;
+        private final byte[] message;
+
+        MessageResolver(String hashChain, byte[] message) {
+            this.hashChain = hashChain;
+            this.message = message;
+        }
+
+        @Override
+        public InputStream resolve(String uri) {
+            switch (uri) {
+                case MessageFileNames.SIG_HASH_CHAIN:
+                    return IOUtils.toInputStream(hashChain, StandardCharsets.UTF_8);
+                case MessageFileNames.MESSAGE:
+                    return new ByteArrayInputStream(message);
+                case "/attachment1":
+                    return IOUtils.toInputStream("blaah", StandardCharsets.UTF_8);
+                default:
+                    return null;
+            }
+        }
+
+        @Override
+        public boolean shouldResolve(String uri, byte[] digestValue) {
+            return true;
+        }
+    }
+}
@@ -34,7 +34,9 @@ import ee.ria.xroad.common.conf.globalconf.TestGlobalConfImpl;
 import ee.ria.xroad.common.hashchain.HashChainReferenceResolver;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.util.MessageFileNames;
+import ee.ria.xroad.common.util.PerformanceMetrics;
 
+import com.codahale.metrics.Counter;
 import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Rule;
@@ -53,11 +55,15 @@ import java.util.List;
 import java.util.Map;
 
 import static ee.ria.xroad.common.ErrorCodes.X_INCORRECT_CERTIFICATE;
+import static ee.ria.xroad.common.ErrorCodes.X_INCORRECT_VALIDATION_INFO;
+import static ee.ria.xroad.common.ErrorCodes.X_INVALID_CERT_PATH_X;
+import static ee.ria.xroad.common.ErrorCodes.X_INVALID_HASH_CHAIN_REF;
 import static ee.ria.xroad.common.ErrorCodes.X_INVALID_SIGNATURE_VALUE;
 import static ee.ria.xroad.common.ErrorCodes.X_INVALID_XML;
 import static ee.ria.xroad.common.ErrorCodes.X_MALFORMED_SIGNATURE;
 import static ee.ria.xroad.common.util.CryptoUtils.SHA512_ID;
 import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
+import static org.junit.Assert.assertEquals;
 
 /**
  * Tests the signature verifier.
@@ -93,6 +99,8 @@ public class SignatureVerifierTest {
                 return TestCertUtil.getCaCert();
             }
         });
+
+        SignatureVerificationCache.invalidateAll();
     }
 
     /**
@@ -129,6 +137,68 @@ public class SignatureVerifierTest {
                 resolver).verify(CONSUMER_ID, CORRECT_VALIDATION_DATE);
     }
 
+    /**
+     * Tests that a verified batch signature is taken from the cache for the other messages of the batch.
+     * @throws Exception if error occurs
+     */
+    @Test
+    public void verifyCachedBatchSignature() throws Exception {
+        Counter hits = PerformanceMetrics.counter(SignatureVerificationCache.class, "hits");
+        long hitsBefore = hits.getCount();
+
+        createBatchSignatureVerifier("src/test/signatures/message-1.xml").verify(CONSUMER_ID, CORRECT_VALIDATION_DATE);
+        assertEquals(hitsBefore, hits.getCount());
+
+        createBatchSignatureVerifier("src/test/signatures/message-1.xml").verify(CONSUMER_ID, CORRECT_VALIDATION_DATE);
+        assertEquals(hitsBefore + 1, hits.getCount());
+    }
+
+    /**
+     * Tests that the hash chain of a message is verified even if the batch signature is cached.
+     * @throws Exception if error occurs
+     */
+    @Test
+    public void verifyCachedBatchSignatureInvalidHashChain() throws Exception {
+        createBatchSignatureVerifier("src/test/signatures/message-1.xml").verify(CONSUMER_ID, CORRECT_VALIDATION_DATE);
+
+        thrown.expectError(X_MALFORMED_SIGNATURE + "." + X_INVALID_HASH_CHAIN_REF);
+
+        createBatchSignatureVerifier("../common-test/src/test/signatures/message-0.xml")
+                .verify(CONSUMER_ID, CORRECT_VALIDATION_DATE);
+    }
+
+    /**
+     * Tests that a cached batch signature verification is not used for dates it is not valid for.
+     * @throws Exception if error occurs
+     */
+    @Test
+    public void verifyCachedBatchSignatureExpired() throws Exception {
+        createBatchSignatureVerifier("src/test/signatures/message-1.xml").verify(CONSUMER_ID, CORRECT_VALIDATION_DATE);
+
+        thrown.expectError(X_INVALID_CERT_PATH_X + "." + X_INCORRECT_VALIDATION_INFO);
+
+        createBatchSignatureVerifier("src/test/signatures/message-1.xml")
+                .verify(CONSUMER_ID, createDate(30, 9, 2015));
+    }
+
+    private static SignatureVerifier createBatchSignatureVerifier(String messageFileName) throws Exception {
+        Resolver resolver = new Resolver() {
+            @Override
+            public InputStream resolve(String uri) throws IOException {
+                if ("/attachment1".equals(uri)) {
+                    // Returns the attachment content
+                    return IOUtils.toInputStream("blaah");
+                } else {
+                    return super.resolve(uri);
+                }
+            }
+        }.withHashChain("src/test/signatures/hash-chain-1.xml")
+                .withMessage(messageFileName);
+
+        return createSignatureVerifier("src/test/signatures/batch-sig.xml", "src/test/signatures/hash-chain-result.xml",
+                resolver);
+    }
+
     /**
      * Tests that verifying backward compatible (not conforming to specification) valid signature succeeds.
      * @throws Exception if error occurs
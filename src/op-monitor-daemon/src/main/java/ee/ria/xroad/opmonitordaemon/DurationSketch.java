@@ -0,0 +1,185 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A mergeable quantile sketch of request durations in milliseconds. The values are counted in buckets whose
+ * bounds grow exponentially, so a quantile is estimated with a relative error of at most 5% regardless of
+ * the number of values, and sketches of different time buckets can be added together.
+ */
+final class DurationSketch {
+
+    private static final double GAMMA = 1.1;
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    // Bucket 0 counts the zero durations, the last bucket counts everything above GAMMA^(BUCKETS - 2),
+    // which is more than 10^10 milliseconds.
+    private static final int BUCKETS = 256;
+
+    private final long[] counts = new long[BUCKETS];
+
+    private long count;
+
+    /**
+     * @return a new empty sketch
+     */
+    static DurationSketch create() {
+        return new DurationSketch();
+    }
+
+    /**
+     * @param encoded a sketch encoded with {@link #toBytes()}, may be null
+     * @return the decoded sketch or an empty sketch if the encoded sketch is null
+     */
+    static DurationSketch fromBytes(byte[] encoded) {
+        DurationSketch sketch = new DurationSketch();
+
+        if (encoded == null) {
+            return sketch;
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded))) {
+            int entries = in.readUnsignedShort();
+
+            for (int i = 0; i < entries; i++) {
+                int index = in.readUnsignedByte();
+                long bucketCount = in.readLong();
+
+                sketch.counts[index] += bucketCount;
+                sketch.count += bucketCount;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return sketch;
+    }
+
+    /**
+     * Counts a value.
+     * @param value the duration in milliseconds
+     */
+    void add(long value) {
+        counts[index(value)]++;
+        count++;
+    }
+
+    /**
+     * Adds the values counted by another sketch to this sketch.
+     * @param other the other sketch
+     */
+    void merge(DurationSketch other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+
+        count += other.count;
+    }
+
+    /**
+     * @return the number of counted values
+     */
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * @param quantile the quantile between 0 and 1
+     * @return the estimated value of the quantile or null if no values have been counted
+     */
+    Long getQuantile(double quantile) {
+        if (count == 0) {
+            return null;
+        }
+
+        long rank = (long) Math.floor(quantile * (count - 1));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+
+            if (seen > rank) {
+                return value(i);
+            }
+        }
+
+        return value(BUCKETS - 1);
+    }
+
+    /**
+     * @return the sketch encoded as the non-empty buckets and their counts
+     */
+    byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            int entries = 0;
+
+            for (long bucketCount : counts) {
+                if (bucketCount > 0) {
+                    entries++;
+                }
+            }
+
+            out.writeShort(entries);
+
+            for (int i = 0; i < BUCKETS; i++) {
+                if (counts[i] > 0) {
+                    out.writeByte(i);
+                    out.writeLong(counts[i]);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static int index(long value) {
+        if (value <= 0) {
+            return 0;
+        }
+
+        return (int) Math.min(BUCKETS - 1, 1 + (long) Math.ceil(Math.log(value) / LOG_GAMMA));
+    }
+
+    // The value in the middle of the bucket, relative to its bounds GAMMA^(i - 2) and GAMMA^(i - 1)
+    private static long value(int index) {
+        if (index == 0) {
+            return 0;
+        }
+
+        return Math.round(2 * Math.pow(GAMMA, index - 1) / (1 + GAMMA));
+    }
+}
@@ -36,7 +36,9 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.SlidingTimeWindowReservoir;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -99,38 +101,118 @@ final class HealthDataMetrics {
      */
     static void processRecords(MetricRegistry registry,
             List<OperationalDataRecord> records) {
-        for (OperationalDataRecord rec : records) {
-            if (!rec.getSecurityServerType().equals(
-                    OpMonitoringData.SecurityServerType.PRODUCER)) {
-                // Health data is computed over the requests that are handled
-                // in the producer role only.
-                continue;
+        Update update = new Update();
+        update.add(records);
+        update.apply(registry);
+    }
+
+    /**
+     * The health data picked from records, by service. The update is applied
+     * to the metrics registry separately, so that the records can be added
+     * while they are stored and the registry updated only after the records
+     * have been committed.
+     */
+    static final class Update {
+
+        private final Map<ServiceId, ServiceHealthData> services = new LinkedHashMap<>();
+
+        /**
+         * Picks the health data from the records.
+         * @param records operational data records
+         */
+        void add(List<OperationalDataRecord> records) {
+            for (OperationalDataRecord rec : records) {
+                if (!rec.getSecurityServerType().equals(
+                        OpMonitoringData.SecurityServerType.PRODUCER)) {
+                    // Health data is computed over the requests that are handled
+                    // in the producer role only.
+                    continue;
+                }
+
+                ServiceId serviceId = HealthDataMetricsUtil.getServiceId(rec);
+
+                if (serviceId == null) {
+                    // Ignore records without service ID.
+                    continue;
+                }
+
+                services.computeIfAbsent(serviceId, id -> new ServiceHealthData()).add(rec);
             }
+        }
 
-            ServiceId serviceId = HealthDataMetricsUtil.getServiceId(rec);
+        /**
+         * Updates the metrics registry with the health data, new metrics are
+         * registered if necessary.
+         * @param registry the metric registry of the operational monitoring daemon
+         */
+        void apply(MetricRegistry registry) {
+            services.forEach((serviceId, data) -> data.apply(registry, serviceId));
+        }
+    }
 
-            if (serviceId == null) {
-                // Ignore records without service ID.
-                continue;
-            }
+    /**
+     * The health data of one service: the last request timestamps, the
+     * request counts and, for successful requests, the values of the
+     * histograms.
+     */
+    private static final class ServiceHealthData {
 
-            registerOrUpdateGauges(registry, serviceId, rec);
-            registerOrUpdateCounters(registry, serviceId, rec);
+        private String serviceType;
+        private Long lastSucceededTs;
+        private Long lastFailedTs;
+        private long succeededCount;
+        private long failedCount;
+        private final List<Long> durations = new ArrayList<>();
+        private final List<Long> requestSizes = new ArrayList<>();
+        private final List<Long> responseSizes = new ArrayList<>();
+
+        void add(OperationalDataRecord rec) {
+            serviceType = rec.getServiceType();
 
             if (rec.getSucceeded()) {
+                lastSucceededTs = rec.getResponseOutTs();
+                succeededCount++;
+
                 // Statistics of request duration and the sizes of the request
                 // and response are computed over the successful requests only.
-                registerOrUpdateHistograms(registry, serviceId, rec);
+                durations.add(getRequestDuration(rec));
+                addIfNotNull(requestSizes, rec.getRequestSize());
+                addIfNotNull(responseSizes, rec.getResponseSize());
+            } else {
+                lastFailedTs = rec.getResponseOutTs();
+                failedCount++;
+            }
+        }
+
+        void apply(MetricRegistry registry, ServiceId serviceId) {
+            if (succeededCount > 0) {
+                registerOrUpdateGauges(registry, serviceId, true, lastSucceededTs, serviceType);
+                registerOrUpdateCounter(registry, serviceId, true, succeededCount);
+            }
+
+            if (failedCount > 0) {
+                registerOrUpdateGauges(registry, serviceId, false, lastFailedTs, serviceType);
+                registerOrUpdateCounter(registry, serviceId, false, failedCount);
+            }
+
+            registerOrUpdateHistogram(registry, getRequestDurationName(serviceId), durations);
+            registerOrUpdateHistogram(registry, getRequestSizeName(serviceId), requestSizes);
+            registerOrUpdateHistogram(registry, getResponseSizeName(serviceId), responseSizes);
+        }
+
+        private static void addIfNotNull(List<Long> values, Long value) {
+            if (value != null) {
+                values.add(value);
             }
         }
     }
 
     private static void registerOrUpdateGauges(MetricRegistry registry,
-            ServiceId serviceId, OperationalDataRecord rec) {
+            ServiceId serviceId, boolean succeeded, Long lastRequestTs, String serviceType) {
         // last request timestamp
         String expectedGaugeName = getLastRequestTimestampGaugeName(serviceId,
-                rec.getSucceeded());
-        requestTimestamps.put(expectedGaugeName, rec.getResponseOutTs());
+                succeeded);
+        requestTimestamps.put(expectedGaugeName, lastRequestTs);
         Gauge gauge = HealthDataMetricsUtil.findGauge(registry,
                 expectedGaugeName);
         if (gauge == null) {
@@ -141,7 +223,7 @@ final class HealthDataMetrics {
 
         // service type
         String serviceTypeGaugeName = getServiceTypeName(serviceId);
-        serviceTypes.put(serviceTypeGaugeName, rec.getServiceType());
+        serviceTypes.put(serviceTypeGaugeName, serviceType);
         Gauge serviceTypeGauge = HealthDataMetricsUtil.findGauge(registry,
                 serviceTypeGaugeName);
         if (serviceTypeGauge == null) {
@@ -150,10 +232,10 @@ final class HealthDataMetrics {
         }
     }
 
-    private static void registerOrUpdateCounters(MetricRegistry registry,
-            ServiceId serviceId, OperationalDataRecord rec) {
+    private static void registerOrUpdateCounter(MetricRegistry registry,
+            ServiceId serviceId, boolean succeeded, long count) {
         String expectedCounterName = getRequestCounterName(serviceId,
-                rec.getSucceeded());
+                succeeded);
         Counter counter = HealthDataMetricsUtil.findCounter(registry,
                 expectedCounterName);
 
@@ -164,20 +246,13 @@ final class HealthDataMetrics {
             registry.register(expectedCounterName, counter);
         }
 
-        counter.inc();
-    }
-
-    private static void registerOrUpdateHistograms(MetricRegistry registry,
-            ServiceId serviceId, OperationalDataRecord rec) {
-        registerOrUpdateHistogram(registry, getRequestDurationName(serviceId), getRequestDuration(rec));
-
-        registerOrUpdateHistogram(registry, getRequestSizeName(serviceId), rec.getRequestSize());
-        registerOrUpdateHistogram(registry, getResponseSizeName(serviceId), rec.getResponseSize());
+        counter.inc(count);
     }
 
-    private static void registerOrUpdateHistogram(MetricRegistry registry, String histogramName, Long newValue) {
+    private static void registerOrUpdateHistogram(MetricRegistry registry, String histogramName,
+            List<Long> newValues) {
 
-        if (newValue == null) return;
+        if (newValues.isEmpty()) return;
 
         Histogram histogram = HealthDataMetricsUtil.findHistogram(registry, histogramName);
 
@@ -189,7 +264,9 @@ final class HealthDataMetrics {
                             TimeUnit.SECONDS)));
         }
 
-        histogram.update(newValue);
+        for (Long newValue : newValues) {
+            histogram.update(newValue);
+        }
     }
 
     /**
@@ -28,6 +28,8 @@ package ee.ria.xroad.opmonitordaemon;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.identifier.ServiceId;
 import ee.ria.xroad.common.message.SoapMessageImpl;
+import ee.ria.xroad.common.util.TimeUtils;
+import ee.ria.xroad.opmonitordaemon.OperationalDataRollup.Statistics;
 import ee.ria.xroad.opmonitordaemon.message.FilterCriteriaType;
 import ee.ria.xroad.opmonitordaemon.message.GetSecurityServerHealthDataResponseType;
 import ee.ria.xroad.opmonitordaemon.message.GetSecurityServerHealthDataType;
@@ -35,51 +37,29 @@ import ee.ria.xroad.opmonitordaemon.message.LastPeriodStatisticsType;
 import ee.ria.xroad.opmonitordaemon.message.ServiceEventsType;
 import ee.ria.xroad.opmonitordaemon.message.ServicesEventsType;
 
-import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
-import com.codahale.metrics.Histogram;
-import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringEscapeUtils;
-import org.apache.commons.lang3.StringUtils;
 
 import javax.xml.bind.JAXBElement;
 
 import java.io.OutputStream;
-import java.util.Map.Entry;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Consumer;
-import java.util.stream.Stream;
 
 import static ee.ria.xroad.opmonitordaemon.HealthDataMetrics.MONITORING_STARTUP_TIMESTAMP;
 import static ee.ria.xroad.opmonitordaemon.HealthDataMetrics.STATISTICS_PERIOD_SECONDS;
-import static ee.ria.xroad.opmonitordaemon.HealthDataMetricsUtil.findCounter;
 import static ee.ria.xroad.opmonitordaemon.HealthDataMetricsUtil.findGauge;
-import static ee.ria.xroad.opmonitordaemon.HealthDataMetricsUtil.findHistogram;
-import static ee.ria.xroad.opmonitordaemon.HealthDataMetricsUtil.getLastRequestTimestampGaugeName;
-import static ee.ria.xroad.opmonitordaemon.HealthDataMetricsUtil.getRequestCounterName;
-import static ee.ria.xroad.opmonitordaemon.HealthDataMetricsUtil.getRequestDurationName;
-import static ee.ria.xroad.opmonitordaemon.HealthDataMetricsUtil.getRequestSizeName;
-import static ee.ria.xroad.opmonitordaemon.HealthDataMetricsUtil.getResponseSizeName;
-import static ee.ria.xroad.opmonitordaemon.HealthDataMetricsUtil.getServiceTypeName;
 
 /**
- * Query handler for health data requests.
+ * Query handler for health data requests. The statistics of the services are
+ * aggregated from the minute and hour rollups of the operational data.
  */
 @Slf4j
 @RequiredArgsConstructor
 public class HealthDataRequestHandler extends QueryRequestHandler {
 
-    private static final int SERVICE_ID_NUM_PARTS = 6;
-    private static final int SERVICE_ID_VERSION_PART = 5;
-    private static final int SERVICE_ID_CODE_PART = 4;
-    private static final int SERVICE_ID_SUBSYSTEM_PART = 3;
-
-    private static final String IDENTIFIER_SEPARATOR = "/";
-
     /** The registry of health data. */
     private final MetricRegistry healthMetricRegistry;
 
@@ -123,7 +103,8 @@ public class HealthDataRequestHandler extends QueryRequestHandler {
                 statisticsPeriodSeconds.orElseThrow(
                         this::missingPeriod).getValue());
 
-        healthDataResponse.setServicesEvents(buildServicesEvents(provider));
+        healthDataResponse.setServicesEvents(buildServicesEvents(provider,
+                healthDataResponse.getStatisticsPeriodSeconds()));
 
         return OBJECT_FACTORY.createGetSecurityServerHealthDataResponse(
                 healthDataResponse);
@@ -139,154 +120,73 @@ public class HealthDataRequestHandler extends QueryRequestHandler {
                 + " in health metrics registry!");
     }
 
-    private Stream<ServiceId> servicesWithAvailableMetrics() {
-        return healthMetricRegistry.getMetrics().entrySet().stream()
-                .map(HealthDataRequestHandler::extractIdentifier)
-                .filter(Objects::nonNull)
-                .distinct()
-                .map(HealthDataRequestHandler::convertIdentifier);
-    }
-
     private ServicesEventsType buildServicesEvents(
-            Optional<ClientId> provider) {
+            Optional<ClientId> provider, int statisticsPeriodSeconds)
+            throws Exception {
         ServicesEventsType servicesEvents =
                 OBJECT_FACTORY.createServicesEventsType();
 
-        servicesWithAvailableMetrics()
+        long periodStart = TimeUtils.getEpochSecond() - statisticsPeriodSeconds;
+
+        OperationalDataRollupManager.queryServiceHealthData(
+                periodStart - periodStart % OperationalDataRollup.MINUTE)
+                .entrySet().stream()
                 // If a client ID was provided in the request then
                 // only include service metrics for that provider
-                .filter(id -> provider.map(id.getClientId()::equals)
+                .filter(e -> provider.map(e.getKey().getClientId()::equals)
                         .orElse(true))
-                .forEach(service -> servicesEvents.getServiceEvents().add(
-                        buildServiceEvents(service)));
+                .forEach(e -> servicesEvents.getServiceEvents().add(
+                        buildServiceEvents(e.getKey(), e.getValue())));
 
         return servicesEvents;
     }
 
-    @SuppressWarnings("unchecked")
-    private ServiceEventsType buildServiceEvents(ServiceId service) {
+    private static ServiceEventsType buildServiceEvents(ServiceId service,
+            OperationalDataRollup rollup) {
         ServiceEventsType serviceEvents =
                 OBJECT_FACTORY.createServiceEventsType();
 
         serviceEvents.setService(service);
-
-        Optional<Gauge<Long>> lastSuccessfulRequestTimestamp =
-                Optional.ofNullable(findGauge(healthMetricRegistry,
-                        getLastRequestTimestampGaugeName(service, true)));
-        lastSuccessfulRequestTimestamp.ifPresent(
-                g -> serviceEvents.setLastSuccessfulRequestTimestamp(
-                        g.getValue()));
-
-        Optional<Gauge<Long>> lastUnsuccessfulRequestTimestamp =
-                Optional.ofNullable(findGauge(healthMetricRegistry,
-                        getLastRequestTimestampGaugeName(service, false)));
-        lastUnsuccessfulRequestTimestamp.ifPresent(
-                g -> serviceEvents.setLastUnsuccessfulRequestTimestamp(
-                        g.getValue()));
-
-        Optional<Gauge<String>> serviceType =
-                Optional.ofNullable(findGauge(healthMetricRegistry, getServiceTypeName(service)));
-        serviceType.ifPresent(g -> serviceEvents.setServiceType(g.getValue()));
-
-        serviceEvents.setLastPeriodStatistics(buildLastPeriodStats(service));
+        serviceEvents.setLastSuccessfulRequestTimestamp(
+                rollup.getLastSuccessfulRequestTs());
+        serviceEvents.setLastUnsuccessfulRequestTimestamp(
+                rollup.getLastUnsuccessfulRequestTs());
+        serviceEvents.setServiceType(rollup.getServiceType());
+        serviceEvents.setLastPeriodStatistics(buildLastPeriodStats(rollup));
 
         return serviceEvents;
     }
 
-    private LastPeriodStatisticsType buildLastPeriodStats(ServiceId service) {
+    private static LastPeriodStatisticsType buildLastPeriodStats(
+            OperationalDataRollup rollup) {
         LastPeriodStatisticsType lastPeriodStats =
                 OBJECT_FACTORY.createLastPeriodStatisticsType();
 
-        lastPeriodStats.setSuccessfulRequestCount(0);
-        Optional<Counter> successfulEventCount =
-                Optional.ofNullable(findCounter(healthMetricRegistry,
-                        getRequestCounterName(service, true)));
-        successfulEventCount.ifPresent(
-                c -> lastPeriodStats.setSuccessfulRequestCount(
-                        (int) c.getCount()));
-
-        lastPeriodStats.setUnsuccessfulRequestCount(0);
-        Optional<Counter> unsuccessfulEventCount =
-                Optional.ofNullable(findCounter(healthMetricRegistry,
-                        getRequestCounterName(service, false)));
-        unsuccessfulEventCount.ifPresent(
-                c -> lastPeriodStats.setUnsuccessfulRequestCount(
-                        (int) c.getCount()));
+        lastPeriodStats.setSuccessfulRequestCount(
+                (int) rollup.getSuccessfulRequestCount());
+        lastPeriodStats.setUnsuccessfulRequestCount(
+                (int) rollup.getUnsuccessfulRequestCount());
 
         if (lastPeriodStats.getSuccessfulRequestCount() > 0) {
-            Optional<Histogram> requestDuration =
-                    Optional.ofNullable(findHistogram(healthMetricRegistry,
-                            getRequestDurationName(service)));
-            requestDuration.ifPresent(h -> {
-                lastPeriodStats.setRequestMinDuration(h.getSnapshot().getMin());
-                lastPeriodStats.setRequestAverageDuration(
-                        h.getSnapshot().getMean());
-                lastPeriodStats.setRequestMaxDuration(h.getSnapshot().getMax());
-                lastPeriodStats.setRequestDurationStdDev(
-                        h.getSnapshot().getStdDev());
-            });
-
-            Optional<Histogram> requestSize =
-                    Optional.ofNullable(findHistogram(healthMetricRegistry,
-                            getRequestSizeName(service)));
-            requestSize.ifPresent(h -> {
-                lastPeriodStats.setRequestMinSize(h.getSnapshot().getMin());
-                lastPeriodStats.setRequestAverageSize(
-                        h.getSnapshot().getMean());
-                lastPeriodStats.setRequestMaxSize(h.getSnapshot().getMax());
-                lastPeriodStats.setRequestSizeStdDev(
-                        h.getSnapshot().getStdDev());
-            });
-
-            Optional<Histogram> responseSize =
-                    Optional.ofNullable(findHistogram(healthMetricRegistry,
-                            getResponseSizeName(service)));
-            responseSize.ifPresent(h -> {
-                lastPeriodStats.setResponseMinSize(h.getSnapshot().getMin());
-                lastPeriodStats.setResponseAverageSize(
-                        h.getSnapshot().getMean());
-                lastPeriodStats.setResponseMaxSize(h.getSnapshot().getMax());
-                lastPeriodStats.setResponseSizeStdDev(
-                        h.getSnapshot().getStdDev());
-            });
+            Statistics duration = rollup.getDuration();
+            lastPeriodStats.setRequestMinDuration(duration.getMin());
+            lastPeriodStats.setRequestAverageDuration(duration.getMean());
+            lastPeriodStats.setRequestMaxDuration(duration.getMax());
+            lastPeriodStats.setRequestDurationStdDev(duration.getStdDev());
+
+            Statistics requestSize = rollup.getRequestSize();
+            lastPeriodStats.setRequestMinSize(requestSize.getMin());
+            lastPeriodStats.setRequestAverageSize(requestSize.getMean());
+            lastPeriodStats.setRequestMaxSize(requestSize.getMax());
+            lastPeriodStats.setRequestSizeStdDev(requestSize.getStdDev());
+
+            Statistics responseSize = rollup.getResponseSize();
+            lastPeriodStats.setResponseMinSize(responseSize.getMin());
+            lastPeriodStats.setResponseAverageSize(responseSize.getMean());
+            lastPeriodStats.setResponseMaxSize(responseSize.getMax());
+            lastPeriodStats.setResponseSizeStdDev(responseSize.getStdDev());
         }
 
         return lastPeriodStats;
     }
-
-    private static String extractIdentifier(Entry<String, Metric> metric) {
-        String serviceName = null;
-        String metricName = metric.getKey();
-
-        if (metricName.contains("(")) {
-            serviceName = metricName.substring(metricName.indexOf('(') + 1,
-                    metricName.lastIndexOf(')'));
-        }
-
-        return serviceName;
-    }
-
-    private static ServiceId convertIdentifier(String id) {
-        // Construct a valid service identifier so we can compare it's
-        // provider to the optionally provided exchange partner's client ID
-        String[] idParts = id.split(IDENTIFIER_SEPARATOR,
-                SERVICE_ID_NUM_PARTS);
-
-        for (int i = 0; i < idParts.length; i++) {
-            idParts[i] = StringEscapeUtils.unescapeHtml4(idParts[i]);
-
-            if (StringUtils.isBlank(idParts[i])) {
-                idParts[i] = null;
-            }
-        }
-
-        return idParts.length > SERVICE_ID_NUM_PARTS - 1
-                ? ServiceId.create(idParts[0], idParts[1], idParts[2],
-                        idParts[SERVICE_ID_SUBSYSTEM_PART],
-                        idParts[SERVICE_ID_CODE_PART],
-                        idParts[SERVICE_ID_VERSION_PART])
-                : ServiceId.create(idParts[0], idParts[1], idParts[2],
-                        idParts[SERVICE_ID_SUBSYSTEM_PART],
-                        idParts[SERVICE_ID_CODE_PART]);
-    }
 }
@@ -77,7 +77,7 @@ final class OpMonitorDaemonDatabaseCtx {
         public boolean onFlushDirty(Object entity, Serializable id,
                 Object[] currentState, Object[] previousState,
                 String[] propertyNames, Type[] types) {
-            if (entity instanceof OperationalDataRecord) {
+            if (entity instanceof OperationalDataRecord || entity instanceof OperationalDataRollup) {
                 truncateStringProperties(currentState, propertyNames, types);
                 return true;
             }
@@ -88,7 +88,7 @@ final class OpMonitorDaemonDatabaseCtx {
         @Override
         public boolean onSave(Object entity, Serializable id, Object[] state,
                 String[] propertyNames, Type[] types) {
-            if (entity instanceof OperationalDataRecord) {
+            if (entity instanceof OperationalDataRecord || entity instanceof OperationalDataRollup) {
                 truncateStringProperties(state, propertyNames, types);
                 return true;
             }
@@ -0,0 +1,119 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Represents an aggregated record in the payload of the request getSecurityServerOperationalData when an
+ * aggregation is requested. The field names of the statistics follow the health data.
+ */
+@Getter
+@ToString
+@SuppressWarnings("checkstyle:magicnumber")
+class OperationalDataAggregate {
+
+    // The Unix timestamp (in seconds) of the beginning and the length
+    // (in seconds) of the time bucket of the aggregate.
+    private final long bucketStart;
+    private final int bucketSeconds;
+
+    private final String securityServerType;
+
+    private final String clientXRoadInstance;
+    private final String clientMemberClass;
+    private final String clientMemberCode;
+    private final String clientSubsystemCode;
+
+    private final String serviceXRoadInstance;
+    private final String serviceMemberClass;
+    private final String serviceMemberCode;
+    private final String serviceSubsystemCode;
+    private final String serviceCode;
+    private final String serviceVersion;
+    private final String serviceType;
+
+    private final long successfulRequestCount;
+    private final long unsuccessfulRequestCount;
+
+    // The statistics of the successful requests.
+    private final Long requestMinDuration;
+    private final Double requestAverageDuration;
+    private final Long requestMaxDuration;
+    private final Double requestDurationStdDev;
+    private final Long requestDurationMedian;
+    private final Long requestDuration95thPercentile;
+    private final Long requestDuration99thPercentile;
+
+    private final Long requestMinSize;
+    private final Double requestAverageSize;
+    private final Long requestMaxSize;
+
+    private final Long responseMinSize;
+    private final Double responseAverageSize;
+    private final Long responseMaxSize;
+
+    OperationalDataAggregate(OperationalDataRollup rollup) {
+        bucketStart = rollup.getBucketStart();
+        bucketSeconds = rollup.getBucketSeconds();
+        securityServerType = rollup.getSecurityServerType();
+
+        clientXRoadInstance = rollup.getClientXRoadInstance();
+        clientMemberClass = rollup.getClientMemberClass();
+        clientMemberCode = rollup.getClientMemberCode();
+        clientSubsystemCode = rollup.getClientSubsystemCode();
+
+        serviceXRoadInstance = rollup.getServiceXRoadInstance();
+        serviceMemberClass = rollup.getServiceMemberClass();
+        serviceMemberCode = rollup.getServiceMemberCode();
+        serviceSubsystemCode = rollup.getServiceSubsystemCode();
+        serviceCode = rollup.getServiceCode();
+        serviceVersion = rollup.getServiceVersion();
+        serviceType = rollup.getServiceType();
+
+        successfulRequestCount = rollup.getSuccessfulRequestCount();
+        unsuccessfulRequestCount = rollup.getUnsuccessfulRequestCount();
+
+        DurationSketch sketch = DurationSketch.fromBytes(rollup.getDurationSketch());
+
+        requestMinDuration = rollup.getDuration().getMin();
+        requestAverageDuration = rollup.getDuration().getMean();
+        requestMaxDuration = rollup.getDuration().getMax();
+        requestDurationStdDev = rollup.getDuration().getStdDev();
+        requestDurationMedian = sketch.getQuantile(0.5);
+        requestDuration95thPercentile = sketch.getQuantile(0.95);
+        requestDuration99thPercentile = sketch.getQuantile(0.99);
+
+        requestMinSize = rollup.getRequestSize().getMin();
+        requestAverageSize = rollup.getRequestSize().getMean();
+        requestMaxSize = rollup.getRequestSize().getMax();
+
+        responseMinSize = rollup.getResponseSize().getMin();
+        responseAverageSize = rollup.getResponseSize().getMean();
+        responseMaxSize = rollup.getResponseSize().getMax();
+    }
+}
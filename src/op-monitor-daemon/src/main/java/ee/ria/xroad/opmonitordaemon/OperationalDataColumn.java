@@ -0,0 +1,211 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import lombok.Getter;
+import org.apache.commons.lang3.StringUtils;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * The columns of the operational_data table with precomputed accessors of the corresponding
+ * OperationalDataRecord properties. Used for writing the records with plain JDBC and for mapping
+ * the rows of record queries without reflection, so that the mapping must be kept in line with
+ * op-monitor.hbm.xml.
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+enum OperationalDataColumn {
+
+    ID("id", "id", Types.BIGINT, OperationalDataRecord::getId, (r, v) -> r.setId((Long) v)),
+    MONITORING_DATA_TS("monitoringDataTs", "monitoring_data_ts", Types.BIGINT,
+            OperationalDataRecord::getMonitoringDataTs, (r, v) -> r.setMonitoringDataTs((Long) v)),
+    SECURITY_SERVER_INTERNAL_IP("securityServerInternalIp", "security_server_internal_ip", Types.VARCHAR,
+            OperationalDataRecord::getSecurityServerInternalIp, (r, v) -> r.setSecurityServerInternalIp((String) v)),
+    SECURITY_SERVER_TYPE("securityServerType", "security_server_type", Types.VARCHAR,
+            r -> r.getSecurityServerType() == null ? null : r.getSecurityServerType().getTypeString(),
+            (r, v) -> r.setSecurityServerType((String) v)),
+    REQUEST_IN_TS("requestInTs", "request_in_ts", Types.BIGINT,
+            OperationalDataRecord::getRequestInTs, (r, v) -> r.setRequestInTs((Long) v)),
+    REQUEST_OUT_TS("requestOutTs", "request_out_ts", Types.BIGINT,
+            OperationalDataRecord::getRequestOutTs, (r, v) -> r.setRequestOutTs((Long) v)),
+    RESPONSE_IN_TS("responseInTs", "response_in_ts", Types.BIGINT,
+            OperationalDataRecord::getResponseInTs, (r, v) -> r.setResponseInTs((Long) v)),
+    RESPONSE_OUT_TS("responseOutTs", "response_out_ts", Types.BIGINT,
+            OperationalDataRecord::getResponseOutTs, (r, v) -> r.setResponseOutTs((Long) v)),
+    CLIENT_XROAD_INSTANCE("clientXRoadInstance", "client_xroad_instance", Types.VARCHAR,
+            OperationalDataRecord::getClientXRoadInstance, (r, v) -> r.setClientXRoadInstance((String) v)),
+    CLIENT_MEMBER_CLASS("clientMemberClass", "client_member_class", Types.VARCHAR,
+            OperationalDataRecord::getClientMemberClass, (r, v) -> r.setClientMemberClass((String) v)),
+    CLIENT_MEMBER_CODE("clientMemberCode", "client_member_code", Types.VARCHAR,
+            OperationalDataRecord::getClientMemberCode, (r, v) -> r.setClientMemberCode((String) v)),
+    CLIENT_SUBSYSTEM_CODE("clientSubsystemCode", "client_subsystem_code", Types.VARCHAR,
+            OperationalDataRecord::getClientSubsystemCode, (r, v) -> r.setClientSubsystemCode((String) v)),
+    SERVICE_XROAD_INSTANCE("serviceXRoadInstance", "service_xroad_instance", Types.VARCHAR,
+            OperationalDataRecord::getServiceXRoadInstance, (r, v) -> r.setServiceXRoadInstance((String) v)),
+    SERVICE_MEMBER_CLASS("serviceMemberClass", "service_member_class", Types.VARCHAR,
+            OperationalDataRecord::getServiceMemberClass, (r, v) -> r.setServiceMemberClass((String) v)),
+    SERVICE_MEMBER_CODE("serviceMemberCode", "service_member_code", Types.VARCHAR,
+            OperationalDataRecord::getServiceMemberCode, (r, v) -> r.setServiceMemberCode((String) v)),
+    SERVICE_SUBSYSTEM_CODE("serviceSubsystemCode", "service_subsystem_code", Types.VARCHAR,
+            OperationalDataRecord::getServiceSubsystemCode, (r, v) -> r.setServiceSubsystemCode((String) v)),
+    SERVICE_CODE("serviceCode", "service_code", Types.VARCHAR,
+            OperationalDataRecord::getServiceCode, (r, v) -> r.setServiceCode((String) v)),
+    SERVICE_VERSION("serviceVersion", "service_version", Types.VARCHAR,
+            OperationalDataRecord::getServiceVersion, (r, v) -> r.setServiceVersion((String) v)),
+    REPRESENTED_PARTY_CLASS("representedPartyClass", "represented_party_class", Types.VARCHAR,
+            OperationalDataRecord::getRepresentedPartyClass, (r, v) -> r.setRepresentedPartyClass((String) v)),
+    REPRESENTED_PARTY_CODE("representedPartyCode", "represented_party_code", Types.VARCHAR,
+            OperationalDataRecord::getRepresentedPartyCode, (r, v) -> r.setRepresentedPartyCode((String) v)),
+    MESSAGE_ID("messageId", "message_id", Types.VARCHAR,
+            OperationalDataRecord::getMessageId, (r, v) -> r.setMessageId((String) v)),
+    MESSAGE_USER_ID("messageUserId", "message_user_id", Types.VARCHAR,
+            OperationalDataRecord::getMessageUserId, (r, v) -> r.setMessageUserId((String) v)),
+    MESSAGE_ISSUE("messageIssue", "message_issue", Types.VARCHAR,
+            OperationalDataRecord::getMessageIssue, (r, v) -> r.setMessageIssue((String) v)),
+    MESSAGE_PROTOCOL_VERSION("messageProtocolVersion", "message_protocol_version", Types.VARCHAR,
+            OperationalDataRecord::getMessageProtocolVersion, (r, v) -> r.setMessageProtocolVersion((String) v)),
+    CLIENT_SECURITY_SERVER_ADDRESS("clientSecurityServerAddress", "client_security_server_address", Types.VARCHAR,
+            OperationalDataRecord::getClientSecurityServerAddress,
+            (r, v) -> r.setClientSecurityServerAddress((String) v)),
+    SERVICE_SECURITY_SERVER_ADDRESS("serviceSecurityServerAddress", "service_security_server_address", Types.VARCHAR,
+            OperationalDataRecord::getServiceSecurityServerAddress,
+            (r, v) -> r.setServiceSecurityServerAddress((String) v)),
+    REQUEST_SIZE("requestSize", "request_size", Types.BIGINT,
+            OperationalDataRecord::getRequestSize, (r, v) -> r.setRequestSize((Long) v)),
+    REQUEST_MIME_SIZE("requestMimeSize", "request_mime_size", Types.BIGINT,
+            OperationalDataRecord::getRequestMimeSize, (r, v) -> r.setRequestMimeSize((Long) v)),
+    REQUEST_ATTACHMENT_COUNT("requestAttachmentCount", "request_attachment_count", Types.INTEGER,
+            OperationalDataRecord::getRequestAttachmentCount, (r, v) -> r.setRequestAttachmentCount((Integer) v)),
+    RESPONSE_SIZE("responseSize", "response_size", Types.BIGINT,
+            OperationalDataRecord::getResponseSize, (r, v) -> r.setResponseSize((Long) v)),
+    RESPONSE_MIME_SIZE("responseMimeSize", "response_mime_size", Types.BIGINT,
+            OperationalDataRecord::getResponseMimeSize, (r, v) -> r.setResponseMimeSize((Long) v)),
+    RESPONSE_ATTACHMENT_COUNT("responseAttachmentCount", "response_attachment_count", Types.INTEGER,
+            OperationalDataRecord::getResponseAttachmentCount, (r, v) -> r.setResponseAttachmentCount((Integer) v)),
+    SUCCEEDED("succeeded", "succeeded", Types.BOOLEAN,
+            OperationalDataRecord::getSucceeded, (r, v) -> r.setSucceeded((Boolean) v)),
+    FAULT_CODE("faultCode", "fault_code", Types.VARCHAR,
+            OperationalDataRecord::getFaultCode, (r, v) -> r.setFaultCode((String) v)),
+    FAULT_STRING("faultString", "fault_string", Types.VARCHAR, 2048,
+            OperationalDataRecord::getFaultString, (r, v) -> r.setFaultString((String) v)),
+    X_REQUEST_ID("xRequestId", "x_request_id", Types.VARCHAR,
+            OperationalDataRecord::getXRequestId, (r, v) -> r.setXRequestId((String) v)),
+    STATUS_CODE("statusCode", "status_code", Types.INTEGER,
+            OperationalDataRecord::getStatusCode, (r, v) -> r.setStatusCode((Integer) v)),
+    SERVICE_TYPE("serviceType", "service_type", Types.VARCHAR,
+            OperationalDataRecord::getServiceType, (r, v) -> r.setServiceType((String) v));
+
+    // The default length of Hibernate string columns.
+    private static final int DEFAULT_MAX_LENGTH = 255;
+
+    /**
+     * The insert statement covering all the columns in declaration order.
+     */
+    static final String INSERT_SQL = "INSERT INTO operational_data ("
+            + Arrays.stream(values()).map(OperationalDataColumn::getColumnName).collect(Collectors.joining(", "))
+            + ") VALUES ("
+            + Arrays.stream(values()).map(c -> "?").collect(Collectors.joining(", "))
+            + ")";
+
+    private static final Map<String, OperationalDataColumn> BY_PROPERTY_NAME = Arrays.stream(values())
+            .collect(Collectors.toMap(OperationalDataColumn::getPropertyName, Function.identity()));
+
+    @Getter
+    private final String propertyName;
+
+    @Getter
+    private final String columnName;
+
+    private final int sqlType;
+    private final int maxLength;
+    private final Function<OperationalDataRecord, Object> getter;
+    private final BiConsumer<OperationalDataRecord, Object> setter;
+
+    OperationalDataColumn(String propertyName, String columnName, int sqlType,
+            Function<OperationalDataRecord, Object> getter, BiConsumer<OperationalDataRecord, Object> setter) {
+        this(propertyName, columnName, sqlType, DEFAULT_MAX_LENGTH, getter, setter);
+    }
+
+    OperationalDataColumn(String propertyName, String columnName, int sqlType, int maxLength,
+            Function<OperationalDataRecord, Object> getter, BiConsumer<OperationalDataRecord, Object> setter) {
+        this.propertyName = propertyName;
+        this.columnName = columnName;
+        this.sqlType = sqlType;
+        this.maxLength = maxLength;
+        this.getter = getter;
+        this.setter = setter;
+    }
+
+    /**
+     * @param propertyName the name of an OperationalDataRecord property
+     * @return the column of the property or null if the property is not mapped
+     */
+    static OperationalDataColumn forProperty(String propertyName) {
+        return BY_PROPERTY_NAME.get(propertyName);
+    }
+
+    /**
+     * Sets the property of the column in the record.
+     * @param record the record
+     * @param value the value read from the column, of the Java type of its Hibernate mapping
+     */
+    void set(OperationalDataRecord record, Object value) {
+        setter.accept(record, value);
+    }
+
+    /**
+     * Binds all the columns of the record to the parameters of the insert statement. String values are
+     * truncated to the column length, in the same way as the Hibernate interceptor of the database context does.
+     * @param statement statement prepared from {@link #INSERT_SQL}
+     * @param record the record to bind
+     * @throws SQLException if binding fails
+     */
+    static void bind(PreparedStatement statement, OperationalDataRecord record) throws SQLException {
+        for (OperationalDataColumn column : values()) {
+            column.bindValue(statement, column.ordinal() + 1, record);
+        }
+    }
+
+    private void bindValue(PreparedStatement statement, int index, OperationalDataRecord record)
+            throws SQLException {
+        Object value = getter.apply(record);
+
+        if (value == null) {
+            statement.setNull(index, sqlType);
+        } else if (sqlType == Types.VARCHAR) {
+            statement.setString(index, StringUtils.substring((String) value, 0, maxLength));
+        } else {
+            statement.setObject(index, value, sqlType);
+        }
+    }
+}
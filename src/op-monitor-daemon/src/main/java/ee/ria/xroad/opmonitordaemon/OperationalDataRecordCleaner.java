@@ -44,7 +44,7 @@ import java.util.concurrent.TimeUnit;
 import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
 
 /**
- * Deletes outdated operational data records from the database.
+ * Deletes outdated operational data records and rollups from the database.
  */
 @Slf4j
 final class OperationalDataRecordCleaner extends UntypedAbstractActor {
@@ -86,8 +86,11 @@ final class OperationalDataRecordCleaner extends UntypedAbstractActor {
     }
 
     private static void handleCleanup() throws Exception {
-        cleanRecords(
-                Instant.now().minus(OpMonitoringSystemProperties.getOpMonitorKeepRecordsForDays(), ChronoUnit.DAYS));
+        Instant before = Instant.now().minus(OpMonitoringSystemProperties.getOpMonitorKeepRecordsForDays(),
+                ChronoUnit.DAYS);
+
+        cleanRecords(before);
+        cleanRollups(before);
     }
 
     static int cleanRecords(Instant before) throws Exception {
@@ -112,6 +115,16 @@ final class OperationalDataRecordCleaner extends UntypedAbstractActor {
         });
     }
 
+    static int cleanRollups(Instant before) throws Exception {
+        log.trace("cleanRollups({})", before);
+
+        int removed = OperationalDataRollupManager.cleanRollups(before.getEpochSecond());
+
+        log.info("Removed {} outdated operational data rollups from the database", removed);
+
+        return removed;
+    }
+
     private static void registerCronJob(JobManager jobManager,
             ActorSystem actorSystem, Object message, String cronExpression) {
         ActorSelection actor = actorSystem.actorSelection(
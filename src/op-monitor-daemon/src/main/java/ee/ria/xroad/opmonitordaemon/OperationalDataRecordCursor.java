@@ -0,0 +1,131 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import ee.ria.xroad.common.identifier.ClientId;
+
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataOutputSpecFields.MONITORING_DATA_TS;
+
+/**
+ * Reads the operational data records of a query page by page. The pages are read with keyset pagination on
+ * (monitoringDataTs, id), each in its own transaction, so that the records of the query are never held in
+ * memory at once and no page depends on an offset. The records of the query are committed before the
+ * cursor is created (see the records available timestamp offset), so the pages are stable.
+ * @see OperationalDataRecordManager#openRecords
+ */
+final class OperationalDataRecordCursor {
+
+    private final long recordsFrom;
+    private final long recordsTo;
+    private final ClientId clientFilter;
+    private final ClientId serviceProviderFilter;
+    private final Set<String> outputFields;
+    private final int pageSize;
+
+    /**
+     * The number of records in the query.
+     */
+    @Getter
+    private final int count;
+
+    /**
+     * Indicates queried records overflow if not null.
+     */
+    @Getter
+    private final Long nextRecordsFrom;
+
+    private Long lastMonitoringDataTs;
+    private Long lastId;
+    private boolean finished;
+
+    OperationalDataRecordCursor(long recordsFrom, long recordsTo, ClientId clientFilter,
+            ClientId serviceProviderFilter, Set<String> outputFields, int pageSize, int count,
+            Long nextRecordsFrom) {
+        this.recordsFrom = recordsFrom;
+        this.recordsTo = recordsTo;
+        this.clientFilter = clientFilter;
+        this.serviceProviderFilter = serviceProviderFilter;
+        this.outputFields = outputFields;
+        this.pageSize = pageSize;
+        this.count = count;
+        this.nextRecordsFrom = nextRecordsFrom;
+
+        finished = count == 0;
+    }
+
+    /**
+     * @return the next page of records or an empty list if all the records have been read
+     * @throws Exception if an error occurs
+     */
+    List<OperationalDataRecord> nextPage() throws Exception {
+        if (finished) {
+            return Collections.emptyList();
+        }
+
+        List<OperationalDataRecord> page = doInTransaction(session -> {
+            OperationalDataRecordQuery query =
+                    new OperationalDataRecordQuery(session, clientFilter, serviceProviderFilter, outputFields);
+            query.between(recordsFrom, recordsTo);
+
+            if (lastId != null) {
+                query.after(lastMonitoringDataTs, lastId);
+            }
+
+            query.setMaxRecords(pageSize);
+
+            return query.list();
+        });
+
+        finished = page.size() < pageSize;
+
+        if (!page.isEmpty()) {
+            OperationalDataRecord last = page.get(page.size() - 1);
+
+            lastMonitoringDataTs = last.getMonitoringDataTs();
+            lastId = last.getId();
+        }
+
+        // The key is not a part of the requested output.
+        boolean removeMonitoringDataTs = !outputFields.isEmpty() && !outputFields.contains(MONITORING_DATA_TS);
+
+        for (OperationalDataRecord record : page) {
+            record.setId(null);
+
+            if (removeMonitoringDataTs) {
+                record.setMonitoringDataTs(null);
+            }
+        }
+
+        return page;
+    }
+}
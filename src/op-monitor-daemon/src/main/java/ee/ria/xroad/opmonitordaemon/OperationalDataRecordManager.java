@@ -32,12 +32,21 @@ import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.hibernate.Session;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
 import org.hibernate.query.Query;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
 import static ee.ria.xroad.opmonitordaemon.OperationalDataOutputSpecFields.MONITORING_DATA_TS;
@@ -50,17 +59,52 @@ import static ee.ria.xroad.opmonitordaemon.OperationalDataOutputSpecFields.MONIT
 final class OperationalDataRecordManager {
 
     private static final int DEFAULT_BATCH_SIZE = 50;
+    private static final int DEFAULT_QUERY_PAGE_SIZE = 1000;
 
     @Setter
     private static int maxRecordsInPayload = OpMonitoringSystemProperties.getOpMonitorMaxRecordsInPayload();
 
+    // The number of records read at a time when records are queried.
+    @Setter
+    private static int queryPageSize = DEFAULT_QUERY_PAGE_SIZE;
+
     private static int configuredBatchSize = 0;
 
     private OperationalDataRecordManager() {
     }
 
     static void storeRecords(List<OperationalDataRecord> records, long timestamp) throws Exception {
-        doInTransaction(session -> storeInTransaction(session, records, timestamp));
+        Iterator<OperationalDataRecord> iterator = records.iterator();
+
+        storeRecords(() -> iterator.hasNext() ? iterator.next() : null, timestamp, batch -> { });
+    }
+
+    /**
+     * Stores the records in a single transaction using JDBC batch inserts of the configured Hibernate batch size.
+     * The records are pulled from the source one at a time, so at most one batch of records is held in memory.
+     * The minute and hour rollups of the records are updated in the same transaction.
+     * @param records       source of the records, returns null when there are no more records
+     * @param timestamp     the monitoring data timestamp of the records
+     * @param storedBatches called with each batch of records after it has been written, but before the
+     *                      transaction is committed
+     * @return the number of stored records
+     * @throws Exception if an error occurs
+     */
+    static int storeRecords(Supplier<OperationalDataRecord> records, long timestamp,
+            Consumer<List<OperationalDataRecord>> storedBatches) throws Exception {
+        return doInTransaction(session -> {
+            OperationalDataRollups rollups = new OperationalDataRollups();
+
+            int storedCount = session.doReturningWork(connection -> storeInTransaction(session, connection, records,
+                    timestamp, batch -> {
+                        rollups.add(batch);
+                        storedBatches.accept(batch);
+                    }));
+
+            rollups.store(session);
+
+            return storedCount;
+        });
     }
 
     static OperationalDataRecords queryAllRecords() throws Exception {
@@ -78,29 +122,114 @@ final class OperationalDataRecordManager {
 
     static OperationalDataRecords queryRecords(long recordsFrom, long recordsTo, ClientId clientFilter,
             ClientId serviceProviderFilter, Set<String> outputFields) throws Exception {
-        OperationalDataRecords records = doInTransaction(session -> queryOperationalDataInTransaction(session,
-                recordsFrom, recordsTo, clientFilter, serviceProviderFilter, outputFields));
+        OperationalDataRecordCursor cursor = openRecords(recordsFrom, recordsTo, clientFilter,
+                serviceProviderFilter, outputFields);
+        List<OperationalDataRecord> records = new ArrayList<>(cursor.getCount());
+
+        for (List<OperationalDataRecord> page = cursor.nextPage(); !page.isEmpty(); page = cursor.nextPage()) {
+            records.addAll(page);
+        }
 
-        removeMonitoringDataTsIfNotSpecified(records, outputFields);
+        OperationalDataRecords result = new OperationalDataRecords(records);
+        result.setNextRecordsFrom(cursor.getNextRecordsFrom());
 
-        return records;
+        return result;
     }
 
-    private static Void storeInTransaction(Session session, List<OperationalDataRecord> records, long timestamp) {
-        int storedCount = 0;
+    /**
+     * Opens a cursor over the operational data records matching the search criteria parameters. The number of
+     * records is limited by the configured value maxRecordsInPayload plus overflow records with the same
+     * monitoringDataTs timestamp as the last included record. The bounds and the number of the records are
+     * determined here, the records themselves are read page by page from the returned cursor.
+     * @param recordsFrom           records from timestamp seconds
+     * @param recordsTo             records to timestamp seconds
+     * @param clientFilter          filter records by client (if not null)
+     * @param serviceProviderFilter filter records by service provider (if not null)
+     * @param outputFields          list of the requested operational data field
+     * @return cursor over the operational data records
+     * @throws Exception if an error occurs
+     */
+    static OperationalDataRecordCursor openRecords(long recordsFrom, long recordsTo, ClientId clientFilter,
+            ClientId serviceProviderFilter, Set<String> outputFields) throws Exception {
+        return doInTransaction(session -> {
+            final OperationalDataRecordQuery query =
+                    new OperationalDataRecordQuery(session, clientFilter, serviceProviderFilter, outputFields);
+            query.between(recordsFrom, recordsTo);
+
+            // The monitoringDataTs of the last record that fits in the payload.
+            Long lastMonitoringDataTs = query.getMonitoringDataTs(maxRecordsInPayload - 1);
+
+            long includedTo = recordsTo;
+            Long nextRecordsFrom = null;
+
+            // Check overflow.
+            if (lastMonitoringDataTs != null) {
+                log.trace("Check possible records overflow");
+
+                includedTo = lastMonitoringDataTs;
+
+                if (recordsOverflow(session, lastMonitoringDataTs, recordsTo, clientFilter,
+                        serviceProviderFilter)) {
+                    log.debug("Records overflow, set nextRecordsFrom to {}", lastMonitoringDataTs + 1);
+
+                    nextRecordsFrom = lastMonitoringDataTs + 1;
+                }
+            }
+
+            final OperationalDataRecordQuery included =
+                    new OperationalDataRecordQuery(session, clientFilter, serviceProviderFilter, outputFields);
+            included.between(recordsFrom, includedTo);
+            int count = included.count();
+
+            return new OperationalDataRecordCursor(recordsFrom, includedTo, clientFilter, serviceProviderFilter,
+                    outputFields, queryPageSize, count, nextRecordsFrom);
+        });
+    }
+
+    private static int storeInTransaction(Session session, Connection connection,
+            Supplier<OperationalDataRecord> records, long timestamp,
+            Consumer<List<OperationalDataRecord>> storedBatches) throws SQLException {
+        SharedSessionContractImplementor sessionImpl = (SharedSessionContractImplementor) session;
+        IdentifierGenerator idGenerator = sessionImpl.getFactory().getMetamodel()
+                .entityPersister(OperationalDataRecord.class).getIdentifierGenerator();
+
         int batchSize = getConfiguredBatchSize(session);
+        List<OperationalDataRecord> batch = new ArrayList<>(batchSize);
+        int storedCount = 0;
 
-        for (OperationalDataRecord record : records) {
-            record.setMonitoringDataTs(timestamp);
-            session.save(record);
+        try (PreparedStatement statement = connection.prepareStatement(OperationalDataColumn.INSERT_SQL)) {
+            OperationalDataRecord record;
+
+            while ((record = records.get()) != null) {
+                record.setMonitoringDataTs(timestamp);
+                record.setId((Long) idGenerator.generate(sessionImpl, record));
+
+                OperationalDataColumn.bind(statement, record);
+                statement.addBatch();
+                batch.add(record);
+
+                if (batch.size() == batchSize) {
+                    storedCount += executeBatch(statement, batch, storedBatches);
+                }
+            }
 
-            if (++storedCount % batchSize == 0) {
-                session.flush();
-                session.clear();
+            if (!batch.isEmpty()) {
+                storedCount += executeBatch(statement, batch, storedBatches);
             }
         }
 
-        return null;
+        return storedCount;
+    }
+
+    private static int executeBatch(PreparedStatement statement, List<OperationalDataRecord> batch,
+            Consumer<List<OperationalDataRecord>> storedBatches) throws SQLException {
+        int size = batch.size();
+
+        statement.executeBatch();
+        storedBatches.accept(batch);
+        batch.clear();
+
+        return size;
     }
 
     private static int getConfiguredBatchSize(Session session) {
@@ -118,58 +247,6 @@ final class OperationalDataRecordManager {
         return new OperationalDataRecords(query.getResultList());
     }
 
-    /**
-     * Queries operational data records from the database using search criteria parameters. The number of returned
-     * records is limited by the configured value maxRecordsInPayload plus overflow records with the same
-     * monitorindDataTs timestamp as the last included record.
-     * @param session               database session
-     * @param recordsFrom           records from timestamp seconds
-     * @param recordsTo             records to timestamp seconds
-     * @param clientFilter          filter records by client (if not null)
-     * @param serviceProviderFilter filter records by service provider (if not null)
-     * @param outputFields          list of the requested operational data field
-     * @return operational data records.
-     */
-    @SuppressWarnings("unchecked")
-    private static OperationalDataRecords queryOperationalDataInTransaction(Session session, long recordsFrom,
-            long recordsTo, ClientId clientFilter, ClientId serviceProviderFilter, Set<String> outputFields) {
-
-        final OperationalDataRecordQuery
-                query = new OperationalDataRecordQuery(session, clientFilter, serviceProviderFilter, outputFields);
-        query.between(recordsFrom, recordsTo);
-        query.orderByAsc(MONITORING_DATA_TS);
-        query.setMaxRecords(maxRecordsInPayload);
-        OperationalDataRecords records = new OperationalDataRecords(query.list());
-
-        // Check overflow.
-        if (records.size() == maxRecordsInPayload) {
-            log.trace("Check possible records overflow");
-
-            long lastMonitoringDataTs = records.getLastMonitoringDataTs();
-            final OperationalDataRecordQuery overflow =
-                    new OperationalDataRecordQuery(session, clientFilter, serviceProviderFilter, outputFields);
-            overflow.addOverflowCriteria(lastMonitoringDataTs);
-            OperationalDataRecords overflowRecords = new OperationalDataRecords(overflow.list());
-
-            records.removeRecordsByMonitoringDataTs(lastMonitoringDataTs);
-            records.append(overflowRecords);
-
-            if (recordsOverflow(session, lastMonitoringDataTs, recordsTo, clientFilter, serviceProviderFilter)) {
-                log.debug("Records overflow, set nextRecordsFrom to {}", lastMonitoringDataTs + 1);
-
-                records.setNextRecordsFrom(lastMonitoringDataTs + 1);
-            }
-        }
-
-        return records;
-    }
-
-    private static void removeMonitoringDataTsIfNotSpecified(OperationalDataRecords records, Set<String> outputFields) {
-        if (!outputFields.isEmpty() && !outputFields.contains(MONITORING_DATA_TS)) {
-            records.getRecords().forEach(i -> i.setMonitoringDataTs(null));
-        }
-    }
-
     private static boolean recordsOverflow(Session session, long lastMonitoringDataTs, long recordsTo,
             ClientId clientFilter, ClientId serviceProviderFilter) {
         // Indicate overflow only if some records are not included.
@@ -188,8 +265,7 @@ final class OperationalDataRecordManager {
                         Collections.singleton(MONITORING_DATA_TS));
         // BETWEEN treats the endpoint values as included in the range.
         query.between(lastMonitoringDataTs + 1, recordsTo);
-        query.setMaxRecords(1);
 
-        return query.list().size() > 0;
+        return query.getMonitoringDataTs(0) != null;
     }
 }
@@ -28,7 +28,6 @@ package ee.ria.xroad.opmonitordaemon;
 import ee.ria.xroad.common.identifier.ClientId;
 
 import lombok.Setter;
-import org.apache.commons.lang3.StringUtils;
 import org.hibernate.Session;
 
 import javax.persistence.Tuple;
@@ -39,14 +38,9 @@ import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 import javax.persistence.criteria.Selection;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import static ee.ria.xroad.common.opmonitoring.OpMonitoringData.CLIENT_MEMBER_CLASS;
@@ -65,6 +59,8 @@ import static ee.ria.xroad.opmonitordaemon.OperationalDataOutputSpecFields.PUBLI
 @SuppressWarnings("checkstyle:magicnumber")
 final class OperationalDataRecordQuery {
 
+    private static final String ID = "id";
+
     private final CriteriaBuilder cb;
     private final CriteriaQuery<Tuple> query;
     private final Root<OperationalDataRecord> from;
@@ -75,7 +71,6 @@ final class OperationalDataRecordQuery {
 
     private Predicate pred;
     private List<Selection<?>> projection = new ArrayList<>();
-    private javax.persistence.criteria.Order order = null;
 
     OperationalDataRecordQuery(Session session, ClientId clientFilter, ClientId serviceProviderFilter,
             Set<String> outputFields) {
@@ -87,6 +82,9 @@ final class OperationalDataRecordQuery {
 
         configureOutputFields(clientFilter != null, outputFields);
         configureClientAndServiceProviderFilters(clientFilter, serviceProviderFilter);
+
+        // The key of the records is needed for reading the next page.
+        projection.add(from.get(ID).alias(ID));
     }
 
     /**
@@ -151,37 +149,66 @@ final class OperationalDataRecordQuery {
                                 member.getSubsystemCode()));
     }
 
-    void addOverflowCriteria(long monitoringDataTs) {
-        pred = cb.and(pred, cb.equal(from.get(MONITORING_DATA_TS), monitoringDataTs));
+    void between(long fromTs, long toTs) {
+        pred = cb.and(pred, cb.between(from.get(MONITORING_DATA_TS), fromTs, toTs));
+    }
+
+    /**
+     * Restricts the query to the records that follow the given record in the order of the key
+     * (monitoringDataTs, id), so that a page of records can be read without an offset.
+     */
+    void after(long monitoringDataTs, long id) {
+        pred = cb.and(pred, cb.or(cb.greaterThan(from.get(MONITORING_DATA_TS), monitoringDataTs),
+                cb.and(cb.equal(from.get(MONITORING_DATA_TS), monitoringDataTs), cb.greaterThan(from.get(ID), id))));
     }
 
+    /**
+     * @return the records in the order of the key (monitoringDataTs, id), with the id and monitoringDataTs
+     * properties set in addition to the projected output fields
+     */
     List<OperationalDataRecord> list() {
-        query.multiselect(projection).where(pred);
-        if (order != null) {
-            query.orderBy(order);
-        }
+        query.multiselect(projection).where(pred).orderBy(cb.asc(from.get(MONITORING_DATA_TS)), cb.asc(from.get(ID)));
+
         return transform(session.createQuery(query)
                 .setReadOnly(true)
                 .setMaxResults(maxRecords)
                 .getResultList());
     }
 
-    void between(long fromTs, long toTs) {
-        pred = cb.and(pred, cb.between(from.get(MONITORING_DATA_TS), fromTs, toTs));
+    /**
+     * @param position the zero-based position of a record in the order of the key (monitoringDataTs, id)
+     * @return the monitoringDataTs of the record or null if there are not as many records
+     */
+    Long getMonitoringDataTs(int position) {
+        query.multiselect(from.get(MONITORING_DATA_TS)).where(pred)
+                .orderBy(cb.asc(from.get(MONITORING_DATA_TS)), cb.asc(from.get(ID)));
+
+        List<Tuple> result = session.createQuery(query)
+                .setReadOnly(true)
+                .setFirstResult(position)
+                .setMaxResults(1)
+                .getResultList();
+
+        return result.isEmpty() ? null : result.get(0).get(0, Long.class);
     }
 
-    void orderByAsc(String field) {
-        order = cb.asc(from.get(field));
+    /**
+     * @return the number of records
+     */
+    int count() {
+        query.multiselect(cb.count(from)).where(pred);
+
+        return session.createQuery(query).getSingleResult().get(0, Long.class).intValue();
     }
 
     /**
      * Transforms a list of Tuple to list of OperationalDataRecord
      *
-     * A tuple represents a partial OperationalDataRecord. Assumes that the column aliases in a tuple match the field
-     * names and a setter for the field exists (uses reflection). Assumes that the values can
-     * be directly assigned (no recursive tranformation).
+     * A tuple represents a partial OperationalDataRecord. Assumes that the column aliases in a tuple match the
+     * property names of the operational data columns, whose precomputed setters are used for assigning the
+     * values directly (no recursive transformation).
      * @see #configureOutputFields
-     * @see OperationalDataRecord
+     * @see OperationalDataColumn
      */
     private static List<OperationalDataRecord> transform(List<Tuple> result) {
         List<OperationalDataRecord> tmp = new ArrayList<>(result.size());
@@ -189,39 +216,13 @@ final class OperationalDataRecordQuery {
         for (Tuple t : result) {
             final OperationalDataRecord record = new OperationalDataRecord();
             for (TupleElement<?> te : t.getElements()) {
-                final Method method = SETTERS.get(te.getAlias());
-                if (method != null) {
-                    try {
-                        method.invoke(record, t.get(te));
-                    } catch (InvocationTargetException | IllegalAccessException e) {
-                        throw new IllegalArgumentException("Unable to transform", e);
-                    }
+                final OperationalDataColumn column = OperationalDataColumn.forProperty(te.getAlias());
+                if (column != null) {
+                    column.set(record, t.get(te));
                 }
             }
             tmp.add(record);
         }
         return tmp;
     }
-
-    /*
-     * Optimizes reflective transform by precomputing the setter methods of the
-     * target class (OperationalDataRecord)
-     */
-    private static final Map<String, Method> SETTERS;
-
-    static {
-        final HashMap<String, Method> tmp = new HashMap<>();
-        try {
-            for (Method method : OperationalDataRecord.class.getMethods()) {
-                if (method.getParameterCount() == 1
-                        && method.getName().startsWith("set")
-                        && method.getReturnType().equals(Void.TYPE)) {
-                    tmp.put(StringUtils.uncapitalize(method.getName().substring(3)), method);
-                }
-            }
-        } catch (Exception e) {
-            throw new IllegalStateException(e);
-        }
-        SETTERS = Collections.unmodifiableMap(tmp);
-    }
 }
@@ -0,0 +1,136 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The gzip compressed JSON payload of the request getSecurityServerOperationalData, in the same format as
+ * {@link OperationalDataRecords#getPayload}. The payload is produced from the records of a cursor one page at a
+ * time as the stream is read, so the response can be sent while the records are still being queried and only one
+ * page of records is held in memory.
+ */
+class OperationalDataRecordsInputStream extends InputStream {
+
+    private final OperationalDataRecordCursor cursor;
+    private final Gson gson;
+
+    // Receives the compressed output of the writer, one page at a time.
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    private final JsonWriter writer;
+
+    private byte[] buffer = new byte[0];
+    private int position;
+    private boolean finished;
+
+    OperationalDataRecordsInputStream(OperationalDataRecordCursor cursor, Gson gson) throws IOException {
+        this.cursor = cursor;
+        this.gson = gson;
+
+        writer = gson.newJsonWriter(new OutputStreamWriter(new GZIPOutputStream(compressed),
+                StandardCharsets.UTF_8));
+        writer.beginObject().name("records").beginArray();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+
+        return buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (!fill()) {
+            return -1;
+        }
+
+        int count = Math.min(len, buffer.length - position);
+        System.arraycopy(buffer, position, b, off, count);
+        position += count;
+
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return buffer.length - position;
+    }
+
+    private boolean fill() throws IOException {
+        // The compressor may hold back the output of a page, so more than one page can be needed.
+        while (position == buffer.length) {
+            if (finished) {
+                return false;
+            }
+
+            writeNextPage();
+
+            buffer = compressed.toByteArray();
+            position = 0;
+            compressed.reset();
+        }
+
+        return true;
+    }
+
+    private void writeNextPage() throws IOException {
+        List<OperationalDataRecord> page;
+
+        try {
+            page = cursor.nextPage();
+        } catch (Exception e) {
+            throw new IOException("Failed to read operational data records", e);
+        }
+
+        if (page.isEmpty()) {
+            // Closing writes the end of the compressed stream.
+            writer.endArray().endObject().close();
+            finished = true;
+        } else {
+            for (OperationalDataRecord record : page) {
+                gson.toJson(record, OperationalDataRecord.class, writer);
+            }
+
+            writer.flush();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import ee.ria.xroad.common.util.JsonUtils;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the records of a store operational data request (see store_operational_data_request_schema.yaml)
+ * one at a time from a stream, without reading the whole request into memory.
+ */
+class OperationalDataRecordsReader implements Closeable {
+
+    private static final Gson GSON = JsonUtils.getSerializer();
+
+    private static final String RECORDS = "records";
+
+    private static final String NO_DATA = "No data was found in the request to store data";
+    private static final String INVALID_REQUEST = "Received invalid request";
+
+    private final JsonReader reader;
+
+    private boolean started;
+    private boolean inRecords;
+    private boolean finished;
+
+    OperationalDataRecordsReader(InputStream in) {
+        reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        reader.setLenient(true);
+    }
+
+    /**
+     * @return the next record of the request or null if there are no more records
+     * @throws IllegalArgumentException if the request is empty or is not valid
+     */
+    OperationalDataRecord next() {
+        try {
+            while (!finished) {
+                if (!started) {
+                    start();
+                }
+
+                if (inRecords && reader.hasNext()) {
+                    return GSON.fromJson(reader, OperationalDataRecord.class);
+                }
+
+                if (inRecords) {
+                    reader.endArray();
+                    inRecords = false;
+                }
+
+                // Skip the possible other members of the request object.
+                if (!findRecords()) {
+                    reader.endObject();
+                    finished = true;
+                }
+            }
+
+            return null;
+        } catch (EOFException e) {
+            throw new IllegalArgumentException(started ? INVALID_REQUEST : NO_DATA, e);
+        } catch (RuntimeException | IOException e) {
+            throw new IllegalArgumentException(INVALID_REQUEST, e);
+        }
+    }
+
+    private void start() throws IOException {
+        reader.peek();
+        started = true;
+
+        reader.beginObject();
+    }
+
+    private boolean findRecords() throws IOException {
+        while (reader.hasNext()) {
+            if (RECORDS.equals(reader.nextName()) && reader.peek() != JsonToken.NULL) {
+                reader.beginArray();
+                inRecords = true;
+
+                return true;
+            }
+
+            reader.skipValue();
+        }
+
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -36,6 +36,7 @@ import ee.ria.xroad.common.message.SoapMessageImpl;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
 import ee.ria.xroad.common.util.MimeTypes;
 import ee.ria.xroad.common.util.TimeUtils;
+import ee.ria.xroad.opmonitordaemon.message.AggregationType;
 import ee.ria.xroad.opmonitordaemon.message.GetSecurityServerOperationalDataResponseType;
 import ee.ria.xroad.opmonitordaemon.message.GetSecurityServerOperationalDataType;
 import ee.ria.xroad.opmonitordaemon.message.SearchCriteriaType;
@@ -48,6 +49,7 @@ import javax.xml.bind.Marshaller;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
@@ -96,17 +98,27 @@ class OperationalDataRequestHandler extends QueryRequestHandler {
 
         checkOutputFields(outputFields);
 
+        AggregationType aggregation = requestData.getAggregation();
+
+        checkAggregation(aggregation, outputFields);
+
         log.debug("Handle getSecurityServerOperationalData: clientId: {},"
                         + " recordsFrom: {}, recordsTo: {},"
-                        + " serviceProviderId: {}, outputFields: {}",
+                        + " serviceProviderId: {}, outputFields: {},"
+                        + " aggregation: {}",
                 clientId, recordsFrom, recordsTo, serviceProviderId,
-                outputFields);
+                outputFields, aggregation);
 
         GetSecurityServerOperationalDataResponseType opDataResponse =
-                buildOperationalDataResponse(
-                        getClientForFilter(clientId, serverId), recordsFrom,
-                        recordsTo, serviceProviderId, outputFields,
-                        recordsAvailableBefore);
+                aggregation == null
+                        ? buildOperationalDataResponse(
+                                getClientForFilter(clientId, serverId),
+                                recordsFrom, recordsTo, serviceProviderId,
+                                outputFields, recordsAvailableBefore)
+                        : buildAggregatedResponse(aggregation,
+                                getClientForFilter(clientId, serverId),
+                                recordsFrom, recordsTo, serviceProviderId,
+                                recordsAvailableBefore);
 
         try (SoapMessageEncoder responseEncoder = new MultipartSoapMessageEncoder(out)) {
             contentTypeCallback.accept(responseEncoder.getContentType());
@@ -160,12 +172,20 @@ class OperationalDataRequestHandler extends QueryRequestHandler {
         }
     }
 
+    static void checkAggregation(AggregationType aggregation,
+            Set<String> outputFields) {
+        if (aggregation != null && !outputFields.isEmpty()) {
+            throw new CodedException(X_INVALID_REQUEST,
+                    "Output fields cannot be specified for aggregated"
+                            + " records").withPrefix(CLIENT_X);
+        }
+    }
+
     protected GetSecurityServerOperationalDataResponseType
             buildOperationalDataResponse(ClientId filterByClient,
             long recordsFrom, long recordsTo, ClientId filterByServiceProvider,
             Set<String> outputFields, long recordsAvailableBefore)
             throws IOException {
-        OperationalDataRecords responseRecords;
         GetSecurityServerOperationalDataResponseType opDataResponse =
                 OBJECT_FACTORY
                         .createGetSecurityServerOperationalDataResponseType();
@@ -180,17 +200,16 @@ class OperationalDataRequestHandler extends QueryRequestHandler {
             opDataResponse.setNextRecordsFrom(recordsAvailableBefore);
         }
 
-        responseRecords = getOperationalDataRecords(filterByClient,
-                recordsFrom, recordsTo, filterByServiceProvider, outputFields);
-
-        opDataResponse.setRecordsCount(responseRecords.size());
-        String payload = responseRecords.getPayload(GSON);
+        OperationalDataRecordCursor responseRecords = openOperationalDataRecords(
+                filterByClient, recordsFrom, recordsTo, filterByServiceProvider,
+                outputFields);
 
-        // Optimize memory usage: release records memory before compressing
-        // operation.
-        responseRecords.getRecords().clear();
+        opDataResponse.setRecordsCount(responseRecords.getCount());
 
-        opDataResponse.setRecords(createAttachmentDataSource(compress(payload),
+        // The records are read and compressed page by page while the
+        // attachment is written to the response.
+        opDataResponse.setRecords(createAttachmentDataSource(
+                new OperationalDataRecordsInputStream(responseRecords, GSON),
                 CID, MimeTypes.GZIP));
 
         if (responseRecords.getNextRecordsFrom() != null) {
@@ -201,17 +220,82 @@ class OperationalDataRequestHandler extends QueryRequestHandler {
         return opDataResponse;
     }
 
+    /**
+     * Builds the response with the minute or hour rollups of the time
+     * buckets that overlap the requested period. Only the time buckets that
+     * end before recordsAvailableBefore are complete and returned.
+     */
+    protected GetSecurityServerOperationalDataResponseType
+            buildAggregatedResponse(AggregationType aggregation,
+            ClientId filterByClient, long recordsFrom, long recordsTo,
+            ClientId filterByServiceProvider, long recordsAvailableBefore)
+            throws IOException {
+        GetSecurityServerOperationalDataResponseType opDataResponse =
+                OBJECT_FACTORY
+                        .createGetSecurityServerOperationalDataResponseType();
+
+        int bucketSeconds = aggregation == AggregationType.HOUR
+                ? OperationalDataRollup.HOUR : OperationalDataRollup.MINUTE;
+        long bucketsFrom = recordsFrom - recordsFrom % bucketSeconds;
+        long openBucketStart = recordsAvailableBefore
+                - recordsAvailableBefore % bucketSeconds;
+
+        if (recordsTo >= openBucketStart) {
+            log.debug("recordsTo({}) >= openBucketStart({}),"
+                    + " set nextRecordsFrom to {}", recordsTo,
+                    openBucketStart, openBucketStart);
+
+            recordsTo = openBucketStart - 1;
+
+            opDataResponse.setNextRecordsFrom(openBucketStart);
+        }
+
+        OperationalDataAggregates aggregates = getOperationalDataAggregates(
+                bucketSeconds, bucketsFrom, recordsTo, filterByClient,
+                filterByServiceProvider);
+
+        opDataResponse.setRecordsCount(aggregates.size());
+        opDataResponse.setRecords(createAttachmentDataSource(
+                compress(aggregates.getPayload(GSON)), CID, MimeTypes.GZIP));
+
+        if (aggregates.getNextRecordsFrom() != null) {
+            opDataResponse.setNextRecordsFrom(aggregates.getNextRecordsFrom());
+        }
+
+        return opDataResponse;
+    }
+
+    private static OperationalDataAggregates getOperationalDataAggregates(
+            int bucketSeconds, long bucketsFrom, long bucketsTo,
+            ClientId filterByClient, ClientId filterByServiceProvider) {
+        if (bucketsTo < bucketsFrom) {
+            return new OperationalDataAggregates(new ArrayList<>());
+        }
+
+        try {
+            return OperationalDataRollupManager.queryAggregates(bucketSeconds,
+                    bucketsFrom, bucketsTo, filterByClient,
+                    filterByServiceProvider);
+        } catch (Exception e) {
+            log.error("Failed to get aggregates for response", e);
+
+            throw new CodedException(X_INTERNAL_ERROR,
+                    "Failed to get aggregates for response: "
+                            + e.getMessage());
+        }
+    }
+
     private static JAXBElement<?> createResponseElement(
             GetSecurityServerOperationalDataResponseType opDataResponse) {
         return OBJECT_FACTORY.createGetSecurityServerOperationalDataResponse(
                 opDataResponse);
     }
 
-    protected OperationalDataRecords getOperationalDataRecords(
+    protected OperationalDataRecordCursor openOperationalDataRecords(
             ClientId filterByClient, long recordsFrom, long recordsTo,
             ClientId filterByServiceProvider, Set<String> outputFields) {
         try {
-            return OperationalDataRecordManager.queryRecords(recordsFrom,
+            return OperationalDataRecordManager.openRecords(recordsFrom,
                     recordsTo, filterByClient, filterByServiceProvider,
                     outputFields);
         } catch (Exception e) {
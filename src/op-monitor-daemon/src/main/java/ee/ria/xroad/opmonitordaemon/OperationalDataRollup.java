@@ -0,0 +1,177 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Represents a database record of the operational data of one time bucket (a minute or an hour), aggregated
+ * over the records of the same security server role, client and service. The records are counted by their
+ * monitoring data timestamp, so a bucket only receives records while it is the current one.
+ *
+ * The duration and size statistics cover the successful requests only, in the same way as the health data.
+ */
+@Getter
+@Setter
+@ToString
+class OperationalDataRollup {
+
+    static final int MINUTE = 60;
+    static final int HOUR = 3600;
+
+    // The unique ID of the record in the database.
+    private Long id;
+
+    // The length of the time bucket in seconds, MINUTE or HOUR.
+    private int bucketSeconds;
+
+    // The Unix timestamp (in seconds) of the beginning of the time bucket.
+    private long bucketStart;
+
+    // The digest of the security server type, client and service identifying the rollup within a time bucket.
+    private String keyHash;
+
+    private String securityServerType;
+
+    private String clientXRoadInstance;
+    private String clientMemberClass;
+    private String clientMemberCode;
+    private String clientSubsystemCode;
+
+    private String serviceXRoadInstance;
+    private String serviceMemberClass;
+    private String serviceMemberCode;
+    private String serviceSubsystemCode;
+    private String serviceCode;
+    private String serviceVersion;
+
+    // The service type of the last request.
+    private String serviceType;
+
+    private long successfulRequestCount;
+    private long unsuccessfulRequestCount;
+
+    // The response out timestamps (in milliseconds) of the last successful and unsuccessful request.
+    private Long lastSuccessfulRequestTs;
+    private Long lastUnsuccessfulRequestTs;
+
+    private Statistics duration = new Statistics();
+    private Statistics requestSize = new Statistics();
+    private Statistics responseSize = new Statistics();
+
+    // The encoded DurationSketch of the request durations.
+    private byte[] durationSketch;
+
+    /**
+     * Adds the counts and statistics of another rollup with the same key to this rollup.
+     * @param other the other rollup
+     */
+    void merge(OperationalDataRollup other) {
+        successfulRequestCount += other.successfulRequestCount;
+        unsuccessfulRequestCount += other.unsuccessfulRequestCount;
+        lastSuccessfulRequestTs = max(lastSuccessfulRequestTs, other.lastSuccessfulRequestTs);
+        lastUnsuccessfulRequestTs = max(lastUnsuccessfulRequestTs, other.lastUnsuccessfulRequestTs);
+
+        if (other.serviceType != null) {
+            serviceType = other.serviceType;
+        }
+
+        duration.merge(other.duration);
+        requestSize.merge(other.requestSize);
+        responseSize.merge(other.responseSize);
+
+        DurationSketch sketch = DurationSketch.fromBytes(durationSketch);
+        sketch.merge(DurationSketch.fromBytes(other.durationSketch));
+        durationSketch = sketch.toBytes();
+    }
+
+    private static Long max(Long a, Long b) {
+        if (a == null) {
+            return b;
+        }
+
+        return b == null ? a : Math.max(a, b);
+    }
+
+    /**
+     * The count, extremes and sums of a measured value, from which its mean and standard deviation
+     * can be calculated.
+     */
+    @Getter
+    @Setter
+    @ToString
+    static class Statistics {
+
+        private long count;
+        private Long min;
+        private Long max;
+        private long sum;
+        private double sumOfSquares;
+
+        void add(Long value) {
+            if (value == null) {
+                return;
+            }
+
+            count++;
+            min = min == null ? value : Math.min(min, value);
+            max = max == null ? value : Math.max(max, value);
+            sum += value;
+            sumOfSquares += (double) value * value;
+        }
+
+        void merge(Statistics other) {
+            count += other.count;
+            min = min == null ? other.min : other.min == null ? min : Math.min(min, other.min);
+            max = OperationalDataRollup.max(max, other.max);
+            sum += other.sum;
+            sumOfSquares += other.sumOfSquares;
+        }
+
+        Double getMean() {
+            return count == 0 ? null : (double) sum / count;
+        }
+
+        /**
+         * @return the sample standard deviation, as reported by the health data histograms
+         */
+        Double getStdDev() {
+            if (count == 0) {
+                return null;
+            }
+
+            if (count == 1) {
+                return 0.0;
+            }
+
+            double mean = (double) sum / count;
+
+            return Math.sqrt(Math.max(0, (sumOfSquares - count * mean * mean) / (count - 1)));
+        }
+    }
+}
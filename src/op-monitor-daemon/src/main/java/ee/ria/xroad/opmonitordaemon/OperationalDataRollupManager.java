@@ -0,0 +1,240 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.ServiceId;
+import ee.ria.xroad.common.opmonitoring.OpMonitoringData.SecurityServerType;
+import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
+
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
+
+/**
+ * This class encapsulates the database access related to the operational_data_rollup table, mapped by the
+ * OperationalDataRollup class. The rollups are updated when records are stored, see OperationalDataRollups.
+ */
+@Slf4j
+final class OperationalDataRollupManager {
+
+    private static final String BUCKET_SECONDS = "bucketSeconds";
+    private static final String BUCKET_START = "bucketStart";
+
+    @Setter
+    private static int maxRecordsInPayload = OpMonitoringSystemProperties.getOpMonitorMaxRecordsInPayload();
+
+    private OperationalDataRollupManager() {
+    }
+
+    /**
+     * Queries the health data of the services provided by the security server. The statistics are aggregated
+     * from the minute rollups starting from the given timestamp, the service type and the timestamps of the
+     * last requests from all the hour rollups.
+     * @param periodStart the Unix timestamp in seconds of the beginning of the statistics period, rounded
+     *                    down to the beginning of its minute
+     * @return the aggregated rollup of each service
+     * @throws Exception if an error occurs
+     */
+    static Map<ServiceId, OperationalDataRollup> queryServiceHealthData(long periodStart) throws Exception {
+        return doInTransaction(session -> {
+            Map<ServiceId, OperationalDataRollup> services = new LinkedHashMap<>();
+
+            List<Object[]> hours = session.createQuery("SELECT r.serviceXRoadInstance, r.serviceMemberClass,"
+                    + " r.serviceMemberCode, r.serviceSubsystemCode, r.serviceCode, r.serviceVersion, r.serviceType,"
+                    + " r.lastSuccessfulRequestTs, r.lastUnsuccessfulRequestTs FROM OperationalDataRollup r"
+                    + " WHERE r.bucketSeconds = :bucketSeconds AND r.securityServerType = :securityServerType"
+                    + " ORDER BY r.bucketStart", Object[].class)
+                    .setParameter(BUCKET_SECONDS, OperationalDataRollup.HOUR)
+                    .setParameter("securityServerType", SecurityServerType.PRODUCER.getTypeString())
+                    .setReadOnly(true)
+                    .getResultList();
+
+            for (Object[] hour : hours) {
+                ServiceId service = createServiceId(hour);
+
+                if (service != null) {
+                    OperationalDataRollup rollup = new OperationalDataRollup();
+                    rollup.setServiceType((String) hour[6]);
+                    rollup.setLastSuccessfulRequestTs((Long) hour[7]);
+                    rollup.setLastUnsuccessfulRequestTs((Long) hour[8]);
+
+                    services.computeIfAbsent(service, s -> new OperationalDataRollup()).merge(rollup);
+                }
+            }
+
+            List<OperationalDataRollup> minutes = session.createQuery("SELECT r FROM OperationalDataRollup r"
+                    + " WHERE r.bucketSeconds = :bucketSeconds AND r.bucketStart >= :periodStart"
+                    + " AND r.securityServerType = :securityServerType", OperationalDataRollup.class)
+                    .setParameter(BUCKET_SECONDS, OperationalDataRollup.MINUTE)
+                    .setParameter("periodStart", periodStart)
+                    .setParameter("securityServerType", SecurityServerType.PRODUCER.getTypeString())
+                    .setReadOnly(true)
+                    .getResultList();
+
+            for (OperationalDataRollup minute : minutes) {
+                ServiceId service = createServiceId(minute);
+
+                if (service != null) {
+                    services.computeIfAbsent(service, s -> new OperationalDataRollup()).merge(minute);
+                }
+            }
+
+            return services;
+        });
+    }
+
+    /**
+     * Queries the rollups of the given time bucket length. The number of returned rollups is limited by the
+     * configured value maxRecordsInPayload plus overflow rollups of the same time bucket as the last
+     * included rollup.
+     * @param bucketSeconds         the length of the time buckets, OperationalDataRollup.MINUTE or HOUR
+     * @param bucketsFrom           the timestamp seconds of the first time bucket
+     * @param bucketsTo             the timestamp seconds of the last time bucket
+     * @param clientFilter          filter rollups by client (if not null)
+     * @param serviceProviderFilter filter rollups by service provider (if not null)
+     * @return the operational data aggregates
+     * @throws Exception if an error occurs
+     */
+    static OperationalDataAggregates queryAggregates(int bucketSeconds, long bucketsFrom, long bucketsTo,
+            ClientId clientFilter, ClientId serviceProviderFilter) throws Exception {
+        return doInTransaction(session -> {
+            List<OperationalDataRollup> rollups = query(session, bucketSeconds, bucketsFrom, bucketsTo,
+                    clientFilter, serviceProviderFilter, maxRecordsInPayload);
+            Long nextRecordsFrom = null;
+
+            if (rollups.size() == maxRecordsInPayload) {
+                log.trace("Check possible aggregates overflow");
+
+                long lastBucketStart = rollups.get(rollups.size() - 1).getBucketStart();
+
+                rollups.removeIf(r -> r.getBucketStart() == lastBucketStart);
+                rollups.addAll(query(session, bucketSeconds, lastBucketStart, lastBucketStart, clientFilter,
+                        serviceProviderFilter, Integer.MAX_VALUE));
+
+                if (lastBucketStart < bucketsTo && !query(session, bucketSeconds, lastBucketStart + 1, bucketsTo,
+                        clientFilter, serviceProviderFilter, 1).isEmpty()) {
+                    nextRecordsFrom = lastBucketStart + bucketSeconds;
+
+                    log.debug("Aggregates overflow, set nextRecordsFrom to {}", nextRecordsFrom);
+                }
+            }
+
+            OperationalDataAggregates aggregates = new OperationalDataAggregates(rollups.stream()
+                    .map(OperationalDataAggregate::new)
+                    .collect(Collectors.toList()));
+            aggregates.setNextRecordsFrom(nextRecordsFrom);
+
+            return aggregates;
+        });
+    }
+
+    /**
+     * Deletes the rollups of the time buckets that begin before the given timestamp.
+     * @param before the Unix timestamp in seconds
+     * @return the number of deleted rollups
+     * @throws Exception if an error occurs
+     */
+    static int cleanRollups(long before) throws Exception {
+        return doInTransaction(session -> session.createQuery(
+                "DELETE FROM OperationalDataRollup r WHERE r.bucketStart < :before")
+                .setParameter("before", before)
+                .executeUpdate());
+    }
+
+    private static List<OperationalDataRollup> query(Session session, int bucketSeconds, long bucketsFrom,
+            long bucketsTo, ClientId clientFilter, ClientId serviceProviderFilter, int maxResults) {
+        CriteriaBuilder cb = session.getCriteriaBuilder();
+        CriteriaQuery<OperationalDataRollup> query = cb.createQuery(OperationalDataRollup.class);
+        Root<OperationalDataRollup> from = query.from(OperationalDataRollup.class);
+
+        Predicate pred = cb.and(cb.equal(from.get(BUCKET_SECONDS), bucketSeconds),
+                cb.between(from.get(BUCKET_START), bucketsFrom, bucketsTo));
+
+        if (clientFilter != null) {
+            // Filter by the client in either roles (client or service provider).
+            pred = cb.and(pred, cb.or(getMemberCriterion(cb, from, clientFilter, "client"),
+                    getMemberCriterion(cb, from, clientFilter, "service")));
+        }
+
+        if (serviceProviderFilter != null) {
+            pred = cb.and(pred, getMemberCriterion(cb, from, serviceProviderFilter, "service"));
+        }
+
+        query.select(from).where(pred).orderBy(cb.asc(from.get(BUCKET_START)), cb.asc(from.get("id")));
+
+        return session.createQuery(query)
+                .setReadOnly(true)
+                .setMaxResults(maxResults)
+                .getResultList();
+    }
+
+    private static Predicate getMemberCriterion(CriteriaBuilder cb, Root<OperationalDataRollup> from,
+            ClientId member, String role) {
+        return cb.and(
+                cb.equal(from.get(role + "XRoadInstance"), member.getXRoadInstance()),
+                cb.equal(from.get(role + "MemberClass"), member.getMemberClass()),
+                cb.equal(from.get(role + "MemberCode"), member.getMemberCode()),
+                member.getSubsystemCode() == null
+                        ? cb.isNull(from.get(role + "SubsystemCode"))
+                        : cb.equal(from.get(role + "SubsystemCode"), member.getSubsystemCode()));
+    }
+
+    @SuppressWarnings("checkstyle:magicnumber")
+    private static ServiceId createServiceId(Object[] columns) {
+        return createServiceId((String) columns[0], (String) columns[1], (String) columns[2], (String) columns[3],
+                (String) columns[4], (String) columns[5]);
+    }
+
+    private static ServiceId createServiceId(OperationalDataRollup rollup) {
+        return createServiceId(rollup.getServiceXRoadInstance(), rollup.getServiceMemberClass(),
+                rollup.getServiceMemberCode(), rollup.getServiceSubsystemCode(), rollup.getServiceCode(),
+                rollup.getServiceVersion());
+    }
+
+    private static ServiceId createServiceId(String xRoadInstance, String memberClass, String memberCode,
+            String subsystemCode, String serviceCode, String serviceVersion) {
+        try {
+            return ServiceId.create(xRoadInstance, memberClass, memberCode, subsystemCode, serviceCode,
+                    serviceVersion);
+        } catch (Exception e) {
+            // Ignore rollups without service ID.
+            return null;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import ee.ria.xroad.common.util.CryptoUtils;
+
+import lombok.SneakyThrows;
+import org.hibernate.LockMode;
+import org.hibernate.Session;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregates the records of a store request into minute and hour rollups, and adds them to the rollups
+ * stored in the database. Memory use depends on the number of distinct clients and services in the request,
+ * not on the number of records.
+ */
+class OperationalDataRollups {
+
+    private static final int[] BUCKET_SECONDS = {OperationalDataRollup.MINUTE, OperationalDataRollup.HOUR};
+
+    // Separates the key fields, and marks null fields, in the digested key.
+    private static final char SEPARATOR = '\0';
+    private static final char NULL = '\1';
+
+    // Sorted, so that concurrent store requests lock the stored rollups in the same order.
+    private final Map<String, OperationalDataRollup> rollups = new TreeMap<>();
+    private final Map<String, DurationSketch> sketches = new HashMap<>();
+    private final Map<String, String> keyHashes = new HashMap<>();
+
+    /**
+     * Adds the records to the rollups of their time buckets.
+     * @param records the records, with the monitoring data timestamp set
+     */
+    void add(List<OperationalDataRecord> records) {
+        records.forEach(this::add);
+    }
+
+    /**
+     * Adds the record to the rollups of its time buckets.
+     * @param record the record, with the monitoring data timestamp set
+     */
+    void add(OperationalDataRecord record) {
+        String key = key(record);
+        String keyHash = keyHashes.computeIfAbsent(key, OperationalDataRollups::digest);
+
+        for (int bucketSeconds : BUCKET_SECONDS) {
+            long bucketStart = record.getMonitoringDataTs() - record.getMonitoringDataTs() % bucketSeconds;
+            String bucketKey = bucketSeconds + "/" + bucketStart + "/" + key;
+
+            OperationalDataRollup rollup = rollups.computeIfAbsent(bucketKey,
+                    k -> createRollup(bucketSeconds, bucketStart, keyHash, record));
+
+            add(rollup, sketches.computeIfAbsent(bucketKey, k -> DurationSketch.create()), record);
+        }
+    }
+
+    /**
+     * @return true if no records have been added
+     */
+    boolean isEmpty() {
+        return rollups.isEmpty();
+    }
+
+    /**
+     * Adds the rollups to the rollups stored in the database in the transaction of the session. The stored
+     * rollups are locked for update, so that concurrent store requests do not lose each other's counts. If
+     * concurrent store requests create the same rollup, one of them fails on the unique key and is retried by
+     * the operational monitoring buffer.
+     * @param session the database session
+     */
+    void store(Session session) {
+        for (Map.Entry<String, OperationalDataRollup> entry : rollups.entrySet()) {
+            OperationalDataRollup rollup = entry.getValue();
+            rollup.setDurationSketch(sketches.get(entry.getKey()).toBytes());
+
+            OperationalDataRollup stored = session.createQuery("SELECT r FROM OperationalDataRollup r"
+                    + " WHERE r.bucketSeconds = :bucketSeconds AND r.bucketStart = :bucketStart"
+                    + " AND r.keyHash = :keyHash", OperationalDataRollup.class)
+                    .setParameter("bucketSeconds", rollup.getBucketSeconds())
+                    .setParameter("bucketStart", rollup.getBucketStart())
+                    .setParameter("keyHash", rollup.getKeyHash())
+                    .setLockMode("r", LockMode.PESSIMISTIC_WRITE)
+                    .uniqueResult();
+
+            if (stored == null) {
+                session.save(rollup);
+            } else {
+                stored.merge(rollup);
+            }
+        }
+    }
+
+    private static OperationalDataRollup createRollup(int bucketSeconds, long bucketStart, String keyHash,
+            OperationalDataRecord record) {
+        OperationalDataRollup rollup = new OperationalDataRollup();
+        rollup.setBucketSeconds(bucketSeconds);
+        rollup.setBucketStart(bucketStart);
+        rollup.setKeyHash(keyHash);
+        rollup.setSecurityServerType(record.getSecurityServerType().getTypeString());
+
+        rollup.setClientXRoadInstance(record.getClientXRoadInstance());
+        rollup.setClientMemberClass(record.getClientMemberClass());
+        rollup.setClientMemberCode(record.getClientMemberCode());
+        rollup.setClientSubsystemCode(record.getClientSubsystemCode());
+
+        rollup.setServiceXRoadInstance(record.getServiceXRoadInstance());
+        rollup.setServiceMemberClass(record.getServiceMemberClass());
+        rollup.setServiceMemberCode(record.getServiceMemberCode());
+        rollup.setServiceSubsystemCode(record.getServiceSubsystemCode());
+        rollup.setServiceCode(record.getServiceCode());
+        rollup.setServiceVersion(record.getServiceVersion());
+
+        return rollup;
+    }
+
+    private static void add(OperationalDataRollup rollup, DurationSketch sketch, OperationalDataRecord record) {
+        if (record.getServiceType() != null) {
+            rollup.setServiceType(record.getServiceType());
+        }
+
+        if (Boolean.TRUE.equals(record.getSucceeded())) {
+            rollup.setSuccessfulRequestCount(rollup.getSuccessfulRequestCount() + 1);
+            rollup.setLastSuccessfulRequestTs(max(rollup.getLastSuccessfulRequestTs(), record.getResponseOutTs()));
+
+            long duration = record.getResponseOutTs() - record.getRequestInTs();
+            rollup.getDuration().add(duration);
+            sketch.add(duration);
+
+            rollup.getRequestSize().add(record.getRequestSize());
+            rollup.getResponseSize().add(record.getResponseSize());
+        } else {
+            rollup.setUnsuccessfulRequestCount(rollup.getUnsuccessfulRequestCount() + 1);
+            rollup.setLastUnsuccessfulRequestTs(max(rollup.getLastUnsuccessfulRequestTs(),
+                    record.getResponseOutTs()));
+        }
+    }
+
+    private static Long max(Long current, Long value) {
+        return current == null || value != null && value > current ? value : current;
+    }
+
+    private static String key(OperationalDataRecord record) {
+        StringBuilder key = new StringBuilder();
+
+        for (String field : new String[] {record.getSecurityServerType().getTypeString(),
+                record.getClientXRoadInstance(), record.getClientMemberClass(), record.getClientMemberCode(),
+                record.getClientSubsystemCode(), record.getServiceXRoadInstance(), record.getServiceMemberClass(),
+                record.getServiceMemberCode(), record.getServiceSubsystemCode(), record.getServiceCode(),
+                record.getServiceVersion()}) {
+            key.append(field == null ? String.valueOf(NULL) : field).append(SEPARATOR);
+        }
+
+        return key.toString();
+    }
+
+    @SneakyThrows
+    private static String digest(String key) {
+        return CryptoUtils.hexDigest(CryptoUtils.SHA256_ID, key.getBytes(StandardCharsets.UTF_8));
+    }
+}
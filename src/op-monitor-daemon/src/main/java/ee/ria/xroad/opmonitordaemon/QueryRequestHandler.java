@@ -44,6 +44,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.xml.sax.SAXException;
 
 import javax.activation.DataHandler;
+import javax.activation.DataSource;
 import javax.xml.XMLConstants;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
@@ -57,6 +58,7 @@ import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
@@ -195,6 +197,35 @@ abstract class QueryRequestHandler {
         };
     }
 
+    /**
+     * Creates an attachment whose content is read from the given stream when the attachment is encoded
+     * into the response, so the content does not need to be held in memory. The stream can be read once.
+     */
+    static DataHandler createAttachmentDataSource(
+            InputStream payload, String cid, String contentType) {
+        return new DataHandler(new DataSource() {
+            @Override
+            public InputStream getInputStream() {
+                return payload;
+            }
+
+            @Override
+            public OutputStream getOutputStream() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public String getContentType() {
+                return contentType;
+            }
+
+            @Override
+            public String getName() {
+                return cid;
+            }
+        });
+    }
+
     static byte[] compress(String data) throws IOException {
         byte[] dataBytes = data.getBytes(StandardCharsets.UTF_8);
 
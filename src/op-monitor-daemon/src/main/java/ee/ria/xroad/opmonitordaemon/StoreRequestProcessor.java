@@ -25,19 +25,11 @@
  */
 package ee.ria.xroad.opmonitordaemon;
 
-import ee.ria.xroad.common.util.JsonUtils;
-
 import com.codahale.metrics.MetricRegistry;
-import com.google.gson.Gson;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang3.StringUtils;
 
 import javax.servlet.http.HttpServletRequest;
 
-import java.nio.charset.StandardCharsets;
-import java.util.List;
-
 import static ee.ria.xroad.common.util.TimeUtils.getEpochSecond;
 
 /**
@@ -46,8 +38,6 @@ import static ee.ria.xroad.common.util.TimeUtils.getEpochSecond;
 @Slf4j
 class StoreRequestProcessor {
 
-    private static final Gson GSON = JsonUtils.getSerializer();
-
     /** The servlet request. */
     private HttpServletRequest servletRequest;
 
@@ -62,43 +52,24 @@ class StoreRequestProcessor {
 
     /**
      * Processes the incoming message: stores the data and updates the related
-     * statistics.
+     * statistics. The records are parsed from the request stream and stored
+     * batch by batch, so the size of the request does not affect the memory
+     * use. The health data is picked as each batch is written and the
+     * metrics are updated only after the records have been committed, since
+     * the records of a failed request are sent again.
      * @throws Exception in case of any errors
      */
     void process() throws Exception {
-        String rawJson = IOUtils.toString(servletRequest.getInputStream(),
-                StandardCharsets.UTF_8);
-
-        log.trace("Incoming JSON: {}", rawJson);
-
-        List<OperationalDataRecord> records = prepareRawStoreData(rawJson);
-
-        log.debug("Process {} record{}", records.size(),
-                records.size() == 1 ? "" : "s");
+        try (OperationalDataRecordsReader reader = new OperationalDataRecordsReader(
+                servletRequest.getInputStream())) {
+            HealthDataMetrics.Update healthData = new HealthDataMetrics.Update();
 
-        OperationalDataRecordManager.storeRecords(records, getEpochSecond());
+            int count = OperationalDataRecordManager.storeRecords(reader::next,
+                    getEpochSecond(), healthData::add);
 
-        HealthDataMetrics.processRecords(healthMetricRegistry, records);
-    }
-
-    // Get usable operational data to be stored. If no such data is found,
-    // send an error message right away.
-    private static List<OperationalDataRecord> prepareRawStoreData(
-            String rawJsonData) throws Exception {
-        if (StringUtils.isBlank(rawJsonData)) {
-            throw new Exception(
-                    "No data was found in the request to store data");
-        }
+            healthData.apply(healthMetricRegistry);
 
-        OperationalDataRecords records;
-
-        try {
-            records = GSON.fromJson(rawJsonData, OperationalDataRecords.class);
-        } catch (Exception e) {
-            throw new Exception("Received invalid request", e);
+            log.debug("Processed {} record{}", count, count == 1 ? "" : "s");
         }
-
-        return records.getRecords();
     }
-
 }
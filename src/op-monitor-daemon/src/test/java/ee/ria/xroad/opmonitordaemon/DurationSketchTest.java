@@ -0,0 +1,109 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the quantile estimates of the duration sketch.
+ */
+public class DurationSketchTest {
+
+    private static final double RELATIVE_ERROR = 0.05;
+
+    @Test
+    public void estimateQuantiles() {
+        DurationSketch sketch = DurationSketch.create();
+
+        for (long i = 1; i <= 10000; i++) {
+            sketch.add(i);
+        }
+
+        assertEquals(10000, sketch.getCount());
+        assertQuantile(5000, sketch.getQuantile(0.5));
+        assertQuantile(9500, sketch.getQuantile(0.95));
+        assertQuantile(9900, sketch.getQuantile(0.99));
+        assertQuantile(1, sketch.getQuantile(0));
+    }
+
+    @Test
+    public void countZeroDurations() {
+        DurationSketch sketch = DurationSketch.create();
+        sketch.add(0);
+        sketch.add(0);
+        sketch.add(1000);
+
+        assertEquals(Long.valueOf(0), sketch.getQuantile(0.5));
+        assertQuantile(1000, sketch.getQuantile(1));
+    }
+
+    @Test
+    public void emptySketchHasNoQuantiles() {
+        assertNull(DurationSketch.create().getQuantile(0.5));
+        assertNull(DurationSketch.fromBytes(null).getQuantile(0.5));
+    }
+
+    @Test
+    public void mergeSketches() {
+        DurationSketch first = DurationSketch.create();
+        DurationSketch second = DurationSketch.create();
+
+        for (long i = 1; i <= 100; i++) {
+            first.add(i);
+            second.add(1000 + i);
+        }
+
+        first.merge(second);
+
+        assertEquals(200, first.getCount());
+        assertQuantile(100, first.getQuantile(0.49));
+        assertQuantile(1100, first.getQuantile(1));
+    }
+
+    @Test
+    public void encodeAndDecode() {
+        DurationSketch sketch = DurationSketch.create();
+
+        for (long i = 0; i < 1000; i++) {
+            sketch.add(i * i);
+        }
+
+        DurationSketch decoded = DurationSketch.fromBytes(sketch.toBytes());
+
+        assertEquals(sketch.getCount(), decoded.getCount());
+
+        for (double quantile : new double[] {0, 0.5, 0.95, 0.99, 1}) {
+            assertEquals(sketch.getQuantile(quantile), decoded.getQuantile(quantile));
+        }
+    }
+
+    private static void assertQuantile(long expected, Long actual) {
+        assertEquals(expected, actual, expected * RELATIVE_ERROR);
+    }
+}
@@ -31,15 +31,24 @@ import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
 
 import com.google.common.collect.Sets;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.io.InputStream;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
 import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
 import static ee.ria.xroad.opmonitordaemon.OperationalDataRecordManager.queryAllRecords;
@@ -84,6 +93,7 @@ public class OperationalDataRecordManagerTest extends BaseTestUsingDB {
 
         OperationalDataRecordManager.setMaxRecordsInPayload(
                 OpMonitoringSystemProperties.getOpMonitorMaxRecordsInPayload());
+        OperationalDataRecordManager.setQueryPageSize(1000);
     }
 
     @Test
@@ -105,6 +115,28 @@ public class OperationalDataRecordManagerTest extends BaseTestUsingDB {
         assertEquals(record, resultRecord);
     }
 
+    @Test
+    public void storeRecordsInBatches() throws Exception {
+        AtomicInteger remaining = new AtomicInteger(250);
+        List<Integer> batchSizes = new ArrayList<>();
+
+        int stored = storeRecords(() -> remaining.getAndDecrement() > 0
+                        ? GSON.fromJson(formatFullOperationalDataAsJson(), OperationalDataRecord.class) : null,
+                1474968979L, batch -> batchSizes.add(batch.size()));
+
+        // The batch size comes from the Hibernate configuration, 100 in the tests.
+        assertEquals(250, stored);
+        assertEquals(250, batchSizes.stream().mapToInt(Integer::intValue).sum());
+        assertTrue(batchSizes.size() > 1);
+        assertTrue(batchSizes.stream().limit(batchSizes.size() - 1).allMatch(batchSizes.get(0)::equals));
+
+        OperationalDataRecords result = queryAllRecords();
+
+        assertEquals(250, result.size());
+        assertEquals(250, result.getRecords().stream().map(OperationalDataRecord::getId).distinct().count());
+        assertTrue(result.getRecords().stream().allMatch(r -> r.getMonitoringDataTs() == 1474968979L));
+    }
+
     @Test
     public void storeAndQueryDataFromPeriods() throws Exception {
         storeFullOperationalDataRecords(1, 1474968960L);
@@ -133,6 +165,52 @@ public class OperationalDataRecordManagerTest extends BaseTestUsingDB {
                 .getMonitoringDataTs().longValue());
     }
 
+    @Test
+    public void queryRecordsInPages() throws Exception {
+        storeFullOperationalDataRecords(8, 1474968980L);
+        storeFullOperationalDataRecords(3, 1474968981L);
+
+        // The pages split the records of the same second.
+        OperationalDataRecordManager.setQueryPageSize(3);
+        OperationalDataRecordManager.setMaxRecordsInPayload(5);
+
+        OperationalDataRecordCursor cursor = OperationalDataRecordManager.openRecords(1474968980L, 1474968990L,
+                null, null, new HashSet<>());
+
+        assertEquals(8, cursor.getCount());
+        assertEquals(Long.valueOf(1474968981L), cursor.getNextRecordsFrom());
+
+        List<Integer> pageSizes = new ArrayList<>();
+        int count = 0;
+
+        for (List<OperationalDataRecord> page = cursor.nextPage(); !page.isEmpty(); page = cursor.nextPage()) {
+            pageSizes.add(page.size());
+            count += page.size();
+
+            page.forEach(r -> assertEquals(Long.valueOf(1474968980L), r.getMonitoringDataTs()));
+        }
+
+        assertEquals(8, count);
+        assertEquals(Arrays.asList(3, 3, 2), pageSizes);
+    }
+
+    @Test
+    public void streamRecordsPayload() throws Exception {
+        storeFullOperationalDataRecords(7, 1474968980L);
+
+        Set<String> outputFields = Sets.newHashSet("requestInTs", "serviceCode");
+        String expected = queryRecords(1474968980L, 1474968980L, null, null, outputFields).getPayload(GSON);
+
+        OperationalDataRecordManager.setQueryPageSize(2);
+
+        OperationalDataRecordCursor cursor = OperationalDataRecordManager.openRecords(1474968980L, 1474968980L,
+                null, null, outputFields);
+
+        try (InputStream payload = new GZIPInputStream(new OperationalDataRecordsInputStream(cursor, GSON))) {
+            assertEquals(expected, IOUtils.toString(payload, StandardCharsets.UTF_8));
+        }
+    }
+
     @Test
     public void storeAndQueryDataCausingOverflow() throws Exception {
         storeFullOperationalDataRecords(8, 1474968980L);
@@ -0,0 +1,105 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.formatFullOperationalDataAsJson;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.formatInvalidOperationalDataAsJson;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests reading the records of store operational data requests from a stream.
+ */
+public class OperationalDataRecordsReaderTest {
+
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void readRecords() throws Exception {
+        List<OperationalDataRecord> records = readAll("{\"other\":{\"records\":[]},\"records\":["
+                + formatFullOperationalDataAsJson() + "," + formatFullOperationalDataAsJson() + "],\"last\":1}");
+
+        assertEquals(2, records.size());
+        assertEquals("xroadGetRandom", records.get(0).getServiceCode());
+        assertEquals(Integer.valueOf(200), records.get(1).getStatusCode());
+    }
+
+    @Test
+    public void readRequestWithoutRecords() throws Exception {
+        assertTrue(readAll("{}").isEmpty());
+        assertTrue(readAll("{\"records\":[]}").isEmpty());
+        assertTrue(readAll("{\"records\":null}").isEmpty());
+    }
+
+    @Test
+    public void readEmptyRequest() throws Exception {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("No data was found in the request to store data");
+
+        readAll(" ");
+    }
+
+    @Test
+    public void readTruncatedRequest() throws Exception {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Received invalid request");
+
+        readAll("{\"records\":[" + formatFullOperationalDataAsJson());
+    }
+
+    @Test
+    public void readInvalidRecord() throws Exception {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Received invalid request");
+
+        readAll("{\"records\":[" + formatInvalidOperationalDataAsJson() + "]}");
+    }
+
+    private static List<OperationalDataRecord> readAll(String json) throws Exception {
+        List<OperationalDataRecord> records = new ArrayList<>();
+
+        try (OperationalDataRecordsReader reader = new OperationalDataRecordsReader(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)))) {
+            OperationalDataRecord record;
+
+            while ((record = reader.next()) != null) {
+                records.add(record);
+            }
+        }
+
+        return records;
+    }
+}
@@ -28,6 +28,7 @@ package ee.ria.xroad.opmonitordaemon;
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.util.TimeUtils;
+import ee.ria.xroad.opmonitordaemon.message.AggregationType;
 import ee.ria.xroad.opmonitordaemon.message.GetSecurityServerOperationalDataResponseType;
 
 import com.google.common.collect.Sets;
@@ -37,6 +38,7 @@ import org.junit.rules.ExpectedException;
 
 import java.util.Collections;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 
@@ -65,6 +67,36 @@ public class OperationalDataRequestHandlerTest extends BaseTestUsingDB {
                 "monitoringDataTs", "UNKNOWN-FIELD"));
     }
 
+    @Test
+    public void checkAggregationWithOutputFields() throws Exception {
+        OperationalDataRequestHandler.checkAggregation(AggregationType.MINUTE,
+                Collections.emptySet());
+
+        thrown.expect(CodedException.class);
+        thrown.expectMessage(
+                "Output fields cannot be specified for aggregated records");
+
+        OperationalDataRequestHandler.checkAggregation(AggregationType.HOUR,
+                Sets.newHashSet("monitoringDataTs"));
+    }
+
+    @Test
+    public void buildAggregatedResponseWithOpenBucket() throws Exception {
+        OperationalDataRequestHandler handler =
+                new OperationalDataRequestHandler();
+        long recordsAvailableBefore = TimeUtils.getEpochSecond();
+
+        // The bucket of recordsAvailableBefore is not complete yet.
+        GetSecurityServerOperationalDataResponseType response = handler
+                .buildAggregatedResponse(AggregationType.HOUR, null,
+                        1474966800L, recordsAvailableBefore + 10, null,
+                        recordsAvailableBefore);
+
+        assertEquals(Long.valueOf(recordsAvailableBefore
+                        - recordsAvailableBefore % OperationalDataRollup.HOUR),
+                response.getNextRecordsFrom());
+    }
+
     @Test
     public void buildOperationalDataResponseWithNotAvailableRecordsTo()
             throws Exception {
@@ -0,0 +1,234 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.ServiceId;
+import ee.ria.xroad.common.opmonitoring.OpMonitoringData.SecurityServerType;
+import ee.ria.xroad.common.opmonitoring.OpMonitoringSystemProperties;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataRecordManager.storeRecords;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.GSON;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.formatFullOperationalDataAsJson;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases related to the minute and hour rollups of the operational data.
+ */
+@Slf4j
+public class OperationalDataRollupManagerTest extends BaseTestUsingDB {
+
+    private static final long BUCKET_START = 1474966800L;
+
+    private static final ClientId CLIENT = ClientId.create("XTEE-CI-XM", "GOV", "00000001", "System1");
+    private static final ClientId PROVIDER = ClientId.create("XTEE-CI-XM", "GOV", "00000000", "Center");
+    private static final ClientId OTHER_PROVIDER = ClientId.create("XTEE-CI-XM", "COM", "00000002", "Other");
+
+    /**
+     * Cleanup the stored records and rollups before each test.
+     * @throws Exception if an error occurs.
+     */
+    @Before
+    public void beforeTest() throws Exception {
+        int cleaned = doInTransaction(session -> session.createQuery("delete OperationalDataRecord").executeUpdate()
+                + session.createQuery("delete OperationalDataRollup").executeUpdate());
+
+        log.info("Cleaned {} records and rollups", cleaned);
+
+        OperationalDataRollupManager.setMaxRecordsInPayload(
+                OpMonitoringSystemProperties.getOpMonitorMaxRecordsInPayload());
+    }
+
+    @Test
+    public void storeRecordsUpdatesRollups() throws Exception {
+        List<OperationalDataRecord> records = new ArrayList<>();
+        records.add(record(BUCKET_START + 1, PROVIDER, true, 100L, 1000L));
+        records.add(record(BUCKET_START + 2, PROVIDER, true, 300L, 3000L));
+        records.add(record(BUCKET_START + 3, PROVIDER, false, 50L, null));
+        records.add(record(BUCKET_START + 61, PROVIDER, true, 200L, 2000L));
+        storeRecords(records, BUCKET_START + 61);
+
+        // Another store request adds to the stored rollups.
+        List<OperationalDataRecord> more = new ArrayList<>();
+        more.add(record(BUCKET_START + 4, PROVIDER, true, 400L, 4000L));
+        storeRecords(more, BUCKET_START + 61);
+
+        List<OperationalDataAggregate> minutes = OperationalDataRollupManager.queryAggregates(
+                OperationalDataRollup.MINUTE, BUCKET_START, BUCKET_START + 60, null, null).getRecords();
+
+        assertEquals(2, minutes.size());
+
+        OperationalDataAggregate first = minutes.get(0);
+        assertEquals(BUCKET_START, first.getBucketStart());
+        assertEquals(3, first.getSuccessfulRequestCount());
+        assertEquals(1, first.getUnsuccessfulRequestCount());
+        assertEquals(Long.valueOf(100), first.getRequestMinDuration());
+        assertEquals(Long.valueOf(400), first.getRequestMaxDuration());
+        assertEquals(266.67, first.getRequestAverageDuration(), 0.01);
+        assertEquals(152.75, first.getRequestDurationStdDev(), 0.01);
+        assertEquals(300, first.getRequestDurationMedian(), 15);
+        assertEquals(Long.valueOf(1000), first.getRequestMinSize());
+        assertEquals(Long.valueOf(4000), first.getRequestMaxSize());
+        assertEquals(PROVIDER.getMemberCode(), first.getServiceMemberCode());
+
+        assertEquals(BUCKET_START + 60, minutes.get(1).getBucketStart());
+        assertEquals(1, minutes.get(1).getSuccessfulRequestCount());
+
+        List<OperationalDataAggregate> hours = OperationalDataRollupManager.queryAggregates(
+                OperationalDataRollup.HOUR, BUCKET_START, BUCKET_START, null, null).getRecords();
+
+        assertEquals(1, hours.size());
+        assertEquals(4, hours.get(0).getSuccessfulRequestCount());
+        assertEquals(1, hours.get(0).getUnsuccessfulRequestCount());
+        assertEquals(250.0, hours.get(0).getRequestAverageDuration(), 0.01);
+    }
+
+    @Test
+    public void queryServiceHealthData() throws Exception {
+        List<OperationalDataRecord> records = new ArrayList<>();
+        records.add(record(BUCKET_START + 1, PROVIDER, true, 100L, 1000L));
+        records.add(record(BUCKET_START + 61, PROVIDER, false, 100L, null));
+        records.add(record(BUCKET_START + 121, PROVIDER, true, 300L, 3000L));
+        records.add(record(BUCKET_START + 121, OTHER_PROVIDER, true, 300L, 3000L));
+
+        // Records of the client security server are not included in the health data.
+        OperationalDataRecord clientRecord = record(BUCKET_START + 121, PROVIDER, true, 100L, 1000L);
+        clientRecord.setSecurityServerType(SecurityServerType.CLIENT.getTypeString());
+        records.add(clientRecord);
+
+        storeRecords(records, BUCKET_START + 121);
+
+        Map<ServiceId, OperationalDataRollup> services =
+                OperationalDataRollupManager.queryServiceHealthData(BUCKET_START + 60);
+
+        assertEquals(2, services.size());
+
+        OperationalDataRollup service = services.get(ServiceId.create(PROVIDER, "xroadGetRandom", "v1"));
+        assertEquals(1, service.getSuccessfulRequestCount());
+        assertEquals(1, service.getUnsuccessfulRequestCount());
+        assertEquals(Long.valueOf(300), service.getDuration().getMin());
+        assertEquals("WSDL", service.getServiceType());
+        // The timestamps of the last requests include the requests before the statistics period.
+        assertEquals(Long.valueOf((BUCKET_START + 121) * 1000), service.getLastSuccessfulRequestTs());
+        assertEquals(Long.valueOf((BUCKET_START + 61) * 1000), service.getLastUnsuccessfulRequestTs());
+
+        OperationalDataRollup other = services.get(ServiceId.create(OTHER_PROVIDER, "xroadGetRandom", "v1"));
+        assertEquals(1, other.getSuccessfulRequestCount());
+        assertNull(other.getLastUnsuccessfulRequestTs());
+    }
+
+    @Test
+    public void queryAggregatesWithFilters() throws Exception {
+        List<OperationalDataRecord> records = new ArrayList<>();
+        records.add(record(BUCKET_START + 1, PROVIDER, true, 100L, 1000L));
+        records.add(record(BUCKET_START + 1, OTHER_PROVIDER, true, 100L, 1000L));
+        storeRecords(records, BUCKET_START + 1);
+
+        assertEquals(2, OperationalDataRollupManager.queryAggregates(OperationalDataRollup.MINUTE,
+                BUCKET_START, BUCKET_START, CLIENT, null).size());
+        assertEquals(1, OperationalDataRollupManager.queryAggregates(OperationalDataRollup.MINUTE,
+                BUCKET_START, BUCKET_START, null, OTHER_PROVIDER).size());
+        assertEquals(0, OperationalDataRollupManager.queryAggregates(OperationalDataRollup.MINUTE,
+                BUCKET_START, BUCKET_START, OTHER_PROVIDER, PROVIDER).size());
+    }
+
+    @Test
+    public void queryAggregatesOverflow() throws Exception {
+        List<OperationalDataRecord> records = new ArrayList<>();
+
+        for (int minute = 0; minute < 5; minute++) {
+            records.add(record(BUCKET_START + minute * 60, PROVIDER, true, 100L, 1000L));
+            records.add(record(BUCKET_START + minute * 60, OTHER_PROVIDER, true, 100L, 1000L));
+        }
+
+        storeRecords(records, BUCKET_START + 240);
+
+        OperationalDataRollupManager.setMaxRecordsInPayload(3);
+
+        // The aggregates of the last included time bucket are returned in full.
+        OperationalDataAggregates aggregates = OperationalDataRollupManager.queryAggregates(
+                OperationalDataRollup.MINUTE, BUCKET_START, BUCKET_START + 240, null, null);
+
+        assertEquals(4, aggregates.size());
+        assertEquals(Long.valueOf(BUCKET_START + 120), aggregates.getNextRecordsFrom());
+
+        aggregates = OperationalDataRollupManager.queryAggregates(
+                OperationalDataRollup.MINUTE, BUCKET_START + 120, BUCKET_START + 240, null, null);
+
+        assertEquals(4, aggregates.size());
+        assertEquals(Long.valueOf(BUCKET_START + 240), aggregates.getNextRecordsFrom());
+
+        aggregates = OperationalDataRollupManager.queryAggregates(
+                OperationalDataRollup.MINUTE, BUCKET_START + 240, BUCKET_START + 240, null, null);
+
+        assertEquals(2, aggregates.size());
+        assertNull(aggregates.getNextRecordsFrom());
+    }
+
+    @Test
+    public void cleanRollups() throws Exception {
+        List<OperationalDataRecord> records = new ArrayList<>();
+        records.add(record(BUCKET_START + 1, PROVIDER, true, 100L, 1000L));
+        records.add(record(BUCKET_START + 3601, PROVIDER, true, 100L, 1000L));
+        storeRecords(records, BUCKET_START + 3601);
+
+        // The minute and hour rollups of the first hour.
+        assertEquals(2, OperationalDataRollupManager.cleanRollups(BUCKET_START + 3600));
+
+        assertTrue(OperationalDataRollupManager.queryAggregates(OperationalDataRollup.HOUR, BUCKET_START,
+                BUCKET_START, null, null).getRecords().isEmpty());
+        assertEquals(1, OperationalDataRollupManager.queryAggregates(OperationalDataRollup.HOUR,
+                BUCKET_START + 3600, BUCKET_START + 3600, null, null).size());
+    }
+
+    private static OperationalDataRecord record(long monitoringDataTs, ClientId serviceProvider,
+            boolean succeeded, long duration, Long requestSize) {
+        OperationalDataRecord record = GSON.fromJson(formatFullOperationalDataAsJson(), OperationalDataRecord.class);
+
+        record.setMonitoringDataTs(monitoringDataTs);
+        record.setSecurityServerType(SecurityServerType.PRODUCER.getTypeString());
+        record.setServiceMemberClass(serviceProvider.getMemberClass());
+        record.setServiceMemberCode(serviceProvider.getMemberCode());
+        record.setServiceSubsystemCode(serviceProvider.getSubsystemCode());
+        record.setSucceeded(succeeded);
+        record.setResponseOutTs(monitoringDataTs * 1000);
+        record.setRequestInTs(monitoringDataTs * 1000 - duration);
+        record.setRequestSize(requestSize);
+
+        return record;
+    }
+}
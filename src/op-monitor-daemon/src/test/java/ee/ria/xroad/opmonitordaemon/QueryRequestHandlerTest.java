@@ -39,7 +39,9 @@ import ee.ria.xroad.common.message.SoapUtils;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
 import ee.ria.xroad.common.util.MimeTypes;
 import ee.ria.xroad.common.util.MimeUtils;
+import ee.ria.xroad.common.util.TimeUtils;
 import ee.ria.xroad.opmonitordaemon.message.GetSecurityServerHealthDataResponseType;
+import ee.ria.xroad.opmonitordaemon.message.ServiceEventsType;
 
 import com.codahale.metrics.MetricRegistry;
 import lombok.SneakyThrows;
@@ -52,11 +54,11 @@ import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
 import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.GSON;
 import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.formatFullOperationalDataAsJson;
 import static org.junit.Assert.assertEquals;
@@ -64,7 +66,7 @@ import static org.junit.Assert.assertEquals;
 /**
  * Tests for verifying query request handler behavior.
  */
-public class QueryRequestHandlerTest {
+public class QueryRequestHandlerTest extends BaseTestUsingDB {
 
     private static final String RECORDS = "records";
     private static final String OPERATIONAL_DATA_RESPONSE =
@@ -97,11 +99,13 @@ public class QueryRequestHandlerTest {
 
         QueryRequestHandler handler = new OperationalDataRequestHandler() {
             @Override
-            protected OperationalDataRecords getOperationalDataRecords(
+            protected OperationalDataRecordCursor openOperationalDataRecords(
                     ClientId filterByClient, long recordsFrom, long recordsTo,
                     ClientId filterByServiceProvider,
                     Set<String> outputFields) {
-                return new OperationalDataRecords(Collections.emptyList());
+                return new OperationalDataRecordCursor(recordsFrom, recordsTo,
+                        filterByClient, filterByServiceProvider, outputFields,
+                        1, 0, null);
             }
 
             @Override
@@ -175,6 +179,9 @@ public class QueryRequestHandlerTest {
         SoapMessageImpl request = (SoapMessageImpl) parser.parse(
                 MimeTypes.TEXT_XML_UTF8, is);
 
+        doInTransaction(session -> session.createQuery(
+                "delete OperationalDataRollup").executeUpdate());
+
         QueryRequestHandler handler = new HealthDataRequestHandler(
                 new TestMetricsRegistry());
 
@@ -200,20 +207,23 @@ public class QueryRequestHandlerTest {
                 responseData.getMonitoringStartupTimestamp());
         assertEquals(2, responseData.getServicesEvents()
                 .getServiceEvents().size());
-        assertEquals(ServiceId.create("XTEE-CI-XM", "GOV", "00000001",
-                "System1", "xroad/GetRandom", "v2"),
-                responseData.getServicesEvents().getServiceEvents()
-                .get(0).getService());
-        assertEquals(5, responseData.getServicesEvents()
-                .getServiceEvents().get(0).getLastPeriodStatistics()
+
+        ServiceId service = ServiceId.create("XTEE-CI-XM", "GOV", "00000001",
+                "System1", "xroad/GetRandom", "v2");
+        ServiceEventsType serviceEvents = responseData.getServicesEvents()
+                .getServiceEvents().stream()
+                .filter(e -> service.equals(e.getService()))
+                .findFirst().orElseThrow(AssertionError::new);
+
+        assertEquals(5, serviceEvents.getLastPeriodStatistics()
                 .getSuccessfulRequestCount());
-        assertEquals(5, responseData.getServicesEvents()
-                .getServiceEvents().get(0).getLastPeriodStatistics()
+        assertEquals(5, serviceEvents.getLastPeriodStatistics()
                 .getUnsuccessfulRequestCount());
+        assertEquals(SERVICE_TYPE_REST, serviceEvents.getServiceType());
     }
 
     private final class TestMetricsRegistry extends MetricRegistry {
-        TestMetricsRegistry() {
+        TestMetricsRegistry() throws Exception {
             HealthDataMetrics.registerInitialMetrics(this,
                     () -> TEST_TIMESTAMP);
 
@@ -245,6 +255,10 @@ public class QueryRequestHandlerTest {
             }
 
             HealthDataMetrics.processRecords(this, records);
+
+            // The health data statistics are read from the rollups.
+            OperationalDataRecordManager.storeRecords(records,
+                    TimeUtils.getEpochSecond());
         }
 
         private OperationalDataRecord createRecord(ServiceId serviceId,
@@ -0,0 +1,281 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.opmonitordaemon;
+
+import ee.ria.xroad.common.SystemProperties;
+
+import com.codahale.metrics.MetricRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static ee.ria.xroad.opmonitordaemon.OpMonitorDaemonDatabaseCtx.doInTransaction;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.GSON;
+import static ee.ria.xroad.opmonitordaemon.OperationalDataTestUtil.formatFullOperationalDataAsJson;
+
+/**
+ * Benchmark program for storing operational data. Compares the streaming ingestion of store requests with
+ * reading the whole request into memory before parsing and storing it, reporting the sustained ingest rate
+ * and the peak heap usage for each request size.
+ *
+ * Usage: StoreRequestBenchmark [records...], requests of 10 000, 100 000 and 1 000 000 records by default.
+ *
+ * The requests are generated on the fly and stored into a file-based HSQLDB with disk-backed tables. Set the
+ * system property xroad.common.database-properties to a database properties file to run the benchmark against
+ * PostgreSQL, the benchmark deletes all the operational data records of the database. The JDBC batch size is
+ * taken from op-monitor.hibernate.jdbc.batch_size, as in the daemon.
+ */
+@Slf4j
+public final class StoreRequestBenchmark {
+
+    private static final long[] DEFAULT_RECORDS = {10_000L, 100_000L, 1_000_000L};
+    private static final long MEMORY_SAMPLE_INTERVAL_MS = 50;
+    private static final String DATABASE_PATH = "build/store-benchmark-db";
+
+    private StoreRequestBenchmark() {
+    }
+
+    /**
+     * Main program entry point.
+     * @param args command-line arguments
+     * @throws Exception in case of any errors
+     */
+    public static void main(String[] args) throws Exception {
+        long[] sizes = args.length > 0
+                ? Arrays.stream(args).mapToLong(Long::parseLong).toArray() : DEFAULT_RECORDS;
+
+        if (System.getProperty(SystemProperties.DATABASE_PROPERTIES) == null) {
+            System.setProperty(SystemProperties.DATABASE_PROPERTIES, createDatabaseProperties());
+        }
+
+        MetricRegistry registry = new MetricRegistry();
+
+        try {
+            for (long size : sizes) {
+                run("buffered", size, () -> storeBuffered(size, registry));
+                run("streaming", size, () -> storeStreaming(size, registry));
+            }
+        } finally {
+            OpMonitorDaemonDatabaseCtx.get().closeSessionFactory();
+            FileUtils.deleteDirectory(new File(DATABASE_PATH));
+        }
+    }
+
+    private static String createDatabaseProperties() throws Exception {
+        File database = new File(DATABASE_PATH);
+        FileUtils.forceMkdir(database);
+
+        Properties properties = new Properties();
+        properties.setProperty("op-monitor.hibernate.dialect", "org.hibernate.dialect.HSQLDialect");
+        properties.setProperty("op-monitor.hibernate.connection.driver_class", "org.hsqldb.jdbcDriver");
+        properties.setProperty("op-monitor.hibernate.connection.url", "jdbc:hsqldb:file:" + DATABASE_PATH
+                + "/op-monitor;hsqldb.default_table_type=cached");
+        properties.setProperty("op-monitor.hibernate.connection.username", "opmonitor");
+        properties.setProperty("op-monitor.hibernate.connection.password", "opmonitor");
+        properties.setProperty("op-monitor.hibernate.hbm2ddl.auto", "update");
+        properties.setProperty("op-monitor.hibernate.jdbc.batch_size", "100");
+
+        File file = new File(database, "db.properties");
+
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, null);
+        }
+
+        return file.getPath();
+    }
+
+    private static long storeBuffered(long records, MetricRegistry registry) throws Exception {
+        String json = IOUtils.toString(new StoreRequestInputStream(records), StandardCharsets.UTF_8);
+        List<OperationalDataRecord> parsed = GSON.fromJson(json, OperationalDataRecords.class).getRecords();
+
+        OperationalDataRecordManager.storeRecords(parsed, System.currentTimeMillis() / 1000);
+        HealthDataMetrics.processRecords(registry, parsed);
+
+        return parsed.size();
+    }
+
+    private static long storeStreaming(long records, MetricRegistry registry) throws Exception {
+        try (OperationalDataRecordsReader reader = new OperationalDataRecordsReader(
+                new StoreRequestInputStream(records))) {
+            HealthDataMetrics.Update healthData = new HealthDataMetrics.Update();
+
+            long stored = OperationalDataRecordManager.storeRecords(reader::next, System.currentTimeMillis() / 1000,
+                    healthData::add);
+            healthData.apply(registry);
+
+            return stored;
+        }
+    }
+
+    private static void run(String name, long records, Store store) throws Exception {
+        doInTransaction(session -> session.createQuery("delete OperationalDataRecord").executeUpdate());
+
+        System.gc();
+        MemorySampler sampler = new MemorySampler();
+        sampler.start();
+
+        long start = System.nanoTime();
+        long stored;
+
+        try {
+            stored = store.store();
+        } catch (OutOfMemoryError e) {
+            log.info("{}: {} records, out of memory", name, records);
+            return;
+        } finally {
+            sampler.interrupt();
+            sampler.join();
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        log.info("{}: stored {} records in {} ms, {} records/s, peak live heap {} MiB", name, stored,
+                TimeUnit.NANOSECONDS.toMillis(elapsed),
+                String.format("%.0f", stored / (elapsed / (double) TimeUnit.SECONDS.toNanos(1))),
+                sampler.getPeak() / FileUtils.ONE_MB);
+    }
+
+    @FunctionalInterface
+    private interface Store {
+        long store() throws Exception;
+    }
+
+    /**
+     * Generates a store request of the given number of records without holding it in memory.
+     */
+    private static final class StoreRequestInputStream extends InputStream {
+
+        private static final byte[] HEAD = "{\"records\":[".getBytes(StandardCharsets.UTF_8);
+        private static final byte[] RECORD = formatFullOperationalDataAsJson().getBytes(StandardCharsets.UTF_8);
+        private static final byte[] SEPARATOR = ",".getBytes(StandardCharsets.UTF_8);
+        private static final byte[] TAIL = "]}".getBytes(StandardCharsets.UTF_8);
+
+        private final long records;
+
+        private long written;
+        private byte[] chunk = HEAD;
+        private int position;
+
+        StoreRequestInputStream(long records) {
+            this.records = records;
+        }
+
+        @Override
+        public int read() {
+            if (!nextChunk()) {
+                return -1;
+            }
+
+            return chunk[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (!nextChunk()) {
+                return -1;
+            }
+
+            int count = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, count);
+            position += count;
+
+            return count;
+        }
+
+        private boolean nextChunk() {
+            while (position == chunk.length) {
+                if (chunk == TAIL) {
+                    return false;
+                }
+
+                if (written == records) {
+                    chunk = TAIL;
+                } else if (chunk == RECORD) {
+                    chunk = SEPARATOR;
+                } else {
+                    chunk = RECORD;
+                    written++;
+                }
+
+                position = 0;
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Samples the heap used after garbage collections while storing, which excludes the garbage
+     * the storing has produced but not yet been collected.
+     */
+    private static final class MemorySampler extends Thread {
+
+        private volatile long peak;
+
+        MemorySampler() {
+            setDaemon(true);
+        }
+
+        long getPeak() {
+            return peak;
+        }
+
+        @Override
+        public void run() {
+            List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                    .filter(pool -> pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null)
+                    .collect(Collectors.toList());
+
+            while (!isInterrupted()) {
+                peak = Math.max(peak, heapPools.stream().mapToLong(pool -> pool.getCollectionUsage().getUsed()).sum());
+
+                try {
+                    Thread.sleep(MEMORY_SAMPLE_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -27,30 +27,34 @@ package ee.ria.xroad.common.signature;
 
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.util.PerformanceMetrics;
 import ee.ria.xroad.signer.protocol.SignerClient;
 import ee.ria.xroad.signer.protocol.message.GetTokenBatchSigningEnabled;
 import ee.ria.xroad.signer.protocol.message.Sign;
 import ee.ria.xroad.signer.protocol.message.SignResponse;
 
-import akka.actor.AbstractActorWithStash;
-import akka.actor.ActorRef;
-import akka.actor.ActorSystem;
-import akka.actor.Props;
-import akka.actor.UntypedAbstractActor;
-import akka.pattern.Patterns;
-import akka.util.Timeout;
-import lombok.Data;
+import com.codahale.metrics.Histogram;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import org.bouncycastle.operator.OperatorCreationException;
-import scala.concurrent.Await;
 
-import java.io.IOException;
-import java.security.NoSuchAlgorithmException;
-import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static ee.ria.xroad.common.ErrorCodes.SIGNER_X;
 import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
@@ -68,32 +72,113 @@ import static ee.ria.xroad.common.util.CryptoUtils.getDigestAlgorithmId;
  * (and thus the same key id) are signed in batch and the resulting hash
  * chain is produced for each request.
  *
- * The batch signer is an Akka actor, it creates child actors per
- * signing certificate, which means there is essentially one batch signer
- * per signing certificate.
+ * There is one key worker per signing certificate and signature algorithm.
+ * Incoming requests are appended to the worker's lock-free queue. While a
+ * signature is being calculated by the Signer, the following requests
+ * accumulate in the queue and are signed together as the next batch as soon
+ * as the current signature is done. Callers receive a {@link CompletableFuture}
+ * for the signature data.
+ *
+ * Optionally, an idle worker waits for a short batching window before starting
+ * the next signature, so that batches stay large also when the token is not
+ * busy all the time. The window is bounded by the configured maximum and by the
+ * measured signing latency of the token, and it is skipped altogether when
+ * requests arrive less frequently than the window length (e.g. at idle).
  */
 @Slf4j
-public class BatchSigner extends UntypedAbstractActor {
+public final class BatchSigner {
 
     private static final int TIMEOUT_MILLIS = SystemProperties.getSignerClientTimeout();
-    private static final Timeout DEFAULT_TIMEOUT = new Timeout(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
 
-    // Holds the actor instance, which sends and receives messages.
-    private static ActorRef instance;
+    private static final Histogram BATCH_SIZE = PerformanceMetrics.histogram(BatchSigner.class, "batchSize");
+    private static final Histogram LATENCY = PerformanceMetrics.histogram(BatchSigner.class, "latencyMicros");
+
+    // Weight of the latest sample in the moving averages of signing latency and request interval
+    private static final double EWMA_WEIGHT = 0.2;
+
+    // Time to sign one request at a time after failing to ask Signer whether batch signing is enabled
+    static final long BATCH_SIGNING_QUERY_RETRY_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private static final SignerOperations SIGNER_CLIENT = new SignerOperations() {
+        @Override
+        public boolean isBatchSigningEnabled(String keyId) throws Exception {
+            return SignerClient.execute(new GetTokenBatchSigningEnabled(keyId));
+        }
+
+        @Override
+        public CompletableFuture<byte[]> sign(String keyId, String signatureAlgorithmId, byte[] digest) {
+            return SignerClient.<SignResponse>executeAsync(new Sign(keyId, signatureAlgorithmId, digest))
+                    .thenApply(SignResponse::getSignature);
+        }
+    };
+
+    private static volatile BatchSigner instance;
+
+    private final SignerOperations signer;
+    private final long maxWindowNanos;
+    private final int maxBatchSize;
+
+    private final ConcurrentMap<String, KeyWorker> workers = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("batch-signer-%d")
+            .setDaemon(true)
+            .build());
+
+    private final ScheduledExecutorService scheduler;
+
+    private BatchSigner(SignerOperations signer, long maxWindowNanos, int maxBatchSize) {
+        this.signer = signer;
+        this.maxWindowNanos = maxWindowNanos;
+        this.maxBatchSize = maxBatchSize > 0 ? maxBatchSize : Integer.MAX_VALUE;
+
+        scheduler = maxWindowNanos > 0
+                ? Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                        .setNameFormat("batch-signer-window")
+                        .setDaemon(true)
+                        .build())
+                : null;
+    }
+
+    /**
+     * Initializes the batch signer.
+     */
+    public static void init() {
+        init(SIGNER_CLIENT, TimeUnit.MICROSECONDS.toNanos(SystemProperties.getBatchSigningWindowMicros()),
+                SystemProperties.getBatchSigningMaxBatchSize());
+    }
 
     /**
-     * Initializes the batch signer with the given actor system.
+     * Initializes the batch signer with the given Signer operations and batching parameters.
      *
-     * @param actorSystem actor system the batch signer should use
+     * @param signer the operations of the Signer
+     * @param maxWindowNanos the maximum batching window, 0 to disable the window
+     * @param maxBatchSize the maximum number of requests in a batch, 0 for no limit
      */
-    public static void init(ActorSystem actorSystem) {
+    static synchronized void init(SignerOperations signer, long maxWindowNanos, int maxBatchSize) {
         if (instance == null) {
-            instance = actorSystem.actorOf(Props.create(BatchSigner.class));
+            instance = new BatchSigner(signer, maxWindowNanos, maxBatchSize);
         }
     }
 
     /**
-     * Submits the given signing request for batch signing.
+     * Stops the batch signer. Requests that have not been signed yet are completed exceptionally.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.executor.shutdownNow();
+
+            if (instance.scheduler != null) {
+                instance.scheduler.shutdownNow();
+            }
+
+            instance.workers.values().forEach(KeyWorker::abort);
+            instance = null;
+        }
+    }
+
+    /**
+     * Submits the given signing request for batch signing and waits for the result.
      *
      * @param keyId the signing key
      * @param signatureAlgorithmId ID of the signature algorithm to use
@@ -103,272 +188,402 @@ public class BatchSigner extends UntypedAbstractActor {
      */
     public static SignatureData sign(String keyId, String signatureAlgorithmId, SigningRequest request)
             throws Exception {
-        if (instance == null) {
-            throw new IllegalStateException("BatchSigner is not initialized");
-        }
-
-        // Send the signing request to the actor instance (itself)
-        return SignerClient.result(Await.result(Patterns.ask(instance, new SigningRequestWrapper(
-                keyId, signatureAlgorithmId, request), DEFAULT_TIMEOUT.duration().length()),
-                DEFAULT_TIMEOUT.duration()));
-    }
+        CompletableFuture<SignatureData> result = signAsync(keyId, signatureAlgorithmId, request);
 
-    @Override
-    public void onReceive(Object message) throws Exception {
         try {
-            if (message instanceof SigningRequestWrapper) {
-                handle((SigningRequestWrapper) message);
-            } else {
-                log.trace("unhandled({})", message);
-
-                unhandled(message);
-            }
-        } catch (Exception e) {
-            log.error("Error in signing worker", e);
-
-            getSender().tell(e, getSelf());
+            return result.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (TimeoutException e) {
+            // the request is skipped if it has not been picked into a batch yet
+            result.cancel(false);
+
+            throw new CodedException(X_INTERNAL_ERROR, e, "Signature creation timed out");
+        } catch (InterruptedException e) {
+            result.cancel(false);
+            Thread.currentThread().interrupt();
+
+            throw new CodedException(X_INTERNAL_ERROR, e, "Signature creation was interrupted");
         }
     }
 
-    private void handle(SigningRequestWrapper signRequest) throws Exception {
-        // New incoming sign request. Find the corresponding batch signer actor
-        // (if not found, create one) and relay the sign request to the worker.
-        try {
-            getWorker(signRequest).tell(signRequest, getSender());
-        } catch (Exception e) {
-            throw new RuntimeException("Unable to get worker", e);
+    /**
+     * Submits the given signing request for batch signing.
+     *
+     * @param keyId the signing key
+     * @param signatureAlgorithmId ID of the signature algorithm to use
+     * @param request the signing request
+     * @return future for the signature data
+     * @throws Exception if the signing certificate cannot be processed
+     */
+    public static CompletableFuture<SignatureData> signAsync(String keyId, String signatureAlgorithmId,
+            SigningRequest request) throws Exception {
+        BatchSigner signer = instance;
+
+        if (signer == null) {
+            throw new IllegalStateException("BatchSigner is not initialized");
         }
+
+        PendingRequest pending = new PendingRequest(request);
+
+        signer.getWorker(keyId, signatureAlgorithmId, request).submit(pending);
+
+        return pending.getResult();
     }
 
-    private ActorRef getWorker(SigningRequestWrapper signRequest) throws Exception {
-        // Signing worker based on cert hash.
-        String name = calculateCertHexHash(signRequest.getSigningCert());
+    private KeyWorker getWorker(String keyId, String signatureAlgorithmId, SigningRequest request)
+            throws Exception {
+        // Signing worker based on cert hash, requests in one batch must also share the algorithm.
+        String name = calculateCertHexHash(request.getSigningCert()) + "/" + signatureAlgorithmId;
 
-        ActorRef worker = getContext().findChild(name).orElse(null);
+        KeyWorker worker = workers.get(name);
 
         if (worker == null) {
-            log.trace("Creating new worker for cert '{}'", name);
+            worker = workers.computeIfAbsent(name, n -> {
+                log.trace("Creating new worker for '{}'", n);
 
-            worker = getContext().actorOf(Props.create(WorkerImpl.class), name);
+                return new KeyWorker(keyId, signatureAlgorithmId);
+            });
         }
 
         return worker;
     }
 
     /**
-     * This is the worker that does the heavy lifting.
+     * The operations of the Signer used for batch signing.
      */
-    private static class WorkerImpl extends AbstractActorWithStash {
+    interface SignerOperations {
+
+        /**
+         * Asks Signer whether batch signing is enabled for the token of the key. Blocks until the response
+         * is received.
+         *
+         * @param keyId the signing key
+         * @return true if the token supports batch signing
+         * @throws Exception in case of any errors
+         */
+        boolean isBatchSigningEnabled(String keyId) throws Exception;
+
+        /**
+         * Signs the digest without blocking the calling thread.
+         *
+         * @param keyId the signing key
+         * @param signatureAlgorithmId ID of the signature algorithm to use
+         * @param digest the digest to sign
+         * @return future for the signature
+         */
+        CompletableFuture<byte[]> sign(String keyId, String signatureAlgorithmId, byte[] digest);
+    }
+
+    /**
+     * This is the worker that does the heavy lifting. At most one signature is being
+     * calculated by a worker at any time.
+     */
+    private final class KeyWorker {
+
+        private final String keyId;
+        private final String signatureAlgorithmId;
 
-        // The currently active signing ctx.
-        private BatchSignatureCtx workingSigningCtx;
+        private final Queue<PendingRequest> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queued = new AtomicInteger();
 
-        // The next signing ctx, if batch signing.
-        private BatchSignatureCtx nextSigningCtx;
+        // True while a batch is being collected or signed, guards against concurrent batches.
+        private final AtomicBoolean busy = new AtomicBoolean();
 
-        private long signStartTime;
-        private boolean workerBusy;
+        // Generation of the currently open batching window, 0 if no window is open.
+        private final AtomicLong openWindow = new AtomicLong();
+        private long windowGeneration;
 
-        private Boolean batchSigningEnabled;
+        private volatile Boolean batchSigningEnabled;
 
-        @Override
-        public Receive createReceive() {
-            return receiveBuilder()
-                    .match(SigningRequestWrapper.class, this::handleSignRequest)
-                    .match(SignResponse.class, this::handleSignResponse)
-                    .match(Exception.class, this::handleException)
-                    .matchAny(this::unhandled)
-                    .build();
+        // Accessed by the thread collecting the current batch only
+        private boolean batchSigningQueryFailed;
+        private long batchSigningQueryTime;
+
+        private final BatchingWindow batchingWindow = new BatchingWindow(maxWindowNanos);
+
+        private final Histogram batchSize;
+        private final Histogram queueingDelay;
+
+        KeyWorker(String keyId, String signatureAlgorithmId) {
+            this.keyId = keyId;
+            this.signatureAlgorithmId = signatureAlgorithmId;
+
+            batchSize = PerformanceMetrics.histogram(BatchSigner.class, keyId, "batchSize");
+            queueingDelay = PerformanceMetrics.histogram(BatchSigner.class, keyId, "queueingDelayMicros");
         }
 
-        private void handleSignRequest(SigningRequestWrapper signRequest) throws Exception {
-            log.trace("handleSignRequest()");
+        void submit(PendingRequest request) {
+            batchingWindow.requestSubmitted(request.getSubmitTime());
 
-            // If we do not know whether batch signing is enabled for the token,
-            // we ask from Signer. This call will block until response is
-            // received or error occurs.
-            if (batchSigningEnabled == null) {
-                queryBatchSigningEnabled(signRequest.getKeyId());
+            queue.add(request);
+
+            if (queued.incrementAndGet() >= maxBatchSize) {
+                // The batch is full, no need to wait for the window to close
+                long window = openWindow.get();
+
+                if (window != 0 && openWindow.compareAndSet(window, 0)) {
+                    executeNextBatch();
+
+                    return;
+                }
             }
 
-            // Handle incoming sign request. If the token worker is currently
-            // busy (signing, generating key, etc...) and batch signing is
-            // enabled then create signing context and collect all following
-            // sign requests to be signed in batch. Otherwise just sign the
-            // data straight away.
-            if (isWorkerBusy()) {
-                if (batchSigningEnabled) {
-                    doBatchSign(signRequest);
+            scheduleNextBatch();
+        }
+
+        void abort() {
+            PendingRequest request;
+
+            while ((request = queue.poll()) != null) {
+                request.fail(new CodedException(X_INTERNAL_ERROR, "Batch signer was stopped"));
+            }
+        }
+
+        private void scheduleNextBatch() {
+            if (!queue.isEmpty() && busy.compareAndSet(false, true)) {
+                long windowNanos = getBatchingWindowNanos();
+
+                if (windowNanos > 0 && queued.get() < maxBatchSize) {
+                    long window = ++windowGeneration;
+
+                    openWindow.set(window);
+
+                    try {
+                        scheduler.schedule(() -> closeWindow(window), windowNanos, TimeUnit.NANOSECONDS);
+                    } catch (RuntimeException e) {
+                        busy.set(false);
+                        abort();
+                    }
                 } else {
-                    log.trace("Batch signing not enabled, stashing request");
-                    // Batch signing not enabled, but currently busy,
-                    // so stash this message for future.
-                    stash();
+                    executeNextBatch();
                 }
-            } else {
-                doSign(signRequest);
             }
         }
 
-        private void queryBatchSigningEnabled(String keyId) {
-            try {
-                batchSigningEnabled = SignerClient.execute(new GetTokenBatchSigningEnabled(keyId));
-            } catch (Exception e) {
-                log.error("Failed to query if batch signing is enabled for token with key {}", keyId, e);
+        private void closeWindow(long window) {
+            if (openWindow.compareAndSet(window, 0)) {
+                executeNextBatch();
             }
         }
 
-        private void doBatchSign(SigningRequestWrapper wrapper) {
-            log.trace("doBatchSign()");
-
-            if (nextSigningCtx == null) {
-                nextSigningCtx = new BatchSignatureCtx(wrapper.getKeyId(), wrapper.getSignatureAlgorithmId());
+        private void executeNextBatch() {
+            try {
+                executor.execute(this::signNextBatch);
+            } catch (RuntimeException e) {
+                busy.set(false);
+                abort();
             }
+        }
 
-            nextSigningCtx.add(getSender(), wrapper.getRequest());
+        private long getBatchingWindowNanos() {
+            return Boolean.TRUE.equals(batchSigningEnabled) ? batchingWindow.getWindowNanos() : 0;
         }
 
-        private void doSign(SigningRequestWrapper wrapper) throws Exception {
-            log.trace("doSign()");
+        private void signNextBatch() {
+            BatchSignatureCtx ctx = collectBatch();
 
-            BatchSignatureCtx ctx = new BatchSignatureCtx(wrapper.getKeyId(), wrapper.getSignatureAlgorithmId());
-            ctx.add(getSender(), wrapper.getRequest());
+            if (ctx == null) {
+                batchDone();
 
-            workingSigningCtx = ctx;
+                return;
+            }
 
-            doCalculateSignature(ctx.getKeyId(), ctx.getSignatureAlgorithmId(), ctx.getDataToBeSigned());
-        }
+            log.trace("signNextBatch(size = {})", ctx.size());
 
-        private void handleSignResponse(SignResponse signResponse) {
-            log.trace("handleSignResponse()");
+            BATCH_SIZE.update(ctx.size());
+            batchSize.update(ctx.size());
 
-            workerBusy = false;
+            try {
+                byte[] digest = calculateDigest(getDigestAlgorithmId(signatureAlgorithmId), ctx.getDataToBeSigned());
+                long signStart = System.nanoTime();
 
-            // Handle the (successful) signature calculation result that came
-            // from Signer -- send the signature to the clients.
-            sendResponse(signResponse);
+                signer.sign(keyId, signatureAlgorithmId, digest)
+                        .whenCompleteAsync((signature, error) -> {
+                            if (error != null) {
+                                ctx.fail(unwrap(error));
+                            } else {
+                                batchingWindow.signed(System.nanoTime() - signStart);
 
-            // If batch signing is not enabled, then start signing the next
-            // stashed messages.
-            if (!batchSigningEnabled) {
-                unstashAll();
-            } else if (nextSigningCtx != null) {
-                // Start the next batch signing (if any).
-                startNextBatchSigning();
+                                ctx.complete(signature);
+                            }
+
+                            batchDone();
+                        }, executor);
+            } catch (Exception e) {
+                log.error("Error in signing worker", e);
+
+                ctx.fail(e);
+                batchDone();
             }
         }
 
-        private void handleException(Exception exception) {
-            log.trace("handleException()");
-
-            workerBusy = false;
+        private void batchDone() {
+            busy.set(false);
 
-            sendResponse(exception);
+            // Requests might have arrived after the queue was last checked.
+            scheduleNextBatch();
         }
 
-        private void startNextBatchSigning() {
-            log.trace("startNextBatchSigning()");
+        /**
+         * Moves the queued requests to a new signing context. If batch signing is not
+         * enabled for the token, the context contains only one request.
+         */
+        private BatchSignatureCtx collectBatch() {
+            BatchSignatureCtx ctx = null;
+            boolean batchSigning = false;
+            PendingRequest request;
+            long now = System.nanoTime();
+
+            while ((request = queue.poll()) != null) {
+                queued.decrementAndGet();
+
+                if (request.getResult().isDone()) {
+                    // Cancelled by the caller
+                    continue;
+                }
 
-            workingSigningCtx = nextSigningCtx;
-            nextSigningCtx = null;
+                queueingDelay.update(TimeUnit.NANOSECONDS.toMicros(now - request.getSubmitTime()));
 
-            try {
-                doCalculateSignature(workingSigningCtx.getKeyId(), workingSigningCtx.getSignatureAlgorithmId(),
-                        workingSigningCtx.getDataToBeSigned());
-            } catch (Exception e) {
-                sendResponse(workingSigningCtx, translateException(e));
+                if (ctx == null) {
+                    ctx = new BatchSignatureCtx(signatureAlgorithmId);
+                    batchSigning = isBatchSigningEnabled();
+                }
+
+                ctx.add(request);
 
-                workerBusy = true;
-                workingSigningCtx = null;
+                if (!batchSigning || ctx.size() >= maxBatchSize) {
+                    break;
+                }
             }
+
+            return ctx;
         }
 
-        private boolean isWorkerBusy() {
-            if (isSignatureCreationTimedOut()) {
-                workerBusy = false;
+        private boolean isBatchSigningEnabled() {
+            // If we do not know whether batch signing is enabled for the token,
+            // we ask from Signer. This call will block until response is
+            // received or error occurs. If the call fails, the requests are
+            // signed one at a time until it is time to ask again.
+            if (batchSigningEnabled == null) {
+                long now = System.nanoTime();
+
+                if (batchSigningQueryFailed && now - batchSigningQueryTime < BATCH_SIGNING_QUERY_RETRY_NANOS) {
+                    return false;
+                }
 
-                throw new CodedException(X_INTERNAL_ERROR, "Signature creation timed out");
+                try {
+                    batchSigningEnabled = signer.isBatchSigningEnabled(keyId);
+                } catch (Exception e) {
+                    log.error("Failed to query if batch signing is enabled for token with key {}", keyId, e);
+
+                    batchSigningQueryFailed = true;
+                    batchSigningQueryTime = now;
+
+                    return false;
+                }
             }
 
-            return workerBusy;
+            return batchSigningEnabled;
         }
+    }
 
-        private boolean isSignatureCreationTimedOut() {
-            return workerBusy && System.currentTimeMillis() - signStartTime >= DEFAULT_TIMEOUT.duration().length();
-        }
+    /**
+     * Batching window of a key worker, computed from the moving averages of the signing latency and the
+     * interval of the incoming requests. The times are passed in by the worker.
+     */
+    static final class BatchingWindow {
 
-        private void doCalculateSignature(String keyId, String signatureAlgorithmId, byte[] data)
-                throws NoSuchAlgorithmException, IOException, OperatorCreationException {
-            workerBusy = true;
-            signStartTime = System.currentTimeMillis();
+        private final long maxWindowNanos;
 
-            byte[] digest = calculateDigest(getDigestAlgorithmId(signatureAlgorithmId), data);
+        // Moving averages, updated without synchronization, approximate values suffice.
+        private volatile double signLatencyNanos;
+        private volatile double requestIntervalNanos;
+        private volatile long lastSubmitTime;
 
-            // Proxy this request to the Signer.
-            SignerClient.execute(new Sign(keyId, signatureAlgorithmId, digest), getSelf());
+        BatchingWindow(long maxWindowNanos) {
+            this.maxWindowNanos = maxWindowNanos;
         }
 
-        private void sendResponse(Object message) {
-            log.trace("sendResponse({})", message);
+        void requestSubmitted(long submitTime) {
+            long previous = lastSubmitTime;
 
-            if (workingSigningCtx != null) {
-                try {
-                    if (message instanceof SignResponse) {
-                        sendSignatureResponse(workingSigningCtx, ((SignResponse) message).getSignature());
-                    } else {
-                        sendResponse(workingSigningCtx, message);
-                    }
-                } catch (Exception e) {
-                    sendResponse(workingSigningCtx, e);
-                }
+            lastSubmitTime = submitTime;
 
-                workingSigningCtx = null;
+            if (previous != 0) {
+                requestIntervalNanos = movingAverage(requestIntervalNanos, submitTime - previous);
             } else {
-                throw new RuntimeException("No signing context");
+                requestIntervalNanos = Double.MAX_VALUE;
             }
         }
 
-        private void sendSignatureResponse(BatchSignatureCtx ctx, byte[] signatureValue) throws Exception {
-            String signature = ctx.createSignatureXml(signatureValue);
-
-            // Each client gets corresponding hash chain -- client index in the
-            // clients list determines the hash chain.
-            for (int i = 0; i < ctx.getClients().size(); i++) {
-                ActorRef client = ctx.getClients().get(i);
-                client.tell(ctx.createSignatureData(signature, i), getSelf());
-            }
+        void signed(long latencyNanos) {
+            signLatencyNanos = movingAverage(signLatencyNanos, latencyNanos);
         }
 
-        private void sendResponse(BatchSignatureCtx ctx, Object message) {
-            for (ActorRef client : ctx.getClients()) {
-                sendResponse(client, message);
+        /**
+         * Returns the time to wait for more requests before signing, 0 if the
+         * signing should start immediately. Waiting longer than the token takes to
+         * create a signature does not help, since the next batch would anyway be
+         * collected while the current one is being signed. Waiting is also useless
+         * if the next request is not expected to arrive during the window.
+         */
+        long getWindowNanos() {
+            if (maxWindowNanos == 0) {
+                return 0;
             }
+
+            long windowNanos = (long) Math.min(maxWindowNanos, signLatencyNanos);
+
+            return requestIntervalNanos < windowNanos ? windowNanos : 0;
         }
+    }
 
-        private void sendResponse(ActorRef client, Object message) {
-            if (client != ActorRef.noSender()) {
-                if (message instanceof CodedException) {
-                    client.tell(((CodedException) message).withPrefix(SIGNER_X), getSelf());
-                } else {
-                    client.tell(message, getSelf());
-                }
-            }
+    /**
+     * Returns the original error of a failed future. The errors of dependent stages, e.g. the one mapping
+     * the Signer response to the signature, are wrapped in {@link CompletionException}.
+     */
+    static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
         }
 
+        return cause;
+    }
+
+    static double movingAverage(double average, double sample) {
+        return average == 0 || average == Double.MAX_VALUE ? sample : average + EWMA_WEIGHT * (sample - average);
     }
 
     /**
-     * Convenience class that wraps the request along with the keyId
-     * and algorithm id.
+     * Signing request waiting for its signature.
      */
-    @Data
-    private static class SigningRequestWrapper {
-        private final String keyId;
-        private final String signatureAlgorithmId;
+    private static final class PendingRequest {
+
+        @Getter
         private final SigningRequest request;
 
-        X509Certificate getSigningCert() {
-            return request.getSigningCert();
+        @Getter
+        private final CompletableFuture<SignatureData> result = new CompletableFuture<>();
+
+        @Getter
+        private final long submitTime = System.nanoTime();
+
+        PendingRequest(SigningRequest request) {
+            this.request = request;
+        }
+
+        void complete(SignatureData signatureData) {
+            LATENCY.update(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - submitTime));
+
+            result.complete(signatureData);
+        }
+
+        void fail(Throwable error) {
+            result.completeExceptionally(translateException(error).withPrefix(SIGNER_X));
         }
     }
 
@@ -376,24 +591,41 @@ public class BatchSigner extends UntypedAbstractActor {
      * This signature context is used for batch signing where there might
      * be more than one signature receiver (client).
      */
-    private static class BatchSignatureCtx extends SignatureCtx {
-
-        @Getter
-        private final List<ActorRef> clients = new ArrayList<>();
+    private static final class BatchSignatureCtx extends SignatureCtx {
 
-        @Getter
-        private final String keyId;
+        private final List<PendingRequest> clients = new ArrayList<>();
 
-        BatchSignatureCtx(String keyId, String signatureAlgorithmId) {
+        BatchSignatureCtx(String signatureAlgorithmId) {
             super(signatureAlgorithmId);
-
-            this.keyId = keyId;
         }
 
-        void add(ActorRef client, SigningRequest request) {
+        void add(PendingRequest client) {
             clients.add(client);
-            add(request);
+            add(client.getRequest());
+        }
+
+        int size() {
+            return clients.size();
         }
-    }
 
+        void complete(byte[] signatureValue) {
+            try {
+                String signature = createSignatureXml(signatureValue);
+
+                // Each client gets corresponding hash chain -- client index in the
+                // clients list determines the hash chain.
+                for (int i = 0; i < clients.size(); i++) {
+                    clients.get(i).complete(createSignatureData(signature, i));
+                }
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        void fail(Throwable error) {
+            for (PendingRequest client : clients) {
+                client.fail(error);
+            }
+        }
+    }
 }
@@ -41,10 +41,12 @@ import ee.ria.xroad.common.signature.BatchSigner;
 import ee.ria.xroad.common.util.AdminPort;
 import ee.ria.xroad.common.util.JobManager;
 import ee.ria.xroad.common.util.JsonUtils;
+import ee.ria.xroad.common.util.PerformanceMetrics;
 import ee.ria.xroad.common.util.StartStop;
 import ee.ria.xroad.common.util.healthcheck.HealthCheckPort;
 import ee.ria.xroad.proxy.addon.AddOn;
 import ee.ria.xroad.proxy.clientproxy.ClientProxy;
+import ee.ria.xroad.proxy.conf.OcspResponseCache;
 import ee.ria.xroad.proxy.messagelog.MessageLog;
 import ee.ria.xroad.proxy.opmonitoring.OpMonitoring;
 import ee.ria.xroad.proxy.serverproxy.ServerProxy;
@@ -180,15 +182,19 @@ public final class ProxyMain {
     private static void shutdown() throws Exception {
         log.trace("shutdown()");
         stopServices();
+        BatchSigner.shutdown();
         Await.ready(actorSystem.terminate(), Duration.Inf());
     }
 
     private static void createServices() throws Exception {
         JobManager jobManager = new JobManager();
 
+        PerformanceMetrics.startJmxReporter(APP_NAME);
+
         MonitorAgent.init(actorSystem);
         SignerClient.init(actorSystem);
-        BatchSigner.init(actorSystem);
+        OcspResponseCache.init(actorSystem);
+        BatchSigner.init();
         MessageLog.init(actorSystem, jobManager);
         OpMonitoring.init(actorSystem);
 
@@ -36,8 +36,11 @@ import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.identifier.SecurityServerId;
 import ee.ria.xroad.common.identifier.ServiceId;
 import ee.ria.xroad.common.message.SoapUtils;
+import ee.ria.xroad.common.monitoring.MonitorAgent;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
-import ee.ria.xroad.common.util.HttpSender;
+import ee.ria.xroad.common.util.AbstractHttpSender;
+import ee.ria.xroad.common.util.AsyncHttpSender;
+import ee.ria.xroad.common.util.CachingStream;
 import ee.ria.xroad.proxy.ProxyMain;
 import ee.ria.xroad.proxy.util.MessageProcessorBase;
 
@@ -45,27 +48,39 @@ import lombok.EqualsAndHashCode;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectTimeoutException;
 
+import javax.net.ssl.SSLException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static ee.ria.xroad.common.ErrorCodes.X_INVALID_CLIENT_IDENTIFIER;
 import static ee.ria.xroad.common.ErrorCodes.X_INVALID_SECURITY_SERVER;
+import static ee.ria.xroad.common.ErrorCodes.X_NETWORK_ERROR;
 import static ee.ria.xroad.common.ErrorCodes.X_UNKNOWN_MEMBER;
+import static ee.ria.xroad.common.ErrorCodes.translateException;
 import static ee.ria.xroad.common.SystemProperties.getServerProxyPort;
 import static ee.ria.xroad.common.SystemProperties.isSslEnabled;
+import static ee.ria.xroad.common.util.AbstractHttpSender.CHUNKED_LENGTH;
 import static ee.ria.xroad.common.util.MimeUtils.HEADER_HASH_ALGO_ID;
 import static ee.ria.xroad.common.util.MimeUtils.HEADER_ORIGINAL_CONTENT_TYPE;
 import static ee.ria.xroad.common.util.MimeUtils.HEADER_PROXY_VERSION;
+import static ee.ria.xroad.common.util.TimeUtils.getEpochMillisecond;
 import static ee.ria.xroad.proxy.clientproxy.FastestConnectionSelectingSSLSocketFactory.ID_TARGETS;
 
 @Slf4j
@@ -102,7 +117,7 @@ abstract class AbstractClientMessageProcessor extends MessageProcessorBase {
         return DUMMY_SERVICE_ADDRESS;
     }
 
-    URI[] prepareRequest(HttpSender httpSender, ServiceId requestServiceId, SecurityServerId securityServerId)
+    URI[] prepareRequest(AbstractHttpSender httpSender, ServiceId requestServiceId, SecurityServerId securityServerId)
             throws Exception {
         // If we're using SSL, we need to include the provider name in
         // the HTTP request so that server proxy could verify the SSL
@@ -142,7 +157,7 @@ abstract class AbstractClientMessageProcessor extends MessageProcessorBase {
         return addresses;
     }
 
-    private void updateOpMonitoringServiceSecurityServerAddress(URI addresses[], HttpSender httpSender) {
+    private void updateOpMonitoringServiceSecurityServerAddress(URI addresses[], AbstractHttpSender httpSender) {
         if (addresses.length == 1) {
             opMonitoringData.setServiceSecurityServerAddress(addresses[0].getHost());
         } else {
@@ -154,6 +169,85 @@ abstract class AbstractClientMessageProcessor extends MessageProcessorBase {
         }
     }
 
+    /**
+     * Sends the cached request to the server proxy without blocking the calling thread. Instead of selecting the
+     * fastest connection, the addresses are tried in the given order until a connection is established.
+     * @param httpSender the sender prepared with prepareRequest()
+     * @param addresses the server proxy addresses
+     * @param content the encoded request
+     * @param contentType the content type of the encoded request
+     * @return future that is completed when the response headers have been received
+     */
+    CompletableFuture<Void> sendRequestAsync(AsyncHttpSender httpSender, URI[] addresses, CachingStream content,
+            String contentType) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+
+        opMonitoringData.setRequestOutTs(getEpochMillisecond());
+        sendRequestAsync(httpSender, addresses, 0, content, contentType, result);
+
+        return result.whenComplete((none, error) -> {
+            if (error == null) {
+                opMonitoringData.setResponseInTs(getEpochMillisecond());
+            } else {
+                // Failed to connect to server proxy
+                MonitorAgent.serverProxyFailed(createRequestMessageInfo());
+            }
+        });
+    }
+
+    private void sendRequestAsync(AsyncHttpSender httpSender, URI[] addresses, int index, CachingStream content,
+            String contentType, CompletableFuture<Void> result) {
+        final URI address = addresses[index];
+
+        opMonitoringData.setServiceSecurityServerAddress(address.getHost());
+
+        try {
+            httpSender.doPost(address, content.getCachedContents(), CHUNKED_LENGTH, contentType);
+        } catch (Exception e) {
+            result.completeExceptionally(translateException(e));
+            return;
+        }
+
+        httpSender.whenResponseReceived().whenComplete((none, error) -> {
+            if (error == null) {
+                result.complete(null);
+                return;
+            }
+
+            CodedException failure = translateException(
+                    error instanceof CompletionException ? error.getCause() : error);
+
+            if (!isConnectFailure(failure.getCause())) {
+                result.completeExceptionally(failure);
+            } else if (index + 1 < addresses.length) {
+                log.trace("Failed to connect to {}", address, failure);
+                sendRequestAsync(httpSender, addresses, index + 1, content, contentType, result);
+            } else {
+                result.completeExceptionally(couldNotConnectException(addresses, failure.getCause()));
+            }
+        });
+    }
+
+    private static boolean isConnectFailure(Throwable cause) {
+        return cause instanceof ConnectException
+                || cause instanceof ConnectTimeoutException
+                || cause instanceof NoRouteToHostException
+                || cause instanceof UnknownHostException
+                || cause instanceof SSLException;
+    }
+
+    private static CodedException couldNotConnectException(URI[] addresses, Throwable cause) {
+        log.error("Could not connect to any target host ({})", (Object)addresses);
+
+        // Server proxy certificate verification errors are reported as is
+        if (cause.getCause() instanceof CodedException) {
+            return (CodedException)cause.getCause();
+        }
+
+        return new CodedException(X_NETWORK_ERROR, cause, "Could not connect to any target host (%s)",
+                Arrays.toString(addresses));
+    }
+
     static List<URI> getServiceAddresses(ServiceId serviceProvider, SecurityServerId serverId)
             throws Exception {
         log.trace("getServiceAddresses({}, {})", serviceProvider, serverId);
@@ -200,7 +294,7 @@ abstract class AbstractClientMessageProcessor extends MessageProcessorBase {
         return addresses;
     }
 
-    static String getHashAlgoId(HttpSender httpSender) {
+    static String getHashAlgoId(AbstractHttpSender httpSender) {
         return httpSender.getResponseHeaders().get(HEADER_HASH_ALGO_ID);
     }
 
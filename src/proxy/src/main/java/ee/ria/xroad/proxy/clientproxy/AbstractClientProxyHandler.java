@@ -40,8 +40,10 @@ import ee.ria.xroad.proxy.util.MessageProcessorBase;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.client.HttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.eclipse.jetty.server.Request;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -49,6 +51,9 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.security.cert.X509Certificate;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import static ee.ria.xroad.common.ErrorCodes.SERVER_CLIENTPROXY_X;
 import static ee.ria.xroad.common.ErrorCodes.translateWithPrefix;
@@ -66,8 +71,18 @@ abstract class AbstractClientProxyHandler extends HandlerBase {
     protected final HttpClient client;
 
     protected final boolean storeOpMonitoringData;
+
+    private CloseableHttpAsyncClient asyncClient;
     private final long idleTimeout = SystemProperties.getClientProxyConnectorMaxIdleTime();
 
+    /**
+     * Enables asynchronous processing of the requests.
+     * @param asyncClient asynchronous http client for sending the requests to the server proxy
+     */
+    void setAsyncClient(CloseableHttpAsyncClient asyncClient) {
+        this.asyncClient = asyncClient;
+    }
+
     abstract MessageProcessorBase createRequestProcessor(String target,
             HttpServletRequest request, HttpServletResponse response,
             OpMonitoringData opMonitoringData) throws Exception;
@@ -81,6 +96,7 @@ abstract class AbstractClientProxyHandler extends HandlerBase {
         }
 
         boolean handled = false;
+        boolean suspended = false;
 
         long start = logPerformanceBegin(request);
         OpMonitoringData opMonitoringData = storeOpMonitoringData ? new OpMonitoringData(CLIENT, start) : null;
@@ -92,42 +108,90 @@ abstract class AbstractClientProxyHandler extends HandlerBase {
             if (processor != null) {
                 baseRequest.getHttpChannel().setIdleTimeout(idleTimeout);
                 handled = true;
-                processor.process();
-                success(processor, start, opMonitoringData);
 
-                if (log.isTraceEnabled()) {
-                    log.info("Request successfully handled ({} ms)", System.currentTimeMillis() - start);
+                if (asyncClient != null) {
+                    processAsync(processor, request, response, start, opMonitoringData);
+                    suspended = true;
                 } else {
-                    log.info("Request successfully handled");
+                    processor.process();
+                    success(processor, start, opMonitoringData);
                 }
             }
-        } catch (CodedException.Fault | ClientException e) {
+        } catch (Throwable e) { // We want to catch serious errors as well
             handled = true;
 
+            failure(processor, request, response, e, opMonitoringData);
+        } finally {
+            baseRequest.setHandled(handled);
+
+            if (handled && !suspended) {
+                complete(start, opMonitoringData);
+            }
+        }
+    }
+
+    /**
+     * Processes the request without holding the current thread while waiting for the server proxy response.
+     * The request is completed by the thread that continues the processing once the response has been received.
+     */
+    private void processAsync(MessageProcessorBase processor, HttpServletRequest request,
+            HttpServletResponse response, long start, OpMonitoringData opMonitoringData) {
+        final AsyncContext asyncContext = request.startAsync();
+        // Outgoing request timeouts are enforced by the http client
+        asyncContext.setTimeout(0);
+
+        final Executor executor = asyncContext::start;
+
+        CompletableFuture<Void> result;
+        try {
+            result = processor.processAsync(asyncClient, executor);
+        } catch (Exception e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+
+        result.whenCompleteAsync((none, error) -> {
+            try {
+                if (error == null) {
+                    success(processor, start, opMonitoringData);
+                } else {
+                    failure(processor, request, response,
+                            error instanceof CompletionException ? error.getCause() : error, opMonitoringData);
+                }
+            } catch (Throwable e) {
+                log.error("Request processing error", e);
+            } finally {
+                complete(start, opMonitoringData);
+                asyncContext.complete();
+            }
+        }, executor);
+    }
+
+    private void failure(MessageProcessorBase processor, HttpServletRequest request, HttpServletResponse response,
+            Throwable e, OpMonitoringData opMonitoringData) throws IOException {
+        if (e instanceof CodedException.Fault || e instanceof ClientException) {
+            CodedException cex = (CodedException) e;
+
             String errorMessage = e instanceof ClientException
-                    ? "Request processing error (" + e.getFaultDetail() + ")" : "Request processing error";
+                    ? "Request processing error (" + cex.getFaultDetail() + ")" : "Request processing error";
 
             log.error(errorMessage, e);
 
-            updateOpMonitoringSoapFault(opMonitoringData, e);
+            updateOpMonitoringSoapFault(opMonitoringData, cex);
 
             // Exceptions caused by incoming message and exceptions derived from faults sent by serverproxy already
             // contain full error code. Thus, we must not attach additional error code prefixes to them.
 
-            failure(processor, request, response, e, opMonitoringData);
-        } catch (CodedExceptionWithHttpStatus e) {
-            handled = true;
-
+            failure(processor, request, response, cex, opMonitoringData);
+        } else if (e instanceof CodedExceptionWithHttpStatus) {
             // No need to log faultDetail hence not sent to client.
             log.error("Request processing error", e);
 
             // Respond with HTTP status code and plain text error message instead of SOAP fault message.
             // No need to update operational monitoring fields here either.
 
-            failure(response, e, opMonitoringData);
-        } catch (Throwable e) { // We want to catch serious errors as well
-            handled = true;
-
+            failure(response, (CodedExceptionWithHttpStatus) e, opMonitoringData);
+        } else {
             // All the other exceptions get prefix Server.ClientProxy...
             CodedException cex = translateWithPrefix(SERVER_CLIENTPROXY_X, e);
 
@@ -136,19 +200,17 @@ abstract class AbstractClientProxyHandler extends HandlerBase {
             updateOpMonitoringSoapFault(opMonitoringData, cex);
 
             failure(processor, request, response, cex, opMonitoringData);
-        } finally {
-            baseRequest.setHandled(handled);
-
-            if (handled) {
-                if (storeOpMonitoringData) {
-                    updateOpMonitoringResponseOutTs(opMonitoringData);
+        }
+    }
 
-                    OpMonitoring.store(opMonitoringData);
-                }
+    private void complete(long start, OpMonitoringData opMonitoringData) {
+        if (storeOpMonitoringData) {
+            updateOpMonitoringResponseOutTs(opMonitoringData);
 
-                logPerformanceEnd(start);
-            }
+            OpMonitoring.store(opMonitoringData);
         }
+
+        logPerformanceEnd(start);
     }
 
     private static void success(MessageProcessorBase processor, long start, OpMonitoringData opMonitoringData) {
@@ -161,6 +223,12 @@ abstract class AbstractClientProxyHandler extends HandlerBase {
         } else {
             MonitorAgent.failure(messageInfo, null, null);
         }
+
+        if (log.isTraceEnabled()) {
+            log.info("Request successfully handled ({} ms)", System.currentTimeMillis() - start);
+        } else {
+            log.info("Request successfully handled");
+        }
     }
 
     protected void failure(MessageProcessorBase processor, HttpServletRequest request, HttpServletResponse response,
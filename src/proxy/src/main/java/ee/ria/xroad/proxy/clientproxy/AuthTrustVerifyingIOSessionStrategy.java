@@ -0,0 +1,123 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.clientproxy;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.util.CryptoUtils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.config.Lookup;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOSession;
+import org.apache.http.protocol.HttpContext;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import static ee.ria.xroad.common.ErrorCodes.translateException;
+
+/**
+ * TLS session strategy of the asynchronous client proxy HTTP client. The server proxy certificate is verified
+ * with {@link AuthTrustVerifier} as soon as the TLS handshake completes, before the request is sent.
+ *
+ * Since the verification needs the provider name stored in the request context, but the session strategy does not
+ * have access to the context, a request interceptor installs a new strategy instance bound to the context of each
+ * request.
+ */
+@Slf4j
+final class AuthTrustVerifyingIOSessionStrategy extends SSLIOSessionStrategy {
+
+    /**
+     * The context attribute that overrides the session strategies of the connection manager.
+     */
+    static final String ID_IOSESSION_FACTORY_REGISTRY = "http.iosession-factory-registry";
+
+    private final HttpContext context;
+
+    private AuthTrustVerifyingIOSessionStrategy(SSLContext sslContext, HttpContext context) {
+        super(sslContext, new String[] {CryptoUtils.SSL_PROTOCOL}, SystemProperties.getXroadTLSCipherSuites(),
+                NoopHostnameVerifier.INSTANCE);
+        this.context = context;
+    }
+
+    /**
+     * Creates the session strategy used when the request context does not provide one. Connections established
+     * with it always fail the verification.
+     * @param sslContext the X-Road TLS context
+     * @return session strategy
+     */
+    static SchemeIOSessionStrategy createDefault(SSLContext sslContext) {
+        return new AuthTrustVerifyingIOSessionStrategy(sslContext, null);
+    }
+
+    /**
+     * Creates a request interceptor that binds a new session strategy to the context of each request.
+     * @param sslContext the X-Road TLS context
+     * @return request interceptor
+     */
+    static HttpRequestInterceptor createInterceptor(SSLContext sslContext) {
+        return (request, context) -> context.setAttribute(ID_IOSESSION_FACTORY_REGISTRY,
+                createRegistry(sslContext, context));
+    }
+
+    private static Lookup<SchemeIOSessionStrategy> createRegistry(SSLContext sslContext, HttpContext context) {
+        return RegistryBuilder.<SchemeIOSessionStrategy>create()
+                .register("https", new AuthTrustVerifyingIOSessionStrategy(sslContext, context))
+                .build();
+    }
+
+    @Override
+    protected void verifySession(HttpHost host, IOSession iosession, SSLSession sslsession) throws SSLException {
+        if (context == null) {
+            throw new SSLPeerUnverifiedException("Could not get provider name from context");
+        }
+
+        try {
+            URI address = new URI(host.getSchemeName(), null, host.getHostName(), host.getPort(), "/", null, null);
+
+            // Missing OCSP responses are fetched from the server proxy, which blocks the I/O dispatcher thread.
+            // The responses are cached, so this happens rarely.
+            AuthTrustVerifier.verify(context, sslsession, address);
+        } catch (URISyntaxException | RuntimeException e) {
+            log.trace("Server proxy certificate verification failed", e);
+
+            SSLException verificationFailure = new SSLPeerUnverifiedException(e.getMessage());
+            verificationFailure.initCause(translateException(e));
+
+            throw verificationFailure;
+        }
+    }
+}
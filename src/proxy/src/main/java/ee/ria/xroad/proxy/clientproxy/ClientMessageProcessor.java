@@ -44,6 +44,9 @@ import ee.ria.xroad.common.monitoring.MessageInfo;
 import ee.ria.xroad.common.monitoring.MessageInfo.Origin;
 import ee.ria.xroad.common.monitoring.MonitorAgent;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
+import ee.ria.xroad.common.util.AbstractHttpSender;
+import ee.ria.xroad.common.util.AsyncHttpSender;
+import ee.ria.xroad.common.util.CachingStream;
 import ee.ria.xroad.common.util.HttpSender;
 import ee.ria.xroad.common.util.MimeUtils;
 import ee.ria.xroad.proxy.conf.KeyConf;
@@ -56,6 +59,7 @@ import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.client.HttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.bouncycastle.cert.ocsp.OCSPResp;
 import org.bouncycastle.util.Arrays;
 import org.xml.sax.Attributes;
@@ -66,6 +70,7 @@ import javax.servlet.http.HttpServletResponse;
 import javax.xml.namespace.QName;
 
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.io.Writer;
@@ -73,12 +78,15 @@ import java.net.URI;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static ee.ria.xroad.common.ErrorCodes.X_INCONSISTENT_RESPONSE;
 import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
@@ -119,6 +127,24 @@ class ClientMessageProcessor extends AbstractClientMessageProcessor {
      */
     private final CountDownLatch httpSenderGate = new CountDownLatch(1);
 
+    /**
+     * In the asynchronous mode, by using a count down latch we can make the
+     * request handler thread wait for the main thread to verify the client
+     * before the request is signed and logged. The synchronous mode does not
+     * wait, the gate is open from the start.
+     */
+    private final CountDownLatch clientVerifiedGate = new CountDownLatch(1);
+
+    /**
+     * In the asynchronous mode, by using a count down latch we can make the
+     * main thread wait for the request handler thread to stop writing the
+     * request before the request content is freed after a failure.
+     */
+    private final CountDownLatch soapHandlerStoppedGate = new CountDownLatch(1);
+
+    /** Set when the request handler thread starts, or when it is abandoned before that. */
+    private final AtomicBoolean soapHandlerStarted = new AtomicBoolean();
+
     /** Holds the incoming request SOAP message. */
     private volatile String originalSoapAction;
     private volatile SoapMessageImpl requestSoap;
@@ -129,7 +155,7 @@ class ClientMessageProcessor extends AbstractClientMessageProcessor {
 
     /** Holds the proxy message output stream and associated info. */
     private PipedInputStream reqIns;
-    private volatile PipedOutputStream reqOuts;
+    private volatile OutputStream reqOuts;
     private volatile String outputContentType;
 
     /** Holds the request to the server proxy. */
@@ -167,27 +193,14 @@ class ClientMessageProcessor extends AbstractClientMessageProcessor {
     public void process() throws Exception {
         log.trace("process()");
 
-        opMonitoringData.setXRequestId(xRequestId);
-        updateOpMonitoringClientSecurityServerAddress();
+        // The request is signed and logged while the client is being verified, the server proxy is only
+        // contacted after the verification.
+        clientVerifiedGate.countDown();
 
-        Future<?> soapHandler = SOAP_HANDLER_EXECUTOR.submit(this::handleSoap);
+        Future<?> soapHandler = startSoapHandler();
 
         try {
-            // Wait for the request SOAP message to be parsed before we can start sending stuff.
-            waitForSoapMessage();
-
-            // If the handler thread excepted, do not continue.
-            checkError();
-
-            // Check that incoming identifiers do not contain illegal characters
-            checkRequestIdentifiers();
-
-            // Verify that the client is registered.
-            ClientId client = requestSoap.getClient();
-            verifyClientStatus(client);
-
-            // Check client authentication mode.
-            verifyClientAuthentication(client);
+            verifyRequest();
 
             processRequest();
 
@@ -210,6 +223,89 @@ class ClientMessageProcessor extends AbstractClientMessageProcessor {
         }
     }
 
+    @Override
+    public CompletableFuture<Void> processAsync(CloseableHttpAsyncClient asyncClient, Executor executor)
+            throws Exception {
+        log.trace("processAsync()");
+
+        // Encode the request into a temporary file instead of the pipe, so that no thread is needed for streaming it
+        final CachingStream requestContent = new CachingStream();
+
+        reqIns.close();
+        reqIns = null;
+        reqOuts = requestContent;
+
+        Future<?> soapHandler = startSoapHandler();
+        final AsyncHttpSender httpSender = new AsyncHttpSender(asyncClient);
+
+        try {
+            verifyRequest();
+
+            // Wait for the handler thread to encode and sign the entire request.
+            waitForRequestSent();
+            checkError();
+
+            final URI[] addresses = prepareRequest(httpSender);
+
+            return sendRequestAsync(httpSender, addresses, requestContent, outputContentType)
+                    .thenRunAsync(() -> {
+                        try {
+                            processResponse(httpSender);
+                        } catch (Exception e) {
+                            throw translateException(e);
+                        }
+                    }, executor)
+                    .whenComplete((none, error) -> {
+                        requestContent.consume();
+                        httpSender.close();
+
+                        if (response != null) {
+                            response.consume();
+                        }
+                    });
+        } catch (Exception e) {
+            soapHandler.cancel(true);
+
+            // The handler thread may still be writing the request, a write after consume() fails
+            if (!soapHandlerStarted.compareAndSet(false, true)) {
+                waitForSoapHandlerStopped();
+            }
+
+            requestContent.consume();
+            httpSender.close();
+
+            throw e;
+        }
+    }
+
+    private Future<?> startSoapHandler() {
+        opMonitoringData.setXRequestId(xRequestId);
+        updateOpMonitoringClientSecurityServerAddress();
+
+        return SOAP_HANDLER_EXECUTOR.submit(this::handleSoap);
+    }
+
+    private void verifyRequest() throws Exception {
+        // Wait for the request SOAP message to be parsed before we can start sending stuff.
+        waitForSoapMessage();
+
+        // If the handler thread excepted, do not continue.
+        checkError();
+
+        // Check that incoming identifiers do not contain illegal characters
+        checkRequestIdentifiers();
+
+        // Verify that the client is registered.
+        ClientId client = requestSoap.getClient();
+        verifyClientStatus(client);
+
+        // Check client authentication mode.
+        verifyClientAuthentication(client);
+
+        // Let the handler thread sign the request.
+        clientVerifiedGate.countDown();
+    }
+
     private void checkRequestIdentifiers() {
         checkIdentifier(requestSoap.getClient());
         checkIdentifier(requestSoap.getService());
@@ -253,12 +349,7 @@ class ClientMessageProcessor extends AbstractClientMessageProcessor {
         log.trace("sendRequest()");
 
         try {
-            URI[] addresses = prepareRequest(httpSender, requestServiceId, requestSoap.getSecurityServer());
-            // Preserve the original SOAPAction header
-            httpSender.addHeader(HEADER_ORIGINAL_SOAP_ACTION, originalSoapAction);
-
-            // Add unique id to distinguish request/response pairs
-            httpSender.addHeader(HEADER_REQUEST_ID, xRequestId);
+            URI[] addresses = prepareRequest(httpSender);
 
             try {
                 opMonitoringData.setRequestOutTs(getEpochMillisecond());
@@ -278,7 +369,25 @@ class ClientMessageProcessor extends AbstractClientMessageProcessor {
         }
     }
 
-    private void parseResponse(HttpSender httpSender) throws Exception {
+    private URI[] prepareRequest(AbstractHttpSender httpSender) throws Exception {
+        URI[] addresses = prepareRequest(httpSender, requestServiceId, requestSoap.getSecurityServer());
+        // Preserve the original SOAPAction header
+        httpSender.addHeader(HEADER_ORIGINAL_SOAP_ACTION, originalSoapAction);
+
+        // Add unique id to distinguish request/response pairs
+        httpSender.addHeader(HEADER_REQUEST_ID, xRequestId);
+
+        return addresses;
+    }
+
+    private void processResponse(AbstractHttpSender httpSender) throws Exception {
+        parseResponse(httpSender);
+        checkConsistency();
+        logResponseMessage();
+        sendResponse();
+    }
+
+    private void parseResponse(AbstractHttpSender httpSender) throws Exception {
         log.trace("parseResponse()");
 
         response = new ProxyMessage(httpSender.getResponseHeaders().get(HEADER_ORIGINAL_CONTENT_TYPE));
@@ -412,6 +521,26 @@ class ClientMessageProcessor extends AbstractClientMessageProcessor {
         }
     }
 
+    private void waitForSoapHandlerStopped() {
+        log.trace("waitForSoapHandlerStopped()");
+
+        try {
+            if (!soapHandlerStoppedGate.await(WAIT_FOR_SOAP_TIMEOUT, TimeUnit.SECONDS)) {
+                log.warn("Request handler thread did not stop in {} seconds", WAIT_FOR_SOAP_TIMEOUT);
+            }
+        } catch (InterruptedException e) {
+            log.error("waitForSoapHandlerStopped interrupted", e);
+
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void waitForClientVerified() throws InterruptedException {
+        log.trace("waitForClientVerified()");
+
+        clientVerifiedGate.await();
+    }
+
     private void continueProcessing() {
         log.trace("continueProcessing()");
 
@@ -451,6 +580,11 @@ class ClientMessageProcessor extends AbstractClientMessageProcessor {
     }
 
     public void handleSoap() {
+        if (!soapHandlerStarted.compareAndSet(false, true)) {
+            // abandoned before it started
+            return;
+        }
+
         try (SoapMessageHandler handler = new SoapMessageHandler()) {
             SoapMessageDecoder soapMessageDecoder = new SoapMessageDecoder(servletRequest.getContentType(),
                     handler, new RequestSoapParserImpl());
@@ -465,6 +599,7 @@ class ClientMessageProcessor extends AbstractClientMessageProcessor {
         } finally {
             continueProcessing();
             continueReadingResponse();
+            soapHandlerStoppedGate.countDown();
         }
     }
 
@@ -525,6 +660,7 @@ class ClientMessageProcessor extends AbstractClientMessageProcessor {
             updateOpMonitoringData();
 
             try {
+                waitForClientVerified();
                 request.sign(KeyConf.getSigningCtx(requestSoap.getClient()));
                 logRequestMessage();
                 request.writeSignature();
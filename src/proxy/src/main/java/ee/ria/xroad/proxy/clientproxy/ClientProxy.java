@@ -31,6 +31,7 @@ import ee.ria.xroad.common.util.CryptoUtils;
 import ee.ria.xroad.common.util.StartStop;
 import ee.ria.xroad.proxy.serverproxy.IdleConnectionMonitorThread;
 import ee.ria.xroad.proxy.util.SSLContextUtil;
+import ee.ria.xroad.proxy.util.VirtualThreadPool;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
@@ -46,6 +47,14 @@ import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
 import org.eclipse.jetty.server.CustomRequestLog;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.HttpConnectionFactory;
@@ -93,9 +102,10 @@ public class ClientProxy implements StartStop {
     private static final String CLIENT_HTTP_CONNECTOR_NAME = "ClientConnector";
     private static final String CLIENT_HTTPS_CONNECTOR_NAME = "ClientSSLConnector";
 
-    private Server server = new Server();
+    private Server server = new Server(VirtualThreadPool.create("clientproxy"));
 
     private CloseableHttpClient client;
+    private CloseableHttpAsyncClient asyncClient;
     private IdleConnectionMonitorThread connectionMonitor;
 
     /**
@@ -106,6 +116,7 @@ public class ClientProxy implements StartStop {
         configureServer();
 
         createClient();
+        createAsyncClient();
         createConnectors();
         createHandlers();
     }
@@ -125,13 +136,6 @@ public class ClientProxy implements StartStop {
     private void createClient() throws Exception {
         log.trace("createClient()");
 
-        int timeout = SystemProperties.getClientProxyTimeout();
-        int socketTimeout = SystemProperties.getClientProxyHttpClientTimeout();
-        RequestConfig.Builder rb = RequestConfig.custom();
-        rb.setConnectTimeout(timeout);
-        rb.setConnectionRequestTimeout(timeout);
-        rb.setSocketTimeout(socketTimeout);
-
         HttpClientBuilder cb = HttpClients.custom();
 
         HttpClientConnectionManager connectionManager = getClientConnectionManager();
@@ -144,7 +148,7 @@ public class ClientProxy implements StartStop {
                     SystemProperties.getClientProxyIdleConnectionMonitorIdleTime());
         }
 
-        cb.setDefaultRequestConfig(rb.build());
+        cb.setDefaultRequestConfig(createRequestConfig());
 
         // Disable request retry
         cb.setRetryHandler(new DefaultHttpRequestRetryHandler(0, false));
@@ -152,6 +156,59 @@ public class ClientProxy implements StartStop {
         client = cb.build();
     }
 
+    private static RequestConfig createRequestConfig() {
+        int timeout = SystemProperties.getClientProxyTimeout();
+        int socketTimeout = SystemProperties.getClientProxyHttpClientTimeout();
+        RequestConfig.Builder rb = RequestConfig.custom();
+        rb.setConnectTimeout(timeout);
+        rb.setConnectionRequestTimeout(timeout);
+        rb.setSocketTimeout(socketTimeout);
+
+        return rb.build();
+    }
+
+    private void createAsyncClient() throws Exception {
+        if (!SystemProperties.isClientProxyAsyncEnabled()) {
+            return;
+        }
+
+        log.trace("createAsyncClient()");
+
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(SystemProperties.getClientProxyAsyncIoThreads())
+                .setConnectTimeout(SystemProperties.getClientProxyTimeout())
+                .setSoTimeout(SystemProperties.getClientProxyHttpClientTimeout())
+                .setSoLinger(SystemProperties.getClientProxyHttpClientSoLinger())
+                .setSoKeepAlive(true)
+                .setTcpNoDelay(true)
+                .build();
+
+        RegistryBuilder<SchemeIOSessionStrategy> sfr = RegistryBuilder.create();
+
+        sfr.register("http", NoopIOSessionStrategy.INSTANCE);
+
+        HttpAsyncClientBuilder cb = HttpAsyncClients.custom();
+
+        if (SystemProperties.isSslEnabled()) {
+            SSLContext sslContext = SSLContextUtil.createXroadSSLContext();
+
+            sfr.register("https", AuthTrustVerifyingIOSessionStrategy.createDefault(sslContext));
+            cb.addInterceptorLast(AuthTrustVerifyingIOSessionStrategy.createInterceptor(sslContext));
+        }
+
+        PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(
+                new DefaultConnectingIOReactor(ioReactorConfig), sfr.build());
+        connectionManager.setMaxTotal(SystemProperties.getClientProxyPoolTotalMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(SystemProperties.getClientProxyPoolDefaultMaxConnectionsPerRoute());
+
+        cb.setConnectionManager(connectionManager);
+        cb.setDefaultRequestConfig(createRequestConfig());
+
+        asyncClient = cb.build();
+
+        log.info("Asynchronous client proxy processing enabled");
+    }
+
     private HttpClientConnectionManager getClientConnectionManager() throws Exception {
         RegistryBuilder<ConnectionSocketFactory> sfr = RegistryBuilder.create();
 
@@ -260,7 +317,13 @@ public class ClientProxy implements StartStop {
 
         handlers.addHandler(logHandler);
 
-        getClientHandlers().forEach(handlers::addHandler);
+        for (Handler handler : getClientHandlers()) {
+            if (asyncClient != null && handler instanceof AbstractClientProxyHandler) {
+                ((AbstractClientProxyHandler) handler).setAsyncClient(asyncClient);
+            }
+
+            handlers.addHandler(handler);
+        }
 
         server.setHandler(handlers);
     }
@@ -293,6 +356,10 @@ public class ClientProxy implements StartStop {
     public void start() throws Exception {
         log.trace("start()");
 
+        if (asyncClient != null) {
+            asyncClient.start();
+        }
+
         server.start();
 
         if (connectionMonitor != null) {
@@ -318,6 +385,11 @@ public class ClientProxy implements StartStop {
         }
 
         client.close();
+
+        if (asyncClient != null) {
+            asyncClient.close();
+        }
+
         server.stop();
 
         HibernateUtil.closeSessionFactories();
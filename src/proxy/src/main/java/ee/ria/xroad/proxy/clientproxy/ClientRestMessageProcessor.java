@@ -26,6 +26,7 @@
 package ee.ria.xroad.proxy.clientproxy;
 
 import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.cert.CertChain;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
 import ee.ria.xroad.common.conf.serverconf.IsAuthenticationData;
@@ -36,6 +37,8 @@ import ee.ria.xroad.common.message.RestResponse;
 import ee.ria.xroad.common.monitoring.MessageInfo;
 import ee.ria.xroad.common.monitoring.MonitorAgent;
 import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
+import ee.ria.xroad.common.util.AbstractHttpSender;
+import ee.ria.xroad.common.util.AsyncHttpSender;
 import ee.ria.xroad.common.util.CachingStream;
 import ee.ria.xroad.common.util.CryptoUtils;
 import ee.ria.xroad.common.util.HttpSender;
@@ -47,11 +50,11 @@ import ee.ria.xroad.proxy.protocol.ProxyMessageDecoder;
 import ee.ria.xroad.proxy.protocol.ProxyMessageEncoder;
 
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.http.Header;
 import org.apache.http.client.HttpClient;
 import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.http.message.BasicHeader;
 import org.bouncycastle.operator.DigestCalculator;
 import org.bouncycastle.operator.OperatorCreationException;
@@ -71,6 +74,8 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 import static ee.ria.xroad.common.ErrorCodes.X_INCONSISTENT_RESPONSE;
@@ -78,6 +83,7 @@ import static ee.ria.xroad.common.ErrorCodes.X_IO_ERROR;
 import static ee.ria.xroad.common.ErrorCodes.X_MISSING_REST;
 import static ee.ria.xroad.common.ErrorCodes.X_MISSING_SIGNATURE;
 import static ee.ria.xroad.common.ErrorCodes.X_SERVICE_FAILED_X;
+import static ee.ria.xroad.common.ErrorCodes.translateException;
 import static ee.ria.xroad.common.util.MimeUtils.HEADER_MESSAGE_TYPE;
 import static ee.ria.xroad.common.util.MimeUtils.HEADER_ORIGINAL_CONTENT_TYPE;
 import static ee.ria.xroad.common.util.MimeUtils.HEADER_REQUEST_ID;
@@ -88,6 +94,8 @@ import static ee.ria.xroad.common.util.TimeUtils.getEpochMillisecond;
 @Slf4j
 class ClientRestMessageProcessor extends AbstractClientMessageProcessor {
 
+    private static final int BOUNDARY_LENGTH = 30;
+
     private ServiceId requestServiceId;
     /**
      * Holds the response from server proxy.
@@ -108,33 +116,12 @@ class ClientRestMessageProcessor extends AbstractClientMessageProcessor {
 
     @Override
     public void process() throws Exception {
-        opMonitoringData.setXRequestId(xRequestId);
-        updateOpMonitoringClientSecurityServerAddress();
-
         try {
-            restRequest = new RestRequest(
-                    servletRequest.getMethod(),
-                    servletRequest.getRequestURI(),
-                    servletRequest.getQueryString(),
-                    headers(servletRequest),
-                    xRequestId
-            );
-
-            // Check that incoming identifiers do not contain illegal characters
-            checkRequestIdentifiers();
-
-            senderId = restRequest.getClientId();
-            requestServiceId = restRequest.getServiceId();
-
-            verifyClientStatus(senderId);
-            verifyClientAuthentication(senderId);
-
+            verifyRequest();
             processRequest();
             if (response != null) {
                 sendResponse();
             }
-        } catch (Exception e) {
-            throw e;
         } finally {
             if (response != null) {
                 response.consume();
@@ -142,6 +129,68 @@ class ClientRestMessageProcessor extends AbstractClientMessageProcessor {
         }
     }
 
+    @Override
+    public CompletableFuture<Void> processAsync(CloseableHttpAsyncClient asyncClient, Executor executor)
+            throws Exception {
+        verifyRequest();
+        prepareQuery();
+
+        final AsyncHttpSender httpSender = new AsyncHttpSender(asyncClient);
+        final CachingStream requestContent = new CachingStream();
+
+        try {
+            final URI[] addresses = prepareRequest(httpSender);
+            final String contentType = createContentType();
+
+            // Encode, sign and log the request before sending, so that no thread is needed for streaming it
+            new ProxyMessageEntity(contentType).writeTo(requestContent);
+
+            return sendRequestAsync(httpSender, addresses, requestContent, contentType)
+                    .thenRunAsync(() -> {
+                        try {
+                            processResponse(httpSender);
+                        } catch (Exception e) {
+                            throw translateException(e);
+                        }
+                    }, executor)
+                    .whenComplete((none, error) -> {
+                        requestContent.consume();
+                        httpSender.close();
+
+                        if (response != null) {
+                            response.consume();
+                        }
+                    });
+        } catch (Exception e) {
+            requestContent.consume();
+            httpSender.close();
+
+            throw e;
+        }
+    }
+
+    private void verifyRequest() throws Exception {
+        opMonitoringData.setXRequestId(xRequestId);
+        updateOpMonitoringClientSecurityServerAddress();
+
+        restRequest = new RestRequest(
+                servletRequest.getMethod(),
+                servletRequest.getRequestURI(),
+                servletRequest.getQueryString(),
+                headers(servletRequest),
+                xRequestId
+        );
+
+        // Check that incoming identifiers do not contain illegal characters
+        checkRequestIdentifiers();
+
+        senderId = restRequest.getClientId();
+        requestServiceId = restRequest.getServiceId();
+
+        verifyClientStatus(senderId);
+        verifyClientAuthentication(senderId);
+    }
+
     private void checkRequestIdentifiers() {
         checkIdentifier(restRequest.getClientId());
         checkIdentifier(restRequest.getServiceId());
@@ -165,11 +214,15 @@ class ClientRestMessageProcessor extends AbstractClientMessageProcessor {
         }
     }
 
-    private void processRequest() throws Exception {
+    private void prepareQuery() {
         if (restRequest.getQueryId() == null) {
             restRequest.setQueryId(GlobalConf.getInstanceIdentifier() + "-" + UUID.randomUUID().toString());
         }
         updateOpMonitoringDataByRestRequest(opMonitoringData, restRequest);
+    }
+
+    private void processRequest() throws Exception {
+        prepareQuery();
         try (HttpSender httpSender = createHttpSender()) {
             sendRequest(httpSender);
             parseResponse(httpSender);
@@ -181,14 +234,10 @@ class ClientRestMessageProcessor extends AbstractClientMessageProcessor {
     private void sendRequest(HttpSender httpSender) throws Exception {
         log.trace("sendRequest()");
 
-        final URI[] addresses = prepareRequest(httpSender, requestServiceId, restRequest.getTargetSecurityServer());
-        httpSender.addHeader(HEADER_MESSAGE_TYPE, VALUE_MESSAGE_TYPE_REST);
-
-        // Add unique id to distinguish request/response pairs
-        httpSender.addHeader(HEADER_REQUEST_ID, xRequestId);
+        final URI[] addresses = prepareRequest(httpSender);
 
         try {
-            final String contentType = MimeUtils.mpMixedContentType("xtop" + RandomStringUtils.randomAlphabetic(30));
+            final String contentType = createContentType();
             opMonitoringData.setRequestOutTs(getEpochMillisecond());
             httpSender.doPost(getServiceAddress(addresses), new ProxyMessageEntity(contentType));
             opMonitoringData.setResponseInTs(getEpochMillisecond());
@@ -198,7 +247,28 @@ class ClientRestMessageProcessor extends AbstractClientMessageProcessor {
         }
     }
 
-    private void parseResponse(HttpSender httpSender) throws Exception {
+    private URI[] prepareRequest(AbstractHttpSender httpSender) throws Exception {
+        final URI[] addresses = prepareRequest(httpSender, requestServiceId, restRequest.getTargetSecurityServer());
+        httpSender.addHeader(HEADER_MESSAGE_TYPE, VALUE_MESSAGE_TYPE_REST);
+
+        // Add unique id to distinguish request/response pairs
+        httpSender.addHeader(HEADER_REQUEST_ID, xRequestId);
+
+        return addresses;
+    }
+
+    private static String createContentType() {
+        return MimeUtils.mpMixedContentType("xtop" + RandomStringUtils.randomAlphabetic(BOUNDARY_LENGTH));
+    }
+
+    private void processResponse(AbstractHttpSender httpSender) throws Exception {
+        parseResponse(httpSender);
+        checkConsistency(getHashAlgoId(httpSender));
+        logResponseMessage();
+        sendResponse();
+    }
+
+    private void parseResponse(AbstractHttpSender httpSender) throws Exception {
         response = new ProxyMessage(httpSender.getResponseHeaders().get(HEADER_ORIGINAL_CONTENT_TYPE));
         ProxyMessageDecoder decoder = new ProxyMessageDecoder(response, httpSender.getResponseContentType(),
                 getHashAlgoId(httpSender));
@@ -288,7 +358,7 @@ class ClientRestMessageProcessor extends AbstractClientMessageProcessor {
             servletResponse.addHeader(h.getName(), h.getValue());
         }
         if (response.hasRestBody()) {
-            IOUtils.copy(response.getRestBody(), servletResponse.getOutputStream());
+            response.writeRestBody(servletResponse.getOutputStream());
         }
     }
 
@@ -346,7 +416,8 @@ class ClientRestMessageProcessor extends AbstractClientMessageProcessor {
                     byte[] buf = new byte[4096];
                     int count = in.read(buf);
                     if (count >= 0) {
-                        final CachingStream cache = new CachingStream();
+                        final CachingStream cache =
+                                new CachingStream(SystemProperties.getProxyRestBodyMemoryThreshold());
                         try (TeeInputStream tee = new TeeInputStream(in, cache)) {
                             cache.write(buf, 0, count);
                             enc.restBody(buf, count, tee);
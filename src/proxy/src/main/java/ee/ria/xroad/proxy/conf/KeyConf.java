@@ -36,6 +36,7 @@ import org.slf4j.LoggerFactory;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static ee.ria.xroad.common.ErrorCodes.X_CANNOT_CREATE_SIGNATURE;
 import static ee.ria.xroad.common.ErrorCodes.X_MALFORMED_KEYCONF;
@@ -56,6 +57,10 @@ public final class KeyConf {
     // If this error is not null, getInstance will throw it.
     private static volatile CodedException initializationError = null;
 
+    // Guards the lazy initialization, which reads the key configuration file. A lock instead of synchronized,
+    // so that a virtual thread blocked on the file I/O does not pin its carrier thread.
+    private static final ReentrantLock LOCK = new ReentrantLock();
+
     private KeyConf() {
     }
 
@@ -68,10 +73,13 @@ public final class KeyConf {
         }
 
         if (instance == null) {
-            synchronized (KeyConfProvider.class) {
+            LOCK.lock();
+            try {
                 if (instance == null) {
                     initInstance();
                 }
+            } finally {
+                LOCK.unlock();
             }
         }
 
@@ -50,7 +50,9 @@ import java.security.KeyStore;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static ee.ria.xroad.common.ErrorCodes.X_CANNOT_CREATE_SIGNATURE;
 import static ee.ria.xroad.common.util.CertUtils.getCertHashes;
@@ -120,31 +122,41 @@ class KeyConfImpl implements KeyConfProvider {
 
     @Override
     public OCSPResp getOcspResponse(String certHash) throws Exception {
-        GetOcspResponsesResponse response =
-                SignerClient.execute(
-                        new GetOcspResponses(new String[] {certHash}));
+        OCSPResp cached = OcspResponseCache.get(certHash);
 
-        for (String base64Encoded : response.getBase64EncodedResponses()) {
-            return base64Encoded != null
-                    ? new OCSPResp(decodeBase64(base64Encoded)) : null;
+        if (cached != null) {
+            return cached;
         }
 
-        return null;
+        return getOcspResponsesFromSigner(new String[] {certHash}).get(certHash);
     }
 
     @Override
     public List<OCSPResp> getOcspResponses(List<X509Certificate> certs)
             throws Exception {
-        GetOcspResponsesResponse response =
-                SignerClient.execute(
-                        new GetOcspResponses(getCertHashes(certs)));
+        String[] certHashes = getCertHashes(certs);
 
         List<OCSPResp> ocspResponses = new ArrayList<>();
-        for (String base64Encoded : response.getBase64EncodedResponses()) {
-            if (base64Encoded != null) {
-                ocspResponses.add(new OCSPResp(decodeBase64(base64Encoded)));
-            } else {
-                ocspResponses.add(null);
+        List<String> missingHashes = new ArrayList<>();
+
+        for (String certHash : certHashes) {
+            OCSPResp cached = OcspResponseCache.get(certHash);
+
+            if (cached == null) {
+                missingHashes.add(certHash);
+            }
+
+            ocspResponses.add(cached);
+        }
+
+        if (!missingHashes.isEmpty()) {
+            Map<String, OCSPResp> fetched = getOcspResponsesFromSigner(
+                    missingHashes.toArray(new String[missingHashes.size()]));
+
+            for (int i = 0; i < certHashes.length; i++) {
+                if (ocspResponses.get(i) == null) {
+                    ocspResponses.set(i, fetched.get(certHashes[i]));
+                }
             }
         }
 
@@ -154,15 +166,45 @@ class KeyConfImpl implements KeyConfProvider {
     @Override
     public void setOcspResponses(List<X509Certificate> certs,
             List<OCSPResp> responses) throws Exception {
+        String[] certHashes = getCertHashes(certs);
         String[] base64EncodedResponses = new String[responses.size()];
+        Map<String, OCSPResp> cached = new HashMap<>();
 
         for (int i = 0; i < responses.size(); i++) {
             base64EncodedResponses[i] =
                     encodeBase64(responses.get(i).getEncoded());
+            cached.put(certHashes[i], responses.get(i));
         }
 
-        SignerClient.execute(new SetOcspResponses(getCertHashes(certs),
+        SignerClient.execute(new SetOcspResponses(certHashes,
                 base64EncodedResponses));
+
+        OcspResponseCache.putAll(cached);
+    }
+
+    /**
+     * Asks the signer for the OCSP responses of the given certificates and adds the received
+     * responses to the {@link OcspResponseCache}.
+     * @return the OCSP responses by certificate hash, certificates without a response are left out
+     */
+    private static Map<String, OCSPResp> getOcspResponsesFromSigner(String[] certHashes)
+            throws Exception {
+        GetOcspResponsesResponse response =
+                SignerClient.execute(new GetOcspResponses(certHashes));
+
+        Map<String, OCSPResp> ocspResponses = new HashMap<>();
+        String[] base64EncodedResponses = response.getBase64EncodedResponses();
+
+        for (int i = 0; i < certHashes.length && i < base64EncodedResponses.length; i++) {
+            if (base64EncodedResponses[i] != null) {
+                ocspResponses.put(certHashes[i],
+                        new OCSPResp(decodeBase64(base64EncodedResponses[i])));
+            }
+        }
+
+        OcspResponseCache.putAll(ocspResponses);
+
+        return ocspResponses;
     }
 
     static SigningCtx createSigningCtx(ClientId subject, String keyId,
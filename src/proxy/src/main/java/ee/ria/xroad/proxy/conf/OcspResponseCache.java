@@ -0,0 +1,153 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.conf;
+
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static ee.ria.xroad.signer.protocol.ComponentNames.OCSP_RESPONSE_CACHE;
+
+/**
+ * Parsed OCSP responses of the certificates used by this security server, by certificate hash.
+ *
+ * The signer pushes the responses to the proxy at the end of every OCSP refresh cycle (see
+ * {@link OcspResponseCacheUpdater}) and the responses requested from the signer on a cache miss are added as well,
+ * so that the OCSP lookups on the hot path neither ask the signer nor decode the responses. A push replaces the
+ * whole cache, so that the responses of certificates the signer no longer refreshes (e.g. deleted or deactivated
+ * ones) do not stay in the cache.
+ *
+ * The responses are held in an immutable map that is replaced on every update, the lookups do not lock.
+ * A response is returned only while it is fresh according to the global configuration.
+ */
+@Slf4j
+public final class OcspResponseCache {
+
+    private static final ReentrantLock UPDATE_LOCK = new ReentrantLock();
+
+    private static volatile Map<String, CachedResponse> responses = Collections.emptyMap();
+
+    private OcspResponseCache() {
+    }
+
+    /**
+     * Creates the actor that receives the OCSP responses pushed by the signer.
+     * @param actorSystem the proxy actor system
+     */
+    public static void init(ActorSystem actorSystem) {
+        actorSystem.actorOf(Props.create(OcspResponseCacheUpdater.class), OCSP_RESPONSE_CACHE);
+    }
+
+    /**
+     * @param certHash the certificate hash
+     * @return the OCSP response of the certificate or null, if there is no fresh response in the cache
+     */
+    public static OCSPResp get(String certHash) {
+        CachedResponse cached = responses.get(certHash);
+
+        if (cached == null) {
+            return null;
+        }
+
+        long allowedThisUpdate = System.currentTimeMillis()
+                - GlobalConf.getOcspFreshnessSeconds(true) * 1000L;
+
+        return cached.thisUpdate >= allowedThisUpdate ? cached.response : null;
+    }
+
+    /**
+     * Adds the OCSP responses to the cache, replacing the existing responses of the same certificates.
+     * @param newResponses the OCSP responses by certificate hash
+     */
+    public static void putAll(Map<String, OCSPResp> newResponses) {
+        if (newResponses.isEmpty()) {
+            return;
+        }
+
+        Map<String, CachedResponse> parsed = parse(newResponses);
+
+        UPDATE_LOCK.lock();
+        try {
+            Map<String, CachedResponse> next = new HashMap<>(responses);
+            next.putAll(parsed);
+            responses = Collections.unmodifiableMap(next);
+        } finally {
+            UPDATE_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Replaces the contents of the cache with the given OCSP responses. The responses of other certificates are
+     * removed, they are requested from the signer again when needed.
+     * @param newResponses the OCSP responses by certificate hash
+     */
+    public static void replaceAll(Map<String, OCSPResp> newResponses) {
+        Map<String, CachedResponse> parsed = parse(newResponses);
+
+        UPDATE_LOCK.lock();
+        try {
+            responses = Collections.unmodifiableMap(parsed);
+        } finally {
+            UPDATE_LOCK.unlock();
+        }
+    }
+
+    private static Map<String, CachedResponse> parse(Map<String, OCSPResp> newResponses) {
+        Map<String, CachedResponse> parsed = new HashMap<>();
+
+        for (Map.Entry<String, OCSPResp> e : newResponses.entrySet()) {
+            try {
+                parsed.put(e.getKey(), new CachedResponse(e.getValue()));
+            } catch (Exception ex) {
+                log.warn("Ignoring malformed OCSP response for certificate {}", e.getKey(), ex);
+            }
+        }
+
+        return parsed;
+    }
+
+    private static final class CachedResponse {
+        final OCSPResp response;
+        final long thisUpdate;
+
+        CachedResponse(OCSPResp response) throws Exception {
+            Date singleThisUpdate = ((BasicOCSPResp) response.getResponseObject()).getResponses()[0].getThisUpdate();
+
+            this.response = response;
+            this.thisUpdate = singleThisUpdate.getTime();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.conf;
+
+import ee.ria.xroad.signer.protocol.message.SetOcspResponses;
+
+import akka.actor.UntypedAbstractActor;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static ee.ria.xroad.common.util.CryptoUtils.decodeBase64;
+
+/**
+ * Receives the OCSP responses the signer has fetched in a refresh cycle and replaces the contents of the
+ * {@link OcspResponseCache} with them.
+ */
+@Slf4j
+public class OcspResponseCacheUpdater extends UntypedAbstractActor {
+
+    @Override
+    public void onReceive(Object message) {
+        if (message instanceof SetOcspResponses) {
+            handleSetOcspResponses((SetOcspResponses) message);
+        } else {
+            unhandled(message);
+        }
+    }
+
+    private void handleSetOcspResponses(SetOcspResponses message) {
+        Map<String, OCSPResp> responses = new HashMap<>();
+
+        for (int i = 0; i < message.getCertHashes().length; i++) {
+            try {
+                responses.put(message.getCertHashes()[i],
+                        new OCSPResp(decodeBase64(message.getBase64EncodedResponses()[i])));
+            } catch (Exception e) {
+                log.warn("Ignoring malformed OCSP response for certificate {}", message.getCertHashes()[i], e);
+            }
+        }
+
+        log.debug("Received {} OCSP responses from signer", responses.size());
+
+        OcspResponseCache.replaceAll(responses);
+    }
+}
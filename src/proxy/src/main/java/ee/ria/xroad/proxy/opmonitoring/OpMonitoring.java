@@ -34,6 +34,8 @@ import akka.actor.ActorSystem;
 import akka.actor.Props;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.function.Consumer;
+
 /**
  * Contains method for storing operational monitoring data.
  */
@@ -47,6 +49,9 @@ public final class OpMonitoring {
 
     private static ActorRef opMonitoringBuffer;
 
+    // Stores the data without sending a message to the buffer, null if the buffer does not support it
+    private static volatile Consumer<OpMonitoringData> directStore;
+
     private OpMonitoring() {
     }
 
@@ -72,12 +77,27 @@ public final class OpMonitoring {
         log.trace("store()");
 
         try {
-            tell(data);
+            Consumer<OpMonitoringData> store = directStore;
+
+            if (store != null) {
+                store.accept(data);
+            } else {
+                tell(data);
+            }
         } catch (Throwable t) {
             log.error("Storing operational monitoring data failed", t);
         }
     }
 
+    /**
+     * Lets the operational monitoring buffer receive the data directly from the threads handling the requests
+     * instead of as actor messages.
+     * @param store thread-safe consumer of the data, or null to send the data to the buffer actor again
+     */
+    public static void setDirectStore(Consumer<OpMonitoringData> store) {
+        directStore = store;
+    }
+
     @SuppressWarnings("unchecked")
     private static Class<? extends AbstractOpMonitoringBuffer>
             getOpMonitoringManagerImpl() {
@@ -25,6 +25,7 @@
  */
 package ee.ria.xroad.proxy.protocol;
 
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.message.MultipartSoapMessageEncoder;
 import ee.ria.xroad.common.message.RestRequest;
 import ee.ria.xroad.common.message.RestResponse;
@@ -44,15 +45,17 @@ import org.bouncycastle.cert.ocsp.OCSPResp;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Reads in all of the proxy message, extracts the parts and is later able
- * to convert the message to SOAP. Note: any attachments are cached in the
- * file system.
+ * to convert the message to SOAP. Note: any attachments and REST bodies are
+ * cached in memory and, when they exceed the memory limits, in the file system.
  *
  * To load the message pass this object to a proxy message producer that
  * fills in the parts. After that, you can query the message parts and
@@ -216,7 +219,7 @@ public class ProxyMessage implements ProxyMessageConsumer {
     @Override
     public void restBody(InputStream content) throws Exception {
         assert (attachmentCache == null);
-        attachmentCache = new CachingStream();
+        attachmentCache = new CachingStream(SystemProperties.getProxyRestBodyMemoryThreshold());
         IOUtils.copyLarge(content, attachmentCache);
     }
 
@@ -271,4 +274,13 @@ public class ProxyMessage implements ProxyMessageConsumer {
         }
         return null;
     }
+
+    /**
+     * Writes the rest body to the given stream, directly from the cache file if the body did not fit in memory.
+     */
+    public void writeRestBody(OutputStream out) throws IOException {
+        if (attachmentCache != null) {
+            attachmentCache.writeTo(out);
+        }
+    }
 }
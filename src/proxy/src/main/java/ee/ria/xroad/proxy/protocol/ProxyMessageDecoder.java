@@ -26,6 +26,7 @@
 package ee.ria.xroad.proxy.protocol;
 
 import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.message.RestRequest;
 import ee.ria.xroad.common.message.RestResponse;
@@ -33,6 +34,8 @@ import ee.ria.xroad.common.message.SaxSoapParserImpl;
 import ee.ria.xroad.common.message.Soap;
 import ee.ria.xroad.common.message.SoapFault;
 import ee.ria.xroad.common.message.SoapMessageImpl;
+import ee.ria.xroad.common.message.SoapParser;
+import ee.ria.xroad.common.message.StaxSoapParserImpl;
 import ee.ria.xroad.common.signature.SignatureData;
 import ee.ria.xroad.common.util.CryptoUtils;
 import ee.ria.xroad.common.util.MessageFileNames;
@@ -190,8 +193,15 @@ public class ProxyMessageDecoder {
         return attachmentNo;
     }
 
+    /**
+     * The SOAP parts of the message are not rewritten, so they can also be parsed with the StAX based parser.
+     */
+    private static SoapParser createSoapParser() {
+        return SystemProperties.isProxyStaxSoapParserEnabled() ? new StaxSoapParserImpl() : new SaxSoapParserImpl();
+    }
+
     private void parseFault(InputStream is) throws Exception {
-        Soap soap = new SaxSoapParserImpl().parse(MimeTypes.TEXT_XML_UTF8, is);
+        Soap soap = createSoapParser().parse(MimeTypes.TEXT_XML_UTF8, is);
         if (!(soap instanceof SoapFault)) {
             throw new CodedException(X_INVALID_MESSAGE,
                     "Expected fault message, but got reqular SOAP message");
@@ -352,7 +362,7 @@ public class ProxyMessageDecoder {
                             bd.getMimeType());
             }
 
-            Soap soap = new SaxSoapParserImpl().parse(partContentType, is);
+            Soap soap = createSoapParser().parse(partContentType, is);
             if (soap instanceof SoapFault) {
                 callback.fault((SoapFault) soap);
             } else {
@@ -518,7 +528,7 @@ public class ProxyMessageDecoder {
                     // party sent SOAP fault instead of signature.
 
                     // Parse the fault message.
-                    Soap soap = new SaxSoapParserImpl().parse(bd.getMimeType(), is);
+                    Soap soap = createSoapParser().parse(bd.getMimeType(), is);
                     if (soap instanceof SoapFault) {
                         callback.fault((SoapFault) soap);
                         return; // The nextPart will be set to NONE
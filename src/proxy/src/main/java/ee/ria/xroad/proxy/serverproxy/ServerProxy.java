@@ -35,6 +35,7 @@ import ee.ria.xroad.common.util.StartStop;
 import ee.ria.xroad.common.util.TimeUtils;
 import ee.ria.xroad.proxy.antidos.AntiDosConnector;
 import ee.ria.xroad.proxy.util.SSLContextUtil;
+import ee.ria.xroad.proxy.util.VirtualThreadPool;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.impl.client.CloseableHttpClient;
@@ -71,7 +72,7 @@ public class ServerProxy implements StartStop {
     private static final int CONNECTOR_SO_LINGER_MILLIS = SystemProperties.getServerProxyConnectorSoLinger();
     private static final String CLIENT_PROXY_CONNECTOR_NAME = "ClientProxyConnector";
 
-    private Server server = new Server();
+    private Server server = new Server(VirtualThreadPool.create("serverproxy"));
 
     private CloseableHttpClient client;
     private IdleConnectionMonitorThread connMonitor;
@@ -73,7 +73,7 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpTrace;
-import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.EntityTemplate;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
@@ -556,7 +556,7 @@ class ServerRestMessageProcessor extends MessageProcessorBase {
             }
 
             if (req instanceof HttpEntityEnclosingRequest && requestProxyMessage.hasRestBody()) {
-                ((HttpEntityEnclosingRequest) req).setEntity(new InputStreamEntity(requestProxyMessage.getRestBody()));
+                ((HttpEntityEnclosingRequest) req).setEntity(new EntityTemplate(requestProxyMessage::writeRestBody));
             }
 
             final HttpContext ctx = new BasicHttpContext();
@@ -592,7 +592,7 @@ class ServerRestMessageProcessor extends MessageProcessorBase {
             messageEncoder.restResponse(restResponse);
 
             if (response.getEntity() != null) {
-                restResponseBody = new CachingStream();
+                restResponseBody = new CachingStream(SystemProperties.getProxyRestBodyMemoryThreshold());
                 TeeInputStream tee = new TeeInputStream(response.getEntity().getContent(), restResponseBody);
                 messageEncoder.restBody(tee);
                 EntityUtils.consume(response.getEntity());
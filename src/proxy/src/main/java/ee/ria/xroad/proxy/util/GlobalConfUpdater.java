@@ -34,7 +34,8 @@ import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
 
 /**
- * Periodic reload of global configuration
+ * Periodic reload of global configuration. A reload publishes a new configuration snapshot, which request threads
+ * pick up without locking.
  */
 @Slf4j
 @DisallowConcurrentExecution
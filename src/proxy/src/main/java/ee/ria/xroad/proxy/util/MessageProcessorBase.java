@@ -39,6 +39,7 @@ import ee.ria.xroad.common.util.MimeUtils;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.client.HttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -46,6 +47,8 @@ import javax.servlet.http.HttpServletResponse;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import static ee.ria.xroad.common.ErrorCodes.X_INVALID_SOAPACTION;
 
@@ -98,6 +101,21 @@ public abstract class MessageProcessorBase {
      */
     public abstract void process() throws Exception;
 
+    /**
+     * Processes the incoming message without holding the calling thread while waiting for the remote party.
+     * The default implementation processes the message synchronously.
+     * @param asyncClient asynchronous http client for sending the message
+     * @param executor executor for continuing the processing once the response has been received
+     * @return future that is completed when the response has been sent
+     * @throws Exception in case of any errors before the message is sent
+     */
+    public CompletableFuture<Void> processAsync(CloseableHttpAsyncClient asyncClient, Executor executor)
+            throws Exception {
+        process();
+
+        return CompletableFuture.completedFuture(null);
+    }
+
     /**
      * @return MessageInfo object for the request message being processed
      */
@@ -0,0 +1,137 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.util;
+
+import ee.ria.xroad.common.SystemProperties;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Jetty thread pool that runs every submitted task on a new virtual thread.
+ *
+ * Extends {@link QueuedThreadPool} so that the existing Jetty XML configuration files, which configure the
+ * server thread pool through its setters, keep working. The queued pool itself only holds its idle minimum
+ * threads; the configured maximum does not limit the number of concurrently running tasks.
+ *
+ * Virtual threads are created reflectively, since the code is compiled for Java 8. Use
+ * {@link #create(String)} to get a virtual thread pool when it is enabled and supported by the runtime, and a
+ * regular queued thread pool otherwise.
+ */
+@Slf4j
+public final class VirtualThreadPool extends QueuedThreadPool {
+
+    private final ThreadFactory threadFactory;
+    private final AtomicInteger activeThreads = new AtomicInteger();
+
+    VirtualThreadPool(String name, ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+
+        setName(name);
+        // Reserved threads would be parked virtual threads waiting for work, starting new ones is cheaper
+        setReservedThreads(0);
+    }
+
+    /**
+     * Creates the thread pool for a proxy Jetty server.
+     * @param name name of the pool, used as the thread name prefix
+     * @return virtual thread pool if virtual threads are enabled and supported, a queued thread pool otherwise
+     */
+    public static QueuedThreadPool create(String name) {
+        if (!SystemProperties.isProxyVirtualThreadsEnabled()) {
+            return new QueuedThreadPool();
+        }
+
+        ThreadFactory factory = createVirtualThreadFactory(name + "-");
+
+        if (factory == null) {
+            log.warn("Virtual threads are not supported by the Java runtime {}, using platform threads for {}",
+                    System.getProperty("java.version"), name);
+
+            return new QueuedThreadPool();
+        }
+
+        log.info("Using virtual threads for {}", name);
+
+        return new VirtualThreadPool(name, factory);
+    }
+
+    @Override
+    public void execute(Runnable job) {
+        if (!isRunning()) {
+            throw new RejectedExecutionException(job.toString());
+        }
+
+        activeThreads.incrementAndGet();
+
+        try {
+            threadFactory.newThread(() -> {
+                try {
+                    job.run();
+                } finally {
+                    activeThreads.decrementAndGet();
+                }
+            }).start();
+        } catch (RuntimeException | Error e) {
+            activeThreads.decrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    public int getBusyThreads() {
+        return activeThreads.get();
+    }
+
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+
+    /**
+     * @return factory of virtual threads with the given name prefix, null if the runtime does not support them
+     */
+    static ThreadFactory createVirtualThreadFactory(String prefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, prefix, 0L);
+
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            log.debug("Virtual threads not available", e);
+
+            return null;
+        }
+    }
+}
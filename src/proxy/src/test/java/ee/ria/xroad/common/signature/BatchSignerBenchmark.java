@@ -0,0 +1,240 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.signature;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.TestCertUtil;
+import ee.ria.xroad.common.TestSecurityUtil;
+import ee.ria.xroad.common.util.MessageFileNames;
+import ee.ria.xroad.signer.protocol.SignerClient;
+import ee.ria.xroad.signer.protocol.message.GetTokenBatchSigningEnabled;
+import ee.ria.xroad.signer.protocol.message.Sign;
+import ee.ria.xroad.signer.protocol.message.SignResponse;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformReservoir;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+import lombok.extern.slf4j.Slf4j;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static ee.ria.xroad.common.util.CryptoUtils.SHA512WITHRSA_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.SHA512_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
+import static ee.ria.xroad.signer.protocol.ComponentNames.REQUEST_PROCESSOR;
+import static ee.ria.xroad.signer.protocol.ComponentNames.SIGNER;
+
+/**
+ * Benchmark program comparing {@link BatchSigner} with the previous actor based
+ * implementation ({@link ActorBatchSigner}). The Signer is replaced by an in-process
+ * stub that simulates a token which creates one signature at a time, each taking
+ * a fixed amount of time.
+ *
+ * Usage: BatchSignerBenchmark [threads] [requests per thread] [sign time in ms], e.g.
+ * gradle :proxy:runBenchmark -Pbenchmark=BatchSignerBenchmark -Pargs="64 200 5"
+ *
+ * The batching window of {@link BatchSigner} can be enabled with the system properties
+ * xroad.proxy.batch-signing-window-micros and xroad.proxy.batch-signing-max-batch-size.
+ */
+@Slf4j
+public final class BatchSignerBenchmark {
+
+    private static final int DEFAULT_THREADS = 64;
+    private static final int DEFAULT_REQUESTS = 200;
+    private static final int DEFAULT_SIGN_MILLIS = 5;
+
+    private static final int SIGNER_CONNECT_DELAY = 2500;
+    private static final int SIGNATURE_LENGTH = 256;
+    private static final double P99 = 0.99;
+
+    private static final String KEY_ID = "consumer";
+    private static final String STUB_SIGNER_PORT = "5599";
+
+    static {
+        TestSecurityUtil.initSecurity();
+
+        // The stub signer must not clash with a signer running on this host
+        if (System.getProperty(SystemProperties.SIGNER_PORT) == null) {
+            System.setProperty(SystemProperties.SIGNER_PORT, STUB_SIGNER_PORT);
+        }
+    }
+
+    private BatchSignerBenchmark() {
+    }
+
+    /**
+     * Main program entry point.
+     * @param args command-line arguments
+     * @throws Exception in case of any errors
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_THREADS;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_REQUESTS;
+        int signMillis = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SIGN_MILLIS;
+
+        Config config = ConfigFactory.load().getConfig("proxy").withFallback(ConfigFactory.load());
+
+        ActorSystem signerSystem = ActorSystem.create(SIGNER, config.withValue(
+                "akka.remote.artery.canonical.port", ConfigValueFactory.fromAnyRef(SystemProperties.getSignerPort())));
+        signerSystem.actorOf(Props.create(StubSigner.class, signMillis), REQUEST_PROCESSOR);
+
+        ActorSystem proxySystem = ActorSystem.create("Proxy", config.withValue(
+                "akka.remote.artery.canonical.port", ConfigValueFactory.fromAnyRef(0)));
+        SignerClient.init(proxySystem);
+
+        Thread.sleep(SIGNER_CONNECT_DELAY);
+
+        ActorBatchSigner.init(proxySystem);
+        BatchSigner.init();
+
+        X509Certificate signingCert = TestCertUtil.getConsumer().certChain[0];
+
+        // warm-up
+        run("actor (warm-up)", threads, requests / 2, signingCert, ActorBatchSigner::sign);
+        run("lock-free (warm-up)", threads, requests / 2, signingCert, BatchSigner::sign);
+
+        run("actor", threads, requests, signingCert, ActorBatchSigner::sign);
+        run("lock-free", threads, requests, signingCert, BatchSigner::sign);
+
+        BatchSigner.shutdown();
+        Await.ready(proxySystem.terminate(), Duration.Inf());
+        Await.ready(signerSystem.terminate(), Duration.Inf());
+    }
+
+    private static void run(String name, int threads, int requests, X509Certificate signingCert, Signer signer)
+            throws Exception {
+        Histogram latencies = new Histogram(new UniformReservoir(threads * requests));
+        AtomicInteger errors = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(threads);
+
+        long signCalls = StubSigner.SIGN_CALLS.get();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                try {
+                    for (int j = 0; j < requests; j++) {
+                        try {
+                            SigningRequest request = createRequest(signingCert);
+                            long requestStart = System.nanoTime();
+
+                            signer.sign(KEY_ID, SHA512WITHRSA_ID, request);
+                            latencies.update(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - requestStart));
+                        } catch (Exception e) {
+                            log.error("Signing failed", e);
+                            errors.incrementAndGet();
+                        }
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+
+        latch.await();
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Snapshot snapshot = latencies.getSnapshot();
+
+        long batches = Math.max(StubSigner.SIGN_CALLS.get() - signCalls, 1);
+
+        log.info("{}: {} signatures in {} ms ({} signatures/s), latency p50 {} us, p99 {} us, "
+                        + "mean batch size {}, errors {}",
+                name, latencies.getCount(), elapsedMillis, latencies.getCount() * 1000 / Math.max(elapsedMillis, 1),
+                (long) snapshot.getMedian(), (long) snapshot.getValue(P99),
+                String.format("%.1f", (double) latencies.getCount() / batches), errors.get());
+    }
+
+    private static SigningRequest createRequest(X509Certificate signingCert) throws Exception {
+        byte[] message = ("<message>" + ThreadLocalRandom.current().nextLong() + "</message>")
+                .getBytes(StandardCharsets.UTF_8);
+
+        return new SigningRequest(signingCert, Collections.singletonList(
+                new MessagePart(MessageFileNames.MESSAGE, SHA512_ID, calculateDigest(SHA512_ID, message), message)));
+    }
+
+    @FunctionalInterface
+    private interface Signer {
+        SignatureData sign(String keyId, String signatureAlgorithmId, SigningRequest request) throws Exception;
+    }
+
+    /**
+     * Simulates a token that creates one signature at a time.
+     */
+    private static final class StubSigner extends AbstractActor {
+
+        static final AtomicLong SIGN_CALLS = new AtomicLong();
+
+        private final long signNanos;
+        private long busyUntil;
+
+        StubSigner(int signMillis) {
+            this.signNanos = TimeUnit.MILLISECONDS.toNanos(signMillis);
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                    .match(GetTokenBatchSigningEnabled.class, m -> getSender().tell(Boolean.TRUE, getSelf()))
+                    .match(Sign.class, this::handleSign)
+                    .build();
+        }
+
+        private void handleSign(Sign sign) {
+            SIGN_CALLS.incrementAndGet();
+
+            long now = System.nanoTime();
+
+            busyUntil = Math.max(now, busyUntil) + signNanos;
+
+            byte[] signature = new byte[SIGNATURE_LENGTH];
+            ThreadLocalRandom.current().nextBytes(signature);
+
+            ActorRef sender = getSender();
+
+            getContext().getSystem().scheduler().scheduleOnce(
+                    java.time.Duration.ofNanos(busyUntil - now),
+                    () -> sender.tell(new SignResponse(signature), ActorRef.noSender()),
+                    getContext().getDispatcher());
+        }
+    }
+}
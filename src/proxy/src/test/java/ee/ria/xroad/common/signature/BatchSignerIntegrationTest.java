@@ -111,7 +111,7 @@ public final class BatchSignerIntegrationTest {
 
         Thread.sleep(SIGNER_INIT_DELAY); // wait for signer client to connect
 
-        BatchSigner.init(actorSystem);
+        BatchSigner.init();
 
         X509Certificate subjectCert = TestCertUtil.getConsumer().certChain[0];
         X509Certificate issuerCert = TestCertUtil.getCaCert();
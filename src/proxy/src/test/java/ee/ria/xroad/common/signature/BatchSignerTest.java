@@ -0,0 +1,491 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.signature;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.TestCertUtil;
+import ee.ria.xroad.common.TestSecurityUtil;
+import ee.ria.xroad.common.util.MessageFileNames;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ee.ria.xroad.common.ErrorCodes.SIGNER_X;
+import static ee.ria.xroad.common.ErrorCodes.X_INTERNAL_ERROR;
+import static ee.ria.xroad.common.util.CryptoUtils.SHA512WITHRSA_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.SHA512_ID;
+import static ee.ria.xroad.common.util.CryptoUtils.calculateDigest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for batching the signing requests in {@link BatchSigner}. The Signer is replaced by a stub
+ * whose signatures are completed by the tests, and the batching window is computed from given times.
+ */
+public class BatchSignerTest {
+
+    private static final String KEY_ID = "consumer";
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private static final long START = TimeUnit.SECONDS.toNanos(1);
+    private static final long MICROS_100 = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long MILLIS_1 = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MILLIS_2 = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long MILLIS_10 = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final double DELTA = 1e-9;
+
+    private static final byte[] SIGNATURE = new byte[256];
+
+    private static final X509Certificate SIGNING_CERT;
+
+    static {
+        TestSecurityUtil.initSecurity();
+
+        SIGNING_CERT = TestCertUtil.getConsumer().certChain[0];
+    }
+
+    /**
+     * Stops the batch signer after each test.
+     */
+    @After
+    public void tearDown() {
+        BatchSigner.shutdown();
+    }
+
+    /**
+     * Test to ensure that the requests arriving while a signature is being created are signed together as
+     * the next batch.
+     * @throws Exception in case of any unexpected error
+     */
+    @Test
+    public void signRequestsQueuedWhileSigningInOneBatch() throws Exception {
+        StubSigner signer = new StubSigner(true);
+        BatchSigner.init(signer, 0, 0);
+
+        CompletableFuture<SignatureData> first = signAsync();
+        CompletableFuture<byte[]> firstCall = signer.nextSignCall();
+
+        List<CompletableFuture<SignatureData>> queued = signAsync(3);
+
+        firstCall.complete(SIGNATURE);
+
+        // A single message is signed without a hash chain.
+        assertNull(first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getHashChain());
+
+        signer.nextSignCall().complete(SIGNATURE);
+
+        for (CompletableFuture<SignatureData> result : queued) {
+            assertNotNull(result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getHashChain());
+        }
+
+        assertEquals(2, signer.getSignCount());
+        assertEquals(1, signer.getQueryCount());
+    }
+
+    /**
+     * Test to ensure that the batches do not grow beyond the maximum batch size.
+     * @throws Exception in case of any unexpected error
+     */
+    @Test
+    public void limitBatchSize() throws Exception {
+        StubSigner signer = new StubSigner(true);
+        BatchSigner.init(signer, 0, 2);
+
+        CompletableFuture<SignatureData> first = signAsync();
+        CompletableFuture<byte[]> firstCall = signer.nextSignCall();
+
+        List<CompletableFuture<SignatureData>> queued = signAsync(3);
+
+        firstCall.complete(SIGNATURE);
+        signer.nextSignCall().complete(SIGNATURE);
+        signer.nextSignCall().complete(SIGNATURE);
+
+        first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        assertNotNull(queued.get(0).get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getHashChain());
+        assertNotNull(queued.get(1).get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getHashChain());
+        assertNull(queued.get(2).get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getHashChain());
+
+        assertEquals(3, signer.getSignCount());
+    }
+
+    /**
+     * Test to ensure that a failed signature fails the requests of the batch and the following requests
+     * are still signed.
+     * @throws Exception in case of any unexpected error
+     */
+    @Test
+    public void failRequestsOfFailedBatch() throws Exception {
+        StubSigner signer = new StubSigner(true);
+        BatchSigner.init(signer, 0, 0);
+
+        CompletableFuture<SignatureData> first = signAsync();
+
+        signer.nextSignCall().completeExceptionally(new CodedException(X_INTERNAL_ERROR, "Token not available"));
+
+        try {
+            first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+            fail("Signing should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CodedException);
+            assertEquals(SIGNER_X + "." + X_INTERNAL_ERROR, ((CodedException) e.getCause()).getFaultCode());
+        }
+
+        CompletableFuture<SignatureData> second = signAsync();
+
+        signer.nextSignCall().complete(SIGNATURE);
+
+        assertNotNull(second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test to ensure that a signer error which is not a coded exception is translated to one.
+     * @throws Exception in case of any unexpected error
+     */
+    @Test
+    public void translateUncodedSignerError() throws Exception {
+        StubSigner signer = new StubSigner(true);
+        BatchSigner.init(signer, 0, 0);
+
+        CompletableFuture<SignatureData> request = signAsync();
+
+        signer.nextSignCall().completeExceptionally(new IllegalStateException("Signer not reachable"));
+
+        try {
+            request.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+            fail("Signing should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CodedException);
+            assertEquals(SIGNER_X + "." + X_INTERNAL_ERROR, ((CodedException) e.getCause()).getFaultCode());
+        }
+    }
+
+    /**
+     * Test to ensure that the callers waiting synchronously get the original Signer error with the
+     * Signer prefix.
+     * @throws Exception in case of any unexpected error
+     */
+    @Test
+    public void prefixSignerErrorOfSynchronousRequest() throws Exception {
+        StubSigner signer = new StubSigner(true);
+        BatchSigner.init(signer, 0, 0);
+
+        CompletableFuture<SignatureData> result = CompletableFuture.supplyAsync(() -> {
+            try {
+                return BatchSigner.sign(KEY_ID, SHA512WITHRSA_ID, createSigningRequest());
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+
+        signer.nextSignCall().completeExceptionally(new CodedException(X_INTERNAL_ERROR, "Token not available"));
+
+        try {
+            result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+            fail("Signing should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CodedException);
+            assertEquals(SIGNER_X + "." + X_INTERNAL_ERROR, ((CodedException) e.getCause()).getFaultCode());
+        }
+    }
+
+    /**
+     * Test to ensure that the errors of dependent stages are unwrapped.
+     */
+    @Test
+    public void unwrapErrorsOfDependentStages() {
+        CodedException error = new CodedException(X_INTERNAL_ERROR, "Token not available");
+
+        assertSame(error, BatchSigner.unwrap(error));
+        assertSame(error, BatchSigner.unwrap(new CompletionException(new ExecutionException(error))));
+
+        CompletionException withoutCause = new CompletionException("Failed", null);
+
+        assertSame(withoutCause, BatchSigner.unwrap(withoutCause));
+    }
+
+    /**
+     * Test to ensure that the requests are signed one at a time if Signer cannot tell whether batch signing
+     * is enabled, and that Signer is not asked again for every batch.
+     * @throws Exception in case of any unexpected error
+     */
+    @Test
+    public void signOneAtATimeIfBatchSigningQueryFails() throws Exception {
+        StubSigner signer = new StubSigner(null);
+        BatchSigner.init(signer, 0, 0);
+
+        CompletableFuture<SignatureData> first = signAsync();
+        CompletableFuture<byte[]> firstCall = signer.nextSignCall();
+
+        List<CompletableFuture<SignatureData>> queued = signAsync(2);
+
+        firstCall.complete(SIGNATURE);
+        signer.nextSignCall().complete(SIGNATURE);
+        signer.nextSignCall().complete(SIGNATURE);
+
+        assertNull(first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getHashChain());
+
+        for (CompletableFuture<SignatureData> result : queued) {
+            assertNull(result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getHashChain());
+        }
+
+        assertEquals(3, signer.getSignCount());
+        assertEquals(1, signer.getQueryCount());
+    }
+
+    /**
+     * Test to ensure that the requests waiting for a signature are failed when the batch signer is stopped.
+     * @throws Exception in case of any unexpected error
+     */
+    @Test
+    public void failQueuedRequestsOnShutdown() throws Exception {
+        StubSigner signer = new StubSigner(true);
+        BatchSigner.init(signer, 0, 0);
+
+        signAsync();
+        signer.nextSignCall();
+
+        CompletableFuture<SignatureData> queued = signAsync();
+
+        BatchSigner.shutdown();
+
+        try {
+            queued.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+            fail("Signing should have failed");
+        } catch (ExecutionException e) {
+            assertEquals(SIGNER_X + "." + X_INTERNAL_ERROR, ((CodedException) e.getCause()).getFaultCode());
+        }
+    }
+
+    /**
+     * Test to ensure that the moving average starts from the first sample and then moves towards the
+     * samples by a fixed weight.
+     */
+    @Test
+    public void computeMovingAverage() {
+        assertEquals(100.0, BatchSigner.movingAverage(0, 100), 0.0);
+        assertEquals(100.0, BatchSigner.movingAverage(Double.MAX_VALUE, 100), 0.0);
+        assertEquals(120.0, BatchSigner.movingAverage(100, 200), DELTA);
+        assertEquals(80.0, BatchSigner.movingAverage(100, 0), DELTA);
+    }
+
+    /**
+     * Test to ensure that there is no batching window if it is disabled or before the signing latency
+     * and the request interval are known.
+     */
+    @Test
+    public void noBatchingWindowWithoutMeasurements() {
+        BatchSigner.BatchingWindow disabled = new BatchSigner.BatchingWindow(0);
+        submitRequests(disabled, 0, 10, MICROS_100);
+        disabled.signed(MILLIS_2);
+
+        assertEquals(0, disabled.getWindowNanos());
+
+        BatchSigner.BatchingWindow window = new BatchSigner.BatchingWindow(MILLIS_10);
+
+        // Neither the latency nor the request interval are known yet.
+        assertEquals(0, window.getWindowNanos());
+
+        // The interval is not known after the first request.
+        window.requestSubmitted(START);
+        window.signed(MILLIS_2);
+
+        assertEquals(0, window.getWindowNanos());
+
+        window.requestSubmitted(START + MICROS_100);
+
+        assertEquals(MILLIS_2, window.getWindowNanos());
+    }
+
+    /**
+     * Test to ensure that the batching window follows the signing latency of the token while the requests
+     * arrive frequently, but does not exceed the configured maximum.
+     */
+    @Test
+    public void batchingWindowFollowsSignLatency() {
+        BatchSigner.BatchingWindow window = new BatchSigner.BatchingWindow(MILLIS_10);
+        submitRequests(window, START, 10, MICROS_100);
+
+        window.signed(MILLIS_1);
+
+        assertEquals(MILLIS_1, window.getWindowNanos());
+
+        // 1 ms + 0.2 * (3 ms - 1 ms)
+        window.signed(3 * MILLIS_1);
+
+        assertEquals(1_400_000, window.getWindowNanos(), 1);
+
+        // The latency grows beyond the maximum window.
+        for (int i = 0; i < 50; i++) {
+            window.signed(5 * MILLIS_10);
+        }
+
+        assertEquals(MILLIS_10, window.getWindowNanos());
+    }
+
+    /**
+     * Test to ensure that the batching window is skipped when the requests arrive less frequently than
+     * the window length, and that a single late request does not close the window.
+     */
+    @Test
+    public void batchingWindowClosesWhenLoadDrops() {
+        BatchSigner.BatchingWindow window = new BatchSigner.BatchingWindow(MILLIS_10);
+        long time = submitRequests(window, START, 10, MICROS_100);
+
+        window.signed(MILLIS_2);
+
+        assertEquals(MILLIS_2, window.getWindowNanos());
+
+        // The average interval after two 5 ms intervals is 5 ms - 0.8^2 * 4.9 ms = 1.864 ms.
+        time = submitRequests(window, time, 2, 5 * MILLIS_1);
+
+        assertEquals(MILLIS_2, window.getWindowNanos());
+
+        // After the third one, it is 5 ms - 0.8^3 * 4.9 ms = 2.4912 ms.
+        time = submitRequests(window, time, 1, 5 * MILLIS_1);
+
+        assertEquals(0, window.getWindowNanos());
+
+        // The window opens again as the load grows.
+        submitRequests(window, time, 10, MICROS_100);
+
+        assertEquals(MILLIS_2, window.getWindowNanos());
+    }
+
+    private static long submitRequests(BatchSigner.BatchingWindow window, long from, int count, long interval) {
+        long time = from;
+
+        for (int i = 0; i < count; i++) {
+            time += interval;
+            window.requestSubmitted(time);
+        }
+
+        return time;
+    }
+
+    private static CompletableFuture<SignatureData> signAsync() throws Exception {
+        return BatchSigner.signAsync(KEY_ID, SHA512WITHRSA_ID, createSigningRequest());
+    }
+
+    private static SigningRequest createSigningRequest() throws Exception {
+        byte[] message = "<message/>".getBytes(StandardCharsets.UTF_8);
+
+        return new SigningRequest(SIGNING_CERT, Collections.singletonList(new MessagePart(MessageFileNames.MESSAGE,
+                SHA512_ID, calculateDigest(SHA512_ID, message), message)));
+    }
+
+    private static List<CompletableFuture<SignatureData>> signAsync(int count) throws Exception {
+        List<CompletableFuture<SignatureData>> results = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            results.add(signAsync());
+        }
+
+        return results;
+    }
+
+    /**
+     * Signer whose signatures are completed by the test. The signatures are returned through a dependent
+     * stage of the completed future, as with the real Signer client.
+     */
+    private static final class StubSigner implements BatchSigner.SignerOperations {
+
+        private final Boolean batchSigningEnabled;
+
+        private final BlockingQueue<CompletableFuture<byte[]>> signCalls = new LinkedBlockingQueue<>();
+
+        private final AtomicInteger signCount = new AtomicInteger();
+        private final AtomicInteger queryCount = new AtomicInteger();
+
+        /**
+         * @param batchSigningEnabled whether batch signing is enabled, null if asking it fails
+         */
+        StubSigner(Boolean batchSigningEnabled) {
+            this.batchSigningEnabled = batchSigningEnabled;
+        }
+
+        @Override
+        public boolean isBatchSigningEnabled(String keyId) {
+            queryCount.incrementAndGet();
+
+            if (batchSigningEnabled == null) {
+                throw new CodedException(X_INTERNAL_ERROR, "Signer not available");
+            }
+
+            return batchSigningEnabled;
+        }
+
+        @Override
+        public CompletableFuture<byte[]> sign(String keyId, String signatureAlgorithmId, byte[] digest) {
+            CompletableFuture<byte[]> call = new CompletableFuture<>();
+
+            signCount.incrementAndGet();
+            signCalls.add(call);
+
+            // Like SignerClient, map the response in a dependent stage, which wraps the errors of the call.
+            return call.thenApply(signature -> signature);
+        }
+
+        CompletableFuture<byte[]> nextSignCall() throws InterruptedException {
+            CompletableFuture<byte[]> call = signCalls.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+            assertNotNull("Signer was not called", call);
+
+            return call;
+        }
+
+        int getSignCount() {
+            return signCount.get();
+        }
+
+        int getQueryCount() {
+            return queryCount.get();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.clientproxy;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.OcspTestUtils;
+import ee.ria.xroad.common.TestCertUtil;
+import ee.ria.xroad.common.TestSecurityUtil;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.ServiceId;
+import ee.ria.xroad.common.util.CryptoUtils;
+import ee.ria.xroad.proxy.conf.KeyConf;
+import ee.ria.xroad.proxy.testsuite.EmptyKeyConf;
+import ee.ria.xroad.proxy.testsuite.TestSuiteGlobalConf;
+
+import org.apache.http.HttpHost;
+import org.apache.http.config.Lookup;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.reactor.IOSession;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static ee.ria.xroad.common.ErrorCodes.X_SSL_AUTH_FAILED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the verification of the server proxy TLS certificate by the asynchronous client proxy. The server proxy
+ * certificate is issued by a test CA that is trusted by the global configuration of the test.
+ */
+public class AuthTrustVerifyingIOSessionStrategyTest {
+
+    private static final ServiceId SERVICE = ServiceId.create("EE", "BUSINESS", "producer", null, "getState");
+
+    private static final HttpHost SERVER_PROXY = new HttpHost("127.0.0.1", 5500, "https");
+
+    private static TestCertUtil.PKCS12 caKey;
+    private static X509Certificate serverProxyCert;
+
+    private SSLContext sslContext;
+
+    private volatile boolean serverProxyOfProvider;
+
+    /**
+     * Loads the certificates.
+     */
+    @BeforeClass
+    public static void setUpClass() {
+        TestSecurityUtil.initSecurity();
+
+        caKey = TestCertUtil.loadPKCS12("int-ca.p12", "1", "");
+        serverProxyCert = TestCertUtil.getInternalKey().certChain[0];
+    }
+
+    /**
+     * Sets up the configuration. The server proxy certificate is trusted and has a good OCSP response.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Before
+    public void setUp() throws Exception {
+        serverProxyOfProvider = true;
+
+        sslContext = SSLContext.getInstance(CryptoUtils.SSL_PROTOCOL);
+        sslContext.init(null, null, null);
+
+        GlobalConf.reload(new TestSuiteGlobalConf() {
+            @Override
+            public X509Certificate getCaCert(String instanceIdentifier, X509Certificate orgCert) {
+                return caKey.certChain[0];
+            }
+
+            @Override
+            public List<X509Certificate> getAllCaCerts() {
+                return Collections.singletonList(caKey.certChain[0]);
+            }
+
+            @Override
+            public boolean authCertMatchesMember(X509Certificate cert, ClientId memberId) {
+                return serverProxyOfProvider && cert.equals(serverProxyCert);
+            }
+        });
+
+        KeyConf.reload(new EmptyKeyConf() {
+            @Override
+            public OCSPResp getOcspResponse(X509Certificate cert) throws Exception {
+                return OcspTestUtils.createOCSPResponse(cert, caKey.certChain[0], caKey.certChain[0], caKey.key,
+                        CertificateStatus.GOOD, new Date(), null);
+            }
+        });
+    }
+
+    /**
+     * Test to ensure that the certificate of the provider's server proxy is accepted.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void acceptTrustedServerProxyCertificate() throws Exception {
+        createStrategy(createContext()).verifySession(SERVER_PROXY, mock(IOSession.class),
+                createSession(serverProxyCert));
+    }
+
+    /**
+     * Test to ensure that a certificate not issued by a trusted CA is rejected.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void rejectCertificateOfUntrustedCa() throws Exception {
+        assertRejected(createStrategy(createContext()), createSession(TestCertUtil.getConsumer().certChain[0]));
+    }
+
+    /**
+     * Test to ensure that a trusted certificate of a server proxy not serving the provider is rejected.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void rejectServerProxyOfOtherMember() throws Exception {
+        serverProxyOfProvider = false;
+
+        assertRejected(createStrategy(createContext()), createSession(serverProxyCert));
+    }
+
+    /**
+     * Test to ensure that the certificate is rejected if the request does not tell the provider.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void rejectWithoutProviderName() throws Exception {
+        assertRejected(createStrategy(new BasicHttpContext()), createSession(serverProxyCert));
+    }
+
+    /**
+     * Test to ensure that the connections established without a request context are rejected.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void rejectWithoutRequestContext() throws Exception {
+        try {
+            ((AuthTrustVerifyingIOSessionStrategy) AuthTrustVerifyingIOSessionStrategy.createDefault(sslContext))
+                    .verifySession(SERVER_PROXY, mock(IOSession.class), createSession(serverProxyCert));
+
+            fail("Certificate should have been rejected");
+        } catch (SSLPeerUnverifiedException expected) {
+            // expected
+        }
+    }
+
+    private static void assertRejected(AuthTrustVerifyingIOSessionStrategy strategy, SSLSession session)
+            throws Exception {
+        try {
+            strategy.verifySession(SERVER_PROXY, mock(IOSession.class), session);
+
+            fail("Certificate should have been rejected");
+        } catch (SSLPeerUnverifiedException e) {
+            assertTrue(e.getCause() instanceof CodedException);
+            assertEquals(X_SSL_AUTH_FAILED, ((CodedException) e.getCause()).getFaultCode().split("\\.")[0]);
+        }
+    }
+
+    private static HttpContext createContext() {
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(AuthTrustVerifier.ID_PROVIDERNAME, SERVICE);
+
+        return context;
+    }
+
+    /**
+     * Returns the session strategy that the request interceptor binds to the context.
+     */
+    @SuppressWarnings("unchecked")
+    private AuthTrustVerifyingIOSessionStrategy createStrategy(HttpContext context) throws Exception {
+        AuthTrustVerifyingIOSessionStrategy.createInterceptor(sslContext)
+                .process(new BasicHttpRequest("POST", "/"), context);
+
+        Lookup<SchemeIOSessionStrategy> registry = (Lookup<SchemeIOSessionStrategy>) context.getAttribute(
+                AuthTrustVerifyingIOSessionStrategy.ID_IOSESSION_FACTORY_REGISTRY);
+
+        return (AuthTrustVerifyingIOSessionStrategy) registry.lookup("https");
+    }
+
+    private static SSLSession createSession(X509Certificate peerCert) throws Exception {
+        SSLSession session = mock(SSLSession.class);
+        when(session.getPeerCertificates()).thenReturn(new X509Certificate[] {peerCert});
+
+        return session;
+    }
+}
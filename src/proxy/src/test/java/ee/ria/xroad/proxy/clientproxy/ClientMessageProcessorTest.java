@@ -0,0 +1,211 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.clientproxy;
+
+import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.serverconf.ServerConf;
+import ee.ria.xroad.common.conf.serverconf.model.ClientType;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.opmonitoring.OpMonitoringData;
+import ee.ria.xroad.proxy.conf.KeyConf;
+import ee.ria.xroad.proxy.conf.SigningCtx;
+import ee.ria.xroad.proxy.testsuite.TestSuiteGlobalConf;
+import ee.ria.xroad.proxy.testsuite.TestSuiteKeyConf;
+import ee.ria.xroad.proxy.testsuite.TestSuiteServerConf;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static ee.ria.xroad.common.ErrorCodes.X_CANNOT_CREATE_SIGNATURE;
+import static ee.ria.xroad.common.ErrorCodes.X_UNKNOWN_MEMBER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the order in which the client proxy verifies the client and signs the request in the synchronous and the
+ * asynchronous mode.
+ */
+public class ClientMessageProcessorTest {
+
+    private static final long WAIT_MILLIS = 500;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    private Properties originalProperties;
+
+    private final CountDownLatch signingStarted = new CountDownLatch(1);
+
+    private volatile boolean signedDuringVerification;
+
+    /**
+     * Sets up the configuration. Signing the request always fails, the tests only check when it starts.
+     */
+    @Before
+    public void setUp() {
+        originalProperties = (Properties) System.getProperties().clone();
+
+        System.setProperty(SystemProperties.PROXY_SSL_SUPPORT, "false");
+        System.setProperty(SystemProperties.PROXY_VERIFY_CLIENT_CERT, "false");
+        System.setProperty(SystemProperties.TEMP_FILES_PATH, tempDir.getRoot().getAbsolutePath());
+
+        GlobalConf.reload(new TestSuiteGlobalConf());
+        KeyConf.reload(new TestSuiteKeyConf() {
+            @Override
+            public SigningCtx getSigningCtx(ClientId clientId) {
+                signingStarted.countDown();
+
+                throw new CodedException(X_CANNOT_CREATE_SIGNATURE, "Signing is not available in the test");
+            }
+        });
+    }
+
+    /**
+     * Restores the system properties.
+     */
+    @After
+    public void tearDown() {
+        System.setProperties(originalProperties);
+    }
+
+    /**
+     * Test to ensure that the synchronous mode signs the request while the client is being verified. The request
+     * is small enough to be encoded into the pipe before anything reads it.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void signRequestWhileClientIsVerified() throws Exception {
+        verifyClient(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS), "unknown");
+
+        try {
+            createProcessor().process();
+
+            fail("Processing should have failed");
+        } catch (CodedException e) {
+            assertEquals(X_UNKNOWN_MEMBER, e.getFaultCode());
+        }
+
+        assertTrue("The request was not signed during the client verification", signedDuringVerification);
+    }
+
+    /**
+     * Test to ensure that the asynchronous mode signs the request only after the client has been verified.
+     * @throws Exception in case of any unexpected errors
+     */
+    @Test
+    public void signRequestAfterClientIsVerifiedInAsyncMode() throws Exception {
+        verifyClient(WAIT_MILLIS, ClientType.STATUS_REGISTERED);
+
+        try {
+            createProcessor().processAsync(mock(CloseableHttpAsyncClient.class), Runnable::run);
+
+            fail("Processing should have failed");
+        } catch (CodedException e) {
+            assertEquals(X_CANNOT_CREATE_SIGNATURE, e.getFaultCode());
+        }
+
+        assertFalse("The request was signed before the client was verified", signedDuringVerification);
+        assertEquals(0, signingStarted.getCount());
+    }
+
+    /**
+     * Makes the client verification wait for the request to be signed for at most the given time.
+     */
+    private void verifyClient(long waitMillis, String memberStatus) {
+        ServerConf.reload(new TestSuiteServerConf() {
+            @Override
+            public String getMemberStatus(ClientId memberId) {
+                try {
+                    signedDuringVerification = signingStarted.await(waitMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                return memberStatus;
+            }
+        });
+    }
+
+    private static ClientMessageProcessor createProcessor() throws Exception {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        InputStream content = new FileInputStream("src/test/queries/nowhitespace.query");
+
+        when(request.getContentType()).thenReturn("text/xml; charset=UTF-8");
+        when(request.getInputStream()).thenReturn(new ServletInputStream() {
+            @Override
+            public int read() throws IOException {
+                return content.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return content.read(b, off, len);
+            }
+
+            @Override
+            public boolean isFinished() {
+                return false;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                throw new UnsupportedOperationException();
+            }
+        });
+
+        return new ClientMessageProcessor(request, mock(HttpServletResponse.class), mock(HttpClient.class), null,
+                new OpMonitoringData(OpMonitoringData.SecurityServerType.CLIENT, System.currentTimeMillis()));
+    }
+}
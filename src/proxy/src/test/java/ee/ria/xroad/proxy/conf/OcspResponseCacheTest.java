@@ -0,0 +1,124 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.conf;
+
+import ee.ria.xroad.common.OcspTestUtils;
+import ee.ria.xroad.common.TestCertUtil;
+import ee.ria.xroad.common.conf.globalconf.EmptyGlobalConf;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the proxy-local OCSP response cache.
+ */
+public class OcspResponseCacheTest {
+
+    private static X509Certificate subject;
+    private static X509Certificate issuer;
+    private static PrivateKey issuerKey;
+
+    /**
+     * Sets up an empty global configuration and loads test certificates.
+     * @throws Exception if an error occurs
+     */
+    @BeforeClass
+    public static void loadCerts() throws Exception {
+        GlobalConf.reload(new EmptyGlobalConf());
+
+        issuer = TestCertUtil.getCertChainCert("root_ca.p12");
+        issuerKey = TestCertUtil.getCertChainKey("root_ca.p12");
+        subject = TestCertUtil.getCertChainCert("user_0.p12");
+    }
+
+    @After
+    public void clearCache() {
+        OcspResponseCache.replaceAll(Collections.emptyMap());
+    }
+
+    /**
+     * Tests that a fresh response is returned and replaced by a newer one.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void putGet() throws Exception {
+        OCSPResp first = createResponse(Instant.now());
+        OCSPResp second = createResponse(Instant.now());
+
+        assertNull(OcspResponseCache.get("foo"));
+
+        OcspResponseCache.putAll(Collections.singletonMap("foo", first));
+        assertEquals(first, OcspResponseCache.get("foo"));
+
+        OcspResponseCache.putAll(Collections.singletonMap("foo", second));
+        assertEquals(second, OcspResponseCache.get("foo"));
+        assertNull(OcspResponseCache.get("bar"));
+    }
+
+    /**
+     * Tests that the responses pushed by the signer replace the cached ones.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void replaceAll() throws Exception {
+        OCSPResp first = createResponse(Instant.now());
+        OCSPResp second = createResponse(Instant.now());
+
+        OcspResponseCache.putAll(Collections.singletonMap("foo", first));
+        OcspResponseCache.replaceAll(Collections.singletonMap("bar", second));
+
+        assertNull(OcspResponseCache.get("foo"));
+        assertEquals(second, OcspResponseCache.get("bar"));
+    }
+
+    /**
+     * Tests that a response older than the OCSP freshness period is not returned.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void expiredResponse() throws Exception {
+        OcspResponseCache.putAll(Collections.singletonMap("foo", createResponse(
+                Instant.now().minus(1, ChronoUnit.DAYS))));
+
+        assertNull(OcspResponseCache.get("foo"));
+    }
+
+    private static OCSPResp createResponse(Instant thisUpdate) throws Exception {
+        return OcspTestUtils.createOCSPResponse(subject, issuer, issuer, issuerKey, CertificateStatus.GOOD,
+                Date.from(thisUpdate), null);
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.protocol;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.util.CachingStream;
+import ee.ria.xroad.common.util.CryptoUtils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.bouncycastle.operator.DigestCalculator;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Benchmark program for buffering and forwarding REST message bodies on the receiving side. A body is
+ * digested while it is cached (as ProxyMessageDecoder does) and then written to the destination. Compares
+ * the previous approach, which always cached the body in a temporary file and copied it back through an
+ * input stream, with {@link ProxyMessage#writeRestBody}, which keeps small bodies in memory and transfers
+ * large ones directly from the file channel.
+ *
+ * Usage: RestBodyBenchmark [body sizes in bytes...], 1 MB, 100 MB and 1 GB by default.
+ *
+ * The memory threshold can be set with the system property xroad.proxy.rest-body-memory-threshold.
+ */
+@Slf4j
+public final class RestBodyBenchmark {
+
+    private static final long MB = 1024L * 1024L;
+    private static final long[] DEFAULT_SIZES = {MB, 100 * MB, 1024 * MB};
+
+    // Roughly the same amount of data for each size, at least one round
+    private static final long BYTES_PER_SIZE = 2048 * MB;
+    private static final int WARMUP_ROUNDS = 3;
+
+    private RestBodyBenchmark() {
+    }
+
+    /**
+     * Main program entry point.
+     * @param args command-line arguments
+     * @throws Exception in case of any errors
+     */
+    public static void main(String[] args) throws Exception {
+        long[] sizes = args.length > 0 ? Arrays.stream(args).mapToLong(Long::parseLong).toArray() : DEFAULT_SIZES;
+
+        log.info("Memory threshold {} bytes, temporary files in {}", SystemProperties.getProxyRestBodyMemoryThreshold(),
+                SystemProperties.getTempFilesPath());
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            runLegacy(MB);
+            runStreaming(MB);
+        }
+
+        for (long size : sizes) {
+            int rounds = (int) Math.max(1, BYTES_PER_SIZE / size);
+
+            double legacy = measure(size, rounds, false);
+            double streaming = measure(size, rounds, true);
+
+            log.info("Body {} MB, {} rounds: previous {} MB/s, current {} MB/s",
+                    String.format("%.1f", (double) size / MB), rounds, String.format("%.0f", legacy),
+                    String.format("%.0f", streaming));
+        }
+    }
+
+    private static double measure(long size, int rounds, boolean streaming) throws Exception {
+        long start = System.nanoTime();
+
+        for (int i = 0; i < rounds; i++) {
+            if (streaming) {
+                runStreaming(size);
+            } else {
+                runLegacy(size);
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        return size * rounds / (double) MB / seconds;
+    }
+
+    private static void runLegacy(long size) throws Exception {
+        CachingStream cache = new CachingStream(0);
+
+        try {
+            IOUtils.copyLarge(digesting(new GeneratedInputStream(size)), cache);
+            IOUtils.copyLarge(cache.getCachedContents(), NullOutputStream.NULL_OUTPUT_STREAM);
+        } finally {
+            cache.consume();
+        }
+    }
+
+    private static void runStreaming(long size) throws Exception {
+        ProxyMessage message = new ProxyMessage("multipart/mixed; boundary=benchmark");
+
+        try {
+            message.restBody(digesting(new GeneratedInputStream(size)));
+            message.writeRestBody(NullOutputStream.NULL_OUTPUT_STREAM);
+        } finally {
+            message.consume();
+        }
+    }
+
+    private static InputStream digesting(InputStream in) throws Exception {
+        DigestCalculator dc = CryptoUtils.createDigestCalculator(CryptoUtils.DEFAULT_DIGEST_ALGORITHM_ID);
+
+        return new TeeInputStream(in, dc.getOutputStream(), true);
+    }
+
+    /**
+     * Input stream that produces the given number of pseudo random bytes without allocating them.
+     */
+    private static final class GeneratedInputStream extends InputStream {
+        private static final byte[] DATA = new byte[(int) MB];
+
+        static {
+            ThreadLocalRandom.current().nextBytes(DATA);
+        }
+
+        private long remaining;
+
+        GeneratedInputStream(long size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            return DATA[(int) (--remaining % DATA.length)] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            int offset = (int) (remaining % DATA.length);
+            int count = (int) Math.min(Math.min(len, remaining), DATA.length - offset);
+            System.arraycopy(DATA, offset, b, off, count);
+            remaining -= count;
+
+            return count;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.testsuite;
+
+import ee.ria.xroad.common.SystemProperties;
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.serverconf.ServerConf;
+import ee.ria.xroad.common.util.JobManager;
+import ee.ria.xroad.common.util.MimeTypes;
+import ee.ria.xroad.common.util.StartStop;
+import ee.ria.xroad.proxy.clientproxy.ClientProxy;
+import ee.ria.xroad.proxy.conf.KeyConf;
+import ee.ria.xroad.proxy.messagelog.MessageLog;
+import ee.ria.xroad.proxy.opmonitoring.OpMonitoring;
+import ee.ria.xroad.proxy.serverproxy.ServerProxy;
+import ee.ria.xroad.proxy.util.CertHashBasedOcspResponder;
+
+import akka.actor.ActorSystem;
+import com.typesafe.config.ConfigFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.util.EntityUtils;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test program for the client proxy. Sends a number of concurrent requests through the client proxy and
+ * server proxy to a service that responds after a fixed delay, and reports the request latencies and the peak
+ * number of JVM threads. Run with and without xroad.proxy.client-async-enabled or
+ * xroad.proxy.virtual-threads-enabled (Java 21 or later) to compare the execution modes.
+ *
+ * Arguments: [concurrent requests] [total requests] [service delay in milliseconds]
+ */
+@Slf4j
+public final class ClientProxyLoadTest {
+
+    private static final String REQUEST_FILE = MessageTestCase.QUERIES_DIR + "/getstate.query";
+    private static final String RESPONSE_FILE = MessageTestCase.QUERIES_DIR + "/getstate.answer";
+
+    private ClientProxyLoadTest() {
+    }
+
+    /**
+     * Main program entry point.
+     * @param args command-line arguments
+     * @throws Exception in case of any errors
+     */
+    public static void main(String[] args) throws Exception {
+        int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int total = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int delay = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        System.setProperty(SystemProperties.PROXY_SSL_SUPPORT, "false");
+        System.setProperty(SystemProperties.TEMP_FILES_PATH, "build/");
+        System.setProperty(SystemProperties.PROXY_CLIENT_TIMEOUT, "60000");
+        System.setProperty(SystemProperties.DATABASE_PROPERTIES, "src/test/resources/hibernate.properties");
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        LoadTestCase testCase = new LoadTestCase(scheduler, delay);
+        testCase.generateQueryId();
+        ProxyTestSuite.currentTestCase = testCase;
+
+        org.apache.xml.security.Init.init();
+
+        KeyConf.reload(new TestSuiteKeyConf());
+        ServerConf.reload(new TestSuiteServerConf());
+        GlobalConf.reload(new TestSuiteGlobalConf());
+
+        JobManager jobManager = new JobManager();
+        jobManager.start();
+
+        ActorSystem actorSystem = ActorSystem.create("Proxy", ConfigFactory.load().getConfig("proxy"));
+
+        MessageLog.init(actorSystem, jobManager);
+        OpMonitoring.init(actorSystem);
+
+        List<StartStop> services = Arrays.asList(new ClientProxy(), new ServerProxy("127.0.0.1"),
+                new CertHashBasedOcspResponder("127.0.0.1"), new DummyService());
+
+        for (StartStop service : services) {
+            service.start();
+        }
+
+        try {
+            byte[] request;
+
+            try (InputStream is = testCase.changeQueryId(new FileInputStream(REQUEST_FILE))) {
+                request = IOUtils.toByteArray(is);
+            }
+
+            String url = "http://127.0.0.1:" + SystemProperties.getClientProxyHttpPort();
+
+            try (CloseableHttpAsyncClient client = createClient(concurrency)) {
+                client.start();
+
+                log.info("Warming up");
+                run(client, url, request, 1, 1);
+                run(client, url, request, concurrency, concurrency);
+
+                log.info("Running {} requests, {} concurrently, service delay {} ms, async mode {}, "
+                        + "virtual threads {}", total, concurrency, delay, SystemProperties.isClientProxyAsyncEnabled(),
+                        SystemProperties.isProxyVirtualThreadsEnabled());
+
+                ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+                run(client, url, request, concurrency, total);
+            }
+        } finally {
+            for (StartStop service : services) {
+                service.stop();
+            }
+
+            scheduler.shutdownNow();
+            jobManager.stop();
+            Await.ready(actorSystem.terminate(), Duration.Inf());
+        }
+
+        System.exit(0);
+    }
+
+    private static CloseableHttpAsyncClient createClient(int concurrency) throws Exception {
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(Runtime.getRuntime().availableProcessors())
+                .build();
+
+        PoolingNHttpClientConnectionManager connManager =
+                new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioReactorConfig));
+
+        connManager.setMaxTotal(concurrency);
+        connManager.setDefaultMaxPerRoute(concurrency);
+
+        return HttpAsyncClients.custom().setConnectionManager(connManager).build();
+    }
+
+    private static void run(CloseableHttpAsyncClient client, String url, byte[] request, int concurrency,
+            int total) throws Exception {
+        long[] latencies = new long[total];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(total);
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < Math.min(concurrency, total); i++) {
+            send(client, url, request, next, total, latencies, failed, done);
+        }
+
+        done.await();
+
+        long elapsed = System.nanoTime() - start;
+        Arrays.sort(latencies);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        log.info("Completed {} requests ({} failed) in {} ms, {} req/s", total, failed.get(),
+                TimeUnit.NANOSECONDS.toMillis(elapsed), String.format("%.1f", total * 1e9 / elapsed));
+        log.info("Latency p50 {} ms, p99 {} ms, max {} ms",
+                TimeUnit.NANOSECONDS.toMillis(latencies[total / 2]),
+                TimeUnit.NANOSECONDS.toMillis(latencies[(int) (total * 0.99)]),
+                TimeUnit.NANOSECONDS.toMillis(latencies[total - 1]));
+        log.info("Threads: current {}, peak {}", threads.getThreadCount(), threads.getPeakThreadCount());
+    }
+
+    private static void send(CloseableHttpAsyncClient client, String url, byte[] request, AtomicInteger next,
+            int total, long[] latencies, AtomicInteger failed, CountDownLatch done) {
+        int index = next.getAndIncrement();
+
+        if (index >= total) {
+            return;
+        }
+
+        HttpPost post = new HttpPost(url);
+        post.setEntity(new ByteArrayEntity(request, ContentType.parse(MimeTypes.TEXT_XML_UTF8)));
+
+        long start = System.nanoTime();
+
+        client.execute(post, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                try {
+                    String body = EntityUtils.toString(response.getEntity());
+
+                    if (response.getStatusLine().getStatusCode() != HttpServletResponse.SC_OK
+                            || body.contains("Fault>")) {
+                        log.warn("Request failed: {}", body);
+                        failed.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                }
+
+                finish();
+            }
+
+            @Override
+            public void failed(Exception e) {
+                log.warn("Request failed", e);
+                failed.incrementAndGet();
+                finish();
+            }
+
+            @Override
+            public void cancelled() {
+                failed.incrementAndGet();
+                finish();
+            }
+
+            private void finish() {
+                latencies[index] = System.nanoTime() - start;
+                done.countDown();
+                send(client, url, request, next, total, latencies, failed, done);
+            }
+        });
+    }
+
+    /**
+     * Test case whose service responds asynchronously after a fixed delay.
+     */
+    private static final class LoadTestCase extends MessageTestCase {
+        private final ScheduledExecutorService scheduler;
+        private final int delay;
+
+        LoadTestCase(ScheduledExecutorService scheduler, int delay) {
+            this.scheduler = scheduler;
+            this.delay = delay;
+
+            setId("ClientProxyLoadTest");
+        }
+
+        @Override
+        public AbstractHandler getServiceHandler() {
+            return new AbstractHandler() {
+                @Override
+                public void handle(String target, Request baseRequest, HttpServletRequest request,
+                        HttpServletResponse response) throws IOException {
+                    IOUtils.toByteArray(request.getInputStream());
+
+                    AsyncContext asyncContext = request.startAsync();
+                    asyncContext.setTimeout(0);
+
+                    scheduler.schedule(() -> asyncContext.start(() -> {
+                        try (InputStream is = changeQueryId(new FileInputStream(RESPONSE_FILE))) {
+                            response.setContentType(MimeTypes.TEXT_XML_UTF8);
+                            response.setStatus(HttpServletResponse.SC_OK);
+                            IOUtils.copy(is, response.getOutputStream());
+                        } catch (Exception e) {
+                            log.error("Failed to send response", e);
+                        } finally {
+                            asyncContext.complete();
+                        }
+                    }), delay, TimeUnit.MILLISECONDS);
+                }
+            };
+        }
+    }
+}
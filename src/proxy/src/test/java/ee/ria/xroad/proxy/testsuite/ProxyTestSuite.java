@@ -88,10 +88,13 @@ public final class ProxyTestSuite {
         List<MessageTestCase> normalTestCases = new ArrayList<>();
         List<MessageTestCase> sslTestCases = new ArrayList<>();
         List<MessageTestCase> isolatedSslTestCases = new ArrayList<>();
+        List<MessageTestCase> asyncSslTestCases = new ArrayList<>();
 
         for (MessageTestCase tc : testCasesToRun) {
             if (tc instanceof IsolatedSslMessageTestCase) {
                 isolatedSslTestCases.add(tc);
+            } else if (tc instanceof AsyncSslMessageTestCase) {
+                asyncSslTestCases.add(tc);
             } else if (tc instanceof SslMessageTestCase) {
                 sslTestCases.add(tc);
             } else {
@@ -108,6 +111,7 @@ public final class ProxyTestSuite {
             runNormalTestCases(normalTestCases);
             runSslTestCases(sslTestCases);
             runIsolatedSslTestCases(isolatedSslTestCases);
+            runAsyncSslTestCases(asyncSslTestCases);
 
         } finally {
             jobManager.stop();
@@ -227,6 +231,29 @@ public final class ProxyTestSuite {
         }
     }
 
+    private static void runAsyncSslTestCases(List<MessageTestCase> tc) throws Exception {
+        if (tc.isEmpty()) {
+            return;
+        }
+
+        log.info("===============================================");
+        log.info("Running SSL test cases with async client proxy...");
+        log.info("===============================================");
+
+        // Make sure SSL is enabled, the client proxy reads the async mode when it is created
+        System.setProperty(SystemProperties.PROXY_SSL_SUPPORT, "true");
+        System.setProperty(SystemProperties.CLIENTPROXY_ASYNC_ENABLED, "true");
+
+        try {
+            List<StartStop> services = getDefaultServices();
+            services.add(new DummySslServerProxy());
+
+            runTestSuite(services, tc);
+        } finally {
+            System.clearProperty(SystemProperties.CLIENTPROXY_ASYNC_ENABLED);
+        }
+    }
+
     private static void runTestSuite(List<StartStop> services, List<MessageTestCase> tc) throws Exception {
         for (StartStop s : services) {
             s.start();
@@ -0,0 +1,72 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.testsuite.testcases;
+
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.proxy.testsuite.AsyncSslMessageTestCase;
+import ee.ria.xroad.proxy.testsuite.Message;
+import ee.ria.xroad.proxy.testsuite.TestSuiteGlobalConf;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static ee.ria.xroad.common.ErrorCodes.SERVER_CLIENTPROXY_X;
+import static ee.ria.xroad.common.ErrorCodes.X_NETWORK_ERROR;
+
+/**
+ * The asynchronous client proxy can not connect to any of the server proxy
+ * addresses.
+ * Result: client proxy tries all the addresses and responds with a network
+ * error.
+ */
+public class AsyncSslNoConnections extends AsyncSslMessageTestCase {
+
+    /**
+     * Constructs the test case.
+     */
+    public AsyncSslNoConnections() {
+        requestFileName = "getstate.query";
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+        super.startUp();
+
+        GlobalConf.reload(new TestSuiteGlobalConf() {
+            @Override
+            public Collection<String> getProviderAddress(ClientId provider) {
+                return Arrays.asList("foo.invalid.", "bar.invalid.");
+            }
+        });
+    }
+
+    @Override
+    protected void validateFaultResponse(Message receivedResponse)
+            throws Exception {
+        assertErrorCodeStartsWith(SERVER_CLIENTPROXY_X, X_NETWORK_ERROR);
+    }
+}
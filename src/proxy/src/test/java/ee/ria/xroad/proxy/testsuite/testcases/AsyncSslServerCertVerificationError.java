@@ -0,0 +1,60 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.testsuite.testcases;
+
+import ee.ria.xroad.proxy.testsuite.AsyncSslMessageTestCase;
+import ee.ria.xroad.proxy.testsuite.Message;
+
+import static ee.ria.xroad.common.ErrorCodes.SERVER_CLIENTPROXY_X;
+import static ee.ria.xroad.common.ErrorCodes.X_SSL_AUTH_FAILED;
+
+/**
+ * The asynchronous client proxy connects to a server proxy whose TLS
+ * certificate is not an authentication certificate issued by a trusted CA.
+ * Result: client proxy rejects the connection before sending the request.
+ */
+public class AsyncSslServerCertVerificationError extends AsyncSslMessageTestCase {
+
+    /**
+     * Constructs the test case.
+     */
+    public AsyncSslServerCertVerificationError() {
+        requestFileName = "getstate.query";
+    }
+
+    @Override
+    public String getProviderAddress(String providerName) {
+        // DummySslServerProxy, which responds to any request with an empty
+        // response if the request gets that far
+        return "127.0.0.5";
+    }
+
+    @Override
+    protected void validateFaultResponse(Message receivedResponse)
+            throws Exception {
+        assertErrorCodeStartsWith(SERVER_CLIENTPROXY_X, X_SSL_AUTH_FAILED);
+    }
+}
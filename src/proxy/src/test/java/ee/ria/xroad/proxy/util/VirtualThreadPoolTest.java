@@ -0,0 +1,188 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.util;
+
+import ee.ria.xroad.common.SystemProperties;
+
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for VirtualThreadPool
+ */
+public class VirtualThreadPoolTest {
+
+    private static final int JOBS = 3;
+
+    private final AtomicInteger createdThreads = new AtomicInteger();
+
+    private final ThreadFactory countingFactory = job -> {
+        createdThreads.incrementAndGet();
+
+        return Executors.defaultThreadFactory().newThread(job);
+    };
+
+    private QueuedThreadPool pool;
+
+    /**
+     * Stops the pool and clears the virtual threads property.
+     */
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty(SystemProperties.PROXY_VIRTUAL_THREADS_ENABLED);
+
+        if (pool != null) {
+            pool.stop();
+        }
+    }
+
+    /**
+     * Test that a regular queued thread pool is used when virtual threads are not enabled.
+     */
+    @Test
+    public void createQueuedThreadPoolWhenDisabled() {
+        assertEquals(QueuedThreadPool.class, VirtualThreadPool.create("test").getClass());
+    }
+
+    /**
+     * Test that a virtual thread pool is used only if the Java runtime supports virtual threads.
+     */
+    @Test
+    public void createVirtualThreadPoolOnlyWhenSupported() {
+        System.setProperty(SystemProperties.PROXY_VIRTUAL_THREADS_ENABLED, "true");
+
+        boolean supported = VirtualThreadPool.createVirtualThreadFactory("test-") != null;
+        QueuedThreadPool created = VirtualThreadPool.create("test");
+
+        assertEquals(supported ? VirtualThreadPool.class : QueuedThreadPool.class, created.getClass());
+    }
+
+    /**
+     * Test that jobs are rejected when the pool is not running.
+     */
+    @Test
+    public void rejectJobsWhenNotRunning() throws Exception {
+        pool = new VirtualThreadPool("test", countingFactory);
+
+        assertRejected(pool);
+
+        pool.start();
+        pool.stop();
+
+        assertRejected(pool);
+        assertEquals(0, createdThreads.get());
+    }
+
+    /**
+     * Test that every job runs on a new thread of the factory and is counted as busy while running.
+     */
+    @Test
+    public void executeJobsOnThreadsOfFactory() throws Exception {
+        pool = new VirtualThreadPool("test", countingFactory);
+        pool.start();
+
+        CountDownLatch started = new CountDownLatch(JOBS);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(JOBS);
+
+        for (int i = 0; i < JOBS; i++) {
+            pool.execute(() -> {
+                started.countDown();
+
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    finished.countDown();
+                }
+            });
+        }
+
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertEquals(JOBS, createdThreads.get());
+        assertEquals(JOBS, pool.getBusyThreads());
+        assertFalse(pool.isLowOnThreads());
+
+        release.countDown();
+
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        awaitNoBusyThreads();
+    }
+
+    /**
+     * Test that a job is not counted as busy if its thread could not be created.
+     */
+    @Test
+    public void doNotCountJobWhenThreadCreationFails() throws Exception {
+        pool = new VirtualThreadPool("test", job -> {
+            throw new IllegalStateException("no threads");
+        });
+        pool.start();
+
+        try {
+            pool.execute(() -> { });
+            fail("Execute should fail when the thread cannot be created");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+
+        assertEquals(0, pool.getBusyThreads());
+    }
+
+    private static void assertRejected(QueuedThreadPool threadPool) {
+        try {
+            threadPool.execute(() -> { });
+            fail("Pool should reject jobs when not running");
+        } catch (RejectedExecutionException expected) {
+            // expected
+        }
+    }
+
+    private void awaitNoBusyThreads() throws InterruptedException {
+        // The busy count is decremented after the job has run, just before its thread ends
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+
+        while (pool.getBusyThreads() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(0, pool.getBusyThreads());
+    }
+}
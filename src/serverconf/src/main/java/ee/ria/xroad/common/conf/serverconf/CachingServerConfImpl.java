@@ -31,7 +31,6 @@ import ee.ria.xroad.common.conf.InternalSSLKey;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
 import ee.ria.xroad.common.conf.serverconf.model.ClientType;
 import ee.ria.xroad.common.conf.serverconf.model.DescriptionType;
-import ee.ria.xroad.common.conf.serverconf.model.EndpointType;
 import ee.ria.xroad.common.conf.serverconf.model.ServiceType;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.identifier.SecurityCategoryId;
@@ -43,19 +42,26 @@ import com.google.common.cache.CacheBuilder;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ObjectUtils;
-import org.hibernate.Session;
+import org.hibernate.exception.SQLGrammarException;
 
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static ee.ria.xroad.common.ErrorCodes.X_UNKNOWN_SERVICE;
 
 /**
  * Caching implementation for ServerConf
- * The long lasting and frequently used operations are cached
+ * The long lasting and frequently used operations are cached.
+ *
+ * The cached items are kept until the server conf change counter (see {@link ServerConfImpl#getConfVersion()})
+ * changes, which is checked at most once per version check interval. When the version changes, the caches are
+ * replaced with new empty ones, so that the items loaded before the change are never mixed with the ones loaded
+ * after it. If the database does not maintain the change counter or it cannot be read, the caches are replaced
+ * after the cache period.
  */
 @Slf4j
 public class CachingServerConfImpl extends ServerConfImpl {
@@ -63,51 +69,33 @@ public class CachingServerConfImpl extends ServerConfImpl {
     public static final String TSP_URL = "tsp_url";
 
     private final int expireSeconds;
+    private final long versionCheckIntervalNanos;
     private volatile SecurityServerId serverId;
-    private final Cache<Object, List<String>> tspCache;
-    private final Cache<ServiceId, Optional<ServiceType>> serviceCache;
-    private final Cache<AclCacheKey, List<EndpointType>> aclCache;
-    private final Cache<ClientId, Optional<ClientType>> clientCache;
+    // Not a monitor, loading the identifier queries the database and would pin the carrier of a virtual thread
+    private final ReentrantLock serverIdLock = new ReentrantLock();
+    private final ReentrantLock versionCheckLock = new ReentrantLock();
+    private volatile long nextVersionCheck;
+    // Guarded by versionCheckLock, cleared if the database does not have the change counter
+    private boolean versionAvailable = true;
+    private volatile Caches caches;
     private final Cache<String, InternalSSLKey> internalKeyCache;
 
     /**
-     * Constructor, creates time based object cache with expireSeconds (or internalKeyExpireSeconds
-     * with internal key cache)
+     * Constructor, creates the server conf caches and time based internal key cache with expireSeconds
      */
-    @SuppressWarnings("checkstyle:MagicNumber")
     public CachingServerConfImpl() {
         super();
         expireSeconds = SystemProperties.getServerConfCachePeriod();
+        versionCheckIntervalNanos =
+                TimeUnit.MILLISECONDS.toNanos(SystemProperties.getServerConfVersionCheckIntervalMillis());
 
         internalKeyCache = CacheBuilder.newBuilder()
                 .maximumSize(1)
                 .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
                 .build();
 
-        tspCache = CacheBuilder.newBuilder()
-                .maximumSize(1)
-                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
-                .build();
-
-        clientCache = CacheBuilder.newBuilder()
-                .maximumSize(SystemProperties.getServerConfClientCacheSize())
-                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
-                .recordStats()
-                .build();
-
-        serviceCache = CacheBuilder.newBuilder()
-                .maximumSize(SystemProperties.getServerConfServiceCacheSize())
-                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
-                .recordStats()
-                .build();
-
-        aclCache = CacheBuilder.newBuilder()
-                .weigher((AclCacheKey k, List<EndpointType> v) -> v.size() + 1)
-                .maximumWeight(SystemProperties.getServerConfAclCacheSize())
-                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
-                .recordStats()
-                .build();
-
+        nextVersionCheck = System.nanoTime();
+        caches = new Caches(null, nextVersionCheck);
     }
 
     @Override
@@ -139,18 +127,23 @@ public class CachingServerConfImpl extends ServerConfImpl {
     }
 
     @SuppressWarnings("checkstyle:innerassignment")
-    private synchronized SecurityServerId getAndCacheServerId(final SecurityServerId current) {
-        SecurityServerId id = serverId;
-        if (id == current) { //intentional reference equality test (for double-checked locking)
-            serverId = id = super.getIdentifier();
+    private SecurityServerId getAndCacheServerId(final SecurityServerId current) {
+        serverIdLock.lock();
+        try {
+            SecurityServerId id = serverId;
+            if (id == current) { //intentional reference equality test (for double-checked locking)
+                serverId = id = super.getIdentifier();
+            }
+            return id;
+        } finally {
+            serverIdLock.unlock();
         }
-        return id;
     }
 
     @Override
     public List<String> getTspUrl() {
         try {
-            return tspCache.get(TSP_URL, super::getTspUrl);
+            return caches().tspCache.get(TSP_URL, super::getTspUrl);
         } catch (ExecutionException e) {
             if (e.getCause() instanceof CodedException) {
                 throw (CodedException) e.getCause();
@@ -219,27 +212,22 @@ public class CachingServerConfImpl extends ServerConfImpl {
     }
 
     @Override
-    protected List<EndpointType> getEndpoints(Session session, ClientId client, ServiceId service) {
-        final AclCacheKey key = new AclCacheKey(client, service);
+    protected CompiledAcl getAcl(ServiceId service) {
+        final AclCacheKey key = new AclCacheKey(service.getClientId(), service.getServiceCode());
         try {
-            /*
-             * Implementation note. It seems that the loader function is executed in the same thread, in which case the
-             * transaction simply joins the current one. However, this is not explicitly promised by the API,
-             * so we start a transaction if necessary.
-             */
-            return aclCache.get(key, () -> tx(s -> super.getEndpoints(s, client, service)));
+            return caches().aclCache.get(key, () -> super.getAcl(service));
         } catch (ExecutionException e) {
             if (e.getCause() instanceof CodedException) {
                 throw (CodedException) e.getCause();
             }
-            log.debug("Failed get list of endpoints", e);
-            return Collections.emptyList();
+            log.debug("Failed to compile access rights", e);
+            return CompiledAcl.EMPTY;
         }
     }
 
     private Optional<ServiceType> getService(ServiceId serviceId) {
         try {
-            return serviceCache
+            return caches().serviceCache
                     .get(serviceId, () -> tx(session -> Optional.ofNullable(super.getService(session, serviceId))));
         } catch (ExecutionException e) {
             if (e.getCause() instanceof CodedException) {
@@ -252,7 +240,7 @@ public class CachingServerConfImpl extends ServerConfImpl {
 
     private Optional<ClientType> getClient(ClientId clientId) {
         try {
-            return clientCache.get(clientId,
+            return caches().clientCache.get(clientId,
                     () -> tx(session -> Optional.ofNullable(super.getClient(session, clientId))));
         } catch (ExecutionException e) {
             if (e.getCause() instanceof CodedException) {
@@ -263,21 +251,115 @@ public class CachingServerConfImpl extends ServerConfImpl {
         }
     }
 
+    /**
+     * Returns the current caches, replacing them first if the server conf has changed since they were created.
+     * Only one thread checks the version, the others keep using the current caches meanwhile.
+     */
+    private Caches caches() {
+        Caches current = caches;
+
+        if (System.nanoTime() - nextVersionCheck >= 0 && versionCheckLock.tryLock()) {
+            try {
+                current = checkVersion(caches);
+            } finally {
+                versionCheckLock.unlock();
+            }
+        }
+
+        return current;
+    }
+
+    private Caches checkVersion(Caches current) {
+        final long now = System.nanoTime();
+
+        if (now - nextVersionCheck < 0) {
+            // checked by another thread meanwhile
+            return current;
+        }
+
+        nextVersionCheck = now + versionCheckIntervalNanos;
+
+        Long version = null;
+        if (versionAvailable) {
+            try {
+                version = getConfVersion();
+            } catch (SQLGrammarException e) {
+                // Older database schema, do not try again
+                versionAvailable = false;
+                log.warn("Server conf version is not available ({}), cached server conf expires after {} seconds",
+                        e.getMessage(), expireSeconds);
+            } catch (Exception e) {
+                log.debug("Failed to read server conf version", e);
+            }
+        }
+
+        boolean changed = version != null
+                ? !version.equals(current.version)
+                : now - current.created >= TimeUnit.SECONDS.toNanos(expireSeconds);
+
+        if (changed) {
+            log.debug("Server conf version {} -> {}, discarding cached server conf", current.version, version);
+            current = new Caches(version, now);
+            caches = current;
+        }
+
+        return current;
+    }
+
     @Override
     public void logStatistics() {
         if (log.isTraceEnabled()) {
-            log.trace("ServerConf.clientCache : entries: {}, stats: {}", clientCache.size(),
-                    clientCache.stats().toString());
-            log.trace("ServerConf.serviceCache: entries: {}, stats: {}", serviceCache.size(),
-                    serviceCache.stats().toString());
-            log.trace("ServerConf.aclCache    : entries: {}, stats: {}", aclCache.size(),
-                    aclCache.stats().toString());
+            final Caches current = caches;
+            log.trace("ServerConf.version     : {}", current.version);
+            log.trace("ServerConf.clientCache : entries: {}, stats: {}", current.clientCache.size(),
+                    current.clientCache.stats().toString());
+            log.trace("ServerConf.serviceCache: entries: {}, stats: {}", current.serviceCache.size(),
+                    current.serviceCache.stats().toString());
+            log.trace("ServerConf.aclCache    : entries: {}, stats: {}", current.aclCache.size(),
+                    current.aclCache.stats().toString());
+        }
+    }
+
+    /**
+     * Caches of the items loaded from one version of the server conf
+     */
+    private static final class Caches {
+        final Long version;
+        final long created;
+        final Cache<Object, List<String>> tspCache;
+        final Cache<ServiceId, Optional<ServiceType>> serviceCache;
+        final Cache<AclCacheKey, CompiledAcl> aclCache;
+        final Cache<ClientId, Optional<ClientType>> clientCache;
+
+        Caches(Long version, long created) {
+            this.version = version;
+            this.created = created;
+
+            tspCache = CacheBuilder.newBuilder()
+                    .maximumSize(1)
+                    .build();
+
+            clientCache = CacheBuilder.newBuilder()
+                    .maximumSize(SystemProperties.getServerConfClientCacheSize())
+                    .recordStats()
+                    .build();
+
+            serviceCache = CacheBuilder.newBuilder()
+                    .maximumSize(SystemProperties.getServerConfServiceCacheSize())
+                    .recordStats()
+                    .build();
+
+            aclCache = CacheBuilder.newBuilder()
+                    .weigher((AclCacheKey k, CompiledAcl v) -> v.size() + 1)
+                    .maximumWeight(SystemProperties.getServerConfAclCacheSize())
+                    .recordStats()
+                    .build();
         }
     }
 
     @Value
     private static class AclCacheKey {
-        final ClientId client;
-        final ServiceId serviceId;
+        final ClientId serviceOwner;
+        final String serviceCode;
     }
 }
@@ -0,0 +1,284 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.common.conf.serverconf;
+
+import ee.ria.xroad.common.conf.globalconf.GlobalConf;
+import ee.ria.xroad.common.conf.serverconf.model.AccessRightType;
+import ee.ria.xroad.common.conf.serverconf.model.ClientType;
+import ee.ria.xroad.common.conf.serverconf.model.EndpointType;
+import ee.ria.xroad.common.conf.serverconf.model.GroupMemberType;
+import ee.ria.xroad.common.conf.serverconf.model.LocalGroupType;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.GlobalGroupId;
+import ee.ria.xroad.common.identifier.LocalGroupId;
+import ee.ria.xroad.common.identifier.XRoadId;
+
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Access rights to one service code of a service provider, compiled into a decision table so that
+ * {@link ServerConfProvider#isQueryAllowed} can be answered without database access and without matching every
+ * endpoint against the request.
+ *
+ * Every distinct endpoint (method and path) gets an index. The subjects are resolved to sets of endpoint indexes:
+ * clients are looked up directly, the members of local groups are resolved when the table is compiled and global
+ * group membership is checked from the global configuration when a query is evaluated, since global configuration
+ * can change independently of the server configuration. The endpoints are arranged into a trie by method and path
+ * segment, where a path segment '*' and a trailing segment '**' are followed without regular expressions. Paths with
+ * any other glob are matched by their {@link PathGlob} pattern at the node of their literal prefix.
+ */
+public final class CompiledAcl {
+
+    /**
+     * Table that does not allow any query.
+     */
+    public static final CompiledAcl EMPTY = new CompiledAcl(null, Collections.emptyList());
+
+    private static final BitSet NONE = new BitSet();
+
+    private final Map<ClientId, BitSet> clientEndpoints = new HashMap<>();
+    private final Map<GlobalGroupId, BitSet> globalGroupEndpoints = new HashMap<>();
+
+    // Endpoints with method '*' and endpoints by upper case method
+    private final PathNode anyMethod = new PathNode();
+    private final Map<String, PathNode> methods = new HashMap<>();
+
+    private final Map<EndpointKey, Integer> endpointIndexes = new HashMap<>();
+
+    /**
+     * Compiles the access rights of a service.
+     * @param serviceOwner the client providing the service, whose local groups the access rights refer to
+     * @param accessRights the access rights to the endpoints of one service code of the service owner
+     */
+    public CompiledAcl(ClientType serviceOwner, Collection<AccessRightType> accessRights) {
+        for (AccessRightType accessRight : accessRights) {
+            int index = addEndpoint(accessRight.getEndpoint());
+            XRoadId subject = accessRight.getSubjectId();
+
+            if (subject instanceof GlobalGroupId) {
+                grant(globalGroupEndpoints, (GlobalGroupId) subject, index);
+            } else if (subject instanceof LocalGroupId) {
+                for (ClientId member : getLocalGroupMembers(serviceOwner, (LocalGroupId) subject)) {
+                    grant(clientEndpoints, member, index);
+                }
+            } else if (subject instanceof ClientId) {
+                grant(clientEndpoints, (ClientId) subject, index);
+            }
+        }
+    }
+
+    /**
+     * @return the number of distinct endpoints in the table
+     */
+    public int size() {
+        return endpointIndexes.size();
+    }
+
+    /**
+     * Returns true, if the client is allowed to invoke the service with the given method and path.
+     * @param client the client identifier
+     * @param method the HTTP method or null, in which case only the endpoints allowing any method match
+     * @param normalizedPath the normalized and percent-decoded request path or null, in which case only the
+     * endpoints allowing any path match
+     * @return true, if the query is allowed
+     */
+    public boolean isAllowed(ClientId client, String method, String normalizedPath) {
+        BitSet granted = getGrantedEndpoints(client);
+
+        if (granted.isEmpty()) {
+            return false;
+        }
+
+        if (matches(anyMethod, granted, normalizedPath)) {
+            return true;
+        }
+
+        PathNode methodNode = method == null ? null : methods.get(method.toUpperCase(Locale.ROOT));
+
+        return methodNode != null && matches(methodNode, granted, normalizedPath);
+    }
+
+    private BitSet getGrantedEndpoints(ClientId client) {
+        BitSet granted = clientEndpoints.getOrDefault(client, NONE);
+        BitSet union = null;
+
+        for (Map.Entry<GlobalGroupId, BitSet> entry : globalGroupEndpoints.entrySet()) {
+            if (GlobalConf.isSubjectInGlobalGroup(client, entry.getKey())) {
+                if (union == null) {
+                    union = (BitSet) granted.clone();
+                }
+
+                union.or(entry.getValue());
+            }
+        }
+
+        return union != null ? union : granted;
+    }
+
+    private static boolean matches(PathNode root, BitSet granted, String path) {
+        if (path == null) {
+            // Only the pattern '**' matches a missing path
+            return root.anyRemainder.intersects(granted);
+        }
+
+        return matches(root, granted, path, path.split("/", -1), 0);
+    }
+
+    private static boolean matches(PathNode node, BitSet granted, String path, String[] segments, int position) {
+        for (GlobEndpoint glob : node.globs) {
+            if (granted.get(glob.index) && glob.pattern.matcher(path).matches()) {
+                return true;
+            }
+        }
+
+        if (position == segments.length) {
+            return node.exact.intersects(granted);
+        }
+
+        if (node.anyRemainder.intersects(granted)) {
+            return true;
+        }
+
+        PathNode child = node.children.get(segments[position]);
+
+        if (child != null && matches(child, granted, path, segments, position + 1)) {
+            return true;
+        }
+
+        return node.anySegment != null && matches(node.anySegment, granted, path, segments, position + 1);
+    }
+
+    private int addEndpoint(EndpointType endpoint) {
+        boolean anyMethodEndpoint = EndpointType.ANY_METHOD.equals(endpoint.getMethod());
+        EndpointKey key = new EndpointKey(anyMethodEndpoint ? EndpointType.ANY_METHOD
+                : endpoint.getMethod().toUpperCase(Locale.ROOT), endpoint.getPath());
+
+        Integer existing = endpointIndexes.get(key);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        int index = endpointIndexes.size();
+        endpointIndexes.put(key, index);
+
+        PathNode root = anyMethodEndpoint ? anyMethod : methods.computeIfAbsent(key.getMethod(), m -> new PathNode());
+        addPath(root, endpoint.getPath(), index);
+
+        return index;
+    }
+
+    private static void addPath(PathNode root, String path, int index) {
+        String[] segments = path.split("/", -1);
+        PathNode node = root;
+
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+
+            if (isLiteral(segment)) {
+                node = node.children.computeIfAbsent(segment, s -> new PathNode());
+            } else if ("*".equals(segment)) {
+                if (node.anySegment == null) {
+                    node.anySegment = new PathNode();
+                }
+
+                node = node.anySegment;
+            } else if (EndpointType.ANY_PATH.equals(segment) && i == segments.length - 1) {
+                // '**' as the last segment matches the rest of the path, which has at least one segment
+                node.anyRemainder.set(index);
+
+                return;
+            } else {
+                node.globs.add(new GlobEndpoint(index, PathGlob.compile(path)));
+
+                return;
+            }
+        }
+
+        node.exact.set(index);
+    }
+
+    // A segment is matched literally by its PathGlob pattern if it has no glob characters or escapes, and no '?',
+    // which PathGlob does not escape.
+    private static boolean isLiteral(String segment) {
+        return segment.indexOf('*') == -1 && segment.indexOf('\\') == -1 && segment.indexOf('?') == -1;
+    }
+
+    private static List<ClientId> getLocalGroupMembers(ClientType serviceOwner, LocalGroupId groupId) {
+        List<ClientId> members = new ArrayList<>();
+
+        if (serviceOwner != null) {
+            for (LocalGroupType group : serviceOwner.getLocalGroup()) {
+                if (Objects.equals(groupId.getGroupCode(), group.getGroupCode())) {
+                    for (GroupMemberType member : group.getGroupMember()) {
+                        members.add(member.getGroupMemberId());
+                    }
+                }
+            }
+        }
+
+        return members;
+    }
+
+    private static <K> void grant(Map<K, BitSet> grants, K subject, int index) {
+        grants.computeIfAbsent(subject, s -> new BitSet()).set(index);
+    }
+
+    private static final class PathNode {
+        final Map<String, PathNode> children = new HashMap<>();
+        // Child for the segment '*'
+        PathNode anySegment;
+        // Endpoints whose path ends at this node
+        final BitSet exact = new BitSet();
+        // Endpoints whose path continues from this node with the segment '**'
+        final BitSet anyRemainder = new BitSet();
+        // Endpoints whose path continues from this node with a segment containing other globs
+        final List<GlobEndpoint> globs = new ArrayList<>();
+    }
+
+    @Value
+    private static class GlobEndpoint {
+        int index;
+        Pattern pattern;
+    }
+
+    @Value
+    private static class EndpointKey {
+        String method;
+        String path;
+    }
+}
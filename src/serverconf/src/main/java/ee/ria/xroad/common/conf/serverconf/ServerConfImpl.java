@@ -27,7 +27,6 @@ package ee.ria.xroad.common.conf.serverconf;
 
 import ee.ria.xroad.common.CodedException;
 import ee.ria.xroad.common.conf.InternalSSLKey;
-import ee.ria.xroad.common.conf.globalconf.GlobalConf;
 import ee.ria.xroad.common.conf.serverconf.dao.CertificateDAOImpl;
 import ee.ria.xroad.common.conf.serverconf.dao.ClientDAOImpl;
 import ee.ria.xroad.common.conf.serverconf.dao.IdentifierDAOImpl;
@@ -44,13 +43,9 @@ import ee.ria.xroad.common.conf.serverconf.model.ServiceType;
 import ee.ria.xroad.common.conf.serverconf.model.TspType;
 import ee.ria.xroad.common.db.TransactionCallback;
 import ee.ria.xroad.common.identifier.ClientId;
-import ee.ria.xroad.common.identifier.GlobalGroupId;
-import ee.ria.xroad.common.identifier.LocalGroupId;
 import ee.ria.xroad.common.identifier.SecurityCategoryId;
 import ee.ria.xroad.common.identifier.SecurityServerId;
 import ee.ria.xroad.common.identifier.ServiceId;
-import ee.ria.xroad.common.identifier.XRoadId;
-import ee.ria.xroad.common.identifier.XRoadObjectType;
 import ee.ria.xroad.common.util.UriUtils;
 
 import lombok.extern.slf4j.Slf4j;
@@ -67,7 +62,6 @@ import java.net.URI;
 import java.security.cert.X509Certificate;
 import java.util.Collections;
 import java.util.List;
-import java.util.Objects;
 import java.util.stream.Collectors;
 
 import static ee.ria.xroad.common.ErrorCodes.X_MALFORMED_SERVERCONF;
@@ -149,7 +143,7 @@ public class ServerConfImpl implements ServerConfProvider {
             List<ServiceId> allServices =
                     serviceDao.getServices(session, serviceProvider);
             return allServices.stream()
-                    .filter(s -> internalIsQueryAllowed(session, client, s, null, null))
+                    .filter(s -> internalIsQueryAllowed(client, s, null, null))
                     .collect(Collectors.toList());
         });
     }
@@ -161,7 +155,7 @@ public class ServerConfImpl implements ServerConfProvider {
             List<ServiceId> allServices =
                     serviceDao.getServicesByDescriptionType(session, serviceProvider, descriptionType);
             return allServices.stream()
-                    .filter(s -> internalIsQueryAllowed(session, client, s, null, null))
+                    .filter(s -> internalIsQueryAllowed(client, s, null, null))
                     .collect(Collectors.toList());
         });
     }
@@ -253,7 +247,7 @@ public class ServerConfImpl implements ServerConfProvider {
 
     @Override
     public boolean isQueryAllowed(ClientId client, ServiceId service, String method, String path) {
-        return tx(session -> internalIsQueryAllowed(session, client, service, method, path));
+        return internalIsQueryAllowed(client, service, method, path);
     }
 
     @Override
@@ -316,29 +310,41 @@ public class ServerConfImpl implements ServerConfProvider {
         return serviceDescriptionDao.getServiceDescription(session, service);
     }
 
-    private boolean internalIsQueryAllowed(Session session, ClientId client, ServiceId service, String method,
-            String path) {
+    /**
+     * Reads the version in a separate transaction, so that a failure does not affect the transaction of the caller.
+     * @return the server conf change counter, which the database increments whenever the server conf changes,
+     * or null if the database does not maintain it
+     * @throws Exception if reading the version fails, database errors are not translated
+     */
+    protected Long getConfVersion() throws Exception {
+        return ServerConfDatabaseCtx.get().doInSeparateTransaction(session -> serverConfDao.getConfVersion(session));
+    }
 
+    private boolean internalIsQueryAllowed(ClientId client, ServiceId service, String method, String path) {
         if (client == null) {
             return false;
         }
 
-        return checkAccessRights(session, client, service, method, path);
-    }
-
-    @SuppressWarnings("squid:S3776")
-    private boolean checkAccessRights(Session session, ClientId client, ServiceId service, String method, String path) {
         final String normalizedPath;
-        if (path == null) {
-            normalizedPath = null;
-        } else {
-            normalizedPath = UriUtils.uriPathPercentDecode(URI.create(path).normalize().getRawPath(), true);
+        try {
+            normalizedPath = path == null
+                    ? null : UriUtils.uriPathPercentDecode(URI.create(path).normalize().getRawPath(), true);
+        } catch (Exception e) {
+            throw translateException(e);
         }
-        return getEndpoints(session, client, service).stream().anyMatch(ep -> ep.matches(method, normalizedPath));
+
+        return getAcl(service).isAllowed(client, method, normalizedPath);
     }
 
-    protected List<EndpointType> getEndpoints(Session session, ClientId client, ServiceId service) {
-        log.debug("getAcl, session = {}", session);
+    /**
+     * Returns the compiled access rights of the service code of the service owner.
+     */
+    protected CompiledAcl getAcl(ServiceId service) {
+        return tx(session -> compileAcl(session, service));
+    }
+
+    protected CompiledAcl compileAcl(Session session, ServiceId service) {
+        log.debug("compileAcl, session = {}", session);
 
         final ClientType serviceOwner = getClient(session, service.getClientId());
 
@@ -348,45 +354,19 @@ public class ServerConfImpl implements ServerConfProvider {
             throw new CodedException(X_UNKNOWN_SERVICE, "Service '%s' owner not found", service);
         }
 
-        final ClientId localClientId = identifierDao.findClientId(session, client);
-        // localClientId can be null if the permissions are defined by a global group
-
         final CriteriaBuilder cb = session.getCriteriaBuilder();
         final CriteriaQuery<AccessRightType> query = cb.createQuery(AccessRightType.class);
         final Root<ClientType> root = query.from(ClientType.class);
         final Join<ClientType, AccessRightType> acl = root.join("acl");
         final Join<AccessRightType, EndpointType> endpoint = acl.join("endpoint");
-        final Join<AccessRightType, XRoadId> identifier = acl.join("subjectId");
         acl.fetch("endpoint");
+        acl.fetch("subjectId");
 
         query.select(acl).where(cb.and(
                 cb.equal(root, serviceOwner),
-                cb.equal(endpoint.get("serviceCode"), service.getServiceCode())),
-                cb.or(cb.equal(identifier, localClientId),
-                        cb.equal(identifier.get("type"), XRoadObjectType.GLOBALGROUP),
-                        cb.equal(identifier.get("type"), XRoadObjectType.LOCALGROUP)));
-
-        return session.createQuery(query).setReadOnly(true).list().stream()
-                .filter(it -> subjectMatches(serviceOwner, it.getSubjectId(), client))
-                .map(AccessRightType::getEndpoint)
-                .collect(Collectors.toList());
-    }
-
-    private boolean subjectMatches(ClientType serviceOwner, XRoadId aclSubject, ClientId client) {
-        if (aclSubject instanceof GlobalGroupId) {
-            return GlobalConf.isSubjectInGlobalGroup(client, (GlobalGroupId)aclSubject);
-        } else if (aclSubject instanceof LocalGroupId) {
-            return isMemberInLocalGroup(client, (LocalGroupId)aclSubject, serviceOwner);
-        } else {
-            return client.equals(aclSubject);
-        }
-    }
+                cb.equal(endpoint.get("serviceCode"), service.getServiceCode())));
 
-    private boolean isMemberInLocalGroup(ClientId member, LocalGroupId groupId, ClientType groupOwner) {
-        return groupOwner.getLocalGroup().stream()
-                .filter(g -> Objects.equals(groupId.getGroupCode(), g.getGroupCode()))
-                .flatMap(g -> g.getGroupMember().stream())
-                .anyMatch(m -> m.getGroupMemberId().equals(member));
+        return new CompiledAcl(serviceOwner, session.createQuery(query).setReadOnly(true).list());
     }
 
     /**
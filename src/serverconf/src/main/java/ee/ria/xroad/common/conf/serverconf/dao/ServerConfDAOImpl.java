@@ -26,11 +26,14 @@
 package ee.ria.xroad.common.conf.serverconf.dao;
 
 import ee.ria.xroad.common.CodedException;
+import ee.ria.xroad.common.conf.serverconf.model.ConfVersionType;
 import ee.ria.xroad.common.conf.serverconf.model.ServerConfType;
 
 import org.hibernate.Session;
 
+import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
 
 import static ee.ria.xroad.common.ErrorCodes.X_MALFORMED_SERVERCONF;
 import static ee.ria.xroad.common.conf.serverconf.ServerConfDatabaseCtx.get;
@@ -77,6 +80,19 @@ public class ServerConfDAOImpl {
         return confType;
     }
 
+    /**
+     * Reads the version column directly, so that a version entity already in the session does not hide changes.
+     * @return the server conf change counter or null, if the database does not maintain it
+     */
+    public Long getConfVersion(Session session) {
+        final CriteriaBuilder cb = session.getCriteriaBuilder();
+        final CriteriaQuery<Long> q = cb.createQuery(Long.class);
+        final Root<ConfVersionType> root = q.from(ConfVersionType.class);
+        q.select(root.get("version")).where(cb.equal(root.get("id"), ConfVersionType.ID));
+
+        return session.createQuery(q).uniqueResult();
+    }
+
     private <T> T getFirst(Session session, final Class<T> clazz) {
         final CriteriaQuery<T> q = session.getCriteriaBuilder().createQuery(clazz);
         q.select(q.from(clazz));
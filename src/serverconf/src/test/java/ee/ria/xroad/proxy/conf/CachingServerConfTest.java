@@ -26,13 +26,17 @@
 package ee.ria.xroad.proxy.conf;
 
 import ee.ria.xroad.common.ExpectedCodedException;
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.conf.globalconf.EmptyGlobalConf;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
 import ee.ria.xroad.common.conf.serverconf.CachingServerConfImpl;
 import ee.ria.xroad.common.conf.serverconf.IsAuthentication;
 import ee.ria.xroad.common.conf.serverconf.ServerConf;
 import ee.ria.xroad.common.conf.serverconf.ServerConfDatabaseCtx;
+import ee.ria.xroad.common.conf.serverconf.dao.ServerConfDAOImpl;
 import ee.ria.xroad.common.conf.serverconf.dao.ServiceDAOImpl;
+import ee.ria.xroad.common.conf.serverconf.model.ConfVersionType;
+import ee.ria.xroad.common.conf.serverconf.model.TspType;
 import ee.ria.xroad.common.identifier.ClientId;
 import ee.ria.xroad.common.identifier.SecurityCategoryId;
 import ee.ria.xroad.common.identifier.SecurityServerId;
@@ -51,6 +55,7 @@ import java.util.Collection;
 import java.util.List;
 
 import static ee.ria.xroad.common.ErrorCodes.X_UNKNOWN_SERVICE;
+import static ee.ria.xroad.common.conf.serverconf.ServerConfDatabaseCtx.doInTransaction;
 import static ee.ria.xroad.common.util.CryptoUtils.readCertificate;
 import static ee.ria.xroad.proxy.conf.TestUtil.BASE64_CERT;
 import static ee.ria.xroad.proxy.conf.TestUtil.CLIENT_CODE;
@@ -102,6 +107,7 @@ public class CachingServerConfTest {
                 return true;
             }
         });
+        System.setProperty(SystemProperties.SERVER_CONF_VERSION_CHECK_INTERVAL_MILLIS, "0");
         ServerConf.reload(new CachingServerConfImpl());
     }
 
@@ -333,6 +339,50 @@ public class CachingServerConfTest {
         assertEquals(NUM_TSPS, tspUrls.size());
     }
 
+    /**
+     * Tests that the cached items are kept until the server conf version changes.
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void confVersionChange() throws Exception {
+        // The version is read in a separate transaction, the changes have to be committed to be seen
+        ServerConfDatabaseCtx.get().commitTransaction();
+
+        doInTransaction(session -> {
+            ConfVersionType confVersion = new ConfVersionType();
+            confVersion.setId(ConfVersionType.ID);
+            session.save(confVersion);
+            return null;
+        });
+
+        assertEquals(NUM_TSPS, ServerConf.getTspUrl().size());
+
+        doInTransaction(session -> {
+            TspType tsp = new TspType();
+            tsp.setName("tspNameX");
+            tsp.setUrl("tspUrlX");
+            new ServerConfDAOImpl().getConf(session).getTsp().add(tsp);
+            return null;
+        });
+
+        assertEquals(NUM_TSPS, ServerConf.getTspUrl().size());
+
+        doInTransaction(session -> {
+            session.get(ConfVersionType.class, ConfVersionType.ID).setVersion(1);
+            return null;
+        });
+
+        assertEquals(NUM_TSPS + 1, ServerConf.getTspUrl().size());
+
+        doInTransaction(session -> {
+            new ServerConfDAOImpl().getConf(session).getTsp().removeIf(tsp -> "tspNameX".equals(tsp.getName()));
+            session.get(ConfVersionType.class, ConfVersionType.ID).setVersion(2);
+            return null;
+        });
+
+        assertEquals(NUM_TSPS, ServerConf.getTspUrl().size());
+    }
+
     /**
      * Tests getting services.
      * @throws Exception if an error occurs
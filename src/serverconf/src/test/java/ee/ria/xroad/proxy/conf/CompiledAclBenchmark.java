@@ -0,0 +1,148 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.conf;
+
+import ee.ria.xroad.common.conf.serverconf.CompiledAcl;
+import ee.ria.xroad.common.conf.serverconf.model.AccessRightType;
+import ee.ria.xroad.common.conf.serverconf.model.ClientType;
+import ee.ria.xroad.common.conf.serverconf.model.EndpointType;
+import ee.ria.xroad.common.identifier.ClientId;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+import static ee.ria.xroad.proxy.conf.TestUtil.createAccessRight;
+
+/**
+ * Benchmark program for access right checks of a REST service with a large number of endpoints. Compares matching
+ * the endpoints granted to the client one by one, as was done before the access rights were compiled, to the
+ * decision table of CompiledAcl.
+ *
+ * Every endpoint is granted to the client. The endpoints are of the form 'METHOD /api/resourceN/*' and
+ * 'METHOD /api/resourceN/**', one in ten has a glob in the last segment, for example '/api/resourceN/item*'.
+ *
+ * Usage: CompiledAclBenchmark [number of endpoints], 5000 by default.
+ */
+@Slf4j
+public final class CompiledAclBenchmark {
+
+    private static final int DEFAULT_ENDPOINTS = 5000;
+    private static final int LINEAR_CHECKS = 2000;
+    private static final int COMPILED_CHECKS = 2000000;
+    private static final int PATHS = 10000;
+
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE"};
+    private static final ClientId CLIENT = ClientId.create("XX", "memberClass", "client");
+
+    private static volatile int sink;
+
+    private CompiledAclBenchmark() {
+    }
+
+    /**
+     * Main program entry point.
+     * @param args command-line arguments
+     */
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ENDPOINTS;
+
+        List<EndpointType> endpoints = new ArrayList<>(count);
+        List<AccessRightType> accessRights = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            EndpointType endpoint = new EndpointType("rest", METHODS[i % METHODS.length], path(i), false);
+            endpoints.add(endpoint);
+            accessRights.add(createAccessRight(endpoint, CLIENT));
+        }
+
+        long start = System.nanoTime();
+        CompiledAcl acl = new CompiledAcl(new ClientType(), accessRights);
+        log.info("Compiled {} endpoints in {} ms", acl.size(), (System.nanoTime() - start) / 1000000);
+
+        List<String> methods = new ArrayList<>(PATHS);
+        List<String> paths = new ArrayList<>(PATHS);
+        Random random = new Random(1);
+
+        for (int i = 0; i < PATHS; i++) {
+            // a fifth of the requests do not match any endpoint
+            int resource = random.nextInt(count * 5 / 4);
+            methods.add(METHODS[random.nextInt(METHODS.length)]);
+            paths.add("/api/resource" + resource + "/item" + random.nextInt(100) + (i % 2 == 0 ? "" : "/details"));
+        }
+
+        IntPredicate linear = i -> endpoints.stream()
+                .anyMatch(ep -> ep.matches(methods.get(i % PATHS), paths.get(i % PATHS)));
+        IntPredicate compiled = i -> acl.isAllowed(CLIENT, methods.get(i % PATHS), paths.get(i % PATHS));
+
+        for (int i = 0; i < PATHS; i++) {
+            if (linear.test(i) != compiled.test(i)) {
+                throw new IllegalStateException("Decisions differ for " + methods.get(i) + " " + paths.get(i));
+            }
+        }
+
+        run(LINEAR_CHECKS, linear);
+        run(COMPILED_CHECKS, compiled);
+
+        log.info("isQueryAllowed: linear {} us/check, compiled {} us/check",
+                format(run(LINEAR_CHECKS, linear)), format(run(COMPILED_CHECKS, compiled)));
+    }
+
+    private static String path(int i) {
+        if (i % 10 == 9) {
+            return "/api/resource" + i / 2 + "/item" + i % 7 + "*";
+        }
+
+        return "/api/resource" + i / 2 + (i % 2 == 0 ? "/*" : "/**");
+    }
+
+    /**
+     * Performs the given check the given number of times and returns the average time in microseconds.
+     */
+    private static double run(int count, IntPredicate check) {
+        int allowed = 0;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < count; i++) {
+            if (check.test(i)) {
+                allowed++;
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        sink = allowed;
+
+        return elapsed / 1000.0 / count;
+    }
+
+    private static String format(double value) {
+        return String.format("%.3f", value);
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * The MIT License
+ * Copyright (c) 2019- Nordic Institute for Interoperability Solutions (NIIS)
+ * Copyright (c) 2018 Estonian Information System Authority (RIA),
+ * Nordic Institute for Interoperability Solutions (NIIS), Population Register Centre (VRK)
+ * Copyright (c) 2015-2017 Estonian Information System Authority (RIA), Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ee.ria.xroad.proxy.conf;
+
+import ee.ria.xroad.common.conf.serverconf.CompiledAcl;
+import ee.ria.xroad.common.conf.serverconf.model.AccessRightType;
+import ee.ria.xroad.common.conf.serverconf.model.ClientType;
+import ee.ria.xroad.common.conf.serverconf.model.EndpointType;
+import ee.ria.xroad.common.conf.serverconf.model.GroupMemberType;
+import ee.ria.xroad.common.conf.serverconf.model.LocalGroupType;
+import ee.ria.xroad.common.identifier.ClientId;
+import ee.ria.xroad.common.identifier.LocalGroupId;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static ee.ria.xroad.proxy.conf.TestUtil.createAccessRight;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CompiledAcl unit tests
+ */
+public class CompiledAclTest {
+
+    private static final String SERVICE_CODE = "rest";
+
+    private static final ClientId CLIENT = ClientId.create("XX", "memberClass", "client");
+    private static final ClientId MEMBER = ClientId.create("XX", "memberClass", "member");
+    private static final ClientId OTHER = ClientId.create("XX", "memberClass", "other");
+
+    private static final List<String> METHODS = Arrays.asList("*", "GET", "post", "DELETE");
+
+    private static final List<String> PATTERNS = Arrays.asList(
+            "**", "/", "", "/api", "/api/", "/api/**", "/api/*", "/api/*/items", "/api/*/**", "/api/test/*",
+            "/api/**/items", "/api/ite*", "/api/*s/x", "/api/\\*", "/api/a.b", "/api/a?b", "**/bar/**", "/*/",
+            "/api/x/**");
+
+    private static final List<String> PATHS = Arrays.asList(
+            "", "/", "/api", "/api/", "/api/test", "/api/test/", "/api/test/foo", "/api/test/foo/bar",
+            "/api/x/items", "/api/x/y/items", "/api/items", "/api/*", "/api/a.b", "/api/axb", "/api/a?b",
+            "/foo/bar/baz", "/a/", "//", "/api/x", "/api/x/", "/api/xs/x", "/apix");
+
+    /**
+     * Test that the compiled table gives the same decisions as matching the endpoints one by one.
+     */
+    @Test
+    public void shouldMatchLikeEndpoints() {
+        for (String pattern : PATTERNS) {
+            for (String endpointMethod : METHODS) {
+                EndpointType endpoint = new EndpointType(SERVICE_CODE, endpointMethod, pattern, false);
+                CompiledAcl acl = new CompiledAcl(new ClientType(),
+                        Collections.singletonList(createAccessRight(endpoint, CLIENT)));
+
+                for (String method : Arrays.asList("GET", "POST", "DELETE", "PUT")) {
+                    for (String path : PATHS) {
+                        assertEquals(endpointMethod + " " + pattern + " vs " + method + " " + path,
+                                endpoint.matches(method, path), acl.isAllowed(CLIENT, method, path));
+                        assertFalse(acl.isAllowed(OTHER, method, path));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that a table with several endpoints allows a query if any of the granted endpoints matches.
+     */
+    @Test
+    public void shouldMatchAnyGrantedEndpoint() {
+        List<EndpointType> endpoints = new ArrayList<>();
+        List<AccessRightType> accessRights = new ArrayList<>();
+
+        for (String pattern : PATTERNS) {
+            EndpointType endpoint = new EndpointType(SERVICE_CODE, "GET", pattern, false);
+            endpoints.add(endpoint);
+            accessRights.add(createAccessRight(endpoint, CLIENT));
+        }
+
+        // only the first and the last endpoints are granted to the member
+        accessRights.add(createAccessRight(endpoints.get(1), MEMBER));
+        accessRights.add(createAccessRight(endpoints.get(endpoints.size() - 1), MEMBER));
+
+        CompiledAcl acl = new CompiledAcl(new ClientType(), accessRights);
+        assertEquals(PATTERNS.size(), acl.size());
+
+        for (String path : PATHS) {
+            assertEquals(path, endpoints.stream().anyMatch(e -> e.matches("GET", path)),
+                    acl.isAllowed(CLIENT, "GET", path));
+            assertEquals(path, endpoints.get(1).matches("GET", path)
+                    || endpoints.get(endpoints.size() - 1).matches("GET", path),
+                    acl.isAllowed(MEMBER, "GET", path));
+            assertFalse(acl.isAllowed(CLIENT, "POST", path));
+        }
+    }
+
+    /**
+     * Test that the members of local groups of the service owner are allowed.
+     */
+    @Test
+    public void shouldResolveLocalGroups() {
+        ClientType owner = new ClientType();
+        LocalGroupType group = new LocalGroupType();
+        group.setGroupCode("group");
+        GroupMemberType member = new GroupMemberType();
+        member.setGroupMemberId(MEMBER);
+        group.getGroupMember().add(member);
+        owner.getLocalGroup().add(group);
+
+        EndpointType endpoint = new EndpointType(SERVICE_CODE, "GET", "/api/**", false);
+        CompiledAcl acl = new CompiledAcl(owner, Arrays.asList(
+                createAccessRight(endpoint, LocalGroupId.create("group")),
+                createAccessRight(endpoint, LocalGroupId.create("unknown"))));
+
+        assertTrue(acl.isAllowed(MEMBER, "GET", "/api/foo"));
+        assertFalse(acl.isAllowed(MEMBER, "GET", "/foo"));
+        assertFalse(acl.isAllowed(OTHER, "GET", "/api/foo"));
+    }
+
+    /**
+     * Test that a missing method or path only match the endpoints allowing any method or path.
+     */
+    @Test
+    public void shouldMatchMissingMethodAndPath() {
+        EndpointType base = new EndpointType(SERVICE_CODE, "*", "**", false);
+        EndpointType rest = new EndpointType(SERVICE_CODE, "GET", "/api/**", false);
+
+        CompiledAcl baseAcl = new CompiledAcl(new ClientType(),
+                Collections.singletonList(createAccessRight(base, CLIENT)));
+        CompiledAcl restAcl = new CompiledAcl(new ClientType(),
+                Collections.singletonList(createAccessRight(rest, CLIENT)));
+
+        assertTrue(baseAcl.isAllowed(CLIENT, null, null));
+        assertFalse(restAcl.isAllowed(CLIENT, null, null));
+        assertFalse(restAcl.isAllowed(CLIENT, "GET", null));
+        assertFalse(restAcl.isAllowed(CLIENT, null, "/api/foo"));
+        assertFalse(CompiledAcl.EMPTY.isAllowed(CLIENT, null, null));
+    }
+}
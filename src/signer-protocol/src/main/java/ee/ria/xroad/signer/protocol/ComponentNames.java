@@ -50,6 +50,9 @@ public final class ComponentNames {
 
     public static final String OCSP_CLIENT_RELOAD = "OcspClientReload";
 
+    // Actor in the proxy, to which the signer pushes the OCSP responses it has fetched
+    public static final String OCSP_RESPONSE_CACHE = "OcspResponseCache";
+
     private ComponentNames() {
     }
 }
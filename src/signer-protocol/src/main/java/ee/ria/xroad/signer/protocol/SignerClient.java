@@ -35,6 +35,7 @@ import akka.actor.ActorSystem;
 import akka.actor.Identify;
 import akka.actor.Props;
 import akka.actor.UntypedAbstractActor;
+import akka.pattern.AskTimeoutException;
 import akka.pattern.Patterns;
 import akka.util.Timeout;
 import lombok.extern.slf4j.Slf4j;
@@ -62,6 +63,8 @@ public final class SignerClient {
 
     private static final Timeout TIMEOUT =
             Timeout.apply(SystemProperties.getSignerClientTimeout(), TimeUnit.MILLISECONDS);
+    private static final Duration TIMEOUT_DURATION =
+            Duration.ofMillis(SystemProperties.getSignerClientTimeout());
     public static final String LOCALHOST_IP = "127.0.0.1";
 
     private SignerClient() {
@@ -116,6 +119,35 @@ public final class SignerClient {
         }
     }
 
+    /**
+     * Sends a message without blocking the calling thread. The returned future is completed
+     * with the response or, if the response is an exception or the request times out,
+     * completed exceptionally.
+     *
+     * @param <T>     the type of result
+     * @param message the message
+     * @return future for the response
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> CompletableFuture<T> executeAsync(Object message) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        Patterns.ask(requestProcessor(), message, TIMEOUT_DURATION).whenComplete((response, error) -> {
+            if (error instanceof AskTimeoutException) {
+                result.completeExceptionally(new CodedException(X_INTERNAL_ERROR, error,
+                        "Request to Signer timed out"));
+            } else if (error != null) {
+                result.completeExceptionally(error);
+            } else if (response instanceof Throwable) {
+                result.completeExceptionally((Throwable) response);
+            } else {
+                result.complete((T) response);
+            }
+        });
+
+        return result;
+    }
+
     /**
      * Returns the object as the instance or throws exception, if the object
      * is throwable.
@@ -29,6 +29,7 @@ import ee.ria.xroad.common.CertificationServiceDiagnostics;
 import ee.ria.xroad.common.CertificationServiceStatus;
 import ee.ria.xroad.common.DiagnosticsErrorCodes;
 import ee.ria.xroad.common.OcspResponderStatus;
+import ee.ria.xroad.common.SystemProperties;
 import ee.ria.xroad.common.cert.CertChain;
 import ee.ria.xroad.common.conf.globalconf.GlobalConf;
 import ee.ria.xroad.common.conf.globalconfextension.GlobalConfExtensions;
@@ -69,6 +70,7 @@ import static ee.ria.xroad.common.util.CryptoUtils.calculateCertHexHash;
 import static ee.ria.xroad.common.util.CryptoUtils.encodeBase64;
 import static ee.ria.xroad.common.util.CryptoUtils.readCertificate;
 import static ee.ria.xroad.signer.protocol.ComponentNames.OCSP_CLIENT_JOB;
+import static ee.ria.xroad.signer.protocol.ComponentNames.OCSP_RESPONSE_CACHE;
 import static ee.ria.xroad.signer.tokenmanager.ServiceLocator.getOcspResponseManager;
 import static java.util.Collections.emptyList;
 
@@ -95,6 +97,8 @@ public class OcspClientWorker extends AbstractSignerActor {
     private static final String OCSP_FETCH_INTERVAL = "ocspFetchInterval";
 
     private static final String OCSP_CLIENT_JOB_PATH = "/user/" + OCSP_CLIENT_JOB;
+    private static final String PROXY_OCSP_RESPONSE_CACHE = "akka://Proxy@127.0.0.1:"
+            + SystemProperties.getProxyActorSystemPort() + "/user/" + OCSP_RESPONSE_CACHE;
 
     private GlobalConfChangeChecker changeChecker;
 
@@ -206,6 +210,8 @@ public class OcspClientWorker extends AbstractSignerActor {
         if (certs == null || certs.isEmpty()) {
             log.debug("Found no certificates that need OCSP responses");
 
+            pushToProxy(new SetOcspResponses(new String[0], new String[0]));
+
             return;
         }
 
@@ -380,8 +386,20 @@ public class OcspClientWorker extends AbstractSignerActor {
             responses.add(encodeBase64(e.getValue().getEncoded()));
         }
 
-        getOcspResponseManager(getContext()).tell(new SetOcspResponses(hashes.toArray(
-                new String[statuses.size()]), responses.toArray(new String[statuses.size()])), getSelf());
+        SetOcspResponses message = new SetOcspResponses(hashes.toArray(new String[statuses.size()]),
+                responses.toArray(new String[statuses.size()]));
+
+        getOcspResponseManager(getContext()).tell(message, getSelf());
+
+        pushToProxy(message);
+    }
+
+    /**
+     * Pushes the responses of the refresh cycle to the proxy, so that it does not have to ask for them. The proxy
+     * replaces its cached responses with these, dropping the ones of the certificates that were not refreshed.
+     */
+    private void pushToProxy(SetOcspResponses message) {
+        getContext().actorSelection(PROXY_OCSP_RESPONSE_CACHE).tell(message, ActorRef.noSender());
     }
 
     /**